@@ -8,15 +8,18 @@ import ve.nottabaker.payedtools.commands.PayCommand;
 import ve.nottabaker.payedtools.commands.PayHistoryCommand;
 import ve.nottabaker.payedtools.commands.PayMetricsCommand;
 import ve.nottabaker.payedtools.commands.PayReloadCommand;
+import ve.nottabaker.payedtools.commands.PayScheduleCommand;
 import ve.nottabaker.payedtools.commands.PayStatsCommand;
 import ve.nottabaker.payedtools.commands.PayTestCommand;
 import ve.nottabaker.payedtools.database.DatabaseManager;
 import ve.nottabaker.payedtools.listeners.PlayerListener;
+import ve.nottabaker.payedtools.listeners.TabCompleteListener;
 import ve.nottabaker.payedtools.managers.*;
 import ve.nottabaker.payedtools.utils.Logger;
 import ve.nottabaker.payedtools.utils.MetricsUtil;
 import ve.nottabaker.payedtools.utils.PerformanceMetrics;
 import ve.nottabaker.payedtools.utils.PerformanceTester;
+import ve.nottabaker.payedtools.utils.TimingWheel;
 import ve.nottabaker.payedtools.utils.UpdateChecker;
 
 /**
@@ -27,18 +30,31 @@ import ve.nottabaker.payedtools.utils.UpdateChecker;
  */
 public class PayEdtools extends JavaPlugin {
     
+    // One server tick per slot; a full turn of the wheel covers about 25 seconds
+    private static final long TIMING_WHEEL_TICK_MILLIS = 50;
+    private static final int TIMING_WHEEL_SLOTS = 512;
+    
     private static PayEdtools instance;
     private EdToolsAPI edToolsAPI;
     
+    // Expiry of cooldowns, confirmations, rate windows and cache entries
+    private TimingWheel timingWheel;
+    
     // Managers
     private ConfigManager configManager;
     private CurrencyManager currencyManager;
     private TransactionManager transactionManager;
+    private PayoutManager payoutManager;
+    private ScheduleManager scheduleManager;
     private CooldownManager cooldownManager;
     private RateLimitManager rateLimitManager;
+    private VolumeCapManager volumeCapManager;
+    private PermissionManager permissionManager;
+    private PlayerNameManager playerNameManager;
     private ConfirmationManager confirmationManager;
     private DatabaseManager databaseManager;
     private MessageManager messageManager;
+    private NotificationDispatcher notificationDispatcher;
     
     // Performance monitoring
     private PerformanceMetrics performanceMetrics;
@@ -76,6 +92,10 @@ public class PayEdtools extends JavaPlugin {
         // Initialize managers
         initializeManagers();
         
+        // One task drives every expiry in the plugin
+        Bukkit.getScheduler().runTaskTimerAsynchronously(this, timingWheel::tick, 1L, 1L);
+        notificationDispatcher.start();
+        
         // Register commands
         registerCommands();
         
@@ -87,6 +107,15 @@ public class PayEdtools extends JavaPlugin {
             databaseManager.initialize();
         }
         
+        // Load the current volume cap window from history
+        volumeCapManager.rebuild();
+        
+        // Finish payouts interrupted by the last shutdown
+        payoutManager.resumePending();
+        
+        // Start scheduled payouts
+        scheduleManager.start();
+        
         // Check for updates
         if (configManager.isCheckUpdates()) {
             checkForUpdates();
@@ -111,16 +140,26 @@ public class PayEdtools extends JavaPlugin {
             confirmationManager.cleanup();
         }
         
-        // Close database connections
-        if (databaseManager != null) {
-            databaseManager.shutdown();
+        // Stop payouts at a checkpoint before their transactions are drained
+        if (payoutManager != null) {
+            payoutManager.shutdown();
         }
         
-        // Cleanup managers
+        // Finish running transactions before the history writer flushes
         if (transactionManager != null) {
             transactionManager.shutdown();
         }
         
+        // Tell players about payments still waiting in the queue
+        if (notificationDispatcher != null) {
+            notificationDispatcher.flush();
+        }
+        
+        // Close database connections
+        if (databaseManager != null) {
+            databaseManager.shutdown();
+        }
+        
         // Shutdown performance tester
         if (performanceTester != null) {
             performanceTester.shutdown();
@@ -140,12 +179,20 @@ public class PayEdtools extends JavaPlugin {
      * Initialize all managers
      */
     private void initializeManagers() {
+        timingWheel = new TimingWheel(TIMING_WHEEL_TICK_MILLIS, TIMING_WHEEL_SLOTS);
         configManager = new ConfigManager(this);
         messageManager = new MessageManager(this);
+        notificationDispatcher = new NotificationDispatcher(this);
         currencyManager = new CurrencyManager(this);
         transactionManager = new TransactionManager(this);
+        payoutManager = new PayoutManager(this);
+        scheduleManager = new ScheduleManager(this);
         cooldownManager = new CooldownManager(this);
         rateLimitManager = new RateLimitManager(this);
+        volumeCapManager = new VolumeCapManager(this);
+        permissionManager = new PermissionManager(this);
+        playerNameManager = new PlayerNameManager(this);
+        playerNameManager.indexOnlinePlayers();
         confirmationManager = new ConfirmationManager(this);
         databaseManager = new DatabaseManager(this);
         performanceMetrics = new PerformanceMetrics(this);
@@ -165,6 +212,7 @@ public class PayEdtools extends JavaPlugin {
         getCommand("paystats").setExecutor(new PayStatsCommand(this));
         getCommand("paymetrics").setExecutor(new PayMetricsCommand(this));
         getCommand("paytest").setExecutor(new PayTestCommand(this));
+        getCommand("payschedule").setExecutor(new PayScheduleCommand(this));
         
         Logger.debug("Commands registered successfully");
     }
@@ -175,6 +223,14 @@ public class PayEdtools extends JavaPlugin {
     private void registerListeners() {
         getServer().getPluginManager().registerEvents(new PlayerListener(this), this);
         
+        // Paper completes commands off the server thread when a plugin answers the async event
+        try {
+            Class.forName("com.destroystokyo.paper.event.server.AsyncTabCompleteEvent");
+            getServer().getPluginManager().registerEvents(new TabCompleteListener(this), this);
+        } catch (ClassNotFoundException e) {
+            Logger.debug("AsyncTabCompleteEvent not available; tab completion stays on the server thread");
+        }
+        
         Logger.debug("Listeners registered successfully");
     }
     
@@ -196,7 +252,7 @@ public class PayEdtools extends JavaPlugin {
     public void reload() {
         try {
             // Backup before reload if enabled
-            if (configManager.isBackupOnReload()) {
+            if (configManager.isBackupOnReload() && databaseManager.supportsBackup()) {
                 databaseManager.backup();
             }
             
@@ -209,6 +265,10 @@ public class PayEdtools extends JavaPlugin {
             
             // Clear cooldowns if needed
             cooldownManager.clear();
+            rateLimitManager.clear();
+            volumeCapManager.rebuild();
+            permissionManager.refreshAll();
+            scheduleManager.load();
             
             Logger.info("Plugin reloaded successfully!");
         } catch (Exception e) {
@@ -223,6 +283,10 @@ public class PayEdtools extends JavaPlugin {
         return edToolsAPI;
     }
     
+    public TimingWheel getTimingWheel() {
+        return timingWheel;
+    }
+    
     public ConfigManager getConfigManager() {
         return configManager;
     }
@@ -235,6 +299,14 @@ public class PayEdtools extends JavaPlugin {
         return transactionManager;
     }
     
+    public PayoutManager getPayoutManager() {
+        return payoutManager;
+    }
+    
+    public ScheduleManager getScheduleManager() {
+        return scheduleManager;
+    }
+    
     public CooldownManager getCooldownManager() {
         return cooldownManager;
     }
@@ -243,6 +315,18 @@ public class PayEdtools extends JavaPlugin {
         return rateLimitManager;
     }
     
+    public VolumeCapManager getVolumeCapManager() {
+        return volumeCapManager;
+    }
+    
+    public PermissionManager getPermissionManager() {
+        return permissionManager;
+    }
+    
+    public PlayerNameManager getPlayerNameManager() {
+        return playerNameManager;
+    }
+    
     public ConfirmationManager getConfirmationManager() {
         return confirmationManager;
     }
@@ -255,6 +339,10 @@ public class PayEdtools extends JavaPlugin {
         return messageManager;
     }
     
+    public NotificationDispatcher getNotificationDispatcher() {
+        return notificationDispatcher;
+    }
+    
     public PerformanceMetrics getPerformanceMetrics() {
         return performanceMetrics;
     }
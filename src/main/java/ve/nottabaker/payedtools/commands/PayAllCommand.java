@@ -7,14 +7,11 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 import ve.nottabaker.payedtools.PayEdtools;
-import ve.nottabaker.payedtools.managers.TransactionManager;
+import ve.nottabaker.payedtools.models.PermissionSnapshot;
 import ve.nottabaker.payedtools.utils.AmountParser;
-import ve.nottabaker.payedtools.utils.Logger;
 
 import java.util.*;
-import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Optimized /pay * command for paying all online players
@@ -27,7 +24,6 @@ public class PayAllCommand implements CommandExecutor, TabCompleter {
     // Cache for online players to optimize performance
     private final Set<UUID> cachedOnlinePlayers = ConcurrentHashMap.newKeySet();
     private long lastPlayerCacheUpdate = 0;
-    private static final long PLAYER_CACHE_UPDATE_INTERVAL = 2000; // 2 seconds for payall
     
     public PayAllCommand(PayEdtools plugin) {
         this.plugin = plugin;
@@ -98,7 +94,7 @@ public class PayAllCommand implements CommandExecutor, TabCompleter {
         }
         
         // Validate amount (console bypasses all limits - TODAPODEROSA! 😄)
-        boolean bypassLimits = isConsole || (player != null && player.hasPermission("payedtools.bypass.limits"));
+        boolean bypassLimits = isConsole || (player != null && plugin.getPermissionManager().has(player, PermissionSnapshot.BYPASS_LIMITS));
         AmountParser.ValidationResult validation = amountParser.validate(amount, bypassLimits);
         
         if (!validation.isValid()) {
@@ -125,6 +121,12 @@ public class PayAllCommand implements CommandExecutor, TabCompleter {
             return true;
         }
         
+        int maxPlayers = plugin.getConfigManager().getPayallMaxPlayers();
+        if (maxPlayers > 0 && targetPlayers.size() > maxPlayers) {
+            sender.sendMessage("§cToo many players to pay at once! §7(" + targetPlayers.size() + " online, limit " + maxPlayers + ")");
+            return true;
+        }
+        
         // Calculate total cost
         double totalCost = amount * targetPlayers.size();
         double tax = calculateTax(amount) * targetPlayers.size();
@@ -148,146 +150,111 @@ public class PayAllCommand implements CommandExecutor, TabCompleter {
             return true;
         }
         
+        // Check volume cap for the whole payout; unpaid shares are given back when the job ends
+        if (!isConsole && !plugin.getVolumeCapManager().tryReserve(player, currency, totalCost)) {
+            Map<String, String> placeholders = new HashMap<>();
+            placeholders.put("cap", amountParser.format(plugin.getConfigManager().getVolumeCap(currency)));
+            placeholders.put("currency", currency);
+            placeholders.put("hours", String.valueOf(plugin.getConfigManager().getVolumeCapWindowHours()));
+            placeholders.put("remaining", amountParser.format(plugin.getVolumeCapManager().getRemaining(player, currency)));
+            plugin.getMessageManager().send(player, "volume-cap-exceeded", placeholders);
+            return true;
+        }
+        
         // Process bulk payment
-        processBulkPayment(sender, isConsole, player, targetPlayers, currency, amount, tax);
+        processBulkPayment(sender, isConsole, player, targetPlayers, currency, amount);
         
         return true;
     }
     
     /**
-     * Process bulk payment to multiple players
+     * Run the payout as a tracked job and report the outcome when it ends
      */
-    private void processBulkPayment(CommandSender sender, boolean isConsole, Player player, List<UUID> targetPlayers, String currency, double amount, double taxPerPlayer) {
-        long startTime = System.currentTimeMillis();
-        
+    private void processBulkPayment(CommandSender sender, boolean isConsole, Player player, List<UUID> targetPlayers, String currency, double amount) {
         // Send initial message
         String senderName = isConsole ? "§6§lCONSOLE§r" : sender.getName();
         sender.sendMessage("§eProcessing payment to " + targetPlayers.size() + " players from " + senderName + "...");
         
-        // Process transactions in parallel batches
-        int batchSize = Math.min(10, targetPlayers.size()); // Process max 10 at a time
-        List<CompletableFuture<TransactionResult>> futures = new ArrayList<>();
-        
-        for (int i = 0; i < targetPlayers.size(); i += batchSize) {
-            int endIndex = Math.min(i + batchSize, targetPlayers.size());
-            List<UUID> batch = targetPlayers.subList(i, endIndex);
+        UUID senderUUID = isConsole ? null : player.getUniqueId();
+        plugin.getPayoutManager().start(senderUUID, currency, amount, targetPlayers, sender, job -> {
+            // Shares that were not paid go back under the volume cap as well
+            if (!isConsole) {
+                int unpaid = job.getErrorCode() != null ? job.getTotal() : job.getRefundedShares();
+                if (unpaid > 0) {
+                    plugin.getVolumeCapManager().release(player, currency, amount * unpaid);
+                }
+            }
             
-            CompletableFuture<TransactionResult> batchFuture = processBatch(sender, isConsole, player, batch, currency, amount, taxPerPlayer);
-            futures.add(batchFuture);
-        }
-        
-        // Wait for all batches to complete
-        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
-            .thenAccept(v -> {
-                Bukkit.getScheduler().runTask(plugin, () -> {
-                    long processingTime = System.currentTimeMillis() - startTime;
-                    
-                    // Count results
-                    AtomicInteger successCount = new AtomicInteger(0);
-                    AtomicInteger failureCount = new AtomicInteger(0);
-                    
-                    futures.forEach(future -> {
-                        try {
-                            TransactionResult result = future.get();
-                            if (result.isSuccess()) {
-                                successCount.incrementAndGet();
-                            } else {
-                                failureCount.incrementAndGet();
-                            }
-                        } catch (Exception e) {
-                            failureCount.incrementAndGet();
-                            Logger.error("Error processing batch", e);
-                        }
-                    });
-                    
-                    // Send results
-                    int totalSuccess = successCount.get();
-                    int totalFailure = failureCount.get();
-                    
-                    if (totalSuccess > 0) {
-                        sender.sendMessage("§aSuccessfully paid " + totalSuccess + " players!");
-                        
-                        // Show tax if applicable
-                        if (taxPerPlayer > 0) {
-                            double totalTax = taxPerPlayer * totalSuccess;
-                            if (isConsole) {
-                                sender.sendMessage("§eTax: §c-" + amountParser.format(totalTax) + " " + currency);
-                            } else {
-                                Map<String, String> taxPlaceholders = new HashMap<>();
-                                taxPlaceholders.put("tax", amountParser.format(totalTax));
-                                taxPlaceholders.put("currency", currency);
-                                plugin.getMessageManager().send(player, "tax-applied", taxPlaceholders);
-                            }
-                        }
-                    }
-                    
-                    if (totalFailure > 0) {
-                        sender.sendMessage("§cFailed to pay " + totalFailure + " players. Check console for details.");
-                    }
-                    
-                    sender.sendMessage("§7Processing completed in " + processingTime + "ms");
-                    
-                    // Set cooldown and record metrics (only for players, not console)
-                    if (!isConsole) {
-                        plugin.getCooldownManager().setCooldown(player);
-                    }
-                    
-                    // Record metrics
-                    plugin.getPerformanceMetrics().recordBatchOperation(totalSuccess);
-                });
-            })
-            .exceptionally(throwable -> {
-                Bukkit.getScheduler().runTask(plugin, () -> {
-                    Logger.error("Bulk payment processing failed", throwable);
-                    sender.sendMessage("§cBulk payment failed due to an internal error. Please try again.");
-                });
-                return null;
-            });
-    }
-    
-    /**
-     * Process a batch of transactions
-     */
-    private CompletableFuture<TransactionResult> processBatch(CommandSender sender, boolean isConsole, Player player, List<UUID> batch, String currency, double amount, double taxPerPlayer) {
-        return CompletableFuture.supplyAsync(() -> {
-            int successCount = 0;
-            int failureCount = 0;
+            if (job.getErrorCode() != null) {
+                handlePayoutError(sender, isConsole, player, job.getErrorCode(), currency);
+                return;
+            }
             
-            for (UUID targetUUID : batch) {
-                try {
-                    // Process individual transaction
-                    UUID senderUUID = isConsole ? null : player.getUniqueId();
-                    TransactionManager.TransactionResult result = plugin.getTransactionManager()
-                        .processTransaction(senderUUID, targetUUID, currency, amount, false)
-                        .get(); // Wait for completion
-                    
-                    if (result.isSuccess()) {
-                        successCount++;
-                        
-                        // Notify target player if online
-                        Player targetPlayer = Bukkit.getPlayer(targetUUID);
-                        if (targetPlayer != null) {
-                            Map<String, String> placeholders = new HashMap<>();
-                            placeholders.put("amount", amountParser.format(amount));
-                            placeholders.put("currency", currency);
-                            String senderName = isConsole ? "§6§lCONSOLE§r" : sender.getName();
-                            placeholders.put("sender", senderName);
-                            plugin.getMessageManager().send(targetPlayer, "payment-received", placeholders);
-                        }
+            // Send results
+            int totalSuccess = job.getPaid();
+            int totalFailure = job.getFailed();
+            
+            if (totalSuccess > 0) {
+                sender.sendMessage("§aSuccessfully paid " + totalSuccess + " players!");
+                
+                // Show tax if applicable
+                if (job.getTax() > 0) {
+                    double totalTax = job.getTax() * totalSuccess;
+                    if (isConsole) {
+                        sender.sendMessage("§eTax: §c-" + amountParser.format(totalTax) + " " + currency);
                     } else {
-                        failureCount++;
-                        Logger.warning("Failed to pay " + targetUUID + ": " + result.getErrorCode());
+                        Map<String, String> taxPlaceholders = new HashMap<>();
+                        taxPlaceholders.put("tax", amountParser.format(totalTax));
+                        taxPlaceholders.put("currency", currency);
+                        plugin.getMessageManager().send(player, "tax-applied", taxPlaceholders);
                     }
-                } catch (Exception e) {
-                    failureCount++;
-                    Logger.error("Error processing payment to " + targetUUID, e);
                 }
             }
             
-            return new TransactionResult(successCount, failureCount);
+            if (totalFailure > 0) {
+                sender.sendMessage("§cFailed to pay " + totalFailure + " players. Check console for details.");
+            }
+            if (job.getRefundedShares() > 0 && !isConsole) {
+                sender.sendMessage("§e" + amountParser.format((amount + job.getTax()) * job.getRefundedShares()) + " " + currency
+                    + " for unpaid players was refunded.");
+            }
+            
+            sender.sendMessage("§7Processing completed in " + job.getElapsedMillis() + "ms");
+            
+            // Set cooldown and record metrics (only for players, not console)
+            if (!isConsole) {
+                plugin.getCooldownManager().setCooldown(player);
+            }
+            
+            // Record metrics
+            plugin.getPerformanceMetrics().recordBatchOperation(totalSuccess);
         });
     }
     
+    /**
+     * Report a payout that did not start; nobody was charged or paid
+     */
+    private void handlePayoutError(CommandSender sender, boolean isConsole, Player player, String errorCode, String currency) {
+        switch (errorCode) {
+            case "insufficient_funds":
+                Map<String, String> placeholders = new HashMap<>();
+                placeholders.put("currency", currency);
+                placeholders.put("balance", amountParser.format(plugin.getCurrencyManager().getBalance(player.getUniqueId(), currency)));
+                plugin.getMessageManager().send(player, "insufficient-funds", placeholders);
+                break;
+            case "economy_busy":
+                if (isConsole) {
+                    sender.sendMessage("§cEdTools is busy; bulk payment not started. Please try again.");
+                } else {
+                    plugin.getMessageManager().send(player, "economy-busy");
+                }
+                break;
+            default:
+                sender.sendMessage("§cBulk payment failed due to an internal error. Please try again.");
+                break;
+        }
+    }
+    
     /**
      * Calculate tax for amount
      */
@@ -311,7 +278,7 @@ public class PayAllCommand implements CommandExecutor, TabCompleter {
      */
     private void updateOnlinePlayerCache() {
         long currentTime = System.currentTimeMillis();
-        if (currentTime - lastPlayerCacheUpdate > PLAYER_CACHE_UPDATE_INTERVAL) {
+        if (currentTime - lastPlayerCacheUpdate > plugin.getConfigManager().getPayallCacheUpdateInterval()) {
             cachedOnlinePlayers.clear();
             Bukkit.getOnlinePlayers().forEach(p -> cachedOnlinePlayers.add(p.getUniqueId()));
             lastPlayerCacheUpdate = currentTime;
@@ -329,8 +296,7 @@ public class PayAllCommand implements CommandExecutor, TabCompleter {
             
             for (String currency : currencies) {
                 if (currency.toLowerCase().startsWith(input)) {
-                    if (sender.hasPermission("payedtools.currency." + currency) || 
-                        sender.hasPermission("payedtools.currency.*")) {
+                    if (plugin.getPermissionManager().canUseCurrency(sender, currency)) {
                         completions.add(currency);
                     }
                 }
@@ -367,31 +333,4 @@ public class PayAllCommand implements CommandExecutor, TabCompleter {
         completions.sort(String.CASE_INSENSITIVE_ORDER);
         return completions.size() > 10 ? completions.subList(0, 10) : completions;
     }
-    
-    /**
-     * Transaction result for batch processing
-     */
-    private static class TransactionResult {
-        private final int successCount;
-        private final int failureCount;
-        
-        public TransactionResult(int successCount, int failureCount) {
-            this.successCount = successCount;
-            this.failureCount = failureCount;
-        }
-        
-        public boolean isSuccess() {
-            return failureCount == 0;
-        }
-        
-        @SuppressWarnings("unused")
-        public int getSuccessCount() {
-            return successCount;
-        }
-        
-        @SuppressWarnings("unused")
-        public int getFailureCount() {
-            return failureCount;
-        }
-    }
 }
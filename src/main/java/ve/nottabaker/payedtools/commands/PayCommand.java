@@ -10,11 +10,11 @@ import org.bukkit.entity.Player;
 import ve.nottabaker.payedtools.PayEdtools;
 import ve.nottabaker.payedtools.managers.TransactionManager;
 import ve.nottabaker.payedtools.models.PendingTransaction;
+import ve.nottabaker.payedtools.models.PermissionSnapshot;
 import ve.nottabaker.payedtools.utils.AmountParser;
 import ve.nottabaker.payedtools.utils.Logger;
 
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Main /pay command implementation
@@ -24,15 +24,9 @@ public class PayCommand implements CommandExecutor, TabCompleter {
     private final PayEdtools plugin;
     private final AmountParser amountParser;
     
-    // Cache for player names to optimize tab completion
-    private final Set<String> cachedPlayerNames = ConcurrentHashMap.newKeySet();
-    private long lastPlayerCacheUpdate = 0;
-    private static final long PLAYER_CACHE_UPDATE_INTERVAL = 5000; // 5 seconds
-    
     public PayCommand(PayEdtools plugin) {
         this.plugin = plugin;
         this.amountParser = new AmountParser(plugin);
-        updatePlayerCache(); // Initialize cache
     }
     
     @Override
@@ -118,7 +112,7 @@ public class PayCommand implements CommandExecutor, TabCompleter {
         }
         
         // Validate amount
-        boolean bypassLimits = player.hasPermission("payedtools.bypass.limits");
+        boolean bypassLimits = plugin.getPermissionManager().has(player, PermissionSnapshot.BYPASS_LIMITS);
         AmountParser.ValidationResult validation = amountParser.validate(amount, bypassLimits);
         
         if (!validation.isValid()) {
@@ -138,8 +132,8 @@ public class PayCommand implements CommandExecutor, TabCompleter {
             return true;
         }
         
-        // Check rate limit
-        if (plugin.getRateLimitManager().isRateLimited(player)) {
+        // Check rate limit; the payment is counted now and given back if it does not go through
+        if (!plugin.getRateLimitManager().tryAcquire(player)) {
             plugin.getMessageManager().send(player, "rate-limit-exceeded");
             return true;
         }
@@ -153,11 +147,21 @@ public class PayCommand implements CommandExecutor, TabCompleter {
             placeholders.put("currency", currency);
             placeholders.put("balance", amountParser.format(plugin.getCurrencyManager().getBalance(player.getUniqueId(), currency)));
             plugin.getMessageManager().send(player, "insufficient-funds", placeholders);
+            plugin.getRateLimitManager().release(player);
+            return true;
+        }
+        
+        // Check volume cap; like the rate limit, the amount is counted now
+        if (!plugin.getVolumeCapManager().tryReserve(player, currency, amount)) {
+            sendVolumeCapExceeded(player, currency);
+            plugin.getRateLimitManager().release(player);
             return true;
         }
         
-        // Check if confirmation is required
+        // Check if confirmation is required; the confirmed payment is counted then
         if (plugin.getConfirmationManager().requiresConfirmation(amount)) {
+            plugin.getRateLimitManager().release(player);
+            plugin.getVolumeCapManager().release(player, currency, amount);
             plugin.getConfirmationManager().createConfirmation(player, target.getUniqueId(), currency, amount);
             
             Map<String, String> placeholders = new HashMap<>();
@@ -186,6 +190,17 @@ public class PayCommand implements CommandExecutor, TabCompleter {
             return true;
         }
         
+        if (!plugin.getRateLimitManager().tryAcquire(player)) {
+            plugin.getMessageManager().send(player, "rate-limit-exceeded");
+            return true;
+        }
+        
+        if (!plugin.getVolumeCapManager().tryReserve(player, pending.getCurrency(), pending.getAmount())) {
+            sendVolumeCapExceeded(player, pending.getCurrency());
+            plugin.getRateLimitManager().release(player);
+            return true;
+        }
+        
         // Process the transaction
         processPayment(player, pending.getReceiver(), pending.getCurrency(), pending.getAmount());
         
@@ -222,9 +237,8 @@ public class PayCommand implements CommandExecutor, TabCompleter {
         ).thenAccept(result -> {
             Bukkit.getScheduler().runTask(plugin, () -> {
                 if (result.isSuccess()) {
-                    // Only set cooldown and rate limit on SUCCESS
+                    // Only set cooldown on SUCCESS
                     plugin.getCooldownManager().setCooldown(sender);
-                    plugin.getRateLimitManager().recordTransaction(sender);
                     
                     // Send success messages
                     OfflinePlayer receiver = Bukkit.getOfflinePlayer(receiverUUID);
@@ -243,23 +257,22 @@ public class PayCommand implements CommandExecutor, TabCompleter {
                         plugin.getMessageManager().send(sender, "tax-applied", taxPlaceholders);
                     }
                     
-                    // Notify receiver if online
+                    // Notify receiver if online; payments arriving together are merged
                     if (receiver.isOnline()) {
-                        Player receiverPlayer = receiver.getPlayer();
-                        Map<String, String> receiverPlaceholders = new HashMap<>();
-                        receiverPlaceholders.put("amount", amountParser.format(amount));
-                        receiverPlaceholders.put("currency", currency);
-                        receiverPlaceholders.put("sender", sender.getName());
-                        plugin.getMessageManager().send(receiverPlayer, "payment-received", receiverPlaceholders);
+                        plugin.getNotificationDispatcher().queueReceived(receiverUUID, sender.getName(), currency, amount);
                     }
                 } else {
                     // Handle error - NO cooldown or rate limit on failure
+                    plugin.getRateLimitManager().release(sender);
+                    plugin.getVolumeCapManager().release(sender, currency, amount);
                     handleTransactionError(sender, result.getErrorCode(), currency);
                 }
             });
         }).exceptionally(throwable -> {
             // Handle async execution errors
             Bukkit.getScheduler().runTask(plugin, () -> {
+                plugin.getRateLimitManager().release(sender);
+                plugin.getVolumeCapManager().release(sender, currency, amount);
                 Logger.error("Async transaction processing failed", throwable);
                 sender.sendMessage("§cTransaction failed due to an internal error. Please try again.");
             });
@@ -267,6 +280,15 @@ public class PayCommand implements CommandExecutor, TabCompleter {
         });
     }
     
+    private void sendVolumeCapExceeded(Player player, String currency) {
+        Map<String, String> placeholders = new HashMap<>();
+        placeholders.put("cap", amountParser.format(plugin.getConfigManager().getVolumeCap(currency)));
+        placeholders.put("currency", currency);
+        placeholders.put("hours", String.valueOf(plugin.getConfigManager().getVolumeCapWindowHours()));
+        placeholders.put("remaining", amountParser.format(plugin.getVolumeCapManager().getRemaining(player, currency)));
+        plugin.getMessageManager().send(player, "volume-cap-exceeded", placeholders);
+    }
+    
     /**
      * Handle transaction errors with appropriate messages
      */
@@ -278,6 +300,9 @@ public class PayCommand implements CommandExecutor, TabCompleter {
                 placeholders.put("balance", amountParser.format(plugin.getCurrencyManager().getBalance(sender.getUniqueId(), currency)));
                 plugin.getMessageManager().send(sender, "insufficient-funds", placeholders);
                 break;
+            case "economy_busy":
+                plugin.getMessageManager().send(sender, "economy-busy");
+                break;
             case "transaction_failed":
                 sender.sendMessage("§cTransaction failed due to a technical error. Your currency has been refunded.");
                 break;
@@ -321,15 +346,9 @@ public class PayCommand implements CommandExecutor, TabCompleter {
             } else if ("cancel".startsWith(input)) {
                 completions.add("cancel");
             } else {
-                // Player names (exclude sender if it's a player) - using cached names
-                for (String playerName : getCachedPlayerNames()) {
-                    if (playerName.toLowerCase().startsWith(input)) {
-                        // Don't suggest self if sender is a player
-                        if (!(sender instanceof Player) || !playerName.equalsIgnoreCase(sender.getName())) {
-                            completions.add(playerName);
-                        }
-                    }
-                }
+                // Player names from the name index (exclude sender if it's a player)
+                String self = sender instanceof Player ? sender.getName() : null;
+                completions.addAll(plugin.getPlayerNameManager().complete(input, self));
                 
                 // Add subcommands if they match
                 if ("confirm".startsWith(input)) {
@@ -350,8 +369,7 @@ public class PayCommand implements CommandExecutor, TabCompleter {
                 for (String currency : currencies) {
                     if (currency.toLowerCase().startsWith(input)) {
                         // Only suggest currencies the sender has access to
-                        if (sender.hasPermission("payedtools.currency." + currency) || 
-                            sender.hasPermission("payedtools.currency.*")) {
+                        if (plugin.getPermissionManager().canUseCurrency(sender, currency)) {
                             completions.add(currency);
                         }
                     }
@@ -360,8 +378,7 @@ public class PayCommand implements CommandExecutor, TabCompleter {
                 // If no input, show all available currencies
                 if (input.isEmpty()) {
                     for (String currency : currencies) {
-                        if (sender.hasPermission("payedtools.currency." + currency) || 
-                            sender.hasPermission("payedtools.currency.*")) {
+                        if (plugin.getPermissionManager().canUseCurrency(sender, currency)) {
                             completions.add(currency);
                         }
                     }
@@ -470,24 +487,4 @@ public class PayCommand implements CommandExecutor, TabCompleter {
         
         return suggestions;
     }
-    
-    /**
-     * Update player name cache for tab completion optimization
-     */
-    private void updatePlayerCache() {
-        long currentTime = System.currentTimeMillis();
-        if (currentTime - lastPlayerCacheUpdate > PLAYER_CACHE_UPDATE_INTERVAL) {
-            cachedPlayerNames.clear();
-            Bukkit.getOnlinePlayers().forEach(p -> cachedPlayerNames.add(p.getName()));
-            lastPlayerCacheUpdate = currentTime;
-        }
-    }
-    
-    /**
-     * Get cached player names for tab completion
-     */
-    private Set<String> getCachedPlayerNames() {
-        updatePlayerCache();
-        return cachedPlayerNames;
-    }
 }
@@ -8,22 +8,49 @@ import org.bukkit.command.CommandSender;
 import org.bukkit.command.TabCompleter;
 import org.bukkit.entity.Player;
 import ve.nottabaker.payedtools.PayEdtools;
-import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.database.DatabaseManager;
+import ve.nottabaker.payedtools.database.HistoryArchive;
+import ve.nottabaker.payedtools.managers.MessageManager;
+import ve.nottabaker.payedtools.managers.TransactionManager;
+import ve.nottabaker.payedtools.managers.TransactionManager.HistoryPage;
+import ve.nottabaker.payedtools.managers.TransactionManager.TransactionStats;
+import ve.nottabaker.payedtools.models.HistoryCursor;
+import ve.nottabaker.payedtools.utils.Logger;
 
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * /payhistory command implementation
  */
 public class PayHistoryCommand implements CommandExecutor, TabCompleter {
     
+    // Bounds for the per-viewer page cursor cache
+    private static final int MAX_CACHED_VIEWERS = 256;
+    private static final int MAX_CACHED_PAGES = 64;
+    
     private final PayEdtools plugin;
-    private final SimpleDateFormat dateFormat;
+    private final DateTimeFormatter dateFormat;
+    
+    // End cursor of each page a viewer has seen, so paging seeks straight to the next page
+    private final Map<UUID, ViewerCursors> cursorCache;
     
     public PayHistoryCommand(PayEdtools plugin) {
         this.plugin = plugin;
-        this.dateFormat = new SimpleDateFormat("MM/dd HH:mm");
+        this.dateFormat = DateTimeFormatter.ofPattern("MM/dd HH:mm").withZone(ZoneId.systemDefault());
+        this.cursorCache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, ViewerCursors> eldest) {
+                return size() > MAX_CACHED_VIEWERS;
+            }
+        });
     }
     
     @Override
@@ -40,95 +67,387 @@ public class PayHistoryCommand implements CommandExecutor, TabCompleter {
             return true;
         }
         
+        // Parse [player] [page]; a lone number is a page of the sender's own history
+        String targetArg = null;
+        int page = 1;
+        boolean archive = false;
+        
+        if (args.length >= 2 && args[1].equalsIgnoreCase("archive")) {
+            // Archived history past the retention window: <player> archive [page]
+            if (!player.hasPermission("payedtools.admin")) {
+                plugin.getMessageManager().send(player, "no-permission");
+                return true;
+            }
+            archive = true;
+            targetArg = args[0];
+            page = args.length >= 3 ? parsePage(args[2]) : 1;
+        } else if (args.length >= 2) {
+            targetArg = args[0];
+            page = parsePage(args[1]);
+        } else if (args.length == 1) {
+            if (isNumber(args[0])) {
+                page = parsePage(args[0]);
+            } else {
+                targetArg = args[0];
+            }
+        }
+        
+        if (page < 1) {
+            plugin.getMessageManager().send(player, "usage-history");
+            return true;
+        }
+        
         // Determine target player
         UUID targetUUID;
-        String targetName;
         
-        if (args.length > 0) {
+        if (targetArg != null) {
             // Check permission to view others' history
             if (!player.hasPermission("payedtools.history.others")) {
                 plugin.getMessageManager().send(player, "no-permission");
                 return true;
             }
             
-            OfflinePlayer target = Bukkit.getOfflinePlayer(args[0]);
+            OfflinePlayer target = Bukkit.getOfflinePlayer(targetArg);
             if (!target.hasPlayedBefore() && !target.isOnline()) {
                 Map<String, String> placeholders = new HashMap<>();
-                placeholders.put("player", args[0]);
+                placeholders.put("player", targetArg);
                 plugin.getMessageManager().send(player, "invalid-player", placeholders);
                 return true;
             }
             
             targetUUID = target.getUniqueId();
-            targetName = target.getName();
         } else {
             targetUUID = player.getUniqueId();
-            targetName = player.getName();
         }
         
-        // Get transaction history
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            List<Transaction> history = plugin.getTransactionManager().getTransactionHistory(
-                targetUUID, 
-                plugin.getConfigManager().getMaxHistorySize()
-            );
+        if (archive) {
+            showArchive(player, targetUUID, page);
+            return true;
+        }
+        
+        // Limit browsable depth to max-history-size
+        int pageSize = plugin.getConfigManager().getHistoryPageSize();
+        int maxHistory = plugin.getConfigManager().getMaxHistorySize();
+        int rowsOnPage = pageSize;
+        boolean lastAllowedPage = false;
+        
+        if (maxHistory > 0) {
+            long before = (long) (page - 1) * pageSize;
+            if (before >= maxHistory) {
+                sendNoPage(player, page);
+                return true;
+            }
+            rowsOnPage = (int) Math.min(pageSize, maxHistory - before);
+            lastAllowedPage = before + rowsOnPage >= maxHistory;
+        }
+        
+        final int requestedPage = page;
+        final int limit = rowsOnPage;
+        final boolean capped = lastAllowedPage;
+        
+        DatabaseManager database = plugin.getDatabaseManager();
+        ViewerCursors cursors = cursorsFor(player.getUniqueId(), targetUUID, pageSize, requestedPage);
+        
+        // A jump is counted row by row in the database, so deep pages are reached by paging forward
+        int maxJump = plugin.getConfigManager().getMaxHistoryJump();
+        if (requestedPage > 1 && maxJump > 0 && !cursors.pageEnds.containsKey(requestedPage - 1)) {
+            int fromPage = nearestKnownPage(cursors, requestedPage);
+            if ((long) (requestedPage - 1 - fromPage) * pageSize > maxJump) {
+                Map<String, String> placeholders = new HashMap<>();
+                placeholders.put("page", String.valueOf(requestedPage));
+                placeholders.put("reachable", String.valueOf(fromPage + 1 + maxJump / pageSize));
+                plugin.getMessageManager().send(player, "history-page-too-far", placeholders);
+                return true;
+            }
+        }
+        
+        // Seek off the main thread; where a page starts depends on what this viewer has already paged through
+        CompletableFuture<HistoryCursor> start = requestedPage > 1
+            ? database.read(null, () -> resolvePageStart(cursors, targetUUID, requestedPage, pageSize))
+            : CompletableFuture.completedFuture(null);
             
-            // Display on main thread
-            Bukkit.getScheduler().runTask(plugin, () -> {
-                displayHistory(player, targetName, history);
-            });
+        // Viewers opening the same page of the same player share one read
+        CompletableFuture<RenderedPage> pageRead = start.thenCompose(after -> {
+            if (requestedPage > 1 && after == null) {
+                return CompletableFuture.completedFuture(null);
+            }
+            String key = "history:" + targetUUID + ":" + cursorKey(after) + ":" + limit;
+            return database.read(key, () -> renderPage(targetUUID, after, limit));
+        });
+        
+        // Page count from the stored aggregates; only needed when more pages follow, and read
+        // once per paging session instead of on every page. A failed stats read only loses the count.
+        pageRead.whenComplete((rendered, error) -> {
+            if (error != null) {
+                Bukkit.getScheduler().runTask(plugin, () -> sendReadError(player, error));
+                return;
+            }
+            if (rendered == null || rendered.result == null || !rendered.result.hasMore() || capped || cursors.totalRows >= 0) {
+                showPage(player, cursors, rendered, null, requestedPage, pageSize, maxHistory, capped);
+                return;
+            }
+            database.read("stats:" + targetUUID, () -> plugin.getTransactionManager().getTransactionStats(targetUUID))
+                .whenComplete((stats, statsError) -> {
+                    if (statsError != null) {
+                        Logger.debug("Showing /payhistory without a page count: " + statsError);
+                    }
+                    showPage(player, cursors, rendered, stats, requestedPage, pageSize, maxHistory, capped);
+                });
         });
         
         return true;
     }
     
     /**
-     * Display transaction history to player
+     * Remember where a read page ends and show it on the main thread
+     *
+     * @param stats the target's totals for the page count, or null to use the cached total if any
      */
-    private void displayHistory(Player player, String targetName, List<Transaction> history) {
-        if (history.isEmpty()) {
-            plugin.getMessageManager().send(player, "history-empty");
-            return;
+    private void showPage(Player player, ViewerCursors cursors, RenderedPage rendered, TransactionStats stats,
+                          int requestedPage, int pageSize, int maxHistory, boolean capped) {
+        DatabaseManager database = plugin.getDatabaseManager();
+        HistoryPage result = rendered != null ? rendered.result : null;
+        
+        if (result != null && result.getCount() > 0) {
+            cursors.remember(requestedPage, result.getEndCursor());
+        }
+        if (stats != null) {
+            cursors.totalRows = (long) stats.getSentCount() + stats.getReceivedCount();
         }
         
-        // Header
-        plugin.getMessageManager().sendRaw(player, "history-header", null);
+        boolean hasMore = result != null && result.hasMore() && !capped;
+        int pageCount = requestedPage;
+        if (hasMore && cursors.totalRows >= 0) {
+            long totalRows = cursors.totalRows;
+            if (maxHistory > 0) {
+                totalRows = Math.min(totalRows, maxHistory);
+            }
+            pageCount = (int) Math.min(Integer.MAX_VALUE, (totalRows + pageSize - 1) / pageSize);
+        }
+        final int maxPage = pageCount;
         
-        // Entries
-        for (Transaction transaction : history) {
-            UUID senderUUID = transaction.getSender();
-            boolean isSender = senderUUID != null && senderUUID.equals(player.getUniqueId());
-            
-            String type = isSender ? "§c↑ Sent" : "§a↓ Received";
-            String otherPlayer;
+        // Display on main thread
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            if (result == null && database.isDatabaseDown()) {
+                plugin.getMessageManager().send(player, "database-unavailable");
+                return;
+            }
             
-            if (isSender) {
-                OfflinePlayer receiver = Bukkit.getOfflinePlayer(transaction.getReceiver());
-                otherPlayer = receiver.getName();
-            } else {
-                if (senderUUID != null) {
-                    OfflinePlayer sender = Bukkit.getOfflinePlayer(senderUUID);
-                    otherPlayer = sender.getName();
+            if (result == null || result.getCount() == 0) {
+                if (requestedPage == 1) {
+                    plugin.getMessageManager().send(player, "history-empty");
                 } else {
-                    otherPlayer = "§6§lCONSOLE§r";
+                    sendNoPage(player, requestedPage);
                 }
+                return;
             }
             
-            Map<String, String> placeholders = new HashMap<>();
-            placeholders.put("timestamp", dateFormat.format(new Date(transaction.getTimestamp())));
-            placeholders.put("type", type);
-            placeholders.put("amount", String.valueOf(transaction.getAmount()));
-            placeholders.put("currency", transaction.getCurrency());
-            placeholders.put("player", otherPlayer);
+            displayHistory(player, "history-header", rendered.lines, requestedPage, hasMore, maxPage);
+        });
+    }
+    
+    /**
+     * Tell the viewer why a read failed: busy when it was turned away, unavailable otherwise
+     */
+    private void sendReadError(Player player, Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        if (cause instanceof RejectedExecutionException) {
+            plugin.getMessageManager().send(player, "lookup-busy");
+        } else {
+            Logger.error("Failed to read transaction history", cause);
+            plugin.getMessageManager().send(player, "database-unavailable");
+        }
+    }
+    
+    /**
+     * Read a page of archived history from the segment files off the main thread
+     */
+    private void showArchive(Player player, UUID targetUUID, int page) {
+        HistoryArchive archive = plugin.getDatabaseManager().getHistoryArchive();
+        if (archive == null) {
+            plugin.getMessageManager().send(player, "history-archive-disabled");
+            return;
+        }
+        
+        int pageSize = plugin.getConfigManager().getHistoryPageSize();
+        long skip = (long) (page - 1) * pageSize;
+        if (skip > Integer.MAX_VALUE) {
+            sendNoPage(player, page);
+            return;
+        }
+        
+        String key = "archive:" + targetUUID + ":" + skip + ":" + pageSize;
+        plugin.getDatabaseManager().read(key, () -> {
+            List<String> lines = new ArrayList<>(pageSize);
+            Map<UUID, String> names = new HashMap<>();
+            int total;
             
-            plugin.getMessageManager().sendRaw(player, "history-entry", placeholders);
+            try {
+                total = archive.readHistory(targetUUID, (int) skip, pageSize,
+                    (timestamp, transactionId, sent, counterparty, currency, amount, tax) ->
+                        lines.add(renderEntry(names, timestamp, sent, counterparty, currency, amount)));
+            } catch (IOException e) {
+                Logger.error("Failed to read archived history for " + targetUUID, e);
+                total = 0;
+            }
+            return new RenderedPage(lines, null, total);
+        }).whenComplete((rendered, error) -> {
+            // Display on main thread
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                if (error != null) {
+                    sendReadError(player, error);
+                    return;
+                }
+                
+                if (rendered.lines.isEmpty()) {
+                    if (page == 1) {
+                        plugin.getMessageManager().send(player, "history-empty");
+                    } else {
+                        sendNoPage(player, page);
+                    }
+                    return;
+                }
+                
+                int maxPage = (int) Math.min(Integer.MAX_VALUE, ((long) rendered.total + pageSize - 1) / pageSize);
+                displayHistory(player, "history-archive-header", rendered.lines, page, false, maxPage);
+            });
+        });
+    }
+    
+    /**
+     * Read and format one page of a player's history
+     */
+    private RenderedPage renderPage(UUID targetUUID, HistoryCursor after, int limit) {
+        List<String> lines = new ArrayList<>(limit);
+        Map<UUID, String> names = new HashMap<>();
+        
+        HistoryPage result = plugin.getTransactionManager().streamHistoryPage(targetUUID, after, limit,
+            (timestamp, transactionId, sent, counterparty, currency, amount, tax) ->
+                lines.add(renderEntry(names, timestamp, sent, counterparty, currency, amount)));
+        return new RenderedPage(lines, result, 0);
+    }
+    
+    /**
+     * Format one history row into a chat line
+     */
+    private String renderEntry(Map<UUID, String> names, long timestamp, boolean sent, UUID counterparty,
+                               String currency, double amount) {
+        Map<String, String> placeholders = new HashMap<>();
+        placeholders.put("timestamp", dateFormat.format(Instant.ofEpochMilli(timestamp)));
+        placeholders.put("type", sent ? "§c↑ Sent" : "§a↓ Received");
+        placeholders.put("amount", String.valueOf(amount));
+        placeholders.put("currency", currency);
+        placeholders.put("player", counterparty != null
+            ? names.computeIfAbsent(counterparty, this::resolveName)
+            : "§6§lCONSOLE§r");
+        return plugin.getMessageManager().getMessage("history-entry", placeholders);
+    }
+    
+    /**
+     * Display a rendered history page to player
+     */
+    private void displayHistory(Player player, String headerKey, List<String> lines, int page, boolean hasMore, int maxPage) {
+        MessageManager messages = plugin.getMessageManager();
+        
+        // Header
+        messages.sendRaw(player, headerKey, null);
+        
+        // Entries
+        for (String line : lines) {
+            messages.sendFormatted(player, line);
         }
         
-        // Footer
+        // Footer; stats still being rebuilt after an upgrade can undercount, so fall back to an open-ended total
         Map<String, String> footerPlaceholders = new HashMap<>();
-        footerPlaceholders.put("page", "1");
-        footerPlaceholders.put("maxpage", "1");
-        plugin.getMessageManager().sendRaw(player, "history-footer", footerPlaceholders);
+        footerPlaceholders.put("page", String.valueOf(page));
+        footerPlaceholders.put("maxpage", hasMore && maxPage <= page ? (page + 1) + "+" : String.valueOf(maxPage));
+        messages.sendRaw(player, "history-footer", footerPlaceholders);
+    }
+    
+    /**
+     * Find the cursor that ends the page before the requested one.
+     * Uses a cached cursor when the viewer has already seen that page, otherwise skips
+     * forward from the nearest cached page using a key-only index scan.
+     *
+     * @return start cursor, or null if history ends before the requested page
+     */
+    private HistoryCursor resolvePageStart(ViewerCursors cursors, UUID targetUUID, int page, int pageSize) {
+        HistoryCursor known = cursors.pageEnds.get(page - 1);
+        if (known != null) {
+            return known;
+        }
+        
+        int fromPage = nearestKnownPage(cursors, page);
+        HistoryCursor from = fromPage > 0 ? cursors.pageEnds.get(fromPage) : null;
+        
+        long skip = (long) (page - 1 - fromPage) * pageSize;
+        if (skip > Integer.MAX_VALUE) {
+            return null;
+        }
+        
+        TransactionManager transactionManager = plugin.getTransactionManager();
+        HistoryCursor cursor = transactionManager.findHistoryCursor(targetUUID, from, (int) skip);
+        if (cursor != null) {
+            cursors.remember(page - 1, cursor);
+        }
+        return cursor;
+    }
+    
+    /**
+     * Highest page before the one ending at page - 1 whose end cursor the viewer has, or 0 for none
+     */
+    private int nearestKnownPage(ViewerCursors cursors, int page) {
+        Integer fromPage = cursors.pageEnds.lowerKey(page - 1);
+        return fromPage != null ? fromPage : 0;
+    }
+    
+    /**
+     * Get the cursor cache for a viewer, starting fresh when they switch target,
+     * the page size changed, or they go back to the first page
+     */
+    private ViewerCursors cursorsFor(UUID viewer, UUID target, int pageSize, int page) {
+        synchronized (cursorCache) {
+            ViewerCursors cursors = cursorCache.get(viewer);
+            if (cursors == null || page == 1 || !cursors.target.equals(target) || cursors.pageSize != pageSize) {
+                cursors = new ViewerCursors(target, pageSize);
+                cursorCache.put(viewer, cursors);
+            }
+            return cursors;
+        }
+    }
+    
+    private String resolveName(UUID uuid) {
+        String name = Bukkit.getOfflinePlayer(uuid).getName();
+        return name != null ? name : uuid.toString();
+    }
+    
+    private String cursorKey(HistoryCursor cursor) {
+        if (cursor == null) {
+            return "start";
+        }
+        return cursor.getTimestamp() + ":" + cursor.getTransactionId() + ":" + cursor.isSent();
+    }
+    
+    private void sendNoPage(Player player, int page) {
+        Map<String, String> placeholders = new HashMap<>();
+        placeholders.put("page", String.valueOf(page));
+        plugin.getMessageManager().send(player, "history-no-page", placeholders);
+    }
+    
+    private boolean isNumber(String arg) {
+        if (arg.isEmpty()) return false;
+        for (int i = 0; i < arg.length(); i++) {
+            if (!Character.isDigit(arg.charAt(i))) return false;
+        }
+        return true;
+    }
+    
+    private int parsePage(String arg) {
+        try {
+            return Integer.parseInt(arg);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
     }
     
     @Override
@@ -145,4 +464,47 @@ public class PayHistoryCommand implements CommandExecutor, TabCompleter {
         
         return completions;
     }
+    
+    /**
+     * Page end cursors a viewer has collected while browsing one target's history
+     */
+    private static class ViewerCursors {
+        private final UUID target;
+        private final int pageSize;
+        private final ConcurrentSkipListMap<Integer, HistoryCursor> pageEnds = new ConcurrentSkipListMap<>();
+        
+        // Target's total ledger rows, read with the first page that needs it; -1 until then
+        private volatile long totalRows = -1;
+        
+        private ViewerCursors(UUID target, int pageSize) {
+            this.target = target;
+            this.pageSize = pageSize;
+        }
+        
+        /**
+         * Keep a page's end cursor; when full, the lowest page is dropped so paging forward
+         * always keeps the cursor it continues from
+         */
+        private void remember(int page, HistoryCursor cursor) {
+            pageEnds.put(page, cursor);
+            while (pageEnds.size() > MAX_CACHED_PAGES) {
+                pageEnds.pollFirstEntry();
+            }
+        }
+    }
+    
+    /**
+     * Formatted lines of one history page; shared by every viewer of that page
+     */
+    private static class RenderedPage {
+        private final List<String> lines;
+        private final HistoryPage result;
+        private final int total;
+        
+        private RenderedPage(List<String> lines, HistoryPage result, int total) {
+            this.lines = lines;
+            this.result = result;
+            this.total = total;
+        }
+    }
 }
@@ -4,6 +4,13 @@ import org.bukkit.command.Command;
 import org.bukkit.command.CommandExecutor;
 import org.bukkit.command.CommandSender;
 import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.database.BackupJob;
+import ve.nottabaker.payedtools.database.BatchWriter;
+import ve.nottabaker.payedtools.database.ConnectionPool;
+import ve.nottabaker.payedtools.database.HistoryCache;
+import ve.nottabaker.payedtools.database.ReadExecutor;
+import ve.nottabaker.payedtools.database.Spillover;
+import ve.nottabaker.payedtools.utils.AdaptiveLimiter;
 
 /**
  * Command to view performance metrics
@@ -27,6 +34,67 @@ public class PayMetricsCommand implements CommandExecutor {
         // Send performance summary
         sender.sendMessage(plugin.getPerformanceMetrics().getPerformanceSummary());
         
+        if (plugin.getDatabaseManager().getBackend() != null) {
+            for (ConnectionPool pool : plugin.getDatabaseManager().getBackend().getConnectionPools()) {
+                sender.sendMessage("§ePool " + pool.getName() + ": §a" + pool.getActiveConnections() + "/" + pool.getMaximumSize() +
+                                 " active, " + pool.getWaitingThreads() + " waiting, avg wait " +
+                                 String.format("%.2fms, max %.2fms", pool.getAverageWaitMillis(), pool.getMaxWaitMillis()));
+            }
+        }
+        
+        ReadExecutor reads = plugin.getDatabaseManager().getReadExecutor();
+        if (reads != null) {
+            sender.sendMessage("§eDB Reads: §a" + reads.getExecutedCount() + " run, " + reads.getCoalescedCount() +
+                             " shared, " + reads.getRejectedCount() + " rejected §7(" + reads.getThreads() + " threads)");
+            sender.sendMessage("§eDB Read Queue: §a" + reads.getQueueDepth() + " waiting, avg wait " +
+                             String.format("%.2fms", reads.getAverageQueueWaitMillis()) + ", max " +
+                             String.format("%.2fms", reads.getMaxQueueWaitMillis()));
+        }
+        
+        sender.sendMessage("§eExpiry Timers: §a" + plugin.getTimingWheel().size() + " scheduled, " +
+                         plugin.getRateLimitManager().getTrackedPlayers() + " rate-limited players tracked");
+        if (plugin.getConfigManager().isVolumeCapsEnabled()) {
+            sender.sendMessage("§eVolume Caps: §a" + plugin.getVolumeCapManager().getTrackedPlayers() + " players tracked");
+        }
+        sender.sendMessage("§ePayouts: §a" + plugin.getPayoutManager().getActiveJobs() + " running, " +
+                         plugin.getNotificationDispatcher().getQueuedReceivers() + " players awaiting notifications");
+                         
+        AdaptiveLimiter apiLimiter = plugin.getCurrencyManager().getApiLimiter();
+        if (apiLimiter != null) {
+            sender.sendMessage("§eEdTools Calls: §a" + apiLimiter.getInFlight() + "/" + apiLimiter.getLimit() + " in flight, " +
+                             apiLimiter.getQueued() + " waiting, " + apiLimiter.getRejected() + " turned away" +
+                             String.format(", avg %.1fms", apiLimiter.getAverageLatencyMillis()));
+        }
+        
+        BatchWriter writer = plugin.getDatabaseManager().getBatchWriter();
+        if (writer != null) {
+            sender.sendMessage("§eDB Writer: §a" + writer.getQueueSize() + " queued, batch size " + writer.getBatchSize() +
+                             String.format(", avg %.1f rows", writer.getAverageBatchRows()) +
+                             (writer.getLastLatencyMillis() >= 0 ? ", last write " + writer.getLastLatencyMillis() + "ms" : ""));
+        }
+        
+        Spillover spillover = plugin.getDatabaseManager().getSpillover();
+        if (spillover != null) {
+            sender.sendMessage("§eDB Breaker: " + (spillover.isOpen() ? "§copen, writing to disk" : "§aclosed") +
+                             "§a, " + spillover.getPendingRows() + " spilled rows pending (" +
+                             spillover.getSpilledCount() + " spilled, " + spillover.getReplayedCount() + " replayed)");
+        }
+        
+        HistoryCache historyCache = plugin.getDatabaseManager().getHistoryCache();
+        if (historyCache != null) {
+            sender.sendMessage("§eHistory Cache: §a" + historyCache.size() + " players, " +
+                             String.format("%.2f%%", historyCache.getHitRatio() * 100) + " of pages from memory");
+        }
+        
+        BackupJob backup = plugin.getDatabaseManager().getBackupJob();
+        if (backup != null && backup.isRunning()) {
+            sender.sendMessage("§eBackup: §arunning, " + String.format("%.0f%%", backup.getProgress() * 100));
+        } else if (backup != null && backup.getLastDurationMillis() >= 0) {
+            long ageMinutes = (System.currentTimeMillis() - backup.getLastCompletedAt()) / 60000;
+            sender.sendMessage("§eLast Backup: §a" + (backup.getLastSizeBytes() / 1024) + " KB in " +
+                             backup.getLastDurationMillis() + "ms, " + ageMinutes + " min ago");
+        }
+        
         return true;
     }
 }
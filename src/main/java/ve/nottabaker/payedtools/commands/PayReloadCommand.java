@@ -29,6 +29,11 @@ public class PayReloadCommand implements CommandExecutor {
             return true;
         }
         
+        if (plugin.getConfigManager().isBackupOnReload() && !plugin.getDatabaseManager().supportsBackup()) {
+            sender.sendMessage("§eBackup on reload skipped: " + plugin.getConfigManager().getDatabaseType()
+                + " storage does not support backups.");
+        }
+        
         // Reload plugin
         try {
             plugin.reload();
@@ -0,0 +1,251 @@
+package ve.nottabaker.payedtools.commands;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.entity.Player;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.ScheduleManager;
+import ve.nottabaker.payedtools.models.ScheduledPayout;
+import ve.nottabaker.payedtools.utils.AmountParser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * /payschedule command for one-off and recurring console payouts
+ */
+public class PayScheduleCommand implements CommandExecutor, TabCompleter {
+    
+    private final PayEdtools plugin;
+    private final AmountParser amountParser;
+    
+    public PayScheduleCommand(PayEdtools plugin) {
+        this.plugin = plugin;
+        this.amountParser = new AmountParser(plugin);
+    }
+    
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // Check permission
+        if (!sender.hasPermission("payedtools.admin")) {
+            if (sender instanceof Player) {
+                plugin.getMessageManager().send((Player) sender, "no-permission");
+            } else {
+                sender.sendMessage("You don't have permission to use this command!");
+            }
+            return true;
+        }
+        
+        if (args.length == 0) {
+            sendUsage(sender);
+            return true;
+        }
+        
+        switch (args[0].toLowerCase()) {
+            case "add":
+                return handleAdd(sender, args);
+            case "remove":
+                return handleRemove(sender, args);
+            case "run":
+                return handleRun(sender, args);
+            case "list":
+                return handleList(sender);
+            default:
+                sendUsage(sender);
+                return true;
+        }
+    }
+    
+    /**
+     * /payschedule add <name> <player|*> <currency> <amount> <in|every> <duration>
+     */
+    private boolean handleAdd(CommandSender sender, String[] args) {
+        if (args.length < 7) {
+            sender.sendMessage("§cUsage: /payschedule add <name> <player|*> <currency> <amount> <in|every> <duration>");
+            return true;
+        }
+        
+        String name = args[1];
+        if (!name.matches("[A-Za-z0-9_-]{1,32}")) {
+            sender.sendMessage("§cSchedule names may only use letters, numbers, - and _ (up to 32).");
+            return true;
+        }
+        if (plugin.getScheduleManager().get(name) != null) {
+            sender.sendMessage("§cA schedule named §e" + name + " §calready exists.");
+            return true;
+        }
+        
+        UUID target = null;
+        if (!args[2].equals("*")) {
+            OfflinePlayer player = Bukkit.getOfflinePlayer(args[2]);
+            if (!player.isOnline() && !player.hasPlayedBefore()) {
+                sender.sendMessage("§cPlayer §e" + args[2] + " §cnot found or never played before!");
+                return true;
+            }
+            target = player.getUniqueId();
+        }
+        
+        String currency = args[3];
+        if (!plugin.getCurrencyManager().validateCurrency(currency)) {
+            sender.sendMessage("§cCurrency '" + currency + "' does not exist or cannot be transferred!");
+            return true;
+        }
+        
+        double amount;
+        try {
+            amount = amountParser.parse(args[4]);
+        } catch (NumberFormatException e) {
+            sender.sendMessage("§cInvalid amount! Please enter a valid number.");
+            return true;
+        }
+        if (amount <= 0) {
+            sender.sendMessage("§cInvalid amount! Please enter a valid number.");
+            return true;
+        }
+        
+        String mode = args[5].toLowerCase();
+        long duration = ScheduleManager.parseDuration(args[6]);
+        if (!mode.equals("in") && !mode.equals("every")) {
+            sender.sendMessage("§cUse §ein §cfor a one-off payout or §eevery §cfor a recurring one.");
+            return true;
+        }
+        if (duration < 0 || (mode.equals("every") && duration < 60_000L)) {
+            sender.sendMessage("§cInvalid duration! Use e.g. 30m, 12h or 1d6h (at least 1m for recurring payouts).");
+            return true;
+        }
+        
+        long interval = mode.equals("every") ? duration : 0;
+        ScheduledPayout schedule = new ScheduledPayout(name, target, currency, amount, interval,
+            System.currentTimeMillis() + duration);
+        plugin.getScheduleManager().add(schedule);
+        
+        sender.sendMessage("§aScheduled §e" + name + "§a: " + describe(schedule));
+        return true;
+    }
+    
+    private boolean handleRemove(CommandSender sender, String[] args) {
+        if (args.length < 2) {
+            sender.sendMessage("§cUsage: /payschedule remove <name>");
+            return true;
+        }
+        if (plugin.getScheduleManager().remove(args[1])) {
+            sender.sendMessage("§aRemoved schedule §e" + args[1] + "§a.");
+        } else {
+            sender.sendMessage("§cNo schedule named §e" + args[1] + "§c.");
+        }
+        return true;
+    }
+    
+    private boolean handleRun(CommandSender sender, String[] args) {
+        if (args.length < 2) {
+            sender.sendMessage("§cUsage: /payschedule run <name>");
+            return true;
+        }
+        ScheduledPayout schedule = plugin.getScheduleManager().get(args[1]);
+        if (schedule == null) {
+            sender.sendMessage("§cNo schedule named §e" + args[1] + "§c.");
+        } else if (plugin.getScheduleManager().runNow(args[1])) {
+            sender.sendMessage("§aStarted schedule §e" + args[1] + "§a; the result is logged to the console.");
+            if (!schedule.isRecurring()) {
+                sender.sendMessage("§7One-off schedules are removed once run.");
+            }
+        } else {
+            sender.sendMessage("§cSchedule §e" + args[1] + " §cdid not start. Check console for details.");
+        }
+        return true;
+    }
+    
+    private boolean handleList(CommandSender sender) {
+        Collection<ScheduledPayout> schedules = plugin.getScheduleManager().getSchedules();
+        if (schedules.isEmpty()) {
+            sender.sendMessage("§eNo scheduled payouts.");
+            return true;
+        }
+        
+        sender.sendMessage("§6§l=== Scheduled Payouts ===");
+        for (ScheduledPayout schedule : schedules) {
+            String state = plugin.getScheduleManager().isRunning(schedule.getName()) ? " §a(running)" : "";
+            sender.sendMessage("§e" + schedule.getName() + "§7: " + describe(schedule) + state);
+        }
+        return true;
+    }
+    
+    private String describe(ScheduledPayout schedule) {
+        String target;
+        if (schedule.isPayAll()) {
+            target = "everyone online";
+        } else {
+            String targetName = Bukkit.getOfflinePlayer(schedule.getTarget()).getName();
+            target = targetName != null ? targetName : schedule.getTarget().toString();
+        }
+        
+        String when = "in " + ScheduleManager.formatDuration(schedule.getNextRun() - System.currentTimeMillis());
+        if (schedule.isRecurring()) {
+            when += ", then every " + ScheduleManager.formatDuration(schedule.getInterval());
+        }
+        return amountParser.format(schedule.getAmount()) + " " + schedule.getCurrency() + " to " + target + " §8(" + when + ")";
+    }
+    
+    private void sendUsage(CommandSender sender) {
+        sender.sendMessage("§6§l=== PayEdtools Schedules ===");
+        sender.sendMessage("§e/payschedule add <name> <player|*> <currency> <amount> <in|every> <duration>");
+        sender.sendMessage("§e/payschedule remove <name>");
+        sender.sendMessage("§e/payschedule run <name>");
+        sender.sendMessage("§e/payschedule list");
+        sender.sendMessage("§7Durations: §f30m§7, §f12h§7, §f1d6h");
+    }
+    
+    @Override
+    public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
+        List<String> completions = new ArrayList<>();
+        if (!sender.hasPermission("payedtools.admin")) {
+            return completions;
+        }
+        
+        if (args.length == 1) {
+            String input = args[0].toLowerCase();
+            for (String subCommand : new String[]{"add", "remove", "run", "list"}) {
+                if (subCommand.startsWith(input)) {
+                    completions.add(subCommand);
+                }
+            }
+        } else if (args.length == 2 && (args[0].equalsIgnoreCase("remove") || args[0].equalsIgnoreCase("run"))) {
+            for (ScheduledPayout schedule : plugin.getScheduleManager().getSchedules()) {
+                if (schedule.getName().toLowerCase().startsWith(args[1].toLowerCase())) {
+                    completions.add(schedule.getName());
+                }
+            }
+        } else if (args[0].equalsIgnoreCase("add")) {
+            String input = args[args.length - 1].toLowerCase();
+            if (args.length == 3) {
+                completions.add("*");
+                completions.addAll(plugin.getPlayerNameManager().complete(input, null));
+            } else if (args.length == 4) {
+                for (String currency : plugin.getCurrencyManager().getAvailableCurrencies()) {
+                    if (currency.toLowerCase().startsWith(input)) {
+                        completions.add(currency);
+                    }
+                }
+            } else if (args.length == 6) {
+                for (String mode : new String[]{"in", "every"}) {
+                    if (mode.startsWith(input)) {
+                        completions.add(mode);
+                    }
+                }
+            } else if (args.length == 7) {
+                for (String duration : new String[]{"30m", "1h", "1d"}) {
+                    if (duration.startsWith(input)) {
+                        completions.add(duration);
+                    }
+                }
+            }
+        }
+        return completions;
+    }
+}
@@ -25,6 +25,18 @@ public class PayStatsCommand implements CommandExecutor, TabCompleter {
     
     @Override
     public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        // Admin: recompute stored statistics from the ledger; reserved, never looked up as a player name
+        if (args.length == 1 && args[0].equalsIgnoreCase("rebuild")) {
+            if (sender.hasPermission("payedtools.admin")) {
+                rebuildStats(sender);
+            } else if (sender instanceof Player) {
+                plugin.getMessageManager().send((Player) sender, "no-permission");
+            } else {
+                sender.sendMessage("You don't have permission to use this command!");
+            }
+            return true;
+        }
+        
         // Check if sender is a player
         if (!(sender instanceof Player player)) {
             sender.sendMessage("This command can only be used by players!");
@@ -63,12 +75,21 @@ public class PayStatsCommand implements CommandExecutor, TabCompleter {
             targetName = player.getName();
         }
         
-        // Get stats
-        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-            TransactionStats stats = plugin.getTransactionManager().getTransactionStats(targetUUID);
-            
+        if (plugin.getDatabaseManager().isDatabaseDown()) {
+            plugin.getMessageManager().send(player, "database-unavailable");
+            return true;
+        }
+        
+        // Get stats; viewers of the same player share one lookup
+        plugin.getDatabaseManager().read("stats:" + targetUUID,
+            () -> plugin.getTransactionManager().getTransactionStats(targetUUID)
+        ).whenComplete((stats, error) -> {
             // Display on main thread
             Bukkit.getScheduler().runTask(plugin, () -> {
+                if (error != null) {
+                    plugin.getMessageManager().send(player, "lookup-busy");
+                    return;
+                }
                 displayStats(player, targetName, stats);
             });
         });
@@ -95,10 +116,43 @@ public class PayStatsCommand implements CommandExecutor, TabCompleter {
         receivedPlaceholders.put("received-amount", String.valueOf(stats.getReceivedTotal()));
         plugin.getMessageManager().sendRaw(player, "stats-received", receivedPlaceholders);
         
+        // Per-currency breakdown
+        for (Map.Entry<String, TransactionStats> entry : stats.getCurrencies().entrySet()) {
+            TransactionStats currencyStats = entry.getValue();
+            Map<String, String> currencyPlaceholders = new HashMap<>();
+            currencyPlaceholders.put("currency", entry.getKey());
+            currencyPlaceholders.put("sent", String.valueOf(currencyStats.getSentCount()));
+            currencyPlaceholders.put("sent-amount", String.valueOf(currencyStats.getSentTotal()));
+            currencyPlaceholders.put("received", String.valueOf(currencyStats.getReceivedCount()));
+            currencyPlaceholders.put("received-amount", String.valueOf(currencyStats.getReceivedTotal()));
+            plugin.getMessageManager().sendRaw(player, "stats-currency", currencyPlaceholders);
+        }
+        
         // Footer
         plugin.getMessageManager().sendRaw(player, "stats-footer", null);
     }
     
+    /**
+     * Recompute player_stats from the ledger off the main thread
+     */
+    private void rebuildStats(CommandSender sender) {
+        sender.sendMessage("§eRebuilding payment statistics from the ledger...");
+        
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            long start = System.currentTimeMillis();
+            int rows = plugin.getDatabaseManager().rebuildPlayerStats();
+            long duration = System.currentTimeMillis() - start;
+            
+            Bukkit.getScheduler().runTask(plugin, () -> {
+                if (rows < 0) {
+                    sender.sendMessage("§cFailed to rebuild statistics! Check console for details.");
+                } else {
+                    sender.sendMessage("§aRebuilt statistics: " + rows + " entries in " + duration + "ms");
+                }
+            });
+        });
+    }
+    
     @Override
     public List<String> onTabComplete(CommandSender sender, Command command, String alias, String[] args) {
         List<String> completions = new ArrayList<>();
@@ -111,6 +165,10 @@ public class PayStatsCommand implements CommandExecutor, TabCompleter {
             }
         }
         
+        if (args.length == 1 && sender.hasPermission("payedtools.admin") && "rebuild".startsWith(args[0].toLowerCase())) {
+            completions.add("rebuild");
+        }
+        
         return completions;
     }
 }
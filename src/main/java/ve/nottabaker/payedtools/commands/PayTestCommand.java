@@ -43,6 +43,8 @@ public class PayTestCommand implements CommandExecutor, TabCompleter {
                 return handleLoadTest(sender, args);
             case "benchmark":
                 return handleBenchmarkTest(sender, args);
+            case "ratelimit":
+                return handleRateLimitBenchmark(sender, args);
             case "stop":
                 return handleStopTest(sender);
             case "results":
@@ -164,6 +166,31 @@ public class PayTestCommand implements CommandExecutor, TabCompleter {
         return true;
     }
     
+    /**
+     * Handle rate limiter benchmark command
+     */
+    private boolean handleRateLimitBenchmark(CommandSender sender, String[] args) {
+        int players = Math.max(1, parseInt(args, 1, 1000));
+        int threads = Math.max(1, parseInt(args, 2, 4));
+        int operations = Math.max(1, parseInt(args, 3, 1000000));
+        int limit = plugin.getConfigManager().getMaxTransactions();
+        long windowMillis = plugin.getConfigManager().getTimeWindow() * 1000L;
+        
+        sender.sendMessage("§eStarting rate limiter benchmark...");
+        sender.sendMessage("§7Players: " + players + " | Threads: " + threads + " | Operations/Thread: " + operations);
+        
+        plugin.getPerformanceTester().startRateLimitBenchmark(players, threads, operations, limit, windowMillis)
+            .thenAccept(summary -> {
+                sender.sendMessage("§aRate limiter benchmark completed!");
+                summary.forEach(line -> sender.sendMessage("§7" + line));
+            }).exceptionally(throwable -> {
+                sender.sendMessage("§cRate limiter benchmark failed: " + throwable.getMessage());
+                return null;
+            });
+            
+        return true;
+    }
+    
     /**
      * Handle stop test command
      */
@@ -257,6 +284,9 @@ public class PayTestCommand implements CommandExecutor, TabCompleter {
         sender.sendMessage("§e/paytest benchmark");
         sender.sendMessage("§7  Run a comprehensive benchmark test");
         sender.sendMessage("");
+        sender.sendMessage("§e/paytest ratelimit [players] [threads] [operations]");
+        sender.sendMessage("§7  Benchmark the rate limiter and its allocations");
+        sender.sendMessage("");
         sender.sendMessage("§e/paytest stop");
         sender.sendMessage("§7  Stop all running tests");
         sender.sendMessage("");
@@ -312,7 +342,7 @@ public class PayTestCommand implements CommandExecutor, TabCompleter {
         
         if (args.length == 1) {
             String input = args[0].toLowerCase();
-            String[] subCommands = {"stress", "load", "benchmark", "stop", "results", "clear", "status"};
+            String[] subCommands = {"stress", "load", "benchmark", "ratelimit", "stop", "results", "clear", "status"};
             
             for (String subCommand : subCommands) {
                 if (subCommand.startsWith(input)) {
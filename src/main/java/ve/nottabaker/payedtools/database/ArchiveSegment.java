@@ -0,0 +1,499 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.models.LedgerEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An immutable, memory-mapped file of archived ledger rows.
+ *
+ * Rows are sorted by player, then newest first, and stored in row groups. Each column of
+ * a group is deflate-compressed on its own, so lookups only inflate the columns they need.
+ * A directory at the end of the file records the first and last player of every group,
+ * which serves as a sparse per-player index: a lookup inflates only the groups whose
+ * player range contains the requested player. Groups are mapped in windows below the
+ * 2 GB mapping limit, so offsets within a segment are longs.
+ *
+ * Layout: [group]* [directory entry]* [trailer]
+ * Group: per column, raw length (int), compressed length (int), compressed bytes
+ * Directory entry: first player (16), last player (16), row count (int), offset (long)
+ * Trailer: magic, version, group count, row count, min timestamp, max timestamp, directory offset
+ */
+final class ArchiveSegment {
+    
+    private static final int MAGIC = 0x50454453; // "PEDS"
+    private static final int VERSION = 1;
+    private static final int TRAILER_SIZE = 4 + 4 + 4 + 4 + 8 + 8 + 8;
+    private static final int DIRECTORY_ENTRY_SIZE = 16 + 16 + 4 + 8;
+    private static final int ROWS_PER_GROUP = 4096;
+    private static final int CACHED_COUNTS = 1024;
+    
+    // Column order within a group
+    private static final int COL_PLAYER = 0;
+    private static final int COL_TIMESTAMP = 1;
+    private static final int COL_TX_ID = 2;
+    private static final int COL_DIRECTION = 3;
+    private static final int COL_COUNTERPARTY = 4;
+    private static final int COL_CURRENCY = 5;
+    private static final int COL_AMOUNT = 6;
+    private static final int COL_TAX = 7;
+    private static final int COLUMN_COUNT = 8;
+    
+    /**
+     * Archive order: player, then the live ledger's order within a player (see {@link HistoryCache#compare}),
+     * which compares transaction ids as unsigned bytes like the database does
+     */
+    static final Comparator<LedgerEntry> ORDER = Comparator
+        .comparing(LedgerEntry::getPlayer)
+        .thenComparing((a, b) -> HistoryCache.compare(a.getTimestamp(), a.getTransactionId(), a.isSent(),
+                                                      b.getTimestamp(), b.getTransactionId(), b.isSent()));
+        
+    private final Path path;
+    private final MappedByteBuffer directory;
+    private final MappedByteBuffer[] windows;
+    private final long[] windowStarts;
+    private final int[] groupWindows;
+    private final int groupCount;
+    private final int rowCount;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final long directoryOffset;
+    
+    // Rows per player; the segment never changes, so counts stay valid while it is mapped
+    private final Map<UUID, Integer> counts = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<UUID, Integer> eldest) {
+            return size() > CACHED_COUNTS;
+        }
+    });
+    
+    private ArchiveSegment(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        
+        long trailer = channel.size() - TRAILER_SIZE;
+        if (trailer < 0) {
+            throw new IOException("Not an archive segment: " + path);
+        }
+        ByteBuffer fields = channel.map(FileChannel.MapMode.READ_ONLY, trailer, TRAILER_SIZE);
+        if (fields.getInt(0) != MAGIC) {
+            throw new IOException("Not an archive segment: " + path);
+        }
+        if (fields.getInt(4) != VERSION) {
+            throw new IOException("Unsupported archive segment version in " + path);
+        }
+        this.groupCount = fields.getInt(8);
+        this.rowCount = fields.getInt(12);
+        this.minTimestamp = fields.getLong(16);
+        this.maxTimestamp = fields.getLong(24);
+        this.directoryOffset = fields.getLong(32);
+        
+        if (groupCount < 0 || directoryOffset < 0 || directoryOffset + (long) groupCount * DIRECTORY_ENTRY_SIZE != trailer) {
+            throw new IOException("Corrupt archive segment " + path);
+        }
+        this.directory = channel.map(FileChannel.MapMode.READ_ONLY, directoryOffset, (long) groupCount * DIRECTORY_ENTRY_SIZE);
+        
+        // Map whole groups into as few windows as the 2 GB mapping limit allows
+        this.groupWindows = new int[groupCount];
+        long[] starts = new long[groupCount];
+        MappedByteBuffer[] mapped = new MappedByteBuffer[groupCount];
+        int windowCount = 0;
+        for (int group = 0; group < groupCount; ) {
+            long start = groupOffset(group);
+            int last = group;
+            while (last + 1 < groupCount && groupEnd(last + 1) - start <= Integer.MAX_VALUE) {
+                last++;
+            }
+            long length = groupEnd(last) - start;
+            if (length < 0 || length > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt archive segment " + path);
+            }
+            
+            starts[windowCount] = start;
+            mapped[windowCount] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            for (; group <= last; group++) {
+                groupWindows[group] = windowCount;
+            }
+            windowCount++;
+        }
+        this.windowStarts = Arrays.copyOf(starts, windowCount);
+        this.windows = Arrays.copyOf(mapped, windowCount);
+    }
+    
+    /**
+     * Memory-map an existing segment file
+     */
+    static ArchiveSegment open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // The mappings stay valid after the channel is closed
+            return new ArchiveSegment(path, channel);
+        }
+    }
+    
+    /**
+     * Write rows to a new segment file. The file is written under a temporary name,
+     * synced and then renamed, so a segment is either complete or absent.
+     *
+     * @param rows rows sorted in {@link #ORDER}
+     */
+    static void write(Path path, List<LedgerEntry> rows) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        long minTimestamp = Long.MAX_VALUE;
+        long maxTimestamp = Long.MIN_VALUE;
+        for (LedgerEntry row : rows) {
+            minTimestamp = Math.min(minTimestamp, row.getTimestamp());
+            maxTimestamp = Math.max(maxTimestamp, row.getTimestamp());
+        }
+        
+        int groupCount = (rows.size() + ROWS_PER_GROUP - 1) / ROWS_PER_GROUP;
+        ByteArrayOutputStream directoryBytes = new ByteArrayOutputStream(groupCount * DIRECTORY_ENTRY_SIZE);
+        DataOutputStream directory = new DataOutputStream(directoryBytes);
+        
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream file = Files.newOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+            long offset = 0;
+            for (int start = 0; start < rows.size(); start += ROWS_PER_GROUP) {
+                List<LedgerEntry> group = rows.subList(start, Math.min(rows.size(), start + ROWS_PER_GROUP));
+                
+                UUID first = group.get(0).getPlayer();
+                UUID last = group.get(group.size() - 1).getPlayer();
+                directory.writeLong(first.getMostSignificantBits());
+                directory.writeLong(first.getLeastSignificantBits());
+                directory.writeLong(last.getMostSignificantBits());
+                directory.writeLong(last.getLeastSignificantBits());
+                directory.writeInt(group.size());
+                directory.writeLong(offset);
+                
+                for (int column = 0; column < COLUMN_COUNT; column++) {
+                    byte[] raw = encodeColumn(group, column);
+                    byte[] compressed = deflate(deflater, raw);
+                    out.writeInt(raw.length);
+                    out.writeInt(compressed.length);
+                    out.write(compressed);
+                    offset += 8 + compressed.length;
+                }
+            }
+            
+            out.write(directoryBytes.toByteArray());
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(groupCount);
+            out.writeInt(rows.size());
+            out.writeLong(minTimestamp);
+            out.writeLong(maxTimestamp);
+            out.writeLong(offset);
+        } finally {
+            deflater.end();
+        }
+        
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Count a player's rows in this segment, inflating only the player column of candidate groups.
+     * Counts are cached, so paging through a player's archive only counts each segment once.
+     */
+    int countRows(UUID player) throws IOException {
+        Integer cached = counts.get(player);
+        if (cached != null) {
+            return cached;
+        }
+        
+        int count = 0;
+        for (int group = firstCandidate(player); group >= 0 && group < groupCount && mayContain(group, player); group++) {
+            ByteBuffer players = inflateColumn(group, COL_PLAYER);
+            for (int row = 0, rows = groupRows(group); row < rows; row++) {
+                if (players.getLong(row * 16) == player.getMostSignificantBits()
+                        && players.getLong(row * 16 + 8) == player.getLeastSignificantBits()) {
+                    count++;
+                }
+            }
+        }
+        counts.put(player, count);
+        return count;
+    }
+    
+    /**
+     * Visit a player's rows newest first, skipping the first rows and stopping after limit
+     *
+     * @return number of rows visited
+     */
+    int read(UUID player, int skip, int limit, LedgerVisitor visitor) throws IOException {
+        int matched = 0;
+        int visited = 0;
+        
+        for (int group = firstCandidate(player); group >= 0 && group < groupCount && mayContain(group, player); group++) {
+            ByteBuffer players = inflateColumn(group, COL_PLAYER);
+            int rows = groupRows(group);
+            
+            // Find the player's rows in this group before inflating the other columns
+            int from = -1;
+            int to = -1;
+            for (int row = 0; row < rows; row++) {
+                if (players.getLong(row * 16) == player.getMostSignificantBits()
+                        && players.getLong(row * 16 + 8) == player.getLeastSignificantBits()) {
+                    if (from < 0) {
+                        from = row;
+                    }
+                    to = row + 1;
+                }
+            }
+            if (from < 0) {
+                continue;
+            }
+            
+            int groupMatches = to - from;
+            if (matched + groupMatches <= skip) {
+                matched += groupMatches;
+                continue;
+            }
+            
+            ByteBuffer timestamps = inflateColumn(group, COL_TIMESTAMP);
+            ByteBuffer txIds = inflateColumn(group, COL_TX_ID);
+            ByteBuffer directions = inflateColumn(group, COL_DIRECTION);
+            ByteBuffer counterparties = inflateColumn(group, COL_COUNTERPARTY);
+            String[] currencies = decodeCurrencies(inflateColumn(group, COL_CURRENCY), rows);
+            ByteBuffer amounts = inflateColumn(group, COL_AMOUNT);
+            ByteBuffer taxes = inflateColumn(group, COL_TAX);
+            
+            for (int row = from; row < to; row++) {
+                if (matched++ < skip) {
+                    continue;
+                }
+                if (visited == limit) {
+                    return visited;
+                }
+                
+                UUID counterparty = new UUID(counterparties.getLong(row * 16), counterparties.getLong(row * 16 + 8));
+                visitor.visit(
+                    timestamps.getLong(row * 8),
+                    new UUID(txIds.getLong(row * 16), txIds.getLong(row * 16 + 8)),
+                    directions.get(row) == JdbcStorageBackend.DIRECTION_SENT,
+                    UuidCodec.CONSOLE.equals(counterparty) ? null : counterparty,
+                    currencies[row],
+                    amounts.getDouble(row * 8),
+                    taxes.getDouble(row * 8)
+                );
+                visited++;
+            }
+        }
+        
+        return visited;
+    }
+    
+    /**
+     * Decode every row of the segment, in {@link #ORDER}; used to merge segments
+     */
+    void readAll(List<LedgerEntry> rows) throws IOException {
+        for (int group = 0; group < groupCount; group++) {
+            int count = groupRows(group);
+            ByteBuffer players = inflateColumn(group, COL_PLAYER);
+            ByteBuffer timestamps = inflateColumn(group, COL_TIMESTAMP);
+            ByteBuffer txIds = inflateColumn(group, COL_TX_ID);
+            ByteBuffer directions = inflateColumn(group, COL_DIRECTION);
+            ByteBuffer counterparties = inflateColumn(group, COL_COUNTERPARTY);
+            String[] currencies = decodeCurrencies(inflateColumn(group, COL_CURRENCY), count);
+            ByteBuffer amounts = inflateColumn(group, COL_AMOUNT);
+            ByteBuffer taxes = inflateColumn(group, COL_TAX);
+            
+            for (int row = 0; row < count; row++) {
+                UUID counterparty = new UUID(counterparties.getLong(row * 16), counterparties.getLong(row * 16 + 8));
+                rows.add(new LedgerEntry(
+                    new UUID(players.getLong(row * 16), players.getLong(row * 16 + 8)),
+                    new UUID(txIds.getLong(row * 16), txIds.getLong(row * 16 + 8)),
+                    timestamps.getLong(row * 8),
+                    directions.get(row) == JdbcStorageBackend.DIRECTION_SENT,
+                    UuidCodec.CONSOLE.equals(counterparty) ? null : counterparty,
+                    currencies[row],
+                    amounts.getDouble(row * 8),
+                    taxes.getDouble(row * 8)
+                ));
+            }
+        }
+    }
+    
+    /**
+     * Binary search the directory for the first group whose last player is not before the player
+     */
+    private int firstCandidate(UUID player) {
+        int low = 0;
+        int high = groupCount - 1;
+        int result = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (directoryPlayer(mid, 16).compareTo(player) >= 0) {
+                result = mid;
+                high = mid - 1;
+            } else {
+                low = mid + 1;
+            }
+        }
+        return result;
+    }
+    
+    private boolean mayContain(int group, UUID player) {
+        return directoryPlayer(group, 0).compareTo(player) <= 0 && directoryPlayer(group, 16).compareTo(player) >= 0;
+    }
+    
+    private UUID directoryPlayer(int group, int field) {
+        int entry = group * DIRECTORY_ENTRY_SIZE + field;
+        return new UUID(directory.getLong(entry), directory.getLong(entry + 8));
+    }
+    
+    private int groupRows(int group) {
+        return directory.getInt(group * DIRECTORY_ENTRY_SIZE + 32);
+    }
+    
+    private long groupOffset(int group) {
+        return directory.getLong(group * DIRECTORY_ENTRY_SIZE + 36);
+    }
+    
+    private long groupEnd(int group) {
+        return group + 1 < groupCount ? groupOffset(group + 1) : directoryOffset;
+    }
+    
+    /**
+     * Inflate one column of a group straight from the mapped file
+     */
+    private ByteBuffer inflateColumn(int group, int column) throws IOException {
+        int window = groupWindows[group];
+        ByteBuffer buffer = windows[window];
+        int position = (int) (groupOffset(group) - windowStarts[window]);
+        for (int i = 0; i < column; i++) {
+            position += 8 + buffer.getInt(position + 4);
+        }
+        
+        int rawLength = buffer.getInt(position);
+        int compressedLength = buffer.getInt(position + 4);
+        byte[] raw = new byte[rawLength];
+        
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(buffer.slice(position + 8, compressedLength));
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                read += inflater.inflate(raw, read, rawLength - read);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt archive segment " + path, e);
+        } finally {
+            inflater.end();
+        }
+        return ByteBuffer.wrap(raw);
+    }
+    
+    private static byte[] encodeColumn(List<LedgerEntry> group, int column) {
+        ByteBuffer out;
+        switch (column) {
+            case COL_PLAYER, COL_TX_ID, COL_COUNTERPARTY -> {
+                out = ByteBuffer.allocate(group.size() * 16);
+                for (LedgerEntry row : group) {
+                    UUID uuid = column == COL_PLAYER ? row.getPlayer()
+                        : column == COL_TX_ID ? row.getTransactionId()
+                        : row.getCounterparty() != null ? row.getCounterparty() : UuidCodec.CONSOLE;
+                    out.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+                }
+            }
+            case COL_TIMESTAMP, COL_AMOUNT, COL_TAX -> {
+                out = ByteBuffer.allocate(group.size() * 8);
+                for (LedgerEntry row : group) {
+                    if (column == COL_TIMESTAMP) {
+                        out.putLong(row.getTimestamp());
+                    } else {
+                        out.putDouble(column == COL_AMOUNT ? row.getAmount() : row.getTax());
+                    }
+                }
+            }
+            case COL_DIRECTION -> {
+                out = ByteBuffer.allocate(group.size());
+                for (LedgerEntry row : group) {
+                    out.put((byte) (row.isSent() ? JdbcStorageBackend.DIRECTION_SENT : JdbcStorageBackend.DIRECTION_RECEIVED));
+                }
+            }
+            default -> {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(group.size() * 8);
+                for (LedgerEntry row : group) {
+                    byte[] currency = row.getCurrency().getBytes(StandardCharsets.UTF_8);
+                    bytes.write(currency.length >>> 8);
+                    bytes.write(currency.length);
+                    bytes.write(currency, 0, currency.length);
+                }
+                return bytes.toByteArray();
+            }
+        }
+        return out.array();
+    }
+    
+    private static String[] decodeCurrencies(ByteBuffer column, int rows) {
+        String[] currencies = new String[rows];
+        String previous = null;
+        byte[] previousBytes = null;
+        for (int row = 0; row < rows; row++) {
+            int length = column.getShort() & 0xFFFF;
+            byte[] bytes = new byte[length];
+            column.get(bytes);
+            // Most rows repeat the previous currency; reuse the string instead of decoding again
+            if (previous == null || !Arrays.equals(bytes, previousBytes)) {
+                previous = new String(bytes, StandardCharsets.UTF_8);
+                previousBytes = bytes;
+            }
+            currencies[row] = previous;
+        }
+        return currencies;
+    }
+    
+    private static byte[] deflate(Deflater deflater, byte[] raw) {
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, raw.length / 4));
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            out.write(chunk, 0, length);
+        }
+        return out.toByteArray();
+    }
+    
+    Path getPath() {
+        return path;
+    }
+    
+    int getRowCount() {
+        return rowCount;
+    }
+    
+    long getMinTimestamp() {
+        return minTimestamp;
+    }
+    
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+}
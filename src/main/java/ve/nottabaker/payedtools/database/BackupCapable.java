@@ -0,0 +1,21 @@
+package ve.nottabaker.payedtools.database;
+
+import java.nio.file.Path;
+
+/**
+ * Storage backend that can write online backups. Only backends with something on disk to copy
+ * implement it; {@link BackupJob} skips the others.
+ */
+public interface BackupCapable {
+    
+    /**
+     * File suffix of this backend's backups, e.g. ".db"
+     */
+    String getBackupSuffix();
+    
+    /**
+     * Write an online copy of the store to the given file without blocking writers.
+     * Runs on the maintenance thread and may take a while on large databases.
+     */
+    void backup(Path target, BackupProgress progress) throws Exception;
+}
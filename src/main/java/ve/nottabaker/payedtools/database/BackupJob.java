@@ -0,0 +1,149 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Writes online backups of the active storage backend into the plugin's backups folder.
+ *
+ * The copy runs on the maintenance thread in throttled steps while the server keeps writing,
+ * is written to a temporary file and renamed when complete, and only the newest
+ * database.backup.keep files are kept.
+ */
+public class BackupJob {
+    
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+    private static final String PART_SUFFIX = ".part";
+    
+    private final PayEdtools plugin;
+    private final StorageBackend backend;
+    private final Path folder;
+    private final AtomicBoolean running = new AtomicBoolean();
+    
+    // Progress of the backup in progress and results of the last one
+    private volatile double progress;
+    private volatile long lastDurationMillis = -1;
+    private volatile long lastSizeBytes;
+    private volatile long lastCompletedAt;
+    
+    public BackupJob(PayEdtools plugin, StorageBackend backend) {
+        this.plugin = plugin;
+        this.backend = backend;
+        this.folder = plugin.getDataFolder().toPath().resolve("backups");
+    }
+    
+    /**
+     * Queue a backup on the maintenance thread
+     *
+     * @return false if a backup is already running or the backend does not support backups
+     */
+    public boolean start(ScheduledExecutorService executor) {
+        if (!(backend instanceof BackupCapable)) {
+            Logger.info("Database backup skipped: " + backend.getType() + " storage does not support backups");
+            return false;
+        }
+        if (executor.isShutdown() || !running.compareAndSet(false, true)) {
+            return false;
+        }
+        
+        progress = 0;
+        executor.execute(this::run);
+        return true;
+    }
+    
+    private void run() {
+        String prefix = backend.getType().name().toLowerCase(Locale.ROOT) + "-";
+        BackupCapable source = (BackupCapable) backend;
+        String suffix = source.getBackupSuffix();
+        Path target = folder.resolve(prefix + LocalDateTime.now().format(FILE_TIME) + suffix);
+        Path temp = folder.resolve(target.getFileName() + PART_SUFFIX);
+        long start = System.currentTimeMillis();
+        
+        try {
+            Files.createDirectories(folder);
+            Logger.info("Database backup started: " + target.getFileName());
+            
+            source.backup(temp, (done, total) -> progress = total > 0 ? Math.min(1.0, (double) done / total) : 0);
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            
+            lastDurationMillis = System.currentTimeMillis() - start;
+            lastSizeBytes = Files.size(target);
+            lastCompletedAt = System.currentTimeMillis();
+            progress = 1.0;
+            Logger.info("Database backup written to backups/" + target.getFileName() + " (" +
+                       (lastSizeBytes / 1024) + " KB in " + lastDurationMillis + "ms)");
+                       
+            rotate(prefix, suffix);
+            
+        } catch (Exception e) {
+            Logger.error("Database backup failed", e);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+                // Left for the next run to overwrite
+            }
+        } finally {
+            running.set(false);
+        }
+    }
+    
+    /**
+     * Delete the oldest backups of this backend beyond the configured count
+     */
+    private void rotate(String prefix, String suffix) throws IOException {
+        List<Path> backups = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, prefix + "*" + suffix)) {
+            for (Path file : files) {
+                backups.add(file);
+            }
+        }
+        
+        // Timestamped names sort oldest first
+        Collections.sort(backups);
+        int keep = plugin.getConfigManager().getBackupKeep();
+        for (int i = 0; i < backups.size() - keep; i++) {
+            Files.deleteIfExists(backups.get(i));
+            Logger.debug("Deleted old backup " + backups.get(i).getFileName());
+        }
+    }
+    
+    public boolean isRunning() {
+        return running.get();
+    }
+    
+    /**
+     * Completed share of the running backup, from 0.0 to 1.0
+     */
+    public double getProgress() {
+        return progress;
+    }
+    
+    /**
+     * Duration of the last successful backup, or -1 if none completed yet
+     */
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+    
+    public long getLastSizeBytes() {
+        return lastSizeBytes;
+    }
+    
+    public long getLastCompletedAt() {
+        return lastCompletedAt;
+    }
+}
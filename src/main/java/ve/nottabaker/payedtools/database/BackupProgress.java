@@ -0,0 +1,14 @@
+package ve.nottabaker.payedtools.database;
+
+/**
+ * Receives progress from a running backup
+ */
+@FunctionalInterface
+public interface BackupProgress {
+    
+    /**
+     * @param done units copied so far (pages or rows, depending on the backend)
+     * @param total units to copy in total, or an estimate of it
+     */
+    void update(long done, long total);
+}
@@ -0,0 +1,380 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.ConfigManager;
+import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Group-commits transaction history on a dedicated thread. A batch is written as soon as it
+ * reaches the current batch size or its oldest row reaches the maximum delay, whichever comes
+ * first, so rows never wait long when the server is quiet and a spike is written in large batches.
+ * The batch size adapts to the measured write latency, like the retention job's batches do.
+ * While the database is down, batches go to the {@link Spillover} file instead. A batch the
+ * database refuses is split until the offending rows are found, and those are set aside so
+ * they never hold up the rest of the history.
+ */
+public class BatchWriter {
+    
+    private static final int MIN_BATCH_SIZE = 10;
+    private static final long IDLE_POLL_MILLIS = 100;
+    private static final long MAX_RETRY_DELAY_MILLIS = 30000;
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+    
+    private final StorageBackend backend;
+    private final Spillover spillover;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final long targetLatencyMillis;
+    private final LinkedBlockingQueue<PendingWrite> queue;
+    // Submitted transactions until they are committed or spilled, by transaction id
+    private final Map<UUID, Transaction> unwritten = new ConcurrentHashMap<>();
+    private final Thread thread;
+    // Notified on shutdown to cut a retry backoff short
+    private final Object wakeup = new Object();
+    
+    private volatile boolean running = true;
+    private volatile int batchSize;
+    private volatile long lastLatencyMillis = -1;
+    private volatile PendingWrite lastSubmitted;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    
+    /**
+     * @param spillover where batches go while the database is down, or null to keep retrying
+     */
+    public BatchWriter(PayEdtools plugin, StorageBackend backend, Spillover spillover) {
+        ConfigManager config = plugin.getConfigManager();
+        this.backend = backend;
+        this.spillover = spillover;
+        this.maxBatchSize = config.getBatchSize();
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(config.getBatchMaxDelay());
+        this.targetLatencyMillis = config.getBatchTargetLatency();
+        this.batchSize = maxBatchSize;
+        this.queue = new LinkedBlockingQueue<>(config.getBatchQueueCapacity());
+        
+        this.thread = new Thread(this::run, "PayEdtools-DB-Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+    
+    /**
+     * Queue a transaction for the next batch. When the queue is full it is spilled to disk
+     * right away, or without a spillover the caller waits for room.
+     *
+     * @return completes once the transaction is committed to the database or spilled to disk;
+     *         callbacks run on the writer thread
+     */
+    public CompletableFuture<Void> submit(Transaction transaction) {
+        PendingWrite write = new PendingWrite(transaction);
+        unwritten.put(transaction.getId(), transaction);
+        write.durable.whenComplete((result, error) -> unwritten.remove(transaction.getId()));
+        
+        if (!queue.offer(write)) {
+            if (spillover != null && spillover.spill(List.of(transaction))) {
+                write.durable.complete(null);
+                return write.durable;
+            }
+            try {
+                queue.put(write);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                write.durable.completeExceptionally(e);
+                return write.durable;
+            }
+        }
+        lastSubmitted = write;
+        
+        if (!running && !thread.isAlive()) {
+            // Arrived after shutdown finished; nobody else will drain it
+            drainRemaining();
+        }
+        return write.durable;
+    }
+    
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>();
+        
+        while (running || !queue.isEmpty()) {
+            try {
+                collect(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            
+            if (!batch.isEmpty()) {
+                writeWithRetry(batch);
+                batch.clear();
+            }
+        }
+    }
+    
+    /**
+     * Wait for the first row, then gather more until the batch is full or the first row is due
+     */
+    private void collect(List<PendingWrite> batch) throws InterruptedException {
+        PendingWrite first = queue.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        
+        int target = batchSize;
+        long deadline = first.queuedAt + maxDelayNanos;
+        while (batch.size() < target) {
+            queue.drainTo(batch, target - batch.size());
+            long wait = deadline - System.nanoTime();
+            if (batch.size() >= target || wait <= 0 || !running) {
+                return;
+            }
+            
+            PendingWrite next = queue.poll(wait, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+    
+    /**
+     * Write a batch, retrying transient failures with backoff; new rows wait behind it to keep their order.
+     * A refused batch is split in halves until the rows the database rejects are isolated.
+     */
+    private void writeWithRetry(List<PendingWrite> batch) {
+        long retryDelay = 1000;
+        int attempts = 0;
+        while (true) {
+            WriteResult result = write(batch);
+            if (result == WriteResult.SAVED) {
+                return;
+            }
+            if (result == WriteResult.REJECTED) {
+                bisect(batch);
+                return;
+            }
+            
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+            if (!running || ++attempts >= MAX_WRITE_ATTEMPTS) {
+                giveUp(batch);
+                return;
+            }
+            
+            Logger.warning("Retrying batch of " + batch.size() + " transactions in " + retryDelay + "ms");
+            backoff(retryDelay);
+            retryDelay = Math.min(MAX_RETRY_DELAY_MILLIS, retryDelay * 2);
+        }
+    }
+    
+    private void bisect(List<PendingWrite> batch) {
+        if (batch.size() == 1) {
+            quarantine(batch.get(0));
+            return;
+        }
+        int half = batch.size() / 2;
+        writeWithRetry(new ArrayList<>(batch.subList(0, half)));
+        writeWithRetry(new ArrayList<>(batch.subList(half, batch.size())));
+    }
+    
+    /**
+     * Set aside a row the database refuses; it is kept in the dead-letter file when there is one
+     */
+    private void quarantine(PendingWrite write) {
+        if (spillover != null && spillover.quarantine(List.of(write.transaction))) {
+            write.durable.complete(null);
+            return;
+        }
+        Transaction transaction = write.transaction;
+        Logger.error("Dropping transaction " + transaction.getId() + " rejected by the database (" + transaction.getCurrency()
+            + " " + transaction.getAmount() + " from " + transaction.getSender() + " to " + transaction.getReceiver() + ")");
+        write.durable.completeExceptionally(new IllegalStateException("Transaction history was rejected by the database"));
+    }
+    
+    /**
+     * Spill a batch that could not be written, or drop it with an error when it cannot be spilled either
+     */
+    private void giveUp(List<PendingWrite> batch) {
+        if (spillover != null && spillover.spill(transactionsOf(batch))) {
+            Logger.warning("Spilled " + batch.size() + " unsaved transactions to disk");
+            batch.forEach(write -> write.durable.complete(null));
+            return;
+        }
+        Logger.error("Dropping " + batch.size() + " unsaved transactions from history");
+        IllegalStateException error = new IllegalStateException("Transaction history could not be saved");
+        batch.forEach(write -> write.durable.completeExceptionally(error));
+    }
+    
+    private void backoff(long millis) {
+        synchronized (wakeup) {
+            if (!running) {
+                return;
+            }
+            try {
+                wakeup.wait(millis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+        }
+    }
+    
+    private WriteResult write(List<PendingWrite> batch) {
+        List<Transaction> transactions = transactionsOf(batch);
+        
+        long start = System.nanoTime();
+        Spillover.Outcome outcome;
+        if (spillover != null) {
+            outcome = spillover.write(transactions);
+        } else {
+            WriteResult result = backend.saveTransactionBatch(transactions);
+            if (result != WriteResult.SAVED) {
+                return result;
+            }
+            outcome = Spillover.Outcome.SAVED;
+        }
+        if (outcome == Spillover.Outcome.FAILED) {
+            return WriteResult.RETRY;
+        }
+        if (outcome == Spillover.Outcome.REJECTED) {
+            return WriteResult.REJECTED;
+        }
+        long latency = (System.nanoTime() - start) / 1_000_000;
+        
+        written.add(batch.size());
+        batches.increment();
+        batch.forEach(write -> write.durable.complete(null));
+        if (outcome == Spillover.Outcome.SPILLED) {
+            // Disk latency says nothing about the database; keep the size it had
+            return WriteResult.SAVED;
+        }
+        lastLatencyMillis = latency;
+        
+        // Shrink when a write runs long; grow only when full batches are comfortably fast
+        if (latency > targetLatencyMillis) {
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        } else if (latency * 2 < targetLatencyMillis && batch.size() >= batchSize) {
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
+        }
+        return WriteResult.SAVED;
+    }
+    
+    private static List<Transaction> transactionsOf(List<PendingWrite> batch) {
+        List<Transaction> transactions = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            transactions.add(write.transaction);
+        }
+        return transactions;
+    }
+    
+    private synchronized void drainRemaining() {
+        List<PendingWrite> batch = new ArrayList<>();
+        while (queue.drainTo(batch, maxBatchSize) > 0) {
+            writeWithRetry(batch);
+            batch.clear();
+        }
+    }
+    
+    /**
+     * Completes once every transaction submitted so far is committed, spilled or given up on.
+     * Batches are written in order, so it waits on the last one submitted.
+     */
+    public CompletableFuture<Void> flush() {
+        PendingWrite last = lastSubmitted;
+        if (last == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return last.durable.exceptionally(e -> null);
+    }
+    
+    /**
+     * Submitted transactions of a player that are not committed yet
+     */
+    public List<Transaction> getUnwritten(UUID player) {
+        List<Transaction> transactions = new ArrayList<>();
+        for (Transaction transaction : unwritten.values()) {
+            if (player.equals(transaction.getSender()) || player.equals(transaction.getReceiver())) {
+                transactions.add(transaction);
+            }
+        }
+        return transactions;
+    }
+    
+    /**
+     * Transactions waiting to be written
+     */
+    public int getQueueSize() {
+        return queue.size();
+    }
+    
+    /**
+     * Current adaptive batch size
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+    
+    /**
+     * Duration of the last successful write, or -1 before the first one
+     */
+    public long getLastLatencyMillis() {
+        return lastLatencyMillis;
+    }
+    
+    /**
+     * Average transactions per written batch
+     */
+    public double getAverageBatchRows() {
+        long count = batches.sum();
+        return count > 0 ? (double) written.sum() / count : 0;
+    }
+    
+    /**
+     * Write everything still queued and stop the writer thread
+     */
+    public void shutdown() {
+        synchronized (wakeup) {
+            running = false;
+            wakeup.notifyAll();
+        }
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        
+        if (thread.isAlive()) {
+            // Stuck in a database call; take what is left so it is not lost when the database closes
+            List<PendingWrite> remaining = new ArrayList<>();
+            queue.drainTo(remaining);
+            if (!remaining.isEmpty()) {
+                Logger.warning("History writer did not finish in time; spilling " + remaining.size() + " queued transactions");
+                giveUp(remaining);
+            }
+            return;
+        }
+        drainRemaining();
+    }
+    
+    /**
+     * A queued transaction and the future completed when it is committed
+     */
+    private static class PendingWrite {
+        private final Transaction transaction;
+        private final long queuedAt = System.nanoTime();
+        private final CompletableFuture<Void> durable = new CompletableFuture<>();
+        
+        private PendingWrite(Transaction transaction) {
+            this.transaction = transaction;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package ve.nottabaker.payedtools.database;
+
+/**
+ * Tracks whether the database is reachable. Opens after a number of consecutive failed writes;
+ * while open, callers skip the database and a prober checks it with exponential backoff.
+ */
+public class CircuitBreaker {
+    
+    private static final long INITIAL_PROBE_DELAY_MILLIS = 1000;
+    
+    private final int failureThreshold;
+    private final long maxProbeDelayMillis;
+    
+    private int consecutiveFailures;
+    private volatile boolean open;
+    private long probeDelayMillis = INITIAL_PROBE_DELAY_MILLIS;
+    private long nextProbeAt;
+    private long openedAt;
+    
+    public CircuitBreaker(int failureThreshold, long maxProbeDelayMillis) {
+        this.failureThreshold = failureThreshold;
+        this.maxProbeDelayMillis = maxProbeDelayMillis;
+    }
+    
+    /**
+     * Whether the database is considered down
+     */
+    public boolean isOpen() {
+        return open;
+    }
+    
+    public synchronized void recordSuccess() {
+        consecutiveFailures = 0;
+    }
+    
+    /**
+     * Count a failed operation, opening the breaker once the threshold is reached
+     *
+     * @return true if this failure opened the breaker
+     */
+    public synchronized boolean recordFailure() {
+        consecutiveFailures++;
+        if (open || consecutiveFailures < failureThreshold) {
+            return false;
+        }
+        
+        open = true;
+        openedAt = System.currentTimeMillis();
+        probeDelayMillis = INITIAL_PROBE_DELAY_MILLIS;
+        nextProbeAt = openedAt + probeDelayMillis;
+        return true;
+    }
+    
+    /**
+     * Whether the breaker is open and its backoff allows another probe now
+     */
+    public synchronized boolean isProbeDue() {
+        return open && System.currentTimeMillis() >= nextProbeAt;
+    }
+    
+    /**
+     * Double the wait before the next probe, up to the configured maximum
+     */
+    public synchronized void probeFailed() {
+        probeDelayMillis = Math.min(maxProbeDelayMillis, probeDelayMillis * 2);
+        nextProbeAt = System.currentTimeMillis() + probeDelayMillis;
+    }
+    
+    /**
+     * Close the breaker after a successful probe
+     *
+     * @return how long the breaker was open, in milliseconds
+     */
+    public synchronized long probeSucceeded() {
+        open = false;
+        consecutiveFailures = 0;
+        return System.currentTimeMillis() - openedAt;
+    }
+}
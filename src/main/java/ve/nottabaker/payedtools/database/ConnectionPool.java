@@ -0,0 +1,84 @@
+package ve.nottabaker.payedtools.database;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A named Hikari pool that also records how long callers wait for a connection
+ */
+public class ConnectionPool {
+    
+    private final String name;
+    private final HikariDataSource dataSource;
+    
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    
+    public ConnectionPool(String name, HikariDataSource dataSource) {
+        this.name = name;
+        this.dataSource = dataSource;
+    }
+    
+    /**
+     * Borrow a connection; callers must close it to return it
+     */
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        Connection conn = dataSource.getConnection();
+        long wait = System.nanoTime() - start;
+        
+        acquired.increment();
+        totalWaitNanos.add(wait);
+        maxWaitNanos.accumulateAndGet(wait, Math::max);
+        return conn;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public int getMaximumSize() {
+        return dataSource.getMaximumPoolSize();
+    }
+    
+    /**
+     * Connections currently borrowed
+     */
+    public int getActiveConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool != null ? pool.getActiveConnections() : 0;
+    }
+    
+    /**
+     * Callers blocked waiting for a connection right now
+     */
+    public int getWaitingThreads() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool != null ? pool.getThreadsAwaitingConnection() : 0;
+    }
+    
+    public double getAverageWaitMillis() {
+        long count = acquired.sum();
+        return count > 0 ? totalWaitNanos.sum() / 1_000_000.0 / count : 0;
+    }
+    
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+    
+    public boolean isClosed() {
+        return dataSource.isClosed();
+    }
+    
+    public void close() {
+        if (!dataSource.isClosed()) {
+            dataSource.close();
+        }
+    }
+}
@@ -1,26 +1,42 @@
 package ve.nottabaker.payedtools.database;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
 import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.ConfigManager;
+import ve.nottabaker.payedtools.managers.TransactionManager.HistoryPage;
 import ve.nottabaker.payedtools.managers.TransactionManager.TransactionStats;
+import ve.nottabaker.payedtools.models.HistoryCursor;
+import ve.nottabaker.payedtools.models.InboxEntry;
 import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.utils.HourlyVolumeRing;
 import ve.nottabaker.payedtools.utils.Logger;
 
-import java.io.File;
-import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
 
 /**
- * Manages database operations for transaction history
+ * Manages database operations for transaction history.
+ * The configured {@link StorageBackend} does the work; this class owns its lifecycle
+ * and the background thread used for maintenance.
  */
 public class DatabaseManager {
     
     private final PayEdtools plugin;
-    private Connection connection;
-    private HikariDataSource dataSource;
+    private StorageBackend backend;
+    private BackupJob backupJob;
+    private JoinPipeline joinPipeline;
+    private ReadExecutor readExecutor;
+    private HistoryCache historyCache;
+    private BatchWriter batchWriter;
+    private Spillover spillover;
+    private ScheduledExecutorService maintenanceExecutor;
     
     public DatabaseManager(PayEdtools plugin) {
         this.plugin = plugin;
@@ -30,447 +46,398 @@ public class DatabaseManager {
      * Initialize database connection and tables
      */
     public void initialize() {
+        StorageType type = plugin.getConfigManager().getDatabaseType();
+        
+        backend = switch (type) {
+            case SQLITE -> new SQLiteStorageBackend(plugin);
+            case MYSQL -> new MySQLStorageBackend(plugin);
+            case H2 -> new H2StorageBackend(plugin);
+            case MEMORY -> new MemoryStorageBackend(plugin);
+        };
+        
+        maintenanceExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PayEdtools-DB-Maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        
+        backupJob = new BackupJob(plugin, backend);
+        joinPipeline = new JoinPipeline(plugin, backend);
+        
         try {
-            String dbType = plugin.getConfigManager().getDatabaseType();
-            
-                    if (dbType.equalsIgnoreCase("SQLITE")) {
-                        initializeSQLite();
-                        createTables(connection);
-                    } else if (dbType.equalsIgnoreCase("MYSQL")) {
-                        initializeMySQL();
-                        // Tables are created in initializeMySQL() method
-                    } else {
-                        Logger.error("Unknown database type: " + dbType);
-                        return;
-                    }
-            Logger.info("Database initialized successfully");
+            backend.initialize(maintenanceExecutor);
+            Logger.info("Database initialized successfully (" + type + ")");
+            if (plugin.getConfigManager().isBackupOnReload() && !(backend instanceof BackupCapable)) {
+                Logger.warning("advanced.backup-on-reload is enabled, but " + type + " storage does not support backups");
+            }
             
         } catch (Exception e) {
             Logger.error("Failed to initialize database", e);
         }
+        
+        int readThreads = plugin.getConfigManager().getReadThreads();
+        if (readThreads == 0) {
+            readThreads = Math.max(1, backend.getReadConcurrency());
+        }
+        readExecutor = new ReadExecutor(readThreads, plugin.getConfigManager().getReadQueueSize());
+        Logger.debug("Database read threads: " + readThreads);
+        
+        ConfigManager config = plugin.getConfigManager();
+        // The memory backend cannot go down
+        if (config.isSpilloverEnabled() && type != StorageType.MEMORY) {
+            spillover = Spillover.create(plugin, backend);
+        }
+        if (config.isBatchDatabaseOperations()) {
+            batchWriter = new BatchWriter(plugin, backend, spillover);
+        }
+        
+        // The memory backend already serves history from memory
+        if (config.isHistoryCacheEnabled() && type != StorageType.MEMORY) {
+            historyCache = new HistoryCache(backend, batchWriter, spillover, config.getHistoryCacheEntries(),
+                config.getHistoryCacheMaxPlayers(), config.getHistoryCacheDuration() * 1000L);
+        }
     }
     
     /**
-     * Initialize SQLite connection
+     * Active storage backend, or null before initialization
      */
-    private void initializeSQLite() throws SQLException {
-        String filename = plugin.getConfigManager().getSqliteFilename();
-        File dbFile = new File(plugin.getDataFolder(), filename);
-        
-        String url = "jdbc:sqlite:" + dbFile.getAbsolutePath();
-        connection = DriverManager.getConnection(url);
-        
-        Logger.debug("SQLite database connected: " + dbFile.getAbsolutePath());
+    public StorageBackend getBackend() {
+        return backend;
     }
     
     /**
-     * Initialize MySQL connection with HikariCP
+     * Save a single transaction
      */
-    private void initializeMySQL() throws SQLException {
-        String host = plugin.getConfigManager().getMysqlHost();
-        int port = plugin.getConfigManager().getMysqlPort();
-        String database = plugin.getConfigManager().getMysqlDatabase();
-        String username = plugin.getConfigManager().getMysqlUsername();
-        String password = plugin.getConfigManager().getMysqlPassword();
-        
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + database + 
-                         "?autoReconnect=true&useSSL=false&allowPublicKeyRetrieval=true");
-        config.setUsername(username);
-        config.setPassword(password);
-        config.setDriverClassName("com.mysql.cj.jdbc.Driver");
-        
-        // Connection pool settings
-        config.setMaximumPoolSize(plugin.getConfigManager().getMysqlMaxPoolSize());
-        config.setMinimumIdle(plugin.getConfigManager().getMysqlMinIdle());
-        config.setConnectionTimeout(plugin.getConfigManager().getMysqlConnectionTimeout());
-        config.setIdleTimeout(300000); // 5 minutes
-        config.setMaxLifetime(1800000); // 30 minutes
-        config.setLeakDetectionThreshold(60000); // 1 minute
-        
-        // Performance optimizations
-        config.addDataSourceProperty("cachePrepStmts", "true");
-        config.addDataSourceProperty("prepStmtCacheSize", "250");
-        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-        config.addDataSourceProperty("useServerPrepStmts", "true");
-        config.addDataSourceProperty("useLocalSessionState", "true");
-        config.addDataSourceProperty("rewriteBatchedStatements", "true");
-        config.addDataSourceProperty("cacheResultSetMetadata", "true");
-        config.addDataSourceProperty("cacheServerConfiguration", "true");
-        config.addDataSourceProperty("elideSetAutoCommits", "true");
-        config.addDataSourceProperty("maintainTimeStats", "false");
-        
-        dataSource = new HikariDataSource(config);
-        
-        // Test connection and create tables
-        try (Connection testConnection = dataSource.getConnection()) {
-            createTables(testConnection);
+    public void saveTransaction(Transaction transaction) {
+        if (backend != null) {
+            backend.saveTransaction(transaction);
         }
-        
-        Logger.debug("MySQL database connected with HikariCP: " + host + ":" + port);
-        Logger.debug("Connection pool size: " + config.getMaximumPoolSize());
     }
     
     /**
-     * Create necessary database tables
+     * Save multiple transactions in a batch
+     *
+     * @return false if nothing was written
      */
-    private void createTables(Connection conn) throws SQLException {
-        // Create the main table first
-        String createTableSQL = """
-            CREATE TABLE IF NOT EXISTS transactions (
-                id VARCHAR(36) PRIMARY KEY,
-                sender VARCHAR(36) NOT NULL,
-                receiver VARCHAR(36) NOT NULL,
-                currency VARCHAR(64) NOT NULL,
-                amount DOUBLE NOT NULL,
-                tax DOUBLE DEFAULT 0,
-                timestamp BIGINT NOT NULL
-            )
-        """;
-        
-        try (Statement stmt = conn.createStatement()) {
-            stmt.execute(createTableSQL);
-            Logger.debug("Transactions table created/verified");
-            
-            // Create last logins table
-            String createLastLoginsSQL = """
-                CREATE TABLE IF NOT EXISTS last_logins (
-                    player_uuid VARCHAR(36) PRIMARY KEY,
-                    last_login_time BIGINT NOT NULL
-                )
-            """;
-            stmt.execute(createLastLoginsSQL);
-            Logger.debug("Last logins table created/verified");
-            
-            // Create indexes separately (SQLite compatible)
-            createIndexes(stmt);
-        }
+    public boolean saveTransactionBatch(List<Transaction> transactions) {
+        return backend != null && backend.saveTransactionBatch(transactions) == WriteResult.SAVED;
     }
     
     /**
-     * Create database indexes
+     * Hand a transaction to the background writer, or save it now when batching is off
+     *
+     * @return completes once the transaction is committed to the database or spilled to disk
      */
-    private void createIndexes(Statement stmt) throws SQLException {
-        String[] indexes = {
-            "CREATE INDEX IF NOT EXISTS idx_transactions_sender ON transactions (sender)",
-            "CREATE INDEX IF NOT EXISTS idx_transactions_receiver ON transactions (receiver)",
-            "CREATE INDEX IF NOT EXISTS idx_transactions_timestamp ON transactions (timestamp)",
-            "CREATE INDEX IF NOT EXISTS idx_transactions_currency ON transactions (currency)"
-        };
+    public CompletableFuture<Void> queueTransaction(Transaction transaction) {
+        if (batchWriter != null) {
+            return batchWriter.submit(transaction);
+        }
         
-        for (String indexSQL : indexes) {
-            try {
-                stmt.execute(indexSQL);
-                Logger.debug("Index created: " + indexSQL);
-            } catch (SQLException e) {
-                Logger.warning("Failed to create index: " + indexSQL + " - " + e.getMessage());
-                // Continue with other indexes even if one fails
-            }
+        if (spillover == null) {
+            saveTransaction(transaction);
+            return CompletableFuture.completedFuture(null);
+        }
+        Spillover.Outcome outcome = spillover.write(List.of(transaction));
+        if (outcome == Spillover.Outcome.REJECTED && spillover.quarantine(List.of(transaction))) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (outcome == Spillover.Outcome.FAILED || outcome == Spillover.Outcome.REJECTED) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Transaction history could not be saved"));
         }
+        return CompletableFuture.completedFuture(null);
     }
     
     /**
-     * Save a single transaction
+     * Background history writer, or null when batching is off
      */
-    public void saveTransaction(Transaction transaction) {
-        String sql = "INSERT INTO transactions (id, sender, receiver, currency, amount, tax, timestamp) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, transaction.getId().toString());
-            // Handle console transactions (sender is null)
-            String senderUUID = transaction.getSender() != null ? 
-                transaction.getSender().toString() : "CONSOLE";
-            stmt.setString(2, senderUUID);
-            stmt.setString(3, transaction.getReceiver().toString());
-            stmt.setString(4, transaction.getCurrency());
-            stmt.setDouble(5, transaction.getAmount());
-            stmt.setDouble(6, transaction.getTax());
-            stmt.setLong(7, transaction.getTimestamp());
-            
-            stmt.executeUpdate();
-            Logger.debug("Transaction saved: " + transaction.getId());
-            
-        } catch (SQLException e) {
-            Logger.error("Failed to save transaction: " + transaction.getId(), e);
-        }
+    public BatchWriter getBatchWriter() {
+        return batchWriter;
     }
     
     /**
-     * Save multiple transactions in a batch
+     * Database spillover with its breaker state, or null when disabled
      */
-    public void saveTransactionBatch(List<Transaction> transactions) {
-        if (transactions.isEmpty()) {
-            return;
-        }
-        
-        String sql = "INSERT INTO transactions (id, sender, receiver, currency, amount, tax, timestamp) VALUES (?, ?, ?, ?, ?, ?, ?)";
-        
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            conn.setAutoCommit(false);
-            
-            for (Transaction transaction : transactions) {
-                stmt.setString(1, transaction.getId().toString());
-                // Handle console transactions (sender is null)
-                String senderUUID = transaction.getSender() != null ? 
-                    transaction.getSender().toString() : "CONSOLE";
-                stmt.setString(2, senderUUID);
-                stmt.setString(3, transaction.getReceiver().toString());
-                stmt.setString(4, transaction.getCurrency());
-                stmt.setDouble(5, transaction.getAmount());
-                stmt.setDouble(6, transaction.getTax());
-                stmt.setLong(7, transaction.getTimestamp());
-                stmt.addBatch();
-            }
-            
-            stmt.executeBatch();
-            conn.commit();
-            conn.setAutoCommit(true);
-            
-            Logger.debug("Batch of " + transactions.size() + " transactions saved");
-            
-        } catch (SQLException e) {
-            Logger.error("Failed to save transaction batch", e);
-            try (Connection rollbackConn = getConnection()) {
-                rollbackConn.rollback();
-            } catch (SQLException ex) {
-                Logger.error("Failed to rollback batch", ex);
-            }
-        }
+    public Spillover getSpillover() {
+        return spillover;
+    }
+    
+    /**
+     * Whether the database is considered down; lookups then fail fast instead of waiting on it
+     */
+    public boolean isDatabaseDown() {
+        return spillover != null && spillover.isOpen();
     }
     
     /**
      * Get transaction history for a player
      */
     public List<Transaction> getTransactionHistory(UUID uuid, int limit) {
-        List<Transaction> history = new ArrayList<>();
-        
-        String sql = "SELECT * FROM transactions WHERE sender = ? OR receiver = ? ORDER BY timestamp DESC LIMIT ?";
-        
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, uuid.toString());
-            stmt.setString(2, uuid.toString());
-            stmt.setInt(3, limit);
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                // Handle console transactions (sender stored as "CONSOLE")
-                String senderStr = rs.getString("sender");
-                UUID senderUUID = "CONSOLE".equals(senderStr) ? null : UUID.fromString(senderStr);
-                
-                Transaction transaction = new Transaction(
-                    UUID.fromString(rs.getString("id")),
-                    senderUUID,
-                    UUID.fromString(rs.getString("receiver")),
-                    rs.getString("currency"),
-                    rs.getDouble("amount"),
-                    rs.getLong("timestamp")
-                );
-                transaction.setTax(rs.getDouble("tax"));
-                
-                history.add(transaction);
-            }
-            
-        } catch (SQLException e) {
-            Logger.error("Failed to get transaction history for " + uuid, e);
-        }
-        
-        return history;
+        return backend != null ? backend.getTransactionHistory(uuid, limit) : new ArrayList<>();
     }
     
     /**
      * Get transaction history for a player since a specific time
      */
     public List<Transaction> getTransactionHistorySince(UUID uuid, long sinceTime, int limit) {
-        List<Transaction> history = new ArrayList<>();
-        
-        String sql = "SELECT * FROM transactions WHERE (sender = ? OR receiver = ?) AND timestamp >= ? ORDER BY timestamp DESC LIMIT ?";
+        return backend != null ? backend.getTransactionHistorySince(uuid, sinceTime, limit) : new ArrayList<>();
+    }
+    
+    /**
+     * Stream one page of a player's history into a visitor, newest first
+     *
+     * @param after end cursor of the previous page, or null for the first page
+     * @return the page that was read, or null if the read failed
+     */
+    public HistoryPage streamHistoryPage(UUID uuid, HistoryCursor after, int pageSize, LedgerVisitor visitor) {
+        if (backend == null) {
+            return null;
+        }
         
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, uuid.toString());
-            stmt.setString(2, uuid.toString());
-            stmt.setLong(3, sinceTime);
-            stmt.setInt(4, limit);
-            
-            ResultSet rs = stmt.executeQuery();
-            
-            while (rs.next()) {
-                // Handle console transactions (sender stored as "CONSOLE")
-                String senderStr = rs.getString("sender");
-                UUID senderUUID = "CONSOLE".equals(senderStr) ? null : UUID.fromString(senderStr);
-                
-                Transaction transaction = new Transaction(
-                    UUID.fromString(rs.getString("id")),
-                    senderUUID,
-                    UUID.fromString(rs.getString("receiver")),
-                    rs.getString("currency"),
-                    rs.getDouble("amount"),
-                    rs.getLong("timestamp")
-                );
-                transaction.setTax(rs.getDouble("tax"));
-                
-                history.add(transaction);
+        // Legacy rows still being copied would be missing from the cached view
+        if (historyCache != null && !backend.isMigrating()) {
+            HistoryPage cached = historyCache.read(uuid, after, pageSize, visitor);
+            if (cached != null) {
+                return cached;
             }
-            
-        } catch (SQLException e) {
-            Logger.error("Failed to get transaction history since " + sinceTime + " for " + uuid, e);
+        }
+        if (isDatabaseDown()) {
+            return null;
+        }
+        return backend.streamHistoryPage(uuid, after, pageSize, visitor);
+    }
+    
+    /**
+     * Find the cursor of the row that lies a number of rows past the given cursor
+     *
+     * @return cursor of the last skipped row, or null if history ends before that
+     */
+    public HistoryCursor findHistoryCursor(UUID uuid, HistoryCursor after, int rows) {
+        if (backend == null) {
+            return null;
         }
         
-        return history;
+        if (historyCache != null && !backend.isMigrating()) {
+            HistoryCursor cached = historyCache.findCursor(uuid, after, rows);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (isDatabaseDown()) {
+            return null;
+        }
+        return backend.findHistoryCursor(uuid, after, rows);
+    }
+    
+    /**
+     * Add a committed transaction to the recent history cache, ahead of its database write
+     */
+    public void cacheTransaction(Transaction transaction) {
+        if (historyCache != null) {
+            historyCache.append(transaction);
+        }
+    }
+    
+    /**
+     * Recent history cache, or null if it is disabled
+     */
+    public HistoryCache getHistoryCache() {
+        return historyCache;
     }
     
     /**
      * Get transaction statistics for a player
      */
     public TransactionStats getTransactionStats(UUID uuid) {
-        int sentCount = 0;
-        int receivedCount = 0;
-        double sentTotal = 0;
-        double receivedTotal = 0;
-        
-        // Get sent transactions
-        String sentSQL = "SELECT COUNT(*) as count, SUM(amount) as total FROM transactions WHERE sender = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sentSQL)) {
-            stmt.setString(1, uuid.toString());
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                sentCount = rs.getInt("count");
-                sentTotal = rs.getDouble("total");
-            }
-        } catch (SQLException e) {
-            Logger.error("Failed to get sent stats for " + uuid, e);
+        if (backend == null || isDatabaseDown()) {
+            return new TransactionStats(0, 0, 0, 0);
+        }
+        return backend.getTransactionStats(uuid);
+    }
+    
+    /**
+     * Stream the amounts sent in a time range, summed per player, currency and hour.
+     * Transactions still in the spill file are included, one visit each.
+     *
+     * @return false if there is no database to read or the read failed
+     */
+    public boolean streamSentVolume(long sinceTime, long untilTime, SentVolumeVisitor visitor) {
+        if (backend == null || isDatabaseDown()) {
+            return false;
         }
         
-        // Get received transactions
-        String receivedSQL = "SELECT COUNT(*) as count, SUM(amount) as total FROM transactions WHERE receiver = ?";
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(receivedSQL)) {
-            stmt.setString(1, uuid.toString());
-            ResultSet rs = stmt.executeQuery();
-            
-            if (rs.next()) {
-                receivedCount = rs.getInt("count");
-                receivedTotal = rs.getDouble("total");
+        // Read before the ledger, so a chunk replayed in between is counted twice rather than missed
+        if (spillover != null && !spillover.forEachPending(transaction -> {
+            long timestamp = transaction.getTimestamp();
+            if (transaction.getSender() != null && timestamp >= sinceTime && timestamp < untilTime) {
+                visitor.visit(transaction.getSender(), transaction.getCurrency(),
+                    timestamp - timestamp % HourlyVolumeRing.HOUR_MILLIS, transaction.getAmount());
             }
-        } catch (SQLException e) {
-            Logger.error("Failed to get received stats for " + uuid, e);
+        })) {
+            return false;
         }
-        
-        return new TransactionStats(sentCount, receivedCount, sentTotal, receivedTotal);
+        return backend.streamSentVolume(sinceTime, untilTime, visitor);
     }
     
     /**
-     * Cleanup old transactions
+     * Wait until the history queued so far is committed to the database or spilled to disk
+     *
+     * @return false if the writer did not catch up in time
      */
-    public void cleanupOldTransactions() {
-        int days = plugin.getConfigManager().getCleanupAfterDays();
-        if (days <= 0) {
-            return;
+    public boolean flushHistory(long timeoutMillis) {
+        if (batchWriter == null) {
+            return true;
         }
-        
-        long cutoffTime = System.currentTimeMillis() - (days * 24L * 60L * 60L * 1000L);
-        String sql = "DELETE FROM transactions WHERE timestamp < ?";
-        
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setLong(1, cutoffTime);
-            int deleted = stmt.executeUpdate();
+        try {
+            batchWriter.flush().get(timeoutMillis, TimeUnit.MILLISECONDS);
+            return true;
             
-            if (deleted > 0) {
-                Logger.info("Cleaned up " + deleted + " old transactions");
-            }
-        } catch (SQLException e) {
-            Logger.error("Failed to cleanup old transactions", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Recompute the per-currency statistics from the stored history
+     *
+     * @return number of (player, currency) rows written, or -1 if the rebuild failed
+     */
+    public int rebuildPlayerStats() {
+        return backend != null ? backend.rebuildPlayerStats() : -1;
+    }
+    
+    /**
+     * Run the retention job now instead of waiting for its next scheduled run
+     */
+    public void cleanupOldTransactions() {
+        if (backend != null) {
+            backend.cleanupOldTransactions();
         }
     }
     
     /**
-     * Backup database
+     * Whether the active backend can write online backups
+     */
+    public boolean supportsBackup() {
+        return backend instanceof BackupCapable;
+    }
+    
+    /**
+     * Start an online backup in the background
+     *
+     * @return false if a backup is already running or the backend does not support backups
      */
-    public void backup() {
-        // Implementation would depend on database type
-        Logger.info("Database backup requested (not yet implemented)");
+    public boolean backup() {
+        return backupJob != null && backupJob.start(maintenanceExecutor);
+    }
+    
+    /**
+     * Backup job with progress and timings of the last run, or null before initialization
+     */
+    public BackupJob getBackupJob() {
+        return backupJob;
     }
     
     /**
      * Get the last login time for a player from database
      */
     public long getLastLoginTime(UUID playerUUID) {
-        String sql = "SELECT last_login_time FROM last_logins WHERE player_uuid = ?";
-        
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, playerUUID.toString());
-            
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                return rs.getLong("last_login_time");
-            }
-        } catch (SQLException e) {
-            Logger.error("Error getting last login time for " + playerUUID, e);
+        if (backend == null) {
+            return System.currentTimeMillis() - (24 * 60 * 60 * 1000);
         }
-        
-        // If no last login time found, return 24 hours ago as fallback
-        return System.currentTimeMillis() - (24 * 60 * 60 * 1000);
+        return backend.getLastLoginTime(playerUUID);
     }
     
     /**
      * Update the last login time for a player in database
      */
     public void updateLastLoginTime(UUID playerUUID) {
-        // Use UPSERT syntax compatible with both MySQL and SQLite
-        String sql;
-        if (plugin.getConfigManager().getDatabaseType().equalsIgnoreCase("MYSQL")) {
-            sql = "INSERT INTO last_logins (player_uuid, last_login_time) VALUES (?, ?) ON DUPLICATE KEY UPDATE last_login_time = VALUES(last_login_time)";
-        } else {
-            sql = "INSERT OR REPLACE INTO last_logins (player_uuid, last_login_time) VALUES (?, ?)";
+        if (backend != null) {
+            backend.updateLastLoginTime(playerUUID);
         }
-        
-        try (Connection conn = getConnection();
-             PreparedStatement stmt = conn.prepareStatement(sql)) {
-            stmt.setString(1, playerUUID.toString());
-            stmt.setLong(2, System.currentTimeMillis());
-            
-            stmt.executeUpdate();
-            Logger.debug("Updated last login time for " + playerUUID);
-        } catch (SQLException e) {
-            Logger.error("Error updating last login time for " + playerUUID, e);
+    }
+    
+    /**
+     * Queue a joining player; joins arriving close together share their database round trips
+     *
+     * @return offline payments waiting for the player, per currency
+     */
+    public CompletableFuture<List<InboxEntry>> submitJoin(UUID playerUUID) {
+        if (joinPipeline == null) {
+            return CompletableFuture.completedFuture(List.of());
         }
+        return joinPipeline.submit(playerUUID);
     }
     
     /**
-     * Get a database connection from the pool or direct for SQLite.
+     * Run a read on the database read threads
+     *
+     * @param key identifies the query and its arguments; an identical read already in flight is
+     *            shared instead of repeated. Null always runs the read separately.
      */
-    private Connection getConnection() throws SQLException {
-        if (plugin.getConfigManager().getDatabaseType().equalsIgnoreCase("MYSQL") && dataSource != null) {
-            return dataSource.getConnection();
+    public <T> CompletableFuture<T> read(String key, Supplier<T> query) {
+        if (readExecutor == null) {
+            return CompletableFuture.completedFuture(query.get());
         }
-        // Fallback for SQLite or if MySQL dataSource is not initialized
-        return connection;
+        return readExecutor.submit(key, query);
+    }
+    
+    /**
+     * Read threads with their queue-wait and coalescing counters, or null before initialization
+     */
+    public ReadExecutor getReadExecutor() {
+        return readExecutor;
+    }
+    
+    /**
+     * Archive of history past the retention window, or null if archiving is disabled
+     */
+    public HistoryArchive getHistoryArchive() {
+        return backend != null ? backend.getHistoryArchive() : null;
+    }
+    
+    /**
+     * Whether legacy history is still being migrated to the current schema
+     */
+    public boolean isMigrating() {
+        return backend != null && backend.isMigrating();
     }
     
     /**
      * Close database connection
      */
     public void shutdown() {
-        try {
-            if (connection != null && !connection.isClosed()) {
-                connection.close();
-                Logger.info("Database connection closed");
-            }
-            
-            if (dataSource != null && !dataSource.isClosed()) {
-                dataSource.close();
-                Logger.info("HikariCP connection pool closed");
+        if (readExecutor != null) {
+            readExecutor.shutdown();
+        }
+        
+        if (joinPipeline != null) {
+            joinPipeline.shutdown();
+        }
+        
+        if (batchWriter != null) {
+            batchWriter.shutdown();
+        }
+        
+        if (spillover != null) {
+            spillover.shutdown();
+        }
+        
+        if (maintenanceExecutor != null) {
+            maintenanceExecutor.shutdown();
+            try {
+                if (!maintenanceExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                    maintenanceExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                maintenanceExecutor.shutdownNow();
             }
-        } catch (SQLException e) {
-            Logger.error("Error closing database connection", e);
+        }
+        
+        if (backend != null) {
+            backend.shutdown();
         }
     }
 }
@@ -0,0 +1,266 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.models.LedgerEntry;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Cold storage for history past the retention window.
+ *
+ * Before the retention job deletes ledger rows, they are exported here in timestamp order
+ * into {@link ArchiveSegment} files under the plugin's archive folder. The export watermark
+ * is kept in schema_meta, and retention only deletes rows at or below it, so nothing is
+ * removed from the database before it is safely on disk. Runs of small segments left by
+ * short exports are merged up to the configured segment size.
+ */
+public class HistoryArchive {
+    
+    private static final String ARCHIVED_THROUGH_KEY = "archive_through";
+    private static final String SEGMENT_SUFFIX = ".pseg";
+    
+    private final PayEdtools plugin;
+    private final JdbcStorageBackend backend;
+    private final Path folder;
+    
+    // Segments keyed by newest timestamp, newest first; segments never overlap in time
+    private final NavigableMap<Long, ArchiveSegment> segments = new ConcurrentSkipListMap<>(Comparator.reverseOrder());
+    private volatile long archivedThrough = Long.MIN_VALUE;
+    
+    public HistoryArchive(PayEdtools plugin, JdbcStorageBackend backend) {
+        this.plugin = plugin;
+        this.backend = backend;
+        this.folder = new File(plugin.getDataFolder(), "archive").toPath();
+    }
+    
+    /**
+     * Load the export watermark and map the existing segment files
+     */
+    public void load() {
+        try (Connection conn = backend.getConnection()) {
+            String value = SchemaMigrator.getMeta(conn, ARCHIVED_THROUGH_KEY);
+            archivedThrough = value != null ? Long.parseLong(value) : Long.MIN_VALUE;
+        } catch (SQLException e) {
+            Logger.error("Failed to read archive watermark", e);
+        }
+        
+        List<ArchiveSegment> found = new ArrayList<>();
+        if (Files.isDirectory(folder)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(folder, "*" + SEGMENT_SUFFIX)) {
+                for (Path file : files) {
+                    try {
+                        found.add(ArchiveSegment.open(file));
+                    } catch (IOException e) {
+                        Logger.warning("Skipping unreadable archive segment " + file.getFileName() + ": " + e.getMessage());
+                    }
+                }
+            } catch (IOException e) {
+                Logger.error("Failed to list archive segments", e);
+            }
+        }
+        
+        // A segment inside another one's time range was merged into it before a crash or a failed delete
+        found.sort(Comparator.comparingLong(ArchiveSegment::getMinTimestamp)
+            .thenComparing(Comparator.comparingLong(ArchiveSegment::getMaxTimestamp).reversed()));
+        long coveredThrough = Long.MIN_VALUE;
+        for (ArchiveSegment segment : found) {
+            if (segment.getMaxTimestamp() <= coveredThrough) {
+                delete(segment);
+                continue;
+            }
+            segments.put(segment.getMaxTimestamp(), segment);
+            coveredThrough = segment.getMaxTimestamp();
+        }
+        
+        Logger.debug("History archive loaded: " + segments.size() + " segments");
+    }
+    
+    /**
+     * Export the next chunk of expired ledger rows into a new segment and advance the watermark.
+     * The chunk ends at the timestamp of its last row, including every row that shares it.
+     *
+     * @return number of rows exported; 0 once everything before the cutoff is archived
+     */
+    int exportChunk(long cutoffTime) throws SQLException, IOException {
+        int segmentRows = plugin.getConfigManager().getArchiveSegmentRows();
+        List<LedgerEntry> rows = new ArrayList<>();
+        
+        try (Connection conn = backend.getConnection()) {
+            Long bound = null;
+            try (PreparedStatement stmt = conn.prepareStatement(
+                    "SELECT timestamp FROM ledger_entries WHERE timestamp > ? AND timestamp < ? ORDER BY timestamp LIMIT 1 OFFSET ?")) {
+                stmt.setLong(1, archivedThrough);
+                stmt.setLong(2, cutoffTime);
+                stmt.setInt(3, segmentRows - 1);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (rs.next()) {
+                        bound = rs.getLong(1);
+                    }
+                }
+            }
+            
+            String sql = "SELECT player, timestamp, tx_id, direction, counterparty, currency, amount, tax FROM ledger_entries " +
+                         "WHERE timestamp > ? AND " + (bound != null ? "timestamp <= ?" : "timestamp < ?");
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setLong(1, archivedThrough);
+                stmt.setLong(2, bound != null ? bound : cutoffTime);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        rows.add(new LedgerEntry(
+                            UuidCodec.fromBytes(rs.getBytes(1)),
+                            UuidCodec.fromBytes(rs.getBytes(3)),
+                            rs.getLong(2),
+                            rs.getInt(4) == JdbcStorageBackend.DIRECTION_SENT,
+                            UuidCodec.senderFromBytes(rs.getBytes(5)),
+                            rs.getString(6),
+                            rs.getDouble(7),
+                            rs.getDouble(8)
+                        ));
+                    }
+                }
+            }
+            
+            if (rows.isEmpty()) {
+                return 0;
+            }
+            
+            rows.sort(ArchiveSegment.ORDER);
+            long newest = rows.stream().mapToLong(LedgerEntry::getTimestamp).max().getAsLong();
+            long oldest = rows.stream().mapToLong(LedgerEntry::getTimestamp).min().getAsLong();
+            
+            // Named after its time range, so re-exporting after a crash overwrites the same file
+            Files.createDirectories(folder);
+            Path file = segmentFile(oldest, newest);
+            ArchiveSegment.write(file, rows);
+            segments.put(newest, ArchiveSegment.open(file));
+            
+            SchemaMigrator.setMeta(conn, ARCHIVED_THROUGH_KEY, String.valueOf(newest));
+            archivedThrough = newest;
+        }
+        
+        return rows.size();
+    }
+    
+    /**
+     * Merge the oldest run of adjacent segments that together fit in one segment.
+     * Each export leaves a short segment behind, so without merging their number grows every run.
+     *
+     * @return true if segments were merged
+     */
+    boolean compact() throws IOException {
+        int segmentRows = plugin.getConfigManager().getArchiveSegmentRows();
+        List<ArchiveSegment> run = new ArrayList<>();
+        long runRows = 0;
+        
+        // Oldest first
+        for (ArchiveSegment segment : segments.descendingMap().values()) {
+            if (runRows + segment.getRowCount() > segmentRows) {
+                if (run.size() > 1) {
+                    break;
+                }
+                run.clear();
+                runRows = 0;
+            }
+            run.add(segment);
+            runRows += segment.getRowCount();
+        }
+        if (run.size() < 2) {
+            return false;
+        }
+        
+        List<LedgerEntry> rows = new ArrayList<>((int) runRows);
+        for (ArchiveSegment segment : run) {
+            segment.readAll(rows);
+        }
+        rows.sort(ArchiveSegment.ORDER);
+        
+        long oldest = run.get(0).getMinTimestamp();
+        long newest = run.get(run.size() - 1).getMaxTimestamp();
+        Path file = segmentFile(oldest, newest);
+        ArchiveSegment.write(file, rows);
+        ArchiveSegment merged = ArchiveSegment.open(file);
+        
+        synchronized (segments) {
+            for (ArchiveSegment segment : run) {
+                segments.remove(segment.getMaxTimestamp());
+            }
+            segments.put(newest, merged);
+        }
+        for (ArchiveSegment segment : run) {
+            delete(segment);
+        }
+        
+        Logger.debug("Merged " + run.size() + " archive segments into " + file.getFileName());
+        return true;
+    }
+    
+    private Path segmentFile(long oldest, long newest) {
+        return folder.resolve("segment-" + oldest + "-" + newest + SEGMENT_SUFFIX);
+    }
+    
+    private void delete(ArchiveSegment segment) {
+        try {
+            Files.deleteIfExists(segment.getPath());
+        } catch (IOException e) {
+            // Skipped as already merged on the next load
+            Logger.warning("Failed to delete merged archive segment " + segment.getPath().getFileName() + ": " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Newest timestamp that is safely archived; retention may delete rows up to and including it
+     */
+    public long getArchivedThrough() {
+        return archivedThrough;
+    }
+    
+    /**
+     * Stream a page of a player's archived history into a visitor, newest first
+     *
+     * @return total number of archived rows for the player
+     */
+    public int readHistory(UUID player, int skip, int limit, LedgerVisitor visitor) throws IOException {
+        int total = 0;
+        int remainingSkip = skip;
+        int remaining = limit;
+        
+        // Never see a merge half applied
+        List<ArchiveSegment> current;
+        synchronized (segments) {
+            current = new ArrayList<>(segments.values());
+        }
+        
+        for (ArchiveSegment segment : current) {
+            int count = segment.countRows(player);
+            total += count;
+            
+            if (remaining == 0 || count == 0) {
+                continue;
+            }
+            if (remainingSkip >= count) {
+                remainingSkip -= count;
+                continue;
+            }
+            
+            remaining -= segment.read(player, remainingSkip, remaining, visitor);
+            remainingSkip = 0;
+        }
+        
+        return total;
+    }
+    
+    /**
+     * Number of segment files currently mapped
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+}
@@ -0,0 +1,344 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.managers.TransactionManager.HistoryPage;
+import ve.nottabaker.payedtools.models.HistoryCursor;
+import ve.nottabaker.payedtools.models.LedgerEntry;
+import ve.nottabaker.payedtools.models.Transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps each player's most recent ledger rows in memory so repeated history views skip the database.
+ * A player's buffer is filled from the database on first read and then kept current by
+ * {@link #append} as transactions commit, including ones still waiting in the write queue.
+ * Only players who already have a buffer are appended to, so bulk payouts do not push out
+ * the players who are actually browsing their history.
+ * Rows are held in ledger order, so cursors from the cache and the database are interchangeable.
+ */
+public class HistoryCache {
+    
+    private final StorageBackend backend;
+    private final BatchWriter writer;
+    private final Spillover spillover;
+    private final int capacity;
+    private final long maxAgeMillis;
+    private final Map<UUID, PlayerHistory> players;
+    
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    
+    /**
+     * @param writer background writer whose queued rows are merged into loads, or null
+     * @param spillover breaker consulted before loading, or null
+     */
+    public HistoryCache(StorageBackend backend, BatchWriter writer, Spillover spillover,
+                        int capacity, int maxPlayers, long maxAgeMillis) {
+        this.backend = backend;
+        this.writer = writer;
+        this.spillover = spillover;
+        this.capacity = capacity;
+        this.maxAgeMillis = maxAgeMillis;
+        this.players = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, PlayerHistory> eldest) {
+                return size() > maxPlayers;
+            }
+        });
+    }
+    
+    /**
+     * Serve a page of history from memory, loading the player's recent rows on first use
+     *
+     * @return the page, or null if it reaches past the cached rows and must come from the database
+     */
+    public HistoryPage read(UUID uuid, HistoryCursor after, int pageSize, LedgerVisitor visitor) {
+        PlayerHistory history = players.computeIfAbsent(uuid, k -> new PlayerHistory(capacity));
+        if (history.needsLoad(maxAgeMillis)) {
+            load(uuid, history);
+        }
+        
+        List<LedgerEntry> rows = new ArrayList<>(pageSize);
+        HistoryPage page = history.read(after, pageSize, rows);
+        if (page == null) {
+            misses.increment();
+            return null;
+        }
+        
+        // Visit outside the buffer's lock so rendering never holds up appends
+        hits.increment();
+        for (LedgerEntry entry : rows) {
+            visitor.visit(entry.getTimestamp(), entry.getTransactionId(), entry.isSent(), entry.getCounterparty(),
+                          entry.getCurrency(), entry.getAmount(), entry.getTax());
+        }
+        return page;
+    }
+    
+    /**
+     * Find the cursor a number of rows past the given one without a database query
+     *
+     * @return the cursor, or null if the cached rows cannot answer
+     */
+    public HistoryCursor findCursor(UUID uuid, HistoryCursor after, int rows) {
+        PlayerHistory history = players.get(uuid);
+        return history != null ? history.findCursor(after, rows) : null;
+    }
+    
+    private void load(UUID uuid, PlayerHistory history) {
+        if (spillover != null && spillover.isOpen()) {
+            // Database is down; try again on a later read
+            history.loadFailed();
+            return;
+        }
+        
+        // Taken before the read, so a row committed in between is in one or the other
+        List<Transaction> unwritten = writer != null ? writer.getUnwritten(uuid) : List.of();
+        
+        List<LedgerEntry> rows = new ArrayList<>(capacity + unwritten.size());
+        HistoryPage page = backend.streamHistoryPage(uuid, null, capacity,
+            (timestamp, transactionId, sent, counterparty, currency, amount, tax) ->
+                rows.add(new LedgerEntry(uuid, transactionId, timestamp, sent, counterparty, currency, amount, tax)));
+                
+        if (page == null) {
+            history.loadFailed();
+            return;
+        }
+        for (Transaction transaction : unwritten) {
+            if (uuid.equals(transaction.getSender())) {
+                rows.add(LedgerEntry.sent(transaction));
+            }
+            if (uuid.equals(transaction.getReceiver())) {
+                rows.add(LedgerEntry.received(transaction));
+            }
+        }
+        history.fill(rows, !page.hasMore());
+    }
+    
+    /**
+     * Add a committed transaction to the buffers of whichever of its players are cached
+     */
+    public void append(Transaction transaction) {
+        if (transaction.getSender() != null) {
+            appendEntry(LedgerEntry.sent(transaction));
+        }
+        appendEntry(LedgerEntry.received(transaction));
+    }
+    
+    private void appendEntry(LedgerEntry entry) {
+        // Players without a buffer pick the row up from the write queue or the database when they load
+        PlayerHistory history = players.get(entry.getPlayer());
+        if (history != null) {
+            history.insert(entry);
+        }
+    }
+    
+    /**
+     * Drop cached rows that retention has removed from the database
+     */
+    public void evictBefore(long cutoffTime) {
+        List<PlayerHistory> histories;
+        synchronized (players) {
+            histories = new ArrayList<>(players.values());
+        }
+        for (PlayerHistory history : histories) {
+            history.evictBefore(cutoffTime);
+        }
+    }
+    
+    /**
+     * Number of players with a cached buffer
+     */
+    public int size() {
+        return players.size();
+    }
+    
+    /**
+     * Share of reads served from memory
+     */
+    public double getHitRatio() {
+        long total = hits.sum() + misses.sum();
+        return total > 0 ? (double) hits.sum() / total : 0;
+    }
+    
+    /**
+     * Ledger order: newest first, then transaction id descending as unsigned bytes, sent before received
+     */
+    static int compare(long timestamp, UUID transactionId, boolean sent, long otherTimestamp,
+                       UUID otherTransactionId, boolean otherSent) {
+        if (timestamp != otherTimestamp) {
+            return Long.compare(otherTimestamp, timestamp);
+        }
+        int cmp = Long.compareUnsigned(otherTransactionId.getMostSignificantBits(), transactionId.getMostSignificantBits());
+        if (cmp == 0) {
+            cmp = Long.compareUnsigned(otherTransactionId.getLeastSignificantBits(), transactionId.getLeastSignificantBits());
+        }
+        if (cmp == 0) {
+            cmp = Boolean.compare(otherSent, sent);
+        }
+        return cmp;
+    }
+    
+    /**
+     * Newest rows of one player in a ring buffer, index 0 being the newest
+     */
+    private static class PlayerHistory {
+        private final LedgerEntry[] ring;
+        private int head;
+        private int size;
+        
+        // Whether the buffer holds the player's entire history, and whether it ever dropped a row
+        private boolean complete;
+        private boolean truncated;
+        private long loadedAt = -1;
+        private boolean loading;
+        
+        private PlayerHistory(int capacity) {
+            this.ring = new LedgerEntry[capacity];
+        }
+        
+        private LedgerEntry get(int index) {
+            return ring[(head + index) % ring.length];
+        }
+        
+        private void set(int index, LedgerEntry entry) {
+            ring[(head + index) % ring.length] = entry;
+        }
+        
+        /**
+         * Whether the caller should load from the database; claims the load when it should
+         */
+        synchronized boolean needsLoad(long maxAgeMillis) {
+            if (loading || (loadedAt >= 0 && System.currentTimeMillis() - loadedAt < maxAgeMillis)) {
+                return false;
+            }
+            loading = true;
+            return true;
+        }
+        
+        /**
+         * Merge the newest database rows into whatever was appended meanwhile
+         */
+        synchronized void fill(List<LedgerEntry> rows, boolean entireHistory) {
+            complete = entireHistory && !truncated;
+            for (LedgerEntry row : rows) {
+                insert(row);
+            }
+            loadedAt = System.currentTimeMillis();
+            loading = false;
+        }
+        
+        synchronized void loadFailed() {
+            loading = false;
+        }
+        
+        /**
+         * Insert a row at its ledger position, dropping the oldest row when full
+         */
+        synchronized void insert(LedgerEntry entry) {
+            // New rows almost always go first, so search from the newest end
+            int position = 0;
+            while (position < size) {
+                int cmp = compareEntries(entry, get(position));
+                if (cmp == 0) {
+                    return;
+                }
+                if (cmp < 0) {
+                    break;
+                }
+                position++;
+            }
+            
+            if (size == ring.length) {
+                complete = false;
+                truncated = true;
+                if (position == size) {
+                    return;
+                }
+                size--;
+            }
+            
+            if (position == 0) {
+                head = (head - 1 + ring.length) % ring.length;
+            } else {
+                for (int i = size; i > position; i--) {
+                    set(i, get(i - 1));
+                }
+            }
+            set(position, entry);
+            size++;
+        }
+        
+        /**
+         * Copy a page of rows into the given list
+         *
+         * @return the page, or null if it is not fully held in the buffer
+         */
+        synchronized HistoryPage read(HistoryCursor after, int pageSize, List<LedgerEntry> rows) {
+            if (loadedAt < 0) {
+                return null;
+            }
+            
+            int start = indexAfter(after);
+            int available = size - start;
+            if (available <= pageSize && !complete) {
+                return null;
+            }
+            
+            int count = Math.min(pageSize, available);
+            for (int i = start; i < start + count; i++) {
+                rows.add(get(i));
+            }
+            return new HistoryPage(count, available > pageSize, count > 0 ? cursorAt(start + count - 1) : after);
+        }
+        
+        synchronized HistoryCursor findCursor(HistoryCursor after, int rows) {
+            if (loadedAt < 0) {
+                return null;
+            }
+            
+            int target = indexAfter(after) + rows - 1;
+            return target < size ? cursorAt(target) : null;
+        }
+        
+        /**
+         * Index of the first row strictly after the cursor
+         */
+        private int indexAfter(HistoryCursor after) {
+            if (after == null) {
+                return 0;
+            }
+            int index = 0;
+            while (index < size) {
+                LedgerEntry entry = get(index);
+                if (compare(entry.getTimestamp(), entry.getTransactionId(), entry.isSent(),
+                            after.getTimestamp(), after.getTransactionId(), after.isSent()) > 0) {
+                    break;
+                }
+                index++;
+            }
+            return index;
+        }
+        
+        private HistoryCursor cursorAt(int index) {
+            LedgerEntry entry = get(index);
+            return new HistoryCursor(entry.getTimestamp(), entry.getTransactionId(), entry.isSent());
+        }
+        
+        synchronized void evictBefore(long cutoffTime) {
+            while (size > 0 && get(size - 1).getTimestamp() < cutoffTime) {
+                set(size - 1, null);
+                size--;
+            }
+        }
+        
+        private static int compareEntries(LedgerEntry a, LedgerEntry b) {
+            return compare(a.getTimestamp(), a.getTransactionId(), a.isSent(),
+                           b.getTimestamp(), b.getTransactionId(), b.isSent());
+        }
+    }
+}
@@ -0,0 +1,1124 @@
+package ve.nottabaker.payedtools.database;
+
+import com.zaxxer.hikari.HikariDataSource;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.TransactionManager.HistoryPage;
+import ve.nottabaker.payedtools.managers.TransactionManager.TransactionStats;
+import ve.nottabaker.payedtools.models.HistoryCursor;
+import ve.nottabaker.payedtools.models.InboxEntry;
+import ve.nottabaker.payedtools.models.LedgerEntry;
+import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.utils.HourlyVolumeRing;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Storage backend for JDBC databases. Holds the schema, queries and background jobs shared
+ * by every SQL engine; subclasses provide the connection pool and their dialect's statements.
+ */
+public abstract class JdbcStorageBackend implements StorageBackend {
+    
+    // Ledger direction values
+    static final int DIRECTION_SENT = 0;
+    static final int DIRECTION_RECEIVED = 1;
+    
+    /**
+     * Rows strictly after a cursor in (timestamp DESC, tx_id DESC, direction ASC) order.
+     * The leading timestamp bound lets both engines seek the primary key instead of filtering.
+     */
+    private static final String KEYSET_AFTER =
+        " AND timestamp <= ? AND (timestamp < ? OR tx_id < ? OR (tx_id = ? AND direction > ?))";
+        
+    // Players per inbox read; well below every engine's bound parameter limit
+    private static final int INBOX_READ_CHUNK = 500;
+    
+    // Rows per multi-row INSERT; at 8 columns this stays far below every engine's parameter limit
+    private static final int INSERT_ROWS_PER_STATEMENT = 250;
+    
+    
+    protected final PayEdtools plugin;
+    private ConnectionPool pool;
+    private ConnectionPool readPool;
+    private SchemaMigrator schemaMigrator;
+    private RetentionJob retentionJob;
+    private HistoryArchive historyArchive;
+    
+    protected JdbcStorageBackend(PayEdtools plugin) {
+        this.plugin = plugin;
+    }
+    
+    @Override
+    public void initialize(ScheduledExecutorService maintenanceExecutor) throws SQLException {
+        HikariDataSource dataSource = createDataSource();
+        pool = new ConnectionPool(dataSource.getPoolName(), dataSource);
+        HikariDataSource readDataSource = createReadDataSource();
+        if (readDataSource != null) {
+            readPool = new ConnectionPool(readDataSource.getPoolName(), readDataSource);
+        }
+        
+        // Create or upgrade the schema, then copy any legacy rows in the background
+        schemaMigrator = new SchemaMigrator(plugin, this);
+        try (Connection conn = getConnection()) {
+            schemaMigrator.migrate(conn);
+        }
+        schemaMigrator.startBackgroundMigration(maintenanceExecutor);
+        
+        if (plugin.getConfigManager().isArchiveEnabled()) {
+            historyArchive = new HistoryArchive(plugin, this);
+            historyArchive.load();
+        }
+        retentionJob = new RetentionJob(plugin, this, historyArchive);
+        retentionJob.start(maintenanceExecutor);
+    }
+    
+    /**
+     * Create the connection pool for this engine
+     */
+    protected abstract HikariDataSource createDataSource() throws SQLException;
+    
+    /**
+     * Create a separate pool for interactive reads, or return null to read from the main pool
+     */
+    protected HikariDataSource createReadDataSource() throws SQLException {
+        return null;
+    }
+    
+    /**
+     * Whether reads may use the read pool right now; the main pool serves them otherwise
+     */
+    boolean isReadPoolUsable() {
+        return true;
+    }
+    
+    // Dialect
+    
+    /**
+     * Column type for 16-byte UUIDs
+     */
+    abstract String uuidColumnType();
+    
+    /**
+     * Options appended to CREATE TABLE for tables clustered on their primary key
+     */
+    String clusteredTableOptions() {
+        return "";
+    }
+    
+    /**
+     * Statement prefix that inserts rows unless their key already exists
+     */
+    abstract String insertIgnore();
+    
+    /**
+     * Upsert into player_stats(player, currency, sent_count, sent_total, received_count, received_total)
+     * that adds the given values to an existing row
+     */
+    abstract String statsUpsertSQL();
+    
+    /**
+     * Upsert into inbox(player, currency, payment_count, payment_total) that adds the given
+     * values to an existing row
+     */
+    abstract String inboxUpsertSQL();
+    
+    /**
+     * Upsert into last_logins(player_uuid, last_login_time) that replaces the stored time
+     */
+    abstract String lastLoginUpsertSQL();
+    
+    /**
+     * Whether CREATE INDEX supports IF NOT EXISTS
+     */
+    boolean supportsCreateIndexIfNotExists() {
+        return true;
+    }
+    
+    /**
+     * Clause that locks the rows an aggregate query reads, or empty if the engine needs none
+     */
+    String lockForUpdate() {
+        return "";
+    }
+    
+    /**
+     * Save a single transaction
+     */
+    @Override
+    public void saveTransaction(Transaction transaction) {
+        try (Connection conn = getConnection()) {
+            insertAtomically(conn, List.of(transaction));
+            Logger.debug("Transaction saved: " + transaction.getId());
+            
+        } catch (SQLException e) {
+            Logger.error("Failed to save transaction: " + transaction.getId(), e);
+        }
+    }
+    
+    /**
+     * Save multiple transactions in a batch
+     */
+    @Override
+    public WriteResult saveTransactionBatch(List<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return WriteResult.SAVED;
+        }
+        
+        try (Connection conn = getConnection()) {
+            insertAtomically(conn, transactions);
+            Logger.debug("Batch of " + transactions.size() + " transactions saved");
+            return WriteResult.SAVED;
+            
+        } catch (SQLException e) {
+            Logger.error("Failed to save transaction batch", e);
+            return classify(e);
+        }
+    }
+    
+    /**
+     * Save spilled transactions in one database transaction. A replay interrupted after its
+     * commit is repeated on restart, so rows whose id already exists are skipped.
+     */
+    @Override
+    public WriteResult replayTransactions(List<Transaction> transactions) {
+        if (transactions.isEmpty()) {
+            return WriteResult.SAVED;
+        }
+        
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                Set<UUID> existing = findExistingTransactions(conn, transactions);
+                List<Transaction> missing = new ArrayList<>(transactions.size());
+                for (Transaction transaction : transactions) {
+                    if (!existing.contains(transaction.getId())) {
+                        missing.add(transaction);
+                    }
+                }
+                
+                if (!missing.isEmpty()) {
+                    insertTransactions(conn, missing);
+                }
+                conn.commit();
+                Logger.debug("Replayed " + missing.size() + " spilled transactions (" + existing.size() + " already saved)");
+                return WriteResult.SAVED;
+                
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Logger.error("Failed to replay spilled transactions", e);
+            return classify(e);
+        }
+    }
+    
+    /**
+     * Whether a failed write can succeed if repeated. Connection, resource and rollback errors are
+     * worth retrying; integrity, data and syntax errors fail the same way every time.
+     */
+    WriteResult classify(SQLException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLIntegrityConstraintViolationException || cause instanceof SQLDataException
+                || cause instanceof SQLSyntaxErrorException) {
+                return WriteResult.REJECTED;
+            }
+            if (cause instanceof SQLException) {
+                String state = ((SQLException) cause).getSQLState();
+                // 22 data exception, 23 integrity constraint violation, 42 syntax error or access rule violation
+                if (state != null && (state.startsWith("22") || state.startsWith("23") || state.startsWith("42"))) {
+                    return WriteResult.REJECTED;
+                }
+            }
+        }
+        return WriteResult.RETRY;
+    }
+    
+    private Set<UUID> findExistingTransactions(Connection conn, List<Transaction> transactions) throws SQLException {
+        Set<UUID> existing = new HashSet<>();
+        for (int offset = 0; offset < transactions.size(); offset += INSERT_ROWS_PER_STATEMENT) {
+            List<Transaction> chunk = transactions.subList(offset, Math.min(transactions.size(), offset + INSERT_ROWS_PER_STATEMENT));
+            String placeholders = String.join(", ", Collections.nCopies(chunk.size(), "?"));
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT id FROM transactions WHERE id IN (" + placeholders + ")")) {
+                for (int i = 0; i < chunk.size(); i++) {
+                    stmt.setBytes(i + 1, UuidCodec.toBytes(chunk.get(i).getId()));
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        existing.add(UuidCodec.fromBytes(rs.getBytes(1)));
+                    }
+                }
+            }
+        }
+        return existing;
+    }
+    
+    @Override
+    public boolean ping() {
+        try (Connection conn = getConnection()) {
+            return conn.isValid(2);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Insert transactions in a single database transaction
+     */
+    private void insertAtomically(Connection conn, List<Transaction> transactions) throws SQLException {
+        conn.setAutoCommit(false);
+        try {
+            insertTransactions(conn, transactions);
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+    
+    /**
+     * Insert transactions, their ledger entries and the matching player_stats deltas
+     * using the caller's connection and transaction
+     */
+    void insertTransactions(Connection conn, List<Transaction> transactions) throws SQLException {
+        List<LedgerEntry> ledgerRows = new ArrayList<>(transactions.size() * 2);
+        Map<UUID, Map<String, StatsDelta>> deltas = new TreeMap<>();
+        Map<UUID, Map<String, InboxDelta>> inbox = new TreeMap<>();
+        
+        for (Transaction transaction : transactions) {
+            // One ledger row per participant; the console has no history of its own
+            if (transaction.getSender() != null) {
+                ledgerRows.add(LedgerEntry.sent(transaction));
+                statsDelta(deltas, transaction.getSender(), transaction.getCurrency())
+                    .add(true, 1, transaction.getAmount());
+            }
+            ledgerRows.add(LedgerEntry.received(transaction));
+            statsDelta(deltas, transaction.getReceiver(), transaction.getCurrency())
+                .add(false, 1, transaction.getAmount());
+                
+            if (transaction.isReceiverOffline()) {
+                inboxDelta(inbox, transaction.getReceiver(), transaction.getCurrency())
+                    .add(1, transaction.getAmount());
+            }
+        }
+        
+        insertRows(conn, "INSERT INTO transactions (id, sender, receiver, currency, amount, tax, timestamp) VALUES ",
+                   7, transactions, this::bindTransaction);
+        insertRows(conn, "INSERT INTO ledger_entries (player, timestamp, tx_id, direction, counterparty, currency, amount, tax) VALUES ",
+                   8, ledgerRows, this::bindLedgerEntry);
+                   
+        applyStatsDeltas(conn, deltas);
+        applyInboxDeltas(conn, inbox);
+    }
+    
+    /**
+     * Insert rows with multi-row VALUES statements, reusing one statement for every full chunk
+     */
+    private <T> void insertRows(Connection conn, String prefix, int columns, List<T> rows, RowBinder<T> binder)
+            throws SQLException {
+        int fullChunks = rows.size() / INSERT_ROWS_PER_STATEMENT;
+        int remainder = rows.size() % INSERT_ROWS_PER_STATEMENT;
+        
+        if (fullChunks > 0) {
+            try (PreparedStatement stmt = conn.prepareStatement(valuesSQL(prefix, columns, INSERT_ROWS_PER_STATEMENT))) {
+                for (int chunk = 0; chunk < fullChunks; chunk++) {
+                    int offset = chunk * INSERT_ROWS_PER_STATEMENT;
+                    for (int row = 0; row < INSERT_ROWS_PER_STATEMENT; row++) {
+                        binder.bind(stmt, row * columns + 1, rows.get(offset + row));
+                    }
+                    stmt.executeUpdate();
+                }
+            }
+        }
+        
+        if (remainder > 0) {
+            try (PreparedStatement stmt = conn.prepareStatement(valuesSQL(prefix, columns, remainder))) {
+                int offset = fullChunks * INSERT_ROWS_PER_STATEMENT;
+                for (int row = 0; row < remainder; row++) {
+                    binder.bind(stmt, row * columns + 1, rows.get(offset + row));
+                }
+                stmt.executeUpdate();
+            }
+        }
+    }
+    
+    private static String valuesSQL(String prefix, int columns, int rows) {
+        String group = "(" + String.join(", ", Collections.nCopies(columns, "?")) + ")";
+        return prefix + String.join(", ", Collections.nCopies(rows, group));
+    }
+    
+    private void bindTransaction(PreparedStatement stmt, int index, Transaction transaction) throws SQLException {
+        stmt.setBytes(index, UuidCodec.toBytes(transaction.getId()));
+        // Console transactions (sender is null) are stored as the console sentinel
+        stmt.setBytes(index + 1, UuidCodec.senderToBytes(transaction.getSender()));
+        stmt.setBytes(index + 2, UuidCodec.toBytes(transaction.getReceiver()));
+        stmt.setString(index + 3, transaction.getCurrency());
+        stmt.setDouble(index + 4, transaction.getAmount());
+        stmt.setDouble(index + 5, transaction.getTax());
+        stmt.setLong(index + 6, transaction.getTimestamp());
+    }
+    
+    private void bindLedgerEntry(PreparedStatement stmt, int index, LedgerEntry entry) throws SQLException {
+        stmt.setBytes(index, UuidCodec.toBytes(entry.getPlayer()));
+        stmt.setLong(index + 1, entry.getTimestamp());
+        stmt.setBytes(index + 2, UuidCodec.toBytes(entry.getTransactionId()));
+        stmt.setInt(index + 3, entry.isSent() ? DIRECTION_SENT : DIRECTION_RECEIVED);
+        stmt.setBytes(index + 4, UuidCodec.senderToBytes(entry.getCounterparty()));
+        stmt.setString(index + 5, entry.getCurrency());
+        stmt.setDouble(index + 6, entry.getAmount());
+        stmt.setDouble(index + 7, entry.getTax());
+    }
+    
+    private StatsDelta statsDelta(Map<UUID, Map<String, StatsDelta>> deltas, UUID player, String currency) {
+        return deltas.computeIfAbsent(player, k -> new TreeMap<>()).computeIfAbsent(currency, k -> new StatsDelta());
+    }
+    
+    private InboxDelta inboxDelta(Map<UUID, Map<String, InboxDelta>> deltas, UUID player, String currency) {
+        return deltas.computeIfAbsent(player, k -> new TreeMap<>()).computeIfAbsent(currency, k -> new InboxDelta());
+    }
+    
+    /**
+     * Add aggregated deltas to the inbox, one upsert per (player, currency) in sorted order
+     */
+    private void applyInboxDeltas(Connection conn, Map<UUID, Map<String, InboxDelta>> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        
+        try (PreparedStatement stmt = conn.prepareStatement(inboxUpsertSQL())) {
+            for (Map.Entry<UUID, Map<String, InboxDelta>> player : deltas.entrySet()) {
+                byte[] playerBytes = UuidCodec.toBytes(player.getKey());
+                for (Map.Entry<String, InboxDelta> currency : player.getValue().entrySet()) {
+                    stmt.setBytes(1, playerBytes);
+                    stmt.setString(2, currency.getKey());
+                    stmt.setLong(3, currency.getValue().count);
+                    stmt.setDouble(4, currency.getValue().total);
+                    stmt.addBatch();
+                }
+            }
+            stmt.executeBatch();
+        }
+    }
+    
+    /**
+     * Add aggregated deltas to player_stats, one upsert per (player, currency).
+     * Keys are applied in sorted order so concurrent writers lock rows in the same order.
+     */
+    private void applyStatsDeltas(Connection conn, Map<UUID, Map<String, StatsDelta>> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        
+        String sql = statsUpsertSQL();
+        
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (Map.Entry<UUID, Map<String, StatsDelta>> player : deltas.entrySet()) {
+                byte[] playerBytes = UuidCodec.toBytes(player.getKey());
+                for (Map.Entry<String, StatsDelta> currency : player.getValue().entrySet()) {
+                    StatsDelta delta = currency.getValue();
+                    stmt.setBytes(1, playerBytes);
+                    stmt.setString(2, currency.getKey());
+                    stmt.setLong(3, delta.sentCount);
+                    stmt.setDouble(4, delta.sentTotal);
+                    stmt.setLong(5, delta.receivedCount);
+                    stmt.setDouble(6, delta.receivedTotal);
+                    stmt.addBatch();
+                }
+            }
+            stmt.executeBatch();
+        }
+    }
+    
+    /**
+     * Recompute player_stats from the ledger using the caller's connection and transaction
+     *
+     * @return number of (player, currency) rows written
+     */
+    int rebuildPlayerStats(Connection conn) throws SQLException {
+        String rebuildSQL = "INSERT INTO player_stats (player, currency, sent_count, sent_total, received_count, received_total) " +
+                            "SELECT player, currency, " +
+                            "SUM(CASE WHEN direction = " + DIRECTION_SENT + " THEN 1 ELSE 0 END), " +
+                            "SUM(CASE WHEN direction = " + DIRECTION_SENT + " THEN amount ELSE 0 END), " +
+                            "SUM(CASE WHEN direction = " + DIRECTION_RECEIVED + " THEN 1 ELSE 0 END), " +
+                            "SUM(CASE WHEN direction = " + DIRECTION_RECEIVED + " THEN amount ELSE 0 END) " +
+                            "FROM ledger_entries GROUP BY player, currency";
+                            
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DELETE FROM player_stats");
+            return stmt.executeUpdate(rebuildSQL);
+        }
+    }
+    
+    /**
+     * Recompute player_stats from the ledger in a single database transaction
+     *
+     * @return number of (player, currency) rows written, or -1 if the rebuild failed
+     */
+    @Override
+    public int rebuildPlayerStats() {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int rows = rebuildPlayerStats(conn);
+                conn.commit();
+                Logger.info("Rebuilt player statistics (" + rows + " rows)");
+                return rows;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            Logger.error("Failed to rebuild player statistics", e);
+            return -1;
+        }
+    }
+    
+    /**
+     * Get transaction history for a player
+     */
+    @Override
+    public List<Transaction> getTransactionHistory(UUID uuid, int limit) {
+        List<Transaction> history = new ArrayList<>();
+        
+        String sql = "SELECT tx_id, timestamp, direction, counterparty, currency, amount, tax FROM ledger_entries " +
+                     "WHERE player = ? ORDER BY timestamp DESC, tx_id DESC LIMIT ?";
+                     
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidCodec.toBytes(uuid));
+            stmt.setInt(2, limit);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    history.add(readLedgerEntry(uuid, rs).toTransaction());
+                }
+            }
+            
+        } catch (SQLException e) {
+            Logger.error("Failed to get transaction history for " + uuid, e);
+        }
+        
+        return history;
+    }
+    
+    /**
+     * Get transaction history for a player since a specific time
+     */
+    @Override
+    public List<Transaction> getTransactionHistorySince(UUID uuid, long sinceTime, int limit) {
+        List<Transaction> history = new ArrayList<>();
+        
+        String sql = "SELECT tx_id, timestamp, direction, counterparty, currency, amount, tax FROM ledger_entries " +
+                     "WHERE player = ? AND timestamp >= ? ORDER BY timestamp DESC, tx_id DESC LIMIT ?";
+                     
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidCodec.toBytes(uuid));
+            stmt.setLong(2, sinceTime);
+            stmt.setInt(3, limit);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    history.add(readLedgerEntry(uuid, rs).toTransaction());
+                }
+            }
+            
+        } catch (SQLException e) {
+            Logger.error("Failed to get transaction history since " + sinceTime + " for " + uuid, e);
+        }
+        
+        return history;
+    }
+    
+    /**
+     * Build a ledger entry for a player from the current result set row
+     */
+    private LedgerEntry readLedgerEntry(UUID player, ResultSet rs) throws SQLException {
+        return new LedgerEntry(
+            player,
+            UuidCodec.fromBytes(rs.getBytes("tx_id")),
+            rs.getLong("timestamp"),
+            rs.getInt("direction") == DIRECTION_SENT,
+            UuidCodec.senderFromBytes(rs.getBytes("counterparty")),
+            rs.getString("currency"),
+            rs.getDouble("amount"),
+            rs.getDouble("tax")
+        );
+    }
+    
+    /**
+     * Stream one page of a player's history into a visitor, newest first.
+     * Seeks on the ledger primary key from the given cursor, so every page costs the same
+     * regardless of depth. One extra row is read to detect whether another page follows.
+     *
+     * @param after end cursor of the previous page, or null for the first page
+     * @return the page that was read, or null if the query failed
+     */
+    @Override
+    public HistoryPage streamHistoryPage(UUID uuid, HistoryCursor after, int pageSize, LedgerVisitor visitor) {
+        String sql = "SELECT tx_id, timestamp, direction, counterparty, currency, amount, tax FROM ledger_entries " +
+                     "WHERE player = ?" + (after != null ? KEYSET_AFTER : "") + " " +
+                     "ORDER BY timestamp DESC, tx_id DESC, direction ASC LIMIT ?";
+                     
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = bindKeyset(stmt, uuid, after);
+            stmt.setInt(index, pageSize + 1);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                int count = 0;
+                long timestamp = 0;
+                byte[] txId = null;
+                int direction = DIRECTION_SENT;
+                
+                while (rs.next()) {
+                    if (count == pageSize) {
+                        // Lookahead row: only tells us another page exists
+                        return new HistoryPage(count, true, toCursor(timestamp, txId, direction));
+                    }
+                    
+                    txId = rs.getBytes(1);
+                    timestamp = rs.getLong(2);
+                    direction = rs.getInt(3);
+                    visitor.visit(
+                        timestamp,
+                        UuidCodec.fromBytes(txId),
+                        direction == DIRECTION_SENT,
+                        UuidCodec.senderFromBytes(rs.getBytes(4)),
+                        rs.getString(5),
+                        rs.getDouble(6),
+                        rs.getDouble(7)
+                    );
+                    count++;
+                }
+                
+                return new HistoryPage(count, false, count > 0 ? toCursor(timestamp, txId, direction) : after);
+            }
+            
+        } catch (SQLException e) {
+            Logger.error("Failed to stream transaction history for " + uuid, e);
+            return null;
+        }
+    }
+    
+    /**
+     * Find the cursor of the row that lies a number of rows past the given cursor.
+     * Only key columns are read, so the skip is served from the primary key alone.
+     * Used when jumping to a page whose predecessor's cursor is not known.
+     *
+     * @param after cursor to count from, or null to count from the newest row
+     * @param rows number of rows to move forward, at least 1
+     * @return cursor of the last skipped row, or null if history ends before that
+     */
+    @Override
+    public HistoryCursor findHistoryCursor(UUID uuid, HistoryCursor after, int rows) {
+        String sql = "SELECT timestamp, tx_id, direction FROM ledger_entries " +
+                     "WHERE player = ?" + (after != null ? KEYSET_AFTER : "") + " " +
+                     "ORDER BY timestamp DESC, tx_id DESC, direction ASC LIMIT 1 OFFSET ?";
+                     
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int index = bindKeyset(stmt, uuid, after);
+            stmt.setInt(index, rows - 1);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return toCursor(rs.getLong(1), rs.getBytes(2), rs.getInt(3));
+                }
+            }
+            
+        } catch (SQLException e) {
+            Logger.error("Failed to locate history cursor for " + uuid, e);
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Bind the player and optional keyset parameters, returning the next parameter index
+     */
+    private int bindKeyset(PreparedStatement stmt, UUID uuid, HistoryCursor after) throws SQLException {
+        stmt.setBytes(1, UuidCodec.toBytes(uuid));
+        if (after == null) {
+            return 2;
+        }
+        
+        byte[] txId = UuidCodec.toBytes(after.getTransactionId());
+        stmt.setLong(2, after.getTimestamp());
+        stmt.setLong(3, after.getTimestamp());
+        stmt.setBytes(4, txId);
+        stmt.setBytes(5, txId);
+        stmt.setInt(6, after.isSent() ? DIRECTION_SENT : DIRECTION_RECEIVED);
+        return 7;
+    }
+    
+    private HistoryCursor toCursor(long timestamp, byte[] txId, int direction) {
+        return new HistoryCursor(timestamp, UuidCodec.fromBytes(txId), direction == DIRECTION_SENT);
+    }
+    
+    /**
+     * Get transaction statistics for a player, read from the player_stats aggregates
+     */
+    @Override
+    public TransactionStats getTransactionStats(UUID uuid) {
+        TransactionStats stats = new TransactionStats(0, 0, 0, 0);
+        
+        String sql = "SELECT currency, sent_count, sent_total, received_count, received_total FROM player_stats " +
+                     "WHERE player = ? ORDER BY currency";
+                     
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidCodec.toBytes(uuid));
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    stats.addCurrency(rs.getString("currency"), new TransactionStats(
+                        rs.getInt("sent_count"),
+                        rs.getInt("received_count"),
+                        rs.getDouble("sent_total"),
+                        rs.getDouble("received_total")
+                    ));
+                }
+            }
+        } catch (SQLException e) {
+            Logger.error("Failed to get stats for " + uuid, e);
+        }
+        
+        return stats;
+    }
+    
+    /**
+     * Sum the sent side of the ledger per player, currency and hour.
+     * Served from the timestamp index; only rows in the range are read.
+     */
+    @Override
+    public boolean streamSentVolume(long sinceTime, long untilTime, SentVolumeVisitor visitor) {
+        String hourStart = "timestamp - timestamp % " + HourlyVolumeRing.HOUR_MILLIS;
+        String sql = "SELECT player, currency, " + hourStart + ", SUM(amount) FROM ledger_entries " +
+                     "WHERE direction = ? AND timestamp >= ? AND timestamp < ? " +
+                     "GROUP BY player, currency, " + hourStart;
+                     
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, DIRECTION_SENT);
+            stmt.setLong(2, sinceTime);
+            stmt.setLong(3, untilTime);
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    visitor.visit(UuidCodec.fromBytes(rs.getBytes(1)), rs.getString(2), rs.getLong(3), rs.getDouble(4));
+                }
+            }
+            return true;
+            
+        } catch (SQLException e) {
+            Logger.error("Failed to read sent volume from the ledger", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Run the retention job now instead of waiting for its next scheduled run
+     */
+    @Override
+    public void cleanupOldTransactions() {
+        if (retentionJob != null) {
+            retentionJob.runNow();
+        }
+    }
+    
+    /**
+     * Delete one bounded batch of transactions older than the cutoff together with their ledger
+     * rows, subtracting them from player_stats in the same database transaction. The batch is
+     * the limit oldest expired transactions by id, so it never grows past the limit.
+     *
+     * @return number of transactions deleted
+     */
+    int deleteExpiredBatch(long cutoffTime, int limit) throws SQLException {
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                List<byte[]> ids = new ArrayList<>(Math.min(limit, 1024));
+                List<Long> timestamps = new ArrayList<>(Math.min(limit, 1024));
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT id, timestamp FROM transactions WHERE timestamp < ? ORDER BY timestamp LIMIT ?")) {
+                    stmt.setLong(1, cutoffTime);
+                    stmt.setInt(2, limit);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            ids.add(rs.getBytes(1));
+                            timestamps.add(rs.getLong(2));
+                        }
+                    }
+                }
+                
+                int deleted = 0;
+                for (int offset = 0; offset < ids.size(); offset += INSERT_ROWS_PER_STATEMENT) {
+                    int end = Math.min(ids.size(), offset + INSERT_ROWS_PER_STATEMENT);
+                    deleted += deleteExpiredChunk(conn, ids.subList(offset, end),
+                        timestamps.get(offset), timestamps.get(end - 1));
+                }
+                
+                conn.commit();
+                return deleted;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+    
+    /**
+     * Delete the given transactions and their ledger rows. Rows are read in timestamp order, so
+     * the chunk's first and last timestamps bound the ledger scan to the timestamp index.
+     */
+    private int deleteExpiredChunk(Connection conn, List<byte[]> ids, long from, long to) throws SQLException {
+        String placeholders = String.join(", ", Collections.nCopies(ids.size(), "?"));
+        String ledgerRows = "ledger_entries WHERE timestamp >= ? AND timestamp <= ? AND tx_id IN (" + placeholders + ")";
+        
+        Object[] params = new Object[ids.size() + 2];
+        params[0] = from;
+        params[1] = to;
+        for (int i = 0; i < ids.size(); i++) {
+            params[i + 2] = ids.get(i);
+        }
+        subtractLedgerStats(conn, ledgerRows, params);
+        
+        try (PreparedStatement ledger = conn.prepareStatement("DELETE FROM " + ledgerRows)) {
+            bind(ledger, params);
+            ledger.executeUpdate();
+        }
+        try (PreparedStatement stmt = conn.prepareStatement("DELETE FROM transactions WHERE id IN (" + placeholders + ")")) {
+            for (int i = 0; i < ids.size(); i++) {
+                stmt.setBytes(i + 1, ids.get(i));
+            }
+            return stmt.executeUpdate();
+        }
+    }
+    
+    /**
+     * Subtract the ledger rows read from the given source from player_stats and remove
+     * stats rows that drop to zero. Runs in the caller's transaction.
+     *
+     * @param source FROM clause selecting the ledger rows about to be removed
+     */
+    void subtractLedgerStats(Connection conn, String source, Object... params) throws SQLException {
+        String sql = "SELECT player, currency, direction, COUNT(*), SUM(amount) FROM " + source +
+                     " GROUP BY player, currency, direction" + lockForUpdate();
+                     
+        Map<UUID, Map<String, StatsDelta>> deltas = new TreeMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            bind(stmt, params);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    statsDelta(deltas, UuidCodec.fromBytes(rs.getBytes(1)), rs.getString(2))
+                        .add(rs.getInt(3) == DIRECTION_SENT, -rs.getLong(4), -rs.getDouble(5));
+                }
+            }
+        }
+        
+        if (deltas.isEmpty()) {
+            return;
+        }
+        
+        applyStatsDeltas(conn, deltas);
+        
+        try (PreparedStatement prune = conn.prepareStatement(
+                "DELETE FROM player_stats WHERE player = ? AND currency = ? AND sent_count = 0 AND received_count = 0")) {
+            for (Map.Entry<UUID, Map<String, StatsDelta>> player : deltas.entrySet()) {
+                byte[] playerBytes = UuidCodec.toBytes(player.getKey());
+                for (String currency : player.getValue().keySet()) {
+                    prune.setBytes(1, playerBytes);
+                    prune.setString(2, currency);
+                    prune.addBatch();
+                }
+            }
+            prune.executeBatch();
+        }
+    }
+    
+    private static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] instanceof byte[]) {
+                stmt.setBytes(i + 1, (byte[]) params[i]);
+            } else {
+                stmt.setLong(i + 1, (Long) params[i]);
+            }
+        }
+    }
+    
+    /**
+     * Get the last login time for a player from database
+     */
+    @Override
+    public long getLastLoginTime(UUID playerUUID) {
+        String sql = "SELECT last_login_time FROM last_logins WHERE player_uuid = ?";
+        
+        try (Connection conn = getReadConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidCodec.toBytes(playerUUID));
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getLong("last_login_time");
+                }
+            }
+        } catch (SQLException e) {
+            Logger.error("Error getting last login time for " + playerUUID, e);
+        }
+        
+        // If no last login time found, return 24 hours ago as fallback
+        return System.currentTimeMillis() - (24 * 60 * 60 * 1000);
+    }
+    
+    /**
+     * Update the last login time for a player in database
+     */
+    @Override
+    public void updateLastLoginTime(UUID playerUUID) {
+        String sql = lastLoginUpsertSQL();
+        
+        try (Connection conn = getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setBytes(1, UuidCodec.toBytes(playerUUID));
+            stmt.setLong(2, System.currentTimeMillis());
+            
+            stmt.executeUpdate();
+            Logger.debug("Updated last login time for " + playerUUID);
+        } catch (SQLException e) {
+            Logger.error("Error updating last login time for " + playerUUID, e);
+        }
+    }
+    
+    /**
+     * Read and clear the inbox of a batch of joining players in one indexed read, and record
+     * now as their login time with a single batched upsert. Only the amounts that were read are
+     * subtracted, so a payment written meanwhile stays in the inbox for the next join.
+     */
+    @Override
+    public Map<UUID, List<InboxEntry>> drainInbox(Collection<UUID> players) {
+        Map<UUID, List<InboxEntry>> result = new HashMap<>();
+        if (players.isEmpty()) {
+            return result;
+        }
+        
+        List<UUID> batch = new ArrayList<>(players);
+        Map<UUID, Map<String, InboxDelta>> drained = new TreeMap<>();
+        
+        try (Connection conn = getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                for (int start = 0; start < batch.size(); start += INBOX_READ_CHUNK) {
+                    readInbox(conn, batch.subList(start, Math.min(batch.size(), start + INBOX_READ_CHUNK)), result, drained);
+                }
+                
+                if (!drained.isEmpty()) {
+                    applyInboxDeltas(conn, drained);
+                    pruneInbox(conn, drained);
+                }
+                
+                try (PreparedStatement stmt = conn.prepareStatement(lastLoginUpsertSQL())) {
+                    long now = System.currentTimeMillis();
+                    for (UUID player : batch) {
+                        stmt.setBytes(1, UuidCodec.toBytes(player));
+                        stmt.setLong(2, now);
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            
+            Logger.debug("Drained inbox for " + batch.size() + " joining players");
+        } catch (SQLException e) {
+            Logger.error("Failed to drain inbox for " + batch.size() + " players", e);
+            result.clear();
+        }
+        
+        return result;
+    }
+    
+    private void readInbox(Connection conn, List<UUID> players, Map<UUID, List<InboxEntry>> result,
+                           Map<UUID, Map<String, InboxDelta>> drained) throws SQLException {
+        String sql = "SELECT player, currency, payment_count, payment_total FROM inbox WHERE player IN (" +
+                     String.join(", ", Collections.nCopies(players.size(), "?")) + ")" + lockForUpdate();
+                     
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < players.size(); i++) {
+                stmt.setBytes(i + 1, UuidCodec.toBytes(players.get(i)));
+            }
+            
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    UUID player = UuidCodec.fromBytes(rs.getBytes(1));
+                    InboxEntry entry = new InboxEntry(rs.getString(2), rs.getLong(3), rs.getDouble(4));
+                    result.computeIfAbsent(player, k -> new ArrayList<>()).add(entry);
+                    inboxDelta(drained, player, entry.getCurrency()).add(-entry.getCount(), -entry.getTotal());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Remove inbox rows that were fully drained
+     */
+    private void pruneInbox(Connection conn, Map<UUID, Map<String, InboxDelta>> drained) throws SQLException {
+        try (PreparedStatement prune = conn.prepareStatement(
+                "DELETE FROM inbox WHERE player = ? AND currency = ? AND payment_count <= 0")) {
+            for (Map.Entry<UUID, Map<String, InboxDelta>> player : drained.entrySet()) {
+                byte[] playerBytes = UuidCodec.toBytes(player.getKey());
+                for (String currency : player.getValue().keySet()) {
+                    prune.setBytes(1, playerBytes);
+                    prune.setString(2, currency);
+                    prune.addBatch();
+                }
+            }
+            prune.executeBatch();
+        }
+    }
+    
+    /**
+     * Archive of history past the retention window, or null if archiving is disabled
+     */
+    @Override
+    public HistoryArchive getHistoryArchive() {
+        return historyArchive;
+    }
+    
+    /**
+     * Get a pooled database connection. Callers must close it to return it to the pool.
+     */
+    Connection getConnection() throws SQLException {
+        if (pool == null) {
+            throw new SQLException("Database is not initialized");
+        }
+        return pool.getConnection();
+    }
+    
+    /**
+     * Get a connection for history and statistics lookups. These may come from a separate
+     * read pool, possibly on a replica, so they must not be used for reads that precede a write.
+     */
+    Connection getReadConnection() throws SQLException {
+        if (readPool != null && isReadPoolUsable()) {
+            return readPool.getConnection();
+        }
+        return getConnection();
+    }
+    
+    /**
+     * Read pool, or null when reads share the main pool
+     */
+    ConnectionPool getReadPool() {
+        return readPool;
+    }
+    
+    @Override
+    public List<ConnectionPool> getConnectionPools() {
+        List<ConnectionPool> pools = new ArrayList<>(2);
+        if (pool != null) {
+            pools.add(pool);
+        }
+        if (readPool != null) {
+            pools.add(readPool);
+        }
+        return pools;
+    }
+    
+    /**
+     * One read per pooled connection
+     */
+    @Override
+    public int getReadConcurrency() {
+        ConnectionPool source = readPool != null ? readPool : pool;
+        return source != null ? source.getMaximumSize() : 1;
+    }
+    
+    /**
+     * Whether legacy history is still being migrated to the current schema
+     */
+    @Override
+    public boolean isMigrating() {
+        return schemaMigrator != null && schemaMigrator.isMigrating();
+    }
+    
+    /**
+     * Close database connection
+     */
+    @Override
+    public void shutdown() {
+        if (readPool != null) {
+            readPool.close();
+        }
+        if (pool != null && !pool.isClosed()) {
+            pool.close();
+            Logger.info("Database connection pool closed");
+        }
+    }
+    
+    /**
+     * Binds one row's values starting at a parameter index
+     */
+    @FunctionalInterface
+    private interface RowBinder<T> {
+        void bind(PreparedStatement stmt, int index, T row) throws SQLException;
+    }
+    
+    /**
+     * Pending change to one player_stats row
+     */
+    private static class StatsDelta {
+        private long sentCount;
+        private double sentTotal;
+        private long receivedCount;
+        private double receivedTotal;
+        
+        private void add(boolean sent, long count, double amount) {
+            if (sent) {
+                sentCount += count;
+                sentTotal += amount;
+            } else {
+                receivedCount += count;
+                receivedTotal += amount;
+            }
+        }
+    }
+    
+    /**
+     * Pending change to one inbox row
+     */
+    private static class InboxDelta {
+        private long count;
+        private double total;
+        
+        private void add(long count, double amount) {
+            this.count += count;
+            this.total += amount;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.models.InboxEntry;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Micro-batches player joins. Joins arriving within a short window are served together by
+ * {@link StorageBackend#drainInbox}, so a login storm after a restart costs a handful of
+ * queries instead of several round trips per player. Each caller gets its own player's result.
+ */
+public class JoinPipeline {
+    
+    private final StorageBackend backend;
+    private final long windowMillis;
+    private final int maxBatch;
+    private final ScheduledExecutorService executor;
+    
+    // Guarded by this
+    private final Map<UUID, CompletableFuture<List<InboxEntry>>> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+    
+    public JoinPipeline(PayEdtools plugin, StorageBackend backend) {
+        this.backend = backend;
+        this.windowMillis = plugin.getConfigManager().getJoinBatchWindow();
+        this.maxBatch = plugin.getConfigManager().getJoinBatchSize();
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PayEdtools-Join-Pipeline");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Queue a joining player
+     *
+     * @return offline payments waiting for the player, per currency
+     */
+    public synchronized CompletableFuture<List<InboxEntry>> submit(UUID player) {
+        // A quick rejoin within the same window shares the pending result
+        CompletableFuture<List<InboxEntry>> future = pending.computeIfAbsent(player, k -> new CompletableFuture<>());
+        
+        if (executor.isShutdown()) {
+            flushScheduled = true;
+            flush();
+        } else if (pending.size() >= maxBatch) {
+            flushScheduled = true;
+            executor.execute(this::flush);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            executor.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+        }
+        return future;
+    }
+    
+    private void flush() {
+        Map<UUID, CompletableFuture<List<InboxEntry>>> batch = new LinkedHashMap<>();
+        synchronized (this) {
+            Iterator<Map.Entry<UUID, CompletableFuture<List<InboxEntry>>>> it = pending.entrySet().iterator();
+            while (it.hasNext() && batch.size() < maxBatch) {
+                Map.Entry<UUID, CompletableFuture<List<InboxEntry>>> entry = it.next();
+                batch.put(entry.getKey(), entry.getValue());
+                it.remove();
+            }
+            
+            // Whatever did not fit goes out right after this batch
+            flushScheduled = !pending.isEmpty();
+            if (flushScheduled && !executor.isShutdown()) {
+                executor.execute(this::flush);
+            }
+        }
+        
+        if (batch.isEmpty()) {
+            return;
+        }
+        
+        try {
+            Map<UUID, List<InboxEntry>> result = backend.drainInbox(batch.keySet());
+            batch.forEach((player, future) -> future.complete(result.getOrDefault(player, List.of())));
+        } catch (Exception e) {
+            Logger.error("Failed to process a batch of " + batch.size() + " joins", e);
+            batch.values().forEach(future -> future.completeExceptionally(e));
+        }
+    }
+    
+    /**
+     * Serve any queued joins and stop the pipeline thread
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+        
+        while (true) {
+            synchronized (this) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+            }
+            flush();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package ve.nottabaker.payedtools.database;
+
+import java.util.UUID;
+
+/**
+ * Receives ledger rows one at a time as they are read, without building intermediate objects
+ */
+@FunctionalInterface
+public interface LedgerVisitor {
+    
+    /**
+     * Visit one ledger row
+     *
+     * @param counterparty other side of the transaction, or null for the console
+     */
+    void visit(long timestamp, UUID transactionId, boolean sent, UUID counterparty,
+               String currency, double amount, double tax);
+}
@@ -0,0 +1,316 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.TransactionManager.HistoryPage;
+import ve.nottabaker.payedtools.managers.TransactionManager.TransactionStats;
+import ve.nottabaker.payedtools.models.HistoryCursor;
+import ve.nottabaker.payedtools.models.InboxEntry;
+import ve.nottabaker.payedtools.models.LedgerEntry;
+import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Backend that keeps everything in memory and persists nothing. History is lost on restart,
+ * so it is meant for test servers and benchmarks that should not touch a disk or database.
+ */
+public class MemoryStorageBackend implements StorageBackend {
+    
+    private final PayEdtools plugin;
+    private final Map<UUID, PlayerHistory> histories = new ConcurrentHashMap<>();
+    private final Map<UUID, Long> lastLogins = new ConcurrentHashMap<>();
+    private final Map<UUID, Map<String, InboxEntry>> inbox = new ConcurrentHashMap<>();
+    
+    public MemoryStorageBackend(PayEdtools plugin) {
+        this.plugin = plugin;
+    }
+    
+    @Override
+    public StorageType getType() {
+        return StorageType.MEMORY;
+    }
+    
+    @Override
+    public void initialize(ScheduledExecutorService maintenanceExecutor) {
+        long interval = plugin.getConfigManager().getRetentionInterval();
+        maintenanceExecutor.scheduleWithFixedDelay(this::cleanupOldTransactions, interval, interval, TimeUnit.MINUTES);
+        Logger.warning("Using in-memory storage; transaction history will be lost on restart");
+    }
+    
+    @Override
+    public void saveTransaction(Transaction transaction) {
+        // The console has no history of its own
+        if (transaction.getSender() != null) {
+            append(LedgerEntry.sent(transaction));
+        }
+        append(LedgerEntry.received(transaction));
+        
+        if (transaction.isReceiverOffline()) {
+            InboxEntry entry = new InboxEntry(transaction.getCurrency(), 1, transaction.getAmount());
+            inbox.compute(transaction.getReceiver(), (player, entries) -> {
+                Map<String, InboxEntry> target = entries != null ? entries : new HashMap<>();
+                target.merge(entry.getCurrency(), entry, InboxEntry::plus);
+                return target;
+            });
+        }
+    }
+    
+    @Override
+    public WriteResult saveTransactionBatch(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            saveTransaction(transaction);
+        }
+        return WriteResult.SAVED;
+    }
+    
+    /**
+     * Add an entry under the map's lock for its player, so cleanup cannot drop the history meanwhile
+     */
+    private void append(LedgerEntry entry) {
+        histories.compute(entry.getPlayer(), (player, history) -> {
+            PlayerHistory target = history != null ? history : new PlayerHistory();
+            target.add(entry);
+            return target;
+        });
+    }
+    
+    @Override
+    public List<Transaction> getTransactionHistory(UUID uuid, int limit) {
+        return getTransactionHistorySince(uuid, Long.MIN_VALUE, limit);
+    }
+    
+    @Override
+    public List<Transaction> getTransactionHistorySince(UUID uuid, long sinceTime, int limit) {
+        List<Transaction> result = new ArrayList<>();
+        PlayerHistory history = histories.get(uuid);
+        if (history == null) {
+            return result;
+        }
+        
+        for (LedgerEntry entry : history.entries) {
+            if (result.size() == limit || entry.getTimestamp() < sinceTime) {
+                break;
+            }
+            result.add(entry.toTransaction());
+        }
+        return result;
+    }
+    
+    @Override
+    public HistoryPage streamHistoryPage(UUID uuid, HistoryCursor after, int pageSize, LedgerVisitor visitor) {
+        PlayerHistory history = histories.get(uuid);
+        if (history == null) {
+            return new HistoryPage(0, false, after);
+        }
+        
+        int count = 0;
+        LedgerEntry last = null;
+        for (LedgerEntry entry : history.after(uuid, after)) {
+            if (count == pageSize) {
+                return new HistoryPage(count, true, toCursor(last));
+            }
+            visitor.visit(entry.getTimestamp(), entry.getTransactionId(), entry.isSent(),
+                          entry.getCounterparty(), entry.getCurrency(), entry.getAmount(), entry.getTax());
+            last = entry;
+            count++;
+        }
+        return new HistoryPage(count, false, last != null ? toCursor(last) : after);
+    }
+    
+    @Override
+    public HistoryCursor findHistoryCursor(UUID uuid, HistoryCursor after, int rows) {
+        PlayerHistory history = histories.get(uuid);
+        if (history == null) {
+            return null;
+        }
+        
+        int skipped = 0;
+        for (LedgerEntry entry : history.after(uuid, after)) {
+            if (++skipped == rows) {
+                return toCursor(entry);
+            }
+        }
+        return null;
+    }
+    
+    private HistoryCursor toCursor(LedgerEntry entry) {
+        return new HistoryCursor(entry.getTimestamp(), entry.getTransactionId(), entry.isSent());
+    }
+    
+    @Override
+    public TransactionStats getTransactionStats(UUID uuid) {
+        TransactionStats stats = new TransactionStats(0, 0, 0, 0);
+        PlayerHistory history = histories.get(uuid);
+        if (history == null) {
+            return stats;
+        }
+        
+        synchronized (history) {
+            for (Map.Entry<String, long[]> counts : history.counts.entrySet()) {
+                double[] totals = history.totals.get(counts.getKey());
+                stats.addCurrency(counts.getKey(), new TransactionStats(
+                    (int) counts.getValue()[0], (int) counts.getValue()[1], totals[0], totals[1]));
+            }
+        }
+        return stats;
+    }
+    
+    @Override
+    public boolean streamSentVolume(long sinceTime, long untilTime, SentVolumeVisitor visitor) {
+        for (Map.Entry<UUID, PlayerHistory> history : histories.entrySet()) {
+            for (LedgerEntry entry : history.getValue().entries) {
+                if (entry.isSent() && entry.getTimestamp() >= sinceTime && entry.getTimestamp() < untilTime) {
+                    visitor.visit(history.getKey(), entry.getCurrency(), entry.getTimestamp(), entry.getAmount());
+                }
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Totals are maintained on every write, so there is nothing to rebuild
+     */
+    @Override
+    public int rebuildPlayerStats() {
+        int rows = 0;
+        for (PlayerHistory history : histories.values()) {
+            synchronized (history) {
+                rows += history.counts.size();
+            }
+        }
+        return rows;
+    }
+    
+    @Override
+    public void cleanupOldTransactions() {
+        int days = plugin.getConfigManager().getCleanupAfterDays();
+        if (days <= 0) {
+            return;
+        }
+        
+        long cutoffTime = System.currentTimeMillis() - (days * 24L * 60L * 60L * 1000L);
+        int deleted = 0;
+        for (UUID player : histories.keySet()) {
+            PlayerHistory history = histories.get(player);
+            if (history != null) {
+                deleted += history.removeBefore(cutoffTime);
+                histories.computeIfPresent(player, (k, current) -> current.entries.isEmpty() ? null : current);
+            }
+        }
+        
+        if (deleted > 0) {
+            Logger.info("Removed " + deleted + " expired history entries from memory");
+        }
+    }
+    
+    @Override
+    public long getLastLoginTime(UUID playerUUID) {
+        Long time = lastLogins.get(playerUUID);
+        // Same fallback as the SQL backends: 24 hours ago
+        return time != null ? time : System.currentTimeMillis() - (24 * 60 * 60 * 1000);
+    }
+    
+    @Override
+    public void updateLastLoginTime(UUID playerUUID) {
+        lastLogins.put(playerUUID, System.currentTimeMillis());
+    }
+    
+    @Override
+    public Map<UUID, List<InboxEntry>> drainInbox(Collection<UUID> players) {
+        Map<UUID, List<InboxEntry>> result = new HashMap<>();
+        long now = System.currentTimeMillis();
+        for (UUID player : players) {
+            Map<String, InboxEntry> entries = inbox.remove(player);
+            if (entries != null) {
+                result.put(player, new ArrayList<>(entries.values()));
+            }
+            lastLogins.put(player, now);
+        }
+        return result;
+    }
+    
+    @Override
+    public void shutdown() {
+        histories.clear();
+        lastLogins.clear();
+        inbox.clear();
+    }
+    
+    /**
+     * One player's ledger in history order plus running totals per currency
+     */
+    private static class PlayerHistory {
+        private final NavigableSet<LedgerEntry> entries = new ConcurrentSkipListSet<>(ArchiveSegment.ORDER);
+        // Guarded by this: {sent, received} counts and totals per currency
+        private final Map<String, long[]> counts = new TreeMap<>();
+        private final Map<String, double[]> totals = new TreeMap<>();
+        
+        private void add(LedgerEntry entry) {
+            if (!entries.add(entry)) {
+                return;
+            }
+            synchronized (this) {
+                applyStats(entry, 1);
+            }
+        }
+        
+        /**
+         * Entries strictly after a cursor, or all entries for a null cursor
+         */
+        private Iterable<LedgerEntry> after(UUID player, HistoryCursor cursor) {
+            if (cursor == null) {
+                return entries;
+            }
+            LedgerEntry probe = new LedgerEntry(player, cursor.getTransactionId(), cursor.getTimestamp(),
+                                                cursor.isSent(), null, null, 0, 0);
+            return entries.tailSet(probe, false);
+        }
+        
+        /**
+         * Remove entries older than the cutoff; they sit at the end of the set
+         */
+        private int removeBefore(long cutoffTime) {
+            int removed = 0;
+            Iterator<LedgerEntry> it = entries.descendingIterator();
+            while (it.hasNext()) {
+                LedgerEntry entry = it.next();
+                if (entry.getTimestamp() >= cutoffTime) {
+                    break;
+                }
+                if (entries.remove(entry)) {
+                    synchronized (this) {
+                        applyStats(entry, -1);
+                    }
+                    removed++;
+                }
+            }
+            return removed;
+        }
+        
+        private void applyStats(LedgerEntry entry, int sign) {
+            int side = entry.isSent() ? 0 : 1;
+            long[] count = counts.computeIfAbsent(entry.getCurrency(), k -> new long[2]);
+            double[] total = totals.computeIfAbsent(entry.getCurrency(), k -> new double[2]);
+            count[side] += sign;
+            total[side] += sign * entry.getAmount();
+            
+            if (count[0] == 0 && count[1] == 0) {
+                counts.remove(entry.getCurrency());
+                totals.remove(entry.getCurrency());
+            }
+        }
+    }
+}
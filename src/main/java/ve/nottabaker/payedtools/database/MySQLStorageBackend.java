@@ -0,0 +1,398 @@
+package ve.nottabaker.payedtools.database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.ConfigManager;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Backend for a shared MySQL or MariaDB server
+ */
+public class MySQLStorageBackend extends JdbcStorageBackend implements BackupCapable {
+    
+    // Dumped in this order; a restore replaces the rows of each table
+    private static final String[] BACKUP_TABLES = {"schema_meta", "last_logins", "player_stats", "inbox", "transactions", "ledger_entries"};
+    
+    private static final long LAG_CHECK_SECONDS = 5;
+    private static final String[][] REPLICA_STATUS = {
+        {"SHOW REPLICA STATUS", "Seconds_Behind_Source"},
+        {"SHOW SLAVE STATUS", "Seconds_Behind_Master"}
+    };
+    
+    private volatile boolean replicaHealthy;
+    private volatile long replicaLagSeconds = -1;
+    private boolean lagCheckFailed;
+    
+    public MySQLStorageBackend(PayEdtools plugin) {
+        super(plugin);
+    }
+    
+    @Override
+    public StorageType getType() {
+        return StorageType.MYSQL;
+    }
+    
+    @Override
+    public void initialize(ScheduledExecutorService maintenanceExecutor) throws SQLException {
+        super.initialize(maintenanceExecutor);
+        
+        // Lookups stay on the main server until the replica is known to be caught up
+        if (isReplicaConfigured()) {
+            if (plugin.getConfigManager().getMysqlReadMaxLag() < 0) {
+                replicaHealthy = true;
+            } else {
+                maintenanceExecutor.scheduleWithFixedDelay(this::checkReplicaLag, 0, LAG_CHECK_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+    }
+    
+    @Override
+    protected HikariDataSource createDataSource() throws SQLException {
+        ConfigManager settings = plugin.getConfigManager();
+        HikariConfig config = poolConfig("PayEdtools-MySQL", settings.getMysqlHost(), settings.getMysqlPort());
+        config.setMaximumPoolSize(settings.getMysqlMaxPoolSize());
+        config.setMinimumIdle(settings.getMysqlMinIdle());
+        return open(config);
+    }
+    
+    @Override
+    protected HikariDataSource createReadDataSource() throws SQLException {
+        ConfigManager settings = plugin.getConfigManager();
+        HikariConfig config = isReplicaConfigured()
+            ? poolConfig("PayEdtools-MySQL-Read", settings.getMysqlReadHost(), settings.getMysqlReadPort())
+            : poolConfig("PayEdtools-MySQL-Read", settings.getMysqlHost(), settings.getMysqlPort());
+        config.setMaximumPoolSize(settings.getMysqlReadMaxPoolSize());
+        config.setMinimumIdle(Math.min(settings.getMysqlReadMinIdle(), settings.getMysqlReadMaxPoolSize()));
+        config.setReadOnly(true);
+        
+        if (!isReplicaConfigured()) {
+            return open(config);
+        }
+        try {
+            return open(config);
+        } catch (SQLException e) {
+            // A replica that is down at startup must not keep the plugin from using the main server
+            Logger.warning("Read replica unreachable, lookups will use the main server: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    private HikariConfig poolConfig(String name, String host, int port) {
+        ConfigManager settings = plugin.getConfigManager();
+        
+        HikariConfig config = new HikariConfig();
+        config.setPoolName(name);
+        config.setJdbcUrl("jdbc:mysql://" + host + ":" + port + "/" + settings.getMysqlDatabase() +
+                         "?autoReconnect=true&useSSL=false&allowPublicKeyRetrieval=true");
+        config.setUsername(settings.getMysqlUsername());
+        config.setPassword(settings.getMysqlPassword());
+        config.setDriverClassName("com.mysql.cj.jdbc.Driver");
+        
+        // Connection pool settings
+        config.setConnectionTimeout(settings.getMysqlConnectionTimeout());
+        config.setIdleTimeout(300000); // 5 minutes
+        config.setMaxLifetime(1800000); // 30 minutes
+        config.setLeakDetectionThreshold(60000); // 1 minute
+        
+        // Performance optimizations
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.addDataSourceProperty("useServerPrepStmts", "true");
+        config.addDataSourceProperty("useLocalSessionState", "true");
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        config.addDataSourceProperty("cacheResultSetMetadata", "true");
+        config.addDataSourceProperty("cacheServerConfiguration", "true");
+        config.addDataSourceProperty("elideSetAutoCommits", "true");
+        config.addDataSourceProperty("maintainTimeStats", "false");
+        return config;
+    }
+    
+    private HikariDataSource open(HikariConfig config) throws SQLException {
+        HikariDataSource dataSource = new HikariDataSource(config);
+        
+        // Test connection
+        try (Connection testConnection = dataSource.getConnection()) {
+            Logger.debug("MySQL pool " + config.getPoolName() + " connected: " + config.getJdbcUrl());
+            Logger.debug("Connection pool size: " + config.getMaximumPoolSize());
+        } catch (SQLException e) {
+            dataSource.close();
+            throw e;
+        }
+        
+        return dataSource;
+    }
+    
+    private boolean isReplicaConfigured() {
+        return !plugin.getConfigManager().getMysqlReadHost().isEmpty();
+    }
+    
+    @Override
+    boolean isReadPoolUsable() {
+        return !isReplicaConfigured() || replicaHealthy;
+    }
+    
+    /**
+     * Measure how far the replica is behind and route lookups away from it while it lags
+     */
+    private void checkReplicaLag() {
+        ConnectionPool readPool = getReadPool();
+        if (readPool == null) {
+            return;
+        }
+        
+        long maxLag = plugin.getConfigManager().getMysqlReadMaxLag();
+        boolean healthy;
+        try (Connection conn = readPool.getConnection()) {
+            Long lag = replicaLag(conn);
+            replicaLagSeconds = lag != null ? lag : -1;
+            healthy = lag != null && lag <= maxLag;
+            if (!healthy && replicaHealthy) {
+                Logger.warning("Read replica is " + (lag != null ? lag + "s behind" : "not replicating") +
+                               ", lookups will use the main server");
+            }
+        } catch (SQLException e) {
+            healthy = false;
+            if (replicaHealthy || !lagCheckFailed) {
+                Logger.warning("Could not check read replica lag, lookups will use the main server " +
+                               "(needs the REPLICATION CLIENT privilege, or set max-lag to -1): " + e.getMessage());
+            }
+            lagCheckFailed = true;
+        }
+        
+        if (healthy && !replicaHealthy) {
+            Logger.info("Read replica is caught up, lookups will use it");
+            lagCheckFailed = false;
+        }
+        replicaHealthy = healthy;
+    }
+    
+    /**
+     * Seconds the replica is behind its source, 0 for a read-only endpoint that is not a replica,
+     * or null when replication is stopped
+     */
+    private Long replicaLag(Connection conn) throws SQLException {
+        SQLException failure = null;
+        // MySQL 8.0.22+ renamed the statement; MariaDB and older MySQL only know the old name
+        for (String[] variant : REPLICA_STATUS) {
+            try (Statement stmt = conn.createStatement();
+                 ResultSet rs = stmt.executeQuery(variant[0])) {
+                if (!rs.next()) {
+                    return 0L;
+                }
+                long lag = rs.getLong(variant[1]);
+                return rs.wasNull() ? null : lag;
+            } catch (SQLException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+    
+    /**
+     * Last measured replication lag, or -1 if unknown
+     */
+    public long getReplicaLagSeconds() {
+        return replicaLagSeconds;
+    }
+    
+    @Override
+    public String getBackupSuffix() {
+        return ".sql.gz";
+    }
+    
+    /**
+     * Dump every table as INSERT statements read from one consistent InnoDB snapshot.
+     * The snapshot takes no locks, so writers carry on; rows are streamed from the server
+     * and written a configured number at a time with a pause after each step.
+     */
+    @Override
+    public void backup(Path target, BackupProgress progress) throws SQLException, IOException {
+        int rowsPerStep = plugin.getConfigManager().getBackupRowsPerStep();
+        long stepDelay = plugin.getConfigManager().getBackupStepDelay();
+        
+        try (Connection conn = getConnection();
+             Writer out = new BufferedWriter(new OutputStreamWriter(
+                 new GZIPOutputStream(Files.newOutputStream(target)), StandardCharsets.UTF_8))) {
+            int isolation = conn.getTransactionIsolation();
+            conn.setAutoCommit(false);
+            conn.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("START TRANSACTION WITH CONSISTENT SNAPSHOT, READ ONLY");
+                }
+                
+                long total = estimateRows(conn);
+                long done = 0;
+                out.write("-- PayEdtools backup taken " + Instant.now() + "\n");
+                out.write("-- Restore into an existing PayEdtools schema: mysql <database> < backup.sql\n");
+                out.write("SET NAMES utf8mb4;\n");
+                for (String table : BACKUP_TABLES) {
+                    done = dumpTable(conn, out, table, done, total, rowsPerStep, stepDelay, progress);
+                }
+                
+                conn.commit();
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+                conn.setTransactionIsolation(isolation);
+            }
+        }
+    }
+    
+    /**
+     * Estimated row count of the dumped tables, used only for progress
+     */
+    private long estimateRows(Connection conn) throws SQLException {
+        String sql = "SELECT COALESCE(SUM(TABLE_ROWS), 0) FROM information_schema.TABLES " +
+                     "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME IN (" +
+                     String.join(", ", Collections.nCopies(BACKUP_TABLES.length, "?")) + ")";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            for (int i = 0; i < BACKUP_TABLES.length; i++) {
+                stmt.setString(i + 1, BACKUP_TABLES[i]);
+            }
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        }
+    }
+    
+    /**
+     * Stream one table into multi-row INSERT statements
+     *
+     * @return rows dumped so far across all tables
+     */
+    private long dumpTable(Connection conn, Writer out, String table, long done, long total,
+                           int rowsPerStep, long stepDelay, BackupProgress progress) throws SQLException, IOException {
+        try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            // Connector/J streams rows one by one instead of buffering the whole table
+            stmt.setFetchSize(Integer.MIN_VALUE);
+            
+            try (ResultSet rs = stmt.executeQuery("SELECT * FROM " + table)) {
+                ResultSetMetaData meta = rs.getMetaData();
+                int columns = meta.getColumnCount();
+                StringBuilder insert = new StringBuilder("INSERT INTO ").append(table).append(" (");
+                for (int i = 1; i <= columns; i++) {
+                    insert.append(i > 1 ? ", " : "").append(meta.getColumnName(i));
+                }
+                insert.append(") VALUES\n");
+                
+                out.write("DELETE FROM " + table + ";\n");
+                int inStep = 0;
+                while (rs.next()) {
+                    out.write(inStep == 0 ? insert.toString() : ",\n");
+                    out.write('(');
+                    for (int i = 1; i <= columns; i++) {
+                        if (i > 1) {
+                            out.write(", ");
+                        }
+                        writeValue(out, rs.getObject(i));
+                    }
+                    out.write(')');
+                    done++;
+                    
+                    if (++inStep == rowsPerStep) {
+                        out.write(";\n");
+                        inStep = 0;
+                        progress.update(done, Math.max(done, total));
+                        pause(stepDelay);
+                    }
+                }
+                if (inStep > 0) {
+                    out.write(";\n");
+                }
+            }
+        }
+        
+        progress.update(done, Math.max(done, total));
+        return done;
+    }
+    
+    private void writeValue(Writer out, Object value) throws IOException {
+        if (value == null) {
+            out.write("NULL");
+        } else if (value instanceof byte[] bytes) {
+            out.write("X'" + HexFormat.of().formatHex(bytes) + "'");
+        } else if (value instanceof Number) {
+            out.write(value.toString());
+        } else {
+            out.write("'" + value.toString().replace("\\", "\\\\").replace("'", "''") + "'");
+        }
+    }
+    
+    private void pause(long stepDelay) throws InterruptedIOException {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new InterruptedIOException("Backup interrupted");
+        }
+        if (stepDelay > 0) {
+            try {
+                Thread.sleep(stepDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Backup interrupted");
+            }
+        }
+    }
+    
+    @Override
+    String uuidColumnType() {
+        return "BINARY(16)";
+    }
+    
+    @Override
+    String insertIgnore() {
+        return "INSERT IGNORE";
+    }
+    
+    @Override
+    String statsUpsertSQL() {
+        return "INSERT INTO player_stats (player, currency, sent_count, sent_total, received_count, received_total) " +
+               "VALUES (?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE " +
+               "sent_count = sent_count + VALUES(sent_count), sent_total = sent_total + VALUES(sent_total), " +
+               "received_count = received_count + VALUES(received_count), received_total = received_total + VALUES(received_total)";
+    }
+    
+    @Override
+    String inboxUpsertSQL() {
+        return "INSERT INTO inbox (player, currency, payment_count, payment_total) VALUES (?, ?, ?, ?) " +
+               "ON DUPLICATE KEY UPDATE " +
+               "payment_count = payment_count + VALUES(payment_count), payment_total = payment_total + VALUES(payment_total)";
+    }
+    
+    @Override
+    String lastLoginUpsertSQL() {
+        return "INSERT INTO last_logins (player_uuid, last_login_time) VALUES (?, ?) " +
+               "ON DUPLICATE KEY UPDATE last_login_time = VALUES(last_login_time)";
+    }
+    
+    // MySQL has no CREATE INDEX IF NOT EXISTS; an existing index is reported as a duplicate instead
+    @Override
+    boolean supportsCreateIndexIfNotExists() {
+        return false;
+    }
+    
+    // Locks the aggregated rows so concurrent writers cannot change them before they are subtracted
+    @Override
+    String lockForUpdate() {
+        return " FOR UPDATE";
+    }
+}
@@ -0,0 +1,167 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Runs database reads for commands on a fixed set of threads sized to the connection pool,
+ * so lookups neither compete with the server's async pool nor queue up for connections.
+ * Reads submitted under a key join an identical read that is already queued or running
+ * instead of issuing their own query.
+ */
+public class ReadExecutor {
+    
+    private final ThreadPoolExecutor executor;
+    private final Map<String, CompletableFuture<?>> inFlight = new ConcurrentHashMap<>();
+    
+    // Metrics
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    
+    public ReadExecutor(int threads, int queueSize) {
+        AtomicInteger threadId = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(queueSize), runnable -> {
+                Thread thread = new Thread(runnable, "PayEdtools-DB-Read-" + threadId.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+    
+    /**
+     * Run a read in the background
+     *
+     * @param key identifies the query and its arguments; reads with the same key share one result,
+     *            or null to always run separately
+     * @return the result, or a future failed with {@link RejectedExecutionException} when the queue is full
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submit(String key, Supplier<T> query) {
+        if (key == null) {
+            return execute(query);
+        }
+        
+        CompletableFuture<T> created = new CompletableFuture<>();
+        CompletableFuture<T> existing = (CompletableFuture<T>) inFlight.putIfAbsent(key, created);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+        
+        // Later callers start a fresh read once this one is done
+        created.whenComplete((result, error) -> inFlight.remove(key, created));
+        execute(query).whenComplete((result, error) -> {
+            if (error != null) {
+                created.completeExceptionally(error);
+            } else {
+                created.complete(result);
+            }
+        });
+        return created;
+    }
+    
+    private <T> CompletableFuture<T> execute(Supplier<T> query) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        long queuedAt = System.nanoTime();
+        
+        try {
+            executor.execute(() -> {
+                recordWait(System.nanoTime() - queuedAt);
+                try {
+                    future.complete(query.get());
+                } catch (Throwable t) {
+                    Logger.error("Database read failed", t);
+                    future.completeExceptionally(t);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+    
+    private void recordWait(long waitNanos) {
+        executed.increment();
+        totalWaitNanos.add(waitNanos);
+        maxWaitNanos.accumulateAndGet(waitNanos, Math::max);
+    }
+    
+    /**
+     * Number of reader threads
+     */
+    public int getThreads() {
+        return executor.getMaximumPoolSize();
+    }
+    
+    /**
+     * Reads waiting for a thread right now
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+    
+    /**
+     * Reads that have started running
+     */
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+    
+    /**
+     * Reads served by joining an identical read in flight
+     */
+    public long getCoalescedCount() {
+        return coalesced.sum();
+    }
+    
+    /**
+     * Reads turned away because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * Average time reads spent queued before a thread picked them up
+     */
+    public double getAverageQueueWaitMillis() {
+        long count = executed.sum();
+        return count > 0 ? totalWaitNanos.sum() / 1_000_000.0 / count : 0;
+    }
+    
+    /**
+     * Longest time a read spent queued before a thread picked it up
+     */
+    public double getMaxQueueWaitMillis() {
+        return maxWaitNanos.get() / 1_000_000.0;
+    }
+    
+    /**
+     * Finish queued reads and stop the reader threads
+     */
+    public void shutdown() {
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+    }
+}
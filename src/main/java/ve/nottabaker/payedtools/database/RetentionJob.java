@@ -0,0 +1,400 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.ConfigManager;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.sql.*;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Removes history older than settings.cleanup-after-days.
+ *
+ * Rows are deleted in small batches, each in its own database transaction, so no single
+ * statement holds locks for long. Batches shrink when they take longer than the target
+ * latency and grow again when they are fast, and the pause after each batch keeps the job
+ * within its configured share of database time.
+ *
+ * With MySQL partitioning enabled, the history tables are split into monthly range partitions.
+ * Months that are entirely expired are dropped as a whole; only the expired days of the
+ * oldest remaining month are deleted row by row.
+ *
+ * With the archive enabled, each run first exports expired rows to the {@link HistoryArchive}
+ * in throttled chunks, and only rows at or below the archive watermark are deleted or dropped.
+ */
+public class RetentionJob {
+    
+    private static final int MIN_BATCH_SIZE = 100;
+    private static final int MONTHS_AHEAD = 2;
+    private static final String MAX_PARTITION = "pmax";
+    private static final String DROPPING_KEY = "retention_dropping_partition";
+    private static final String[] PARTITIONED_TABLES = {"ledger_entries", "transactions"};
+    private static final DateTimeFormatter PARTITION_NAME = DateTimeFormatter.ofPattern("'p'yyyyMM");
+    
+    private final PayEdtools plugin;
+    private final JdbcStorageBackend backend;
+    private final HistoryArchive archive;
+    
+    private ScheduledExecutorService executor;
+    private int batchSize;
+    
+    // State of the sweep in progress; only touched from the maintenance thread
+    private boolean running;
+    private long cutoffTime;
+    private long sweepStart;
+    private long sweepDeleted;
+    private int sweepBatches;
+    
+    /**
+     * @param archive archive to export expired rows to first, or null to delete them outright
+     */
+    public RetentionJob(PayEdtools plugin, JdbcStorageBackend backend, HistoryArchive archive) {
+        this.plugin = plugin;
+        this.backend = backend;
+        this.archive = archive;
+        this.batchSize = Math.max(MIN_BATCH_SIZE, plugin.getConfigManager().getRetentionBatchSize() / 4);
+    }
+    
+    /**
+     * Schedule periodic retention runs
+     */
+    public void start(ScheduledExecutorService executor) {
+        this.executor = executor;
+        long interval = plugin.getConfigManager().getRetentionInterval();
+        executor.scheduleWithFixedDelay(this::startSweep, 1, interval, TimeUnit.MINUTES);
+    }
+    
+    /**
+     * Start a retention run now unless one is already in progress
+     */
+    public void runNow() {
+        if (executor != null && !executor.isShutdown()) {
+            executor.execute(this::startSweep);
+        }
+    }
+    
+    /**
+     * Start a retention run: archive expired rows if enabled, then remove them
+     */
+    private void startSweep() {
+        if (running) {
+            return;
+        }
+        
+        // Live writes and a half-migrated ledger would make the stats adjustments inaccurate
+        if (backend.isMigrating()) {
+            Logger.debug("Retention skipped while the schema migration is running");
+            return;
+        }
+        
+        ConfigManager config = plugin.getConfigManager();
+        int days = config.getCleanupAfterDays();
+        if (days <= 0) {
+            // Nothing expires, but future partitions must still exist
+            cutoffTime = Long.MIN_VALUE;
+            maintainPartitions();
+            return;
+        }
+        
+        running = true;
+        sweepStart = System.currentTimeMillis();
+        sweepDeleted = 0;
+        sweepBatches = 0;
+        cutoffTime = System.currentTimeMillis() - (days * 24L * 60L * 60L * 1000L);
+        
+        if (archive != null) {
+            runExport();
+        } else {
+            startDeleting();
+        }
+    }
+    
+    /**
+     * Archive one chunk of expired rows and schedule the next one after a latency-based pause
+     */
+    private void runExport() {
+        long start = System.nanoTime();
+        int exported;
+        try {
+            exported = archive.exportChunk(cutoffTime);
+        } catch (Exception e) {
+            // Only already archived rows are deleted below, so nothing is lost
+            Logger.error("Failed to archive expired history", e);
+            exported = 0;
+        }
+        
+        if (exported == 0) {
+            try {
+                archive.compact();
+            } catch (Exception e) {
+                Logger.error("Failed to merge archive segments", e);
+            }
+            startDeleting();
+            return;
+        }
+        
+        Logger.debug("Archived " + exported + " expired ledger rows");
+        scheduleNext(this::runExport, (System.nanoTime() - start) / 1_000_000);
+    }
+    
+    /**
+     * Drop expired partitions, then delete the remaining expired rows batch by batch
+     */
+    private void startDeleting() {
+        if (archive != null) {
+            // Never delete past what has been written to the archive
+            cutoffTime = Math.min(cutoffTime, archive.getArchivedThrough() + 1);
+        }
+        
+        maintainPartitions();
+        batchSize = Math.min(batchSize, plugin.getConfigManager().getRetentionBatchSize());
+        runBatch();
+    }
+    
+    private void maintainPartitions() {
+        if (backend.getType() == StorageType.MYSQL && plugin.getConfigManager().isMysqlPartitioning()) {
+            try (Connection conn = backend.getConnection()) {
+                maintainPartitions(conn, cutoffTime != Long.MIN_VALUE);
+            } catch (SQLException e) {
+                Logger.error("Failed to maintain history partitions", e);
+            }
+        }
+    }
+    
+    /**
+     * Delete one batch and schedule the next one after a latency-based pause
+     */
+    private void runBatch() {
+        long start = System.nanoTime();
+        int deleted;
+        try {
+            deleted = backend.deleteExpiredBatch(cutoffTime, batchSize);
+        } catch (SQLException e) {
+            // Batches are atomic, so the next run simply continues where this one stopped
+            Logger.error("Retention batch failed", e);
+            running = false;
+            evictCachedHistory();
+            return;
+        }
+        long latency = (System.nanoTime() - start) / 1_000_000;
+        
+        sweepDeleted += deleted;
+        sweepBatches++;
+        
+        if (deleted < batchSize) {
+            finishSweep();
+            return;
+        }
+        
+        ConfigManager config = plugin.getConfigManager();
+        long target = config.getRetentionTargetBatchMillis();
+        if (latency > target) {
+            batchSize = Math.max(MIN_BATCH_SIZE, batchSize / 2);
+        } else if (latency * 2 < target) {
+            batchSize = Math.min(config.getRetentionBatchSize(), batchSize * 2);
+        }
+        
+        scheduleNext(this::runBatch, latency);
+    }
+    
+    /**
+     * Schedule the next step after a pause that keeps the job's time in the database around duty-cycle
+     */
+    private void scheduleNext(Runnable step, long latency) {
+        if (executor.isShutdown()) {
+            running = false;
+            return;
+        }
+        
+        double dutyCycle = plugin.getConfigManager().getRetentionDutyCycle();
+        long pause = (long) Math.ceil(latency * (1 - dutyCycle) / dutyCycle);
+        executor.schedule(step, pause, TimeUnit.MILLISECONDS);
+    }
+    
+    private void finishSweep() {
+        running = false;
+        evictCachedHistory();
+        long duration = System.currentTimeMillis() - sweepStart;
+        
+        if (sweepDeleted > 0) {
+            Logger.info("Retention removed " + sweepDeleted + " expired transactions in " + sweepBatches +
+                        " batches (" + duration + "ms, final batch size " + batchSize + ")");
+        } else {
+            Logger.debug("Retention found no expired transactions");
+        }
+    }
+    
+    /**
+     * Keep cached history in line with the rows this sweep removed
+     */
+    private void evictCachedHistory() {
+        HistoryCache cache = plugin.getDatabaseManager().getHistoryCache();
+        if (cache != null && cutoffTime != Long.MIN_VALUE) {
+            cache.evictBefore(cutoffTime);
+        }
+    }
+    
+    /**
+     * Partition the history tables if needed, keep future months available and drop expired months
+     */
+    private void maintainPartitions(Connection conn, boolean dropExpired) throws SQLException {
+        for (String table : PARTITIONED_TABLES) {
+            if (listPartitions(conn, table).isEmpty()) {
+                partitionTable(conn, table);
+            }
+        }
+        
+        // Stats were already adjusted for a drop that was interrupted; just finish it
+        String pending = SchemaMigrator.getMeta(conn, DROPPING_KEY);
+        if (pending != null) {
+            dropPartition(conn, pending);
+        }
+        
+        addFuturePartitions(conn);
+        
+        if (dropExpired) {
+            dropExpiredPartitions(conn);
+        }
+    }
+    
+    /**
+     * Rebuild a table as monthly RANGE partitions on timestamp, covering its oldest row
+     * through a few months ahead. Every unique key must contain the partitioning column,
+     * so the transactions primary key becomes (id, timestamp).
+     */
+    private void partitionTable(Connection conn, String table) throws SQLException {
+        YearMonth first = YearMonth.now(ZoneOffset.UTC);
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT MIN(timestamp) FROM " + table)) {
+            if (rs.next() && rs.getObject(1) != null) {
+                first = monthOf(rs.getLong(1));
+            }
+        }
+        
+        YearMonth last = YearMonth.now(ZoneOffset.UTC).plusMonths(MONTHS_AHEAD);
+        StringBuilder partitions = new StringBuilder();
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            partitions.append(partitionDefinition(month)).append(", ");
+        }
+        partitions.append("PARTITION ").append(MAX_PARTITION).append(" VALUES LESS THAN MAXVALUE");
+        
+        String keyChange = table.equals("transactions") ? "DROP PRIMARY KEY, ADD PRIMARY KEY (id, timestamp) " : "";
+        
+        Logger.info("Partitioning " + table + " by month; writes to it wait until this finishes...");
+        long start = System.currentTimeMillis();
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " " + keyChange + "PARTITION BY RANGE (timestamp) (" + partitions + ")");
+        }
+        Logger.info("Partitioned " + table + " in " + (System.currentTimeMillis() - start) + "ms");
+    }
+    
+    /**
+     * Split the catch-all partition so monthly partitions exist a few months ahead
+     */
+    private void addFuturePartitions(Connection conn) throws SQLException {
+        YearMonth target = YearMonth.now(ZoneOffset.UTC).plusMonths(MONTHS_AHEAD);
+        
+        for (String table : PARTITIONED_TABLES) {
+            YearMonth highest = null;
+            for (String name : listPartitions(conn, table).keySet()) {
+                if (!name.equals(MAX_PARTITION)) {
+                    YearMonth month = YearMonth.parse(name, PARTITION_NAME);
+                    if (highest == null || month.isAfter(highest)) {
+                        highest = month;
+                    }
+                }
+            }
+            if (highest == null || !highest.isBefore(target)) {
+                continue;
+            }
+            
+            StringBuilder partitions = new StringBuilder();
+            for (YearMonth month = highest.plusMonths(1); !month.isAfter(target); month = month.plusMonths(1)) {
+                partitions.append(partitionDefinition(month)).append(", ");
+            }
+            partitions.append("PARTITION ").append(MAX_PARTITION).append(" VALUES LESS THAN MAXVALUE");
+            
+            try (Statement stmt = conn.createStatement()) {
+                stmt.execute("ALTER TABLE " + table + " REORGANIZE PARTITION " + MAX_PARTITION + " INTO (" + partitions + ")");
+            }
+            Logger.debug("Added partitions to " + table + " through " + target);
+        }
+    }
+    
+    /**
+     * Drop every month whose upper bound is at or before the cutoff. The ledger rows are
+     * subtracted from player_stats first, in the same transaction that records which
+     * partition is being dropped, so an interrupted drop is never subtracted twice.
+     */
+    private void dropExpiredPartitions(Connection conn) throws SQLException {
+        for (Map.Entry<String, String> partition : listPartitions(conn, "ledger_entries").entrySet()) {
+            String name = partition.getKey();
+            if (name.equals(MAX_PARTITION) || Long.parseLong(partition.getValue()) > cutoffTime) {
+                continue;
+            }
+            
+            conn.setAutoCommit(false);
+            try {
+                backend.subtractLedgerStats(conn, "ledger_entries PARTITION (" + name + ")");
+                SchemaMigrator.setMeta(conn, DROPPING_KEY, name);
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+            
+            dropPartition(conn, name);
+        }
+    }
+    
+    private void dropPartition(Connection conn, String name) throws SQLException {
+        long start = System.currentTimeMillis();
+        for (String table : PARTITIONED_TABLES) {
+            if (listPartitions(conn, table).containsKey(name)) {
+                try (Statement stmt = conn.createStatement()) {
+                    stmt.execute("ALTER TABLE " + table + " DROP PARTITION " + name);
+                }
+            }
+        }
+        SchemaMigrator.deleteMeta(conn, DROPPING_KEY);
+        Logger.info("Dropped expired history partition " + name + " (" + (System.currentTimeMillis() - start) + "ms)");
+    }
+    
+    /**
+     * Partition names mapped to their upper bound, in partition order; empty if not partitioned
+     */
+    private Map<String, String> listPartitions(Connection conn, String table) throws SQLException {
+        String sql = "SELECT PARTITION_NAME, PARTITION_DESCRIPTION FROM information_schema.PARTITIONS " +
+                     "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL " +
+                     "ORDER BY PARTITION_ORDINAL_POSITION";
+                     
+        Map<String, String> partitions = new LinkedHashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, table);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    partitions.put(rs.getString(1), rs.getString(2));
+                }
+            }
+        }
+        return partitions;
+    }
+    
+    private String partitionDefinition(YearMonth month) {
+        long upperBound = month.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        return "PARTITION " + month.format(PARTITION_NAME) + " VALUES LESS THAN (" + upperBound + ")";
+    }
+    
+    private YearMonth monthOf(long timestamp) {
+        return YearMonth.from(Instant.ofEpochMilli(timestamp).atZone(ZoneOffset.UTC));
+    }
+}
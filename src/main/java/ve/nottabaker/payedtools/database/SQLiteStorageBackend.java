@@ -0,0 +1,179 @@
+package ve.nottabaker.payedtools.database;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.sqlite.SQLiteConnection;
+import org.sqlite.core.DB;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Default backend: a single SQLite file in the plugin folder
+ */
+public class SQLiteStorageBackend extends JdbcStorageBackend implements BackupCapable {
+    
+    // SQLite allows a single writer; a few connections let reads proceed alongside it in WAL mode
+    private static final int POOL_SIZE = 4;
+    
+    // Backup steps that hit a lock are retried this often before the backup fails
+    private static final int BACKUP_BUSY_RETRY_MILLIS = 100;
+    private static final int BACKUP_BUSY_RETRIES = 50;
+    // Throttling is dropped after this many restarts so the copy can finish between writes
+    private static final int BACKUP_THROTTLED_RESTARTS = 3;
+    
+    public SQLiteStorageBackend(PayEdtools plugin) {
+        super(plugin);
+    }
+    
+    @Override
+    public StorageType getType() {
+        return StorageType.SQLITE;
+    }
+    
+    @Override
+    protected HikariDataSource createDataSource() throws SQLException {
+        String filename = plugin.getConfigManager().getSqliteFilename();
+        File dbFile = new File(plugin.getDataFolder(), filename);
+        
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("PayEdtools-SQLite");
+        config.setJdbcUrl("jdbc:sqlite:" + dbFile.getAbsolutePath());
+        config.setDriverClassName("org.sqlite.JDBC");
+        config.setMaximumPoolSize(POOL_SIZE);
+        config.setConnectionInitSql("PRAGMA busy_timeout = 5000");
+        
+        HikariDataSource dataSource = new HikariDataSource(config);
+        
+        // WAL is persistent and lets readers run while a batch is being written
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.execute("PRAGMA journal_mode = WAL");
+            stmt.execute("PRAGMA synchronous = NORMAL");
+        } catch (SQLException e) {
+            dataSource.close();
+            throw e;
+        }
+        
+        Logger.debug("SQLite database connected: " + dbFile.getAbsolutePath());
+        return dataSource;
+    }
+    
+    @Override
+    public String getBackupSuffix() {
+        return ".db";
+    }
+    
+    /**
+     * Copy the database with SQLite's online backup API, a configured number of pages per step.
+     * The source is only read-locked during each step, so writers continue between steps.
+     */
+    @Override
+    public void backup(Path target, BackupProgress progress) throws SQLException {
+        int pagesPerStep = plugin.getConfigManager().getBackupPagesPerStep();
+        long stepDelay = plugin.getConfigManager().getBackupStepDelay();
+        BackupThrottle throttle = new BackupThrottle(progress, stepDelay);
+        
+        try (Connection conn = getConnection()) {
+            DB db = conn.unwrap(SQLiteConnection.class).getDatabase();
+            int rc = db.backup("main", target.toAbsolutePath().toString(), throttle,
+                               BACKUP_BUSY_RETRY_MILLIS, BACKUP_BUSY_RETRIES, pagesPerStep);
+            if (rc != 0) {
+                throw new SQLException("SQLite backup failed with result code " + rc);
+            }
+        }
+        
+        if (throttle.restarts > 0) {
+            Logger.debug("SQLite backup restarted " + throttle.restarts + " times by concurrent writes");
+        }
+    }
+    
+    @Override
+    String uuidColumnType() {
+        return "BLOB";
+    }
+    
+    @Override
+    String clusteredTableOptions() {
+        return " WITHOUT ROWID";
+    }
+    
+    @Override
+    String insertIgnore() {
+        return "INSERT OR IGNORE";
+    }
+    
+    @Override
+    String statsUpsertSQL() {
+        return "INSERT INTO player_stats (player, currency, sent_count, sent_total, received_count, received_total) " +
+               "VALUES (?, ?, ?, ?, ?, ?) ON CONFLICT (player, currency) DO UPDATE SET " +
+               "sent_count = sent_count + excluded.sent_count, sent_total = sent_total + excluded.sent_total, " +
+               "received_count = received_count + excluded.received_count, received_total = received_total + excluded.received_total";
+    }
+    
+    @Override
+    String inboxUpsertSQL() {
+        return "INSERT INTO inbox (player, currency, payment_count, payment_total) VALUES (?, ?, ?, ?) " +
+               "ON CONFLICT (player, currency) DO UPDATE SET " +
+               "payment_count = payment_count + excluded.payment_count, payment_total = payment_total + excluded.payment_total";
+    }
+    
+    @Override
+    String lastLoginUpsertSQL() {
+        return "INSERT OR REPLACE INTO last_logins (player_uuid, last_login_time) VALUES (?, ?)";
+    }
+    
+    @Override
+    WriteResult classify(SQLException e) {
+        // The driver reports no SQLState, only the result code; the low byte is the primary code
+        switch (e.getErrorCode() & 0xFF) {
+            case 18: // SQLITE_TOOBIG
+            case 19: // SQLITE_CONSTRAINT
+            case 20: // SQLITE_MISMATCH
+            case 25: // SQLITE_RANGE
+                return WriteResult.REJECTED;
+            default:
+                return super.classify(e);
+        }
+    }
+    
+    /**
+     * Reports progress after each backup step and pauses before the next one. A write from
+     * another connection restarts the copy, which shows as the remaining page count going up.
+     */
+    private static class BackupThrottle implements DB.ProgressObserver {
+        private final BackupProgress progress;
+        private final long stepDelay;
+        private int lastRemaining = Integer.MAX_VALUE;
+        private int restarts;
+        
+        private BackupThrottle(BackupProgress progress, long stepDelay) {
+            this.progress = progress;
+            this.stepDelay = stepDelay;
+        }
+        
+        @Override
+        public void progress(int remaining, int pageCount) {
+            if (remaining > lastRemaining) {
+                restarts++;
+            }
+            lastRemaining = remaining;
+            progress.update(pageCount - remaining, pageCount);
+            
+            // Called from native code, so an interrupt can only end the throttling, not the copy
+            if (remaining > 0 && stepDelay > 0 && restarts < BACKUP_THROTTLED_RESTARTS
+                    && !Thread.currentThread().isInterrupted()) {
+                try {
+                    Thread.sleep(stepDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,589 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates and upgrades the database schema.
+ *
+ * Schema v1 stored every UUID as VARCHAR(36). Schema v2 stores them as 16-byte
+ * binary values. Upgrading renames the legacy tables to *_v1, creates the v2
+ * tables and copies the legacy rows over in small background chunks, so the
+ * server keeps running (and writing new transactions) while the copy is in progress.
+ *
+ * Schema v3 adds the ledger_entries table, one row per participant per transaction.
+ * Databases upgraded from v2 have their ledger backfilled from transactions in the
+ * same background task.
+ *
+ * Schema v4 adds the player_stats table with per-currency totals for every player.
+ * Databases upgraded from v2 or v3 have it rebuilt from the ledger once the backfill is done.
+ *
+ * Schema v5 adds the inbox table with unread offline payments per player and currency.
+ * Databases upgraded from v3 or v4 seed it from the ledger rows received since each player's last login.
+ */
+public class SchemaMigrator {
+    
+    public static final int LATEST_VERSION = 5;
+    
+    private static final String VERSION_KEY = "schema_version";
+    private static final String LEGACY_TRANSACTIONS = "transactions_v1";
+    private static final String LEGACY_LAST_LOGINS = "last_logins_v1";
+    private static final String LEDGER_BACKFILL_KEY = "ledger_backfill_before";
+    private static final String STATS_REBUILD_KEY = "stats_rebuild_pending";
+    
+    private final PayEdtools plugin;
+    private final JdbcStorageBackend backend;
+    
+    private ScheduledFuture<?> migrationTask;
+    private volatile boolean migrating;
+    private long migratedRows;
+    
+    public SchemaMigrator(PayEdtools plugin, JdbcStorageBackend backend) {
+        this.plugin = plugin;
+        this.backend = backend;
+    }
+    
+    /**
+     * Bring the schema up to the latest version.
+     * Only DDL runs here; legacy rows are copied later by {@link #startBackgroundMigration}.
+     */
+    public void migrate(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS schema_meta (meta_key VARCHAR(64) PRIMARY KEY, meta_value VARCHAR(255) NOT NULL)");
+        }
+        
+        int version = getVersion(conn);
+        Logger.debug("Database schema version: " + version);
+        
+        if (version < 2) {
+            // Checked per table so an upgrade interrupted halfway resumes cleanly
+            renameIfLegacy(conn, "transactions", "id", LEGACY_TRANSACTIONS);
+            renameIfLegacy(conn, "last_logins", "player_uuid", LEGACY_LAST_LOGINS);
+        }
+        
+        createTables(conn);
+        
+        if (version == 2) {
+            // v2 transactions have no ledger rows yet; legacy v1 rows get them while being copied
+            setMeta(conn, LEDGER_BACKFILL_KEY, String.valueOf(Long.MAX_VALUE));
+        }
+        
+        if (version == 2 || version == 3) {
+            // Rows copied from v1 maintain their stats as they are written; existing ledgers need a rebuild
+            setMeta(conn, STATS_REBUILD_KEY, "true");
+        }
+        
+        if (version == 3 || version == 4) {
+            seedInbox(conn);
+        }
+        
+        if (version < LATEST_VERSION) {
+            setVersion(conn, LATEST_VERSION);
+            Logger.info("Database schema upgraded from v" + version + " to v" + LATEST_VERSION);
+        }
+    }
+    
+    /**
+     * Create the current tables and indexes
+     */
+    private void createTables(Connection conn) throws SQLException {
+        String uuidType = uuidColumnType();
+        
+        String createTransactionsSQL = """
+            CREATE TABLE IF NOT EXISTS transactions (
+                id %1$s PRIMARY KEY,
+                sender %1$s NOT NULL,
+                receiver %1$s NOT NULL,
+                currency VARCHAR(64) NOT NULL,
+                amount DOUBLE NOT NULL,
+                tax DOUBLE DEFAULT 0,
+                timestamp BIGINT NOT NULL
+            )
+        """.formatted(uuidType);
+        
+        String createLastLoginsSQL = """
+            CREATE TABLE IF NOT EXISTS last_logins (
+                player_uuid %s PRIMARY KEY,
+                last_login_time BIGINT NOT NULL
+            )
+        """.formatted(uuidType);
+        
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createTransactionsSQL);
+            Logger.debug("Transactions table created/verified");
+            
+            stmt.execute(createLastLoginsSQL);
+            Logger.debug("Last logins table created/verified");
+            
+            stmt.execute(createLedgerSQL());
+            Logger.debug("Ledger table created/verified");
+            
+            stmt.execute(createPlayerStatsSQL());
+            Logger.debug("Player stats table created/verified");
+            
+            stmt.execute(createInboxSQL());
+            Logger.debug("Inbox table created/verified");
+            
+            // Index names are global in SQLite, so they must not collide with the v1 ones
+            createIndexes(stmt, new String[] {
+                "CREATE INDEX IF NOT EXISTS idx_tx_sender ON transactions (sender)",
+                "CREATE INDEX IF NOT EXISTS idx_tx_receiver ON transactions (receiver)",
+                "CREATE INDEX IF NOT EXISTS idx_tx_timestamp ON transactions (timestamp)",
+                "CREATE INDEX IF NOT EXISTS idx_tx_currency ON transactions (currency)",
+                "CREATE INDEX IF NOT EXISTS idx_ledger_timestamp ON ledger_entries (timestamp)"
+            });
+        }
+    }
+    
+    /**
+     * Ledger rows are clustered on (player, timestamp DESC, tx_id DESC) so a player's
+     * history is a single range scan over the primary key, which also covers every column.
+     */
+    private String createLedgerSQL() {
+        String uuidType = uuidColumnType();
+        
+        return """
+            CREATE TABLE IF NOT EXISTS ledger_entries (
+                player %1$s NOT NULL,
+                timestamp BIGINT NOT NULL,
+                tx_id %1$s NOT NULL,
+                direction TINYINT NOT NULL,
+                counterparty %1$s NOT NULL,
+                currency VARCHAR(64) NOT NULL,
+                amount DOUBLE NOT NULL,
+                tax DOUBLE DEFAULT 0,
+                PRIMARY KEY (player, timestamp DESC, tx_id DESC, direction)
+            )%2$s
+        """.formatted(uuidType, backend.clusteredTableOptions());
+    }
+    
+    /**
+     * One row of running totals per (player, currency), kept in step with the ledger by every write
+     */
+    private String createPlayerStatsSQL() {
+        return """
+            CREATE TABLE IF NOT EXISTS player_stats (
+                player %s NOT NULL,
+                currency VARCHAR(64) NOT NULL,
+                sent_count BIGINT NOT NULL DEFAULT 0,
+                sent_total DOUBLE NOT NULL DEFAULT 0,
+                received_count BIGINT NOT NULL DEFAULT 0,
+                received_total DOUBLE NOT NULL DEFAULT 0,
+                PRIMARY KEY (player, currency)
+            )%s
+        """.formatted(uuidColumnType(), backend.clusteredTableOptions());
+    }
+    
+    /**
+     * Unread offline payments per (player, currency), added by the writer and drained on join
+     */
+    private String createInboxSQL() {
+        return """
+            CREATE TABLE IF NOT EXISTS inbox (
+                player %s NOT NULL,
+                currency VARCHAR(64) NOT NULL,
+                payment_count BIGINT NOT NULL DEFAULT 0,
+                payment_total DOUBLE NOT NULL DEFAULT 0,
+                PRIMARY KEY (player, currency)
+            )%s
+        """.formatted(uuidColumnType(), backend.clusteredTableOptions());
+    }
+    
+    /**
+     * Fill the new inbox with what the old join notification would have shown:
+     * everything received since each player's last login
+     */
+    private void seedInbox(Connection conn) throws SQLException {
+        String sql = "INSERT INTO inbox (player, currency, payment_count, payment_total) " +
+                     "SELECT l.player, l.currency, COUNT(*), SUM(l.amount) FROM last_logins ll " +
+                     "JOIN ledger_entries l ON l.player = ll.player_uuid AND l.timestamp >= ll.last_login_time " +
+                     "WHERE l.direction = " + JdbcStorageBackend.DIRECTION_RECEIVED + " GROUP BY l.player, l.currency";
+                     
+        try (Statement stmt = conn.createStatement()) {
+            int rows = stmt.executeUpdate(sql);
+            Logger.debug("Seeded " + rows + " inbox rows from the ledger");
+        }
+    }
+    
+    /**
+     * Create database indexes
+     */
+    private void createIndexes(Statement stmt, String[] indexes) {
+        for (String indexSQL : indexes) {
+            // MySQL has no CREATE INDEX IF NOT EXISTS; an existing index is reported as a duplicate instead
+            boolean ifNotExists = backend.supportsCreateIndexIfNotExists();
+            String sql = ifNotExists ? indexSQL : indexSQL.replace("IF NOT EXISTS ", "");
+            try {
+                stmt.execute(sql);
+                Logger.debug("Index created: " + sql);
+            } catch (SQLException e) {
+                if (!ifNotExists && isDuplicateIndex(e)) {
+                    continue;
+                }
+                Logger.warning("Failed to create index: " + indexSQL + " - " + e.getMessage());
+                // Continue with other indexes even if one fails
+            }
+        }
+    }
+    
+    /**
+     * Start copying legacy v1 rows and backfilling the ledger in the background
+     */
+    public void startBackgroundMigration(ScheduledExecutorService executor) {
+        try (Connection conn = backend.getConnection()) {
+            if (!tableExists(conn, LEGACY_TRANSACTIONS) && !tableExists(conn, LEGACY_LAST_LOGINS)
+                    && getMeta(conn, LEDGER_BACKFILL_KEY) == null && getMeta(conn, STATS_REBUILD_KEY) == null) {
+                return;
+            }
+        } catch (SQLException e) {
+            Logger.error("Failed to check for legacy tables", e);
+            return;
+        }
+        
+        long delay = Math.max(1, plugin.getConfigManager().getMigrationChunkDelay());
+        migrating = true;
+        migratedRows = 0;
+        Logger.info("Migrating transaction history in the background...");
+        migrationTask = executor.scheduleWithFixedDelay(this::migrateChunk, delay, delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Copy one chunk of legacy rows. Rows are deleted from the legacy table in the same
+     * database transaction they are copied in, so the copy can resume after a restart.
+     */
+    private void migrateChunk() {
+        int chunkSize = Math.max(1, plugin.getConfigManager().getMigrationChunkSize());
+        
+        try (Connection conn = backend.getConnection()) {
+            int copied;
+            if (tableExists(conn, LEGACY_TRANSACTIONS)) {
+                copied = copyTransactionsChunk(conn, chunkSize);
+                if (copied == 0) {
+                    dropTable(conn, LEGACY_TRANSACTIONS);
+                }
+            } else if (tableExists(conn, LEGACY_LAST_LOGINS)) {
+                copied = copyLastLoginsChunk(conn, chunkSize);
+                if (copied == 0) {
+                    dropTable(conn, LEGACY_LAST_LOGINS);
+                }
+            } else if (getMeta(conn, LEDGER_BACKFILL_KEY) != null) {
+                copied = backfillLedgerChunk(conn, chunkSize);
+            } else if (getMeta(conn, STATS_REBUILD_KEY) != null) {
+                copied = rebuildStats(conn);
+            } else {
+                finishMigration();
+                return;
+            }
+            migratedRows += copied;
+        } catch (Exception e) {
+            // Left in place; the next run retries the same chunk
+            Logger.error("Failed to migrate legacy chunk", e);
+        }
+    }
+    
+    /**
+     * Copy the newest legacy transactions first so recent history is available early
+     */
+    private int copyTransactionsChunk(Connection conn, int chunkSize) throws SQLException {
+        String selectSQL = "SELECT id, sender, receiver, currency, amount, tax, timestamp FROM " + LEGACY_TRANSACTIONS +
+                           " ORDER BY timestamp DESC LIMIT ?";
+                           
+        List<Transaction> chunk = new ArrayList<>();
+        List<String> legacyIds = new ArrayList<>();
+        
+        try (PreparedStatement stmt = conn.prepareStatement(selectSQL)) {
+            stmt.setInt(1, chunkSize);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    String id = rs.getString("id");
+                    legacyIds.add(id);
+                    try {
+                        // Legacy console transactions stored the sender as "CONSOLE"
+                        String senderStr = rs.getString("sender");
+                        Transaction transaction = new Transaction(
+                            UUID.fromString(id),
+                            "CONSOLE".equals(senderStr) ? null : UUID.fromString(senderStr),
+                            UUID.fromString(rs.getString("receiver")),
+                            rs.getString("currency"),
+                            rs.getDouble("amount"),
+                            rs.getLong("timestamp")
+                        );
+                        transaction.setTax(rs.getDouble("tax"));
+                        chunk.add(transaction);
+                    } catch (IllegalArgumentException e) {
+                        Logger.warning("Skipping malformed legacy transaction " + id + ": " + e.getMessage());
+                    }
+                }
+            }
+        }
+        
+        if (legacyIds.isEmpty()) {
+            return 0;
+        }
+        
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            backend.insertTransactions(conn, chunk);
+            
+            try (PreparedStatement delete = conn.prepareStatement("DELETE FROM " + LEGACY_TRANSACTIONS + " WHERE id = ?")) {
+                for (String id : legacyIds) {
+                    delete.setString(1, id);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+            
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        
+        return legacyIds.size();
+    }
+    
+    /**
+     * Copy a chunk of legacy last login rows. Logins written since the upgrade are newer
+     * than the legacy values, so existing v2 rows are kept.
+     */
+    private int copyLastLoginsChunk(Connection conn, int chunkSize) throws SQLException {
+        String selectSQL = "SELECT player_uuid, last_login_time FROM " + LEGACY_LAST_LOGINS + " LIMIT ?";
+        String insertSQL = insertIgnore() + " INTO last_logins (player_uuid, last_login_time) VALUES (?, ?)";
+        
+        List<String> legacyIds = new ArrayList<>();
+        
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement select = conn.prepareStatement(selectSQL);
+             PreparedStatement insert = conn.prepareStatement(insertSQL);
+             PreparedStatement delete = conn.prepareStatement("DELETE FROM " + LEGACY_LAST_LOGINS + " WHERE player_uuid = ?")) {
+            select.setInt(1, chunkSize);
+            try (ResultSet rs = select.executeQuery()) {
+                while (rs.next()) {
+                    String playerUUID = rs.getString("player_uuid");
+                    legacyIds.add(playerUUID);
+                    try {
+                        insert.setBytes(1, UuidCodec.toBytes(UUID.fromString(playerUUID)));
+                        insert.setLong(2, rs.getLong("last_login_time"));
+                        insert.addBatch();
+                    } catch (IllegalArgumentException e) {
+                        Logger.warning("Skipping malformed legacy login " + playerUUID + ": " + e.getMessage());
+                    }
+                }
+            }
+            
+            if (!legacyIds.isEmpty()) {
+                insert.executeBatch();
+                for (String id : legacyIds) {
+                    delete.setString(1, id);
+                    delete.addBatch();
+                }
+                delete.executeBatch();
+            }
+            
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        
+        return legacyIds.size();
+    }
+    
+    /**
+     * Backfill ledger rows for roughly one chunk of transactions, walking backwards in time.
+     * The chunk's lower bound is inclusive, so rows sharing a timestamp are never split;
+     * rows that already have ledger entries are ignored.
+     */
+    private int backfillLedgerChunk(Connection conn, int chunkSize) throws SQLException {
+        long before = Long.parseLong(getMeta(conn, LEDGER_BACKFILL_KEY));
+        
+        Long lowerBound = null;
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT timestamp FROM transactions WHERE timestamp < ? ORDER BY timestamp DESC LIMIT 1 OFFSET ?")) {
+            stmt.setLong(1, before);
+            stmt.setInt(2, chunkSize - 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    lowerBound = rs.getLong(1);
+                }
+            }
+        }
+        
+        long from = lowerBound != null ? lowerBound : Long.MIN_VALUE;
+        String receivedSQL = insertIgnore() + " INTO ledger_entries (player, timestamp, tx_id, direction, counterparty, currency, amount, tax) " +
+                             "SELECT receiver, timestamp, id, " + JdbcStorageBackend.DIRECTION_RECEIVED + ", sender, currency, amount, tax " +
+                             "FROM transactions WHERE timestamp >= ? AND timestamp < ?";
+        String sentSQL = insertIgnore() + " INTO ledger_entries (player, timestamp, tx_id, direction, counterparty, currency, amount, tax) " +
+                         "SELECT sender, timestamp, id, " + JdbcStorageBackend.DIRECTION_SENT + ", receiver, currency, amount, tax " +
+                         "FROM transactions WHERE timestamp >= ? AND timestamp < ? AND sender <> ?";
+                         
+        int inserted = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try (PreparedStatement received = conn.prepareStatement(receivedSQL);
+             PreparedStatement sent = conn.prepareStatement(sentSQL)) {
+            received.setLong(1, from);
+            received.setLong(2, before);
+            inserted += received.executeUpdate();
+            
+            sent.setLong(1, from);
+            sent.setLong(2, before);
+            sent.setBytes(3, UuidCodec.toBytes(UuidCodec.CONSOLE));
+            inserted += sent.executeUpdate();
+            
+            if (lowerBound != null) {
+                setMeta(conn, LEDGER_BACKFILL_KEY, String.valueOf(lowerBound));
+            } else {
+                deleteMeta(conn, LEDGER_BACKFILL_KEY);
+                Logger.info("Ledger backfill completed");
+            }
+            
+            conn.commit();
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+        
+        return inserted;
+    }
+    
+    /**
+     * Rebuild player_stats from the now complete ledger and clear the pending flag atomically
+     */
+    private int rebuildStats(Connection conn) throws SQLException {
+        boolean autoCommit = conn.getAutoCommit();
+        conn.setAutoCommit(false);
+        try {
+            int rows = backend.rebuildPlayerStats(conn);
+            deleteMeta(conn, STATS_REBUILD_KEY);
+            conn.commit();
+            Logger.info("Player statistics rebuilt (" + rows + " rows)");
+            return rows;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(autoCommit);
+        }
+    }
+    
+    /**
+     * Stop the background task once every legacy table is gone
+     */
+    private void finishMigration() {
+        migrating = false;
+        if (migrationTask != null) {
+            migrationTask.cancel(false);
+        }
+        Logger.info("Background schema migration completed (" + migratedRows + " rows migrated)");
+    }
+    
+    /**
+     * Whether legacy rows are still being copied, the ledger backfilled or stats rebuilt
+     */
+    public boolean isMigrating() {
+        return migrating;
+    }
+    
+    /**
+     * Rename a table to its legacy name if it still uses the v1 VARCHAR UUID layout
+     */
+    private void renameIfLegacy(Connection conn, String table, String uuidColumn, String legacyName) throws SQLException {
+        if (!tableExists(conn, table) || tableExists(conn, legacyName)) {
+            return;
+        }
+        
+        String typeName = getColumnType(conn, table, uuidColumn);
+        if (typeName == null || !typeName.toUpperCase().contains("CHAR")) {
+            return;
+        }
+        
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE " + table + " RENAME TO " + legacyName);
+        }
+        Logger.info("Renamed legacy table " + table + " to " + legacyName);
+    }
+    
+    private void dropTable(Connection conn, String table) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP TABLE " + table);
+        }
+        Logger.info("Legacy table " + table + " fully migrated and dropped");
+    }
+    
+    private int getVersion(Connection conn) throws SQLException {
+        String version = getMeta(conn, VERSION_KEY);
+        return version != null ? Integer.parseInt(version) : 0;
+    }
+    
+    private void setVersion(Connection conn, int version) throws SQLException {
+        setMeta(conn, VERSION_KEY, String.valueOf(version));
+    }
+    
+    static String getMeta(Connection conn, String key) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT meta_value FROM schema_meta WHERE meta_key = ?")) {
+            stmt.setString(1, key);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+    
+    static void setMeta(Connection conn, String key, String value) throws SQLException {
+        deleteMeta(conn, key);
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO schema_meta (meta_key, meta_value) VALUES (?, ?)")) {
+            insert.setString(1, key);
+            insert.setString(2, value);
+            insert.executeUpdate();
+        }
+    }
+    
+    static void deleteMeta(Connection conn, String key) throws SQLException {
+        try (PreparedStatement delete = conn.prepareStatement("DELETE FROM schema_meta WHERE meta_key = ?")) {
+            delete.setString(1, key);
+            delete.executeUpdate();
+        }
+    }
+    
+    static boolean tableExists(Connection conn, String table) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getTables(conn.getCatalog(), null, table, new String[] {"TABLE"})) {
+            return rs.next();
+        }
+    }
+    
+    private String getColumnType(Connection conn, String table, String column) throws SQLException {
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, table, column)) {
+            return rs.next() ? rs.getString("TYPE_NAME") : null;
+        }
+    }
+    
+    private boolean isDuplicateIndex(SQLException e) {
+        // ER_DUP_KEYNAME
+        return e.getErrorCode() == 1061;
+    }
+    
+    private String uuidColumnType() {
+        return backend.uuidColumnType();
+    }
+    
+    private String insertIgnore() {
+        return backend.insertIgnore();
+    }
+}
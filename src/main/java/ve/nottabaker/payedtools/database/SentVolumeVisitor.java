@@ -0,0 +1,17 @@
+package ve.nottabaker.payedtools.database;
+
+import java.util.UUID;
+
+/**
+ * Receives the amounts players sent, summed per player, currency and hour
+ */
+@FunctionalInterface
+public interface SentVolumeVisitor {
+    
+    /**
+     * Visit one hourly sum
+     *
+     * @param hourStart start of the hour, in epoch millis
+     */
+    void visit(UUID player, String currency, long hourStart, double amount);
+}
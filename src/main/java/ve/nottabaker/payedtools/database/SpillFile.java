@@ -0,0 +1,339 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of transactions that could not be written while the database was down.
+ *
+ * Each append is one frame: payload length (int), payload, CRC32 of the payload (long), and
+ * is forced to disk before it is acknowledged. Replay progress is kept as a byte offset in a
+ * side file, so a restart resumes where replay stopped. A frame torn by a crash is cut off
+ * when the file is opened; a damaged frame with valid frames after it is skipped, keeping them.
+ */
+class SpillFile {
+    
+    private static final int FRAME_OVERHEAD = 4 + 8;
+    
+    private final Path file;
+    private final Path offsetFile;
+    
+    // Guarded by this
+    private long size;
+    private long replayedOffset;
+    private long pendingRows;
+    
+    /**
+     * @param name file name without extension, e.g. "history" for history.spill
+     */
+    SpillFile(Path folder, String name) throws IOException {
+        Files.createDirectories(folder);
+        this.file = folder.resolve(name + ".spill");
+        this.offsetFile = folder.resolve(name + ".spill.offset");
+        load();
+    }
+    
+    /**
+     * Validate the frames after the replay offset, count their rows and cut off a torn tail
+     */
+    private void load() throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        
+        if (Files.exists(offsetFile)) {
+            replayedOffset = Long.parseLong(Files.readString(offsetFile, StandardCharsets.UTF_8).trim());
+        }
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = channel.size();
+            long position = Math.min(replayedOffset, length);
+            while (position < length) {
+                List<Transaction> frame = readFrame(channel, position);
+                if (frame != null) {
+                    pendingRows += frame.size();
+                    position = channel.position();
+                    continue;
+                }
+                
+                long next = nextFrame(channel, position);
+                if (next < 0) {
+                    Logger.warning("Discarding " + (length - position) + " bytes of incomplete spill data at the end of " + file);
+                    channel.truncate(position);
+                    length = position;
+                    break;
+                }
+                Logger.warning("Skipping " + (next - position) + " bytes of corrupt spill data at offset " + position + " in " + file);
+                position = next;
+            }
+            size = length;
+        }
+    }
+    
+    /**
+     * Append transactions as one frame and force it to disk
+     */
+    synchronized void append(List<Transaction> transactions) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(transactions.size() * 96);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(transactions.size());
+            for (Transaction transaction : transactions) {
+                writeTransaction(out, transaction);
+            }
+        }
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        
+        ByteBuffer frame = ByteBuffer.allocate(payload.length + FRAME_OVERHEAD);
+        frame.putInt(payload.length).put(payload).putLong(crc.getValue()).flip();
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.position(size);
+            while (frame.hasRemaining()) {
+                channel.write(frame);
+            }
+            channel.force(false);
+        }
+        size += payload.length + FRAME_OVERHEAD;
+        pendingRows += transactions.size();
+    }
+    
+    /**
+     * Read whole frames after the replay offset until at least the given number of rows
+     *
+     * @return the rows and the offset to record once they are written, or null if nothing is pending;
+     *         the rows may be empty if only damaged frames were passed over
+     */
+    synchronized Chunk read(int maxRows) throws IOException {
+        if (replayedOffset >= size) {
+            return null;
+        }
+        
+        List<Transaction> rows = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = replayedOffset;
+            while (position < size && rows.size() < maxRows) {
+                List<Transaction> frame = readFrame(channel, position);
+                if (frame != null) {
+                    rows.addAll(frame);
+                    position = channel.position();
+                    continue;
+                }
+                
+                // Damaged since the file was opened
+                long next = nextFrame(channel, position);
+                if (next < 0) {
+                    throw new IOException("Corrupt spill frame at offset " + position);
+                }
+                Logger.warning("Skipping " + (next - position) + " bytes of corrupt spill data at offset " + position + " in " + file);
+                position = next;
+            }
+            return new Chunk(rows, position);
+        }
+    }
+    
+    /**
+     * Visit every transaction not yet replayed, in spill order
+     */
+    synchronized void forEachPending(Consumer<Transaction> action) throws IOException {
+        if (replayedOffset >= size) {
+            return;
+        }
+        
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = replayedOffset;
+            while (position < size) {
+                List<Transaction> frame = readFrame(channel, position);
+                if (frame != null) {
+                    frame.forEach(action);
+                    position = channel.position();
+                    continue;
+                }
+                
+                long next = nextFrame(channel, position);
+                if (next < 0) {
+                    throw new IOException("Corrupt spill frame at offset " + position);
+                }
+                position = next;
+            }
+        }
+    }
+    
+    /**
+     * Record that a chunk was written; removes the file once everything is replayed
+     */
+    synchronized void markReplayed(Chunk chunk) throws IOException {
+        replayedOffset = chunk.endOffset;
+        pendingRows = Math.max(0, pendingRows - chunk.transactions.size());
+        
+        if (replayedOffset >= size) {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(offsetFile);
+            size = 0;
+            replayedOffset = 0;
+            pendingRows = 0;
+            return;
+        }
+        
+        Path temp = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+        Files.writeString(temp, String.valueOf(replayedOffset), StandardCharsets.UTF_8);
+        Files.move(temp, offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    
+    /**
+     * Transactions spilled but not yet replayed
+     */
+    synchronized long getPendingRows() {
+        return pendingRows;
+    }
+    
+    /**
+     * Read the frame at a position, leaving the channel after it
+     *
+     * @return the frame's rows, or null if the frame is incomplete, fails its checksum or does not decode
+     */
+    private static List<Transaction> readFrame(FileChannel channel, long position) throws IOException {
+        long remaining = channel.size() - position;
+        if (remaining < FRAME_OVERHEAD) {
+            return null;
+        }
+        
+        ByteBuffer header = ByteBuffer.allocate(4);
+        channel.position(position);
+        readFully(channel, header);
+        int length = header.flip().getInt();
+        if (length < 4 || length > remaining - FRAME_OVERHEAD) {
+            return null;
+        }
+        
+        ByteBuffer body = ByteBuffer.allocate(length + 8);
+        readFully(channel, body);
+        body.flip();
+        byte[] payload = new byte[length];
+        body.get(payload);
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if (crc.getValue() != body.getLong()) {
+            return null;
+        }
+        
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            int count = in.readInt();
+            List<Transaction> rows = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                rows.add(readTransaction(in));
+            }
+            return rows;
+        } catch (IOException | IllegalArgumentException e) {
+            // Checksum matched but the payload does not decode
+            return null;
+        }
+    }
+    
+    /**
+     * Find where the next intact frame starts after a damaged one. The frame's own length is
+     * tried first; if that does not lead to an intact frame the file is scanned for one.
+     *
+     * @return the next frame's position, the end of the file if the damaged frame was the last
+     *         whole frame, or -1 if nothing intact follows and the rest is a torn tail
+     */
+    private static long nextFrame(FileChannel channel, long position) throws IOException {
+        long end = channel.size();
+        if (end - position >= FRAME_OVERHEAD) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            channel.position(position);
+            readFully(channel, header);
+            long next = position + FRAME_OVERHEAD + header.flip().getInt();
+            if (next > position + FRAME_OVERHEAD && next <= end
+                && (next == end || readFrame(channel, next) != null)) {
+                return next;
+            }
+        }
+        
+        for (long candidate = position + 1; candidate + FRAME_OVERHEAD <= end; candidate++) {
+            if (readFrame(channel, candidate) != null) {
+                return candidate;
+            }
+        }
+        return -1;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+    
+    private static void writeTransaction(DataOutputStream out, Transaction transaction) throws IOException {
+        writeUuid(out, transaction.getId());
+        // Console transactions are stored with the console sentinel
+        writeUuid(out, transaction.getSender() != null ? transaction.getSender() : UuidCodec.CONSOLE);
+        writeUuid(out, transaction.getReceiver());
+        out.writeUTF(transaction.getCurrency());
+        out.writeDouble(transaction.getAmount());
+        out.writeDouble(transaction.getTax());
+        out.writeLong(transaction.getTimestamp());
+        out.writeBoolean(transaction.isReceiverOffline());
+    }
+    
+    private static Transaction readTransaction(DataInputStream in) throws IOException {
+        UUID id = readUuid(in);
+        UUID sender = readUuid(in);
+        UUID receiver = readUuid(in);
+        String currency = in.readUTF();
+        double amount = in.readDouble();
+        double tax = in.readDouble();
+        long timestamp = in.readLong();
+        boolean receiverOffline = in.readBoolean();
+        
+        Transaction transaction = new Transaction(id, UuidCodec.CONSOLE.equals(sender) ? null : sender,
+                                                  receiver, currency, amount, timestamp);
+        transaction.setTax(tax);
+        transaction.setReceiverOffline(receiverOffline);
+        return transaction;
+    }
+    
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeLong(uuid.getMostSignificantBits());
+        out.writeLong(uuid.getLeastSignificantBits());
+    }
+    
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        return new UUID(in.readLong(), in.readLong());
+    }
+    
+    /**
+     * Rows read for replay and the file offset just past them
+     */
+    static class Chunk {
+        final List<Transaction> transactions;
+        final long endOffset;
+        
+        private Chunk(List<Transaction> transactions, long endOffset) {
+            this.transactions = transactions;
+            this.endOffset = endOffset;
+        }
+    }
+}
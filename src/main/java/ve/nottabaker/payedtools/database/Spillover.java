@@ -0,0 +1,317 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.ConfigManager;
+import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Keeps transaction history safe while the database is down. History writes pass through a
+ * {@link CircuitBreaker}; once it opens, batches are appended to a local {@link SpillFile} instead.
+ * A replay thread probes the database with exponential backoff and, after it recovers, writes the
+ * spilled rows back in chunks spaced apart so live writes keep their share of the database.
+ */
+public class Spillover {
+    
+    // Failed replays of the same chunk, with the database reachable, before it is set aside
+    private static final int MAX_REPLAY_ATTEMPTS = 5;
+    
+    /**
+     * Where a batch of history ended up
+     */
+    public enum Outcome {
+        SAVED,
+        SPILLED,
+        /** The database refused the rows; retrying them will not help */
+        REJECTED,
+        FAILED
+    }
+    
+    private final StorageBackend backend;
+    private final CircuitBreaker breaker;
+    private final SpillFile spillFile;
+    private final SpillFile rejectedFile;
+    private final int replayBatchSize;
+    private final ScheduledExecutorService replayExecutor;
+    
+    private final LongAdder spilled = new LongAdder();
+    private final LongAdder replayed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    
+    // Replay thread only
+    private long failingChunkOffset = -1;
+    private int failingChunkAttempts;
+    
+    private Spillover(PayEdtools plugin, StorageBackend backend, SpillFile spillFile, SpillFile rejectedFile) {
+        ConfigManager config = plugin.getConfigManager();
+        this.backend = backend;
+        this.spillFile = spillFile;
+        this.rejectedFile = rejectedFile;
+        this.breaker = new CircuitBreaker(config.getSpilloverFailureThreshold(),
+            TimeUnit.SECONDS.toMillis(config.getSpilloverMaxProbeInterval()));
+        this.replayBatchSize = config.getSpilloverReplayBatchSize();
+        
+        this.replayExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "PayEdtools-DB-Replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = config.getSpilloverReplayInterval();
+        replayExecutor.scheduleWithFixedDelay(this::tick, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Open the spill file and start the replay thread
+     *
+     * @return the spillover, or null if the spill file cannot be opened
+     */
+    public static Spillover create(PayEdtools plugin, StorageBackend backend) {
+        try {
+            Path folder = plugin.getDataFolder().toPath().resolve("spill");
+            SpillFile spillFile = new SpillFile(folder, "history");
+            SpillFile rejectedFile = new SpillFile(folder, "rejected");
+            long pending = spillFile.getPendingRows();
+            if (pending > 0) {
+                Logger.info(pending + " spilled transactions will be written to the database");
+            }
+            if (rejectedFile.getPendingRows() > 0) {
+                Logger.warning(rejectedFile.getPendingRows() + " transactions rejected by the database are kept in "
+                    + folder.resolve("rejected.spill") + " for review");
+            }
+            return new Spillover(plugin, backend, spillFile, rejectedFile);
+            
+        } catch (IOException | NumberFormatException e) {
+            Logger.error("Failed to open the spill file; history writes will not spill to disk", e);
+            return null;
+        }
+    }
+    
+    /**
+     * Save transactions to the database, or to the spill file while the database is down
+     *
+     * @return FAILED if neither worked and the caller should retry, REJECTED if the database
+     *         refused the rows themselves
+     */
+    public Outcome write(List<Transaction> transactions) {
+        if (!breaker.isOpen()) {
+            WriteResult result = backend.saveTransactionBatch(transactions);
+            if (result != WriteResult.RETRY) {
+                // A refusal still means the database is up
+                breaker.recordSuccess();
+                return result == WriteResult.SAVED ? Outcome.SAVED : Outcome.REJECTED;
+            }
+            if (breaker.recordFailure()) {
+                Logger.warning("Database is not accepting writes; spilling transaction history to disk until it recovers");
+            }
+            if (!breaker.isOpen()) {
+                return Outcome.FAILED;
+            }
+        }
+        return spill(transactions) ? Outcome.SPILLED : Outcome.FAILED;
+    }
+    
+    /**
+     * Append transactions to the spill file without trying the database
+     */
+    public boolean spill(List<Transaction> transactions) {
+        try {
+            spillFile.append(transactions);
+            spilled.add(transactions.size());
+            return true;
+            
+        } catch (IOException e) {
+            Logger.error("Failed to spill " + transactions.size() + " transactions to disk", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Move transactions the database refused into the dead-letter file, where they stay for an
+     * admin to review instead of blocking the history behind them
+     */
+    public boolean quarantine(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            Logger.error("Database rejected transaction " + transaction.getId() + " (" + transaction.getCurrency()
+                + " " + transaction.getAmount() + " from " + transaction.getSender() + " to " + transaction.getReceiver()
+                + "); moving it to spill/rejected.spill");
+        }
+        try {
+            rejectedFile.append(transactions);
+            rejected.add(transactions.size());
+            return true;
+            
+        } catch (IOException e) {
+            Logger.error("Failed to write " + transactions.size() + " rejected transactions to disk", e);
+            return false;
+        }
+    }
+    
+    private void tick() {
+        try {
+            if (breaker.isOpen()) {
+                probe();
+            } else {
+                replayChunk();
+            }
+        } catch (Exception e) {
+            Logger.error("Spill replay failed", e);
+        }
+    }
+    
+    private void probe() {
+        if (!breaker.isProbeDue()) {
+            return;
+        }
+        
+        if (!backend.ping()) {
+            // A real outage; the chunk being replayed is not to blame
+            failingChunkAttempts = 0;
+            breaker.probeFailed();
+            return;
+        }
+        long downtime = breaker.probeSucceeded();
+        Logger.info("Database is reachable again after " + (downtime / 1000) + "s; replaying "
+            + spillFile.getPendingRows() + " spilled transactions");
+    }
+    
+    /**
+     * Write the oldest spilled chunk back; one chunk per tick keeps replay at a fixed rate.
+     * Rows the database refuses, and a chunk that keeps failing while the database is reachable,
+     * are moved to the dead-letter file so the rows behind them still get replayed.
+     */
+    private void replayChunk() throws IOException {
+        SpillFile.Chunk chunk = spillFile.read(replayBatchSize);
+        if (chunk == null) {
+            return;
+        }
+        
+        WriteResult result = backend.replayTransactions(chunk.transactions);
+        if (result == WriteResult.REJECTED) {
+            result = replayRowByRow(chunk.transactions);
+        }
+        
+        if (result == WriteResult.RETRY) {
+            if (chunk.endOffset != failingChunkOffset) {
+                failingChunkOffset = chunk.endOffset;
+                failingChunkAttempts = 0;
+            }
+            if (++failingChunkAttempts < MAX_REPLAY_ATTEMPTS) {
+                if (breaker.recordFailure()) {
+                    Logger.warning("Database failed again during replay; spilling transaction history to disk");
+                }
+                return;
+            }
+            Logger.warning("Spilled chunk of " + chunk.transactions.size() + " transactions failed " + failingChunkAttempts
+                + " times while the database was reachable; setting it aside");
+            if (!quarantine(chunk.transactions)) {
+                return;
+            }
+        }
+        
+        failingChunkOffset = -1;
+        failingChunkAttempts = 0;
+        breaker.recordSuccess();
+        spillFile.markReplayed(chunk);
+        replayed.add(chunk.transactions.size());
+        
+        if (spillFile.getPendingRows() == 0) {
+            Logger.info("Finished replaying spilled transactions");
+        }
+    }
+    
+    /**
+     * Replay rows one at a time after the database refused a chunk, setting aside those it refuses
+     *
+     * @return SAVED once every row is written or set aside, RETRY if the database failed meanwhile
+     */
+    private WriteResult replayRowByRow(List<Transaction> transactions) {
+        for (Transaction transaction : transactions) {
+            WriteResult result = backend.replayTransactions(List.of(transaction));
+            if (result == WriteResult.RETRY
+                || (result == WriteResult.REJECTED && !quarantine(List.of(transaction)))) {
+                // Rows already written are skipped when the chunk is retried
+                return WriteResult.RETRY;
+            }
+        }
+        return WriteResult.SAVED;
+    }
+    
+    /**
+     * Visit every spilled transaction not yet written back to the database
+     *
+     * @return false if the spill file could not be read
+     */
+    public boolean forEachPending(Consumer<Transaction> action) {
+        try {
+            spillFile.forEachPending(action);
+            return true;
+            
+        } catch (IOException e) {
+            Logger.error("Failed to read spilled transactions", e);
+            return false;
+        }
+    }
+    
+    /**
+     * Whether the database is considered down and writes are going to disk
+     */
+    public boolean isOpen() {
+        return breaker.isOpen();
+    }
+    
+    /**
+     * Transactions in the spill file that are not in the database yet
+     */
+    public long getPendingRows() {
+        return spillFile.getPendingRows();
+    }
+    
+    /**
+     * Transactions spilled since startup
+     */
+    public long getSpilledCount() {
+        return spilled.sum();
+    }
+    
+    /**
+     * Spilled transactions written back since startup
+     */
+    public long getReplayedCount() {
+        return replayed.sum();
+    }
+    
+    /**
+     * Transactions moved to the dead-letter file since startup
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+    
+    /**
+     * Stop replaying; anything still spilled is replayed on the next start
+     */
+    public void shutdown() {
+        replayExecutor.shutdown();
+        try {
+            if (!replayExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                replayExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            replayExecutor.shutdownNow();
+        }
+        
+        long pending = spillFile.getPendingRows();
+        if (pending > 0) {
+            Logger.warning(pending + " spilled transactions will be written to the database on the next start");
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package ve.nottabaker.payedtools.database;
+
+import ve.nottabaker.payedtools.managers.TransactionManager.HistoryPage;
+import ve.nottabaker.payedtools.managers.TransactionManager.TransactionStats;
+import ve.nottabaker.payedtools.models.HistoryCursor;
+import ve.nottabaker.payedtools.models.InboxEntry;
+import ve.nottabaker.payedtools.models.Transaction;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+
+/**
+ * Storage engine for transaction history, statistics and login times.
+ * {@link DatabaseManager} picks one implementation from database.type and delegates to it.
+ */
+public interface StorageBackend {
+    
+    StorageType getType();
+    
+    /**
+     * Open the store and create or upgrade its schema
+     *
+     * @param maintenanceExecutor single background thread for migration and retention work
+     */
+    void initialize(ScheduledExecutorService maintenanceExecutor) throws Exception;
+    
+    void saveTransaction(Transaction transaction);
+    
+    /**
+     * Save transactions atomically
+     *
+     * @return whether the rows were saved, and if not, whether retrying them can help
+     */
+    WriteResult saveTransactionBatch(List<Transaction> transactions);
+    
+    /**
+     * Save transactions recovered from the spill file, skipping any that were already written
+     *
+     * @return whether the rows were saved, and if not, whether retrying them can help
+     */
+    default WriteResult replayTransactions(List<Transaction> transactions) {
+        return saveTransactionBatch(transactions);
+    }
+    
+    /**
+     * Check that the store is reachable
+     */
+    default boolean ping() {
+        return true;
+    }
+    
+    List<Transaction> getTransactionHistory(UUID uuid, int limit);
+    
+    List<Transaction> getTransactionHistorySince(UUID uuid, long sinceTime, int limit);
+    
+    /**
+     * Stream one page of a player's history into a visitor, newest first
+     *
+     * @param after end cursor of the previous page, or null for the first page
+     * @return the page that was read, or null if the read failed
+     */
+    HistoryPage streamHistoryPage(UUID uuid, HistoryCursor after, int pageSize, LedgerVisitor visitor);
+    
+    /**
+     * Find the cursor of the row that lies a number of rows past the given cursor
+     *
+     * @return cursor of the last skipped row, or null if history ends before that
+     */
+    HistoryCursor findHistoryCursor(UUID uuid, HistoryCursor after, int rows);
+    
+    TransactionStats getTransactionStats(UUID uuid);
+    
+    /**
+     * Stream the amounts sent in a time range, summed per player, currency and hour
+     *
+     * @param sinceTime inclusive start, in epoch millis
+     * @param untilTime exclusive end, in epoch millis
+     * @return false if the read failed
+     */
+    boolean streamSentVolume(long sinceTime, long untilTime, SentVolumeVisitor visitor);
+    
+    /**
+     * Recompute the per-currency totals from the stored history
+     *
+     * @return number of (player, currency) rows written, or -1 if the rebuild failed
+     */
+    int rebuildPlayerStats();
+    
+    /**
+     * Remove history past the retention window
+     */
+    void cleanupOldTransactions();
+    
+    long getLastLoginTime(UUID playerUUID);
+    
+    void updateLastLoginTime(UUID playerUUID);
+    
+    /**
+     * For a batch of joining players, take the offline payments waiting in their inbox
+     * and record now as their login time
+     *
+     * @return unread payments per player and currency; players with none may be absent
+     */
+    Map<UUID, List<InboxEntry>> drainInbox(Collection<UUID> players);
+    
+    /**
+     * Archive of history past the retention window, or null if this backend keeps none
+     */
+    default HistoryArchive getHistoryArchive() {
+        return null;
+    }
+    
+    /**
+     * Number of reads this backend can serve at once
+     */
+    default int getReadConcurrency() {
+        return Runtime.getRuntime().availableProcessors();
+    }
+    
+    /**
+     * Connection pools with their usage and wait times, empty if the backend has none
+     */
+    default List<ConnectionPool> getConnectionPools() {
+        return List.of();
+    }
+    
+    /**
+     * Whether legacy history is still being migrated to the current schema
+     */
+    default boolean isMigrating() {
+        return false;
+    }
+    
+    void shutdown();
+}
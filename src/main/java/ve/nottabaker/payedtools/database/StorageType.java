@@ -0,0 +1,29 @@
+package ve.nottabaker.payedtools.database;
+
+import java.util.Locale;
+
+/**
+ * Storage engines selectable with database.type
+ */
+public enum StorageType {
+    SQLITE,
+    MYSQL,
+    H2,
+    MEMORY;
+    
+    /**
+     * Parse a configured type name, ignoring case
+     *
+     * @return the matching type, or null if the name is unknown
+     */
+    public static StorageType fromName(String name) {
+        if (name == null) {
+            return null;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package ve.nottabaker.payedtools.database;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+/**
+ * Encodes UUIDs as 16-byte binary values for compact storage
+ */
+public final class UuidCodec {
+    
+    /**
+     * Stored in place of a sender UUID for console transactions
+     */
+    public static final UUID CONSOLE = new UUID(0L, 0L);
+    
+    private UuidCodec() {
+    }
+    
+    /**
+     * Convert a UUID to its 16-byte representation
+     */
+    public static byte[] toBytes(UUID uuid) {
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+    
+    /**
+     * Convert a 16-byte value back to a UUID
+     */
+    public static UUID fromBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != 16) {
+            throw new IllegalArgumentException("Expected 16 bytes for UUID, got " + (bytes == null ? "null" : bytes.length));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new UUID(buffer.getLong(), buffer.getLong());
+    }
+    
+    /**
+     * Encode a sender, mapping console (null) to the console sentinel
+     */
+    public static byte[] senderToBytes(UUID sender) {
+        return toBytes(sender != null ? sender : CONSOLE);
+    }
+    
+    /**
+     * Decode a sender, mapping the console sentinel back to null
+     */
+    public static UUID senderFromBytes(byte[] bytes) {
+        UUID uuid = fromBytes(bytes);
+        return CONSOLE.equals(uuid) ? null : uuid;
+    }
+}
@@ -0,0 +1,13 @@
+package ve.nottabaker.payedtools.database;
+
+/**
+ * Result of writing a batch of history to a {@link StorageBackend}
+ */
+public enum WriteResult {
+    /** Every row was committed */
+    SAVED,
+    /** Nothing was written for a reason that may pass, such as a lost connection or a lock timeout */
+    RETRY,
+    /** Nothing was written because the database refused the data; retrying the same rows fails again */
+    REJECTED
+}
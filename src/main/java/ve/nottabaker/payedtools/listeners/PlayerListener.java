@@ -1,18 +1,19 @@
 package ve.nottabaker.payedtools.listeners;
 
 import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerCommandSendEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
 import org.bukkit.event.player.PlayerQuitEvent;
 import ve.nottabaker.payedtools.PayEdtools;
-import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.models.InboxEntry;
 import ve.nottabaker.payedtools.utils.AmountParser;
 import ve.nottabaker.payedtools.utils.Logger;
 
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -33,31 +34,46 @@ public class PlayerListener implements Listener {
      */
     @EventHandler
     public void onPlayerJoin(PlayerJoinEvent event) {
+        Player player = event.getPlayer();
+        plugin.getPermissionManager().refresh(player);
+        plugin.getPlayerNameManager().onJoin(player);
+        
         // Process pending transactions first
         Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
             try {
                 // Process any pending transactions for this player
-                plugin.getTransactionManager().processPendingTransactions(event.getPlayer().getUniqueId());
-                
-                // Check for transactions since last login
-                long lastLoginTime = plugin.getDatabaseManager().getLastLoginTime(event.getPlayer().getUniqueId());
-                List<Transaction> recentTransactions = getRecentTransactions(event.getPlayer().getUniqueId(), lastLoginTime);
-                
-                if (!recentTransactions.isEmpty()) {
-                    // Notify player about offline transactions
-                    Bukkit.getScheduler().runTask(plugin, () -> {
-                        notifyOfflineTransactions(event.getPlayer(), recentTransactions);
-                    });
-                }
-                
-                // Update last login time
-                plugin.getDatabaseManager().updateLastLoginTime(event.getPlayer().getUniqueId());
+                plugin.getTransactionManager().processPendingTransactions(player.getUniqueId());
             } catch (Exception e) {
-                Logger.error("Error processing pending transactions for " + event.getPlayer().getName(), e);
+                Logger.error("Error processing pending transactions for " + player.getName(), e);
+            }
+        });
+        
+        // Payments received while offline; the login time is updated by the same batch
+        plugin.getDatabaseManager().submitJoin(player.getUniqueId()).whenComplete((inbox, error) -> {
+            if (error != null) {
+                Logger.error("Error loading offline transactions for " + player.getName(), error);
+                return;
+            }
+            
+            if (!inbox.isEmpty()) {
+                // Notify player about offline transactions
+                Bukkit.getScheduler().runTask(plugin, () -> {
+                    if (player.isOnline()) {
+                        notifyOfflineTransactions(player, inbox);
+                    }
+                });
             }
         });
     }
     
+    /**
+     * The server resends a player's commands whenever their permissions change
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onCommandSend(PlayerCommandSendEvent event) {
+        plugin.getPermissionManager().refresh(event.getPlayer());
+    }
+    
     /**
      * Clean up player data on quit
      */
@@ -65,6 +81,9 @@ public class PlayerListener implements Listener {
     public void onPlayerQuit(PlayerQuitEvent event) {
         UUID playerUUID = event.getPlayer().getUniqueId();
         
+        plugin.getPermissionManager().invalidate(playerUUID);
+        plugin.getPlayerNameManager().onQuit(event.getPlayer());
+        
         // Cancel any pending confirmations
         plugin.getConfirmationManager().cancel(playerUUID);
         
@@ -74,51 +93,23 @@ public class PlayerListener implements Listener {
         Logger.debug("Cleaned up data for player " + event.getPlayer().getName());
     }
     
-    /**
-     * Get recent transactions for a player
-     */
-    private List<Transaction> getRecentTransactions(java.util.UUID playerUUID, long sinceTime) {
-        // Get transactions since the specified time
-        return plugin.getTransactionManager().getTransactionHistorySince(playerUUID, sinceTime, 50);
-    }
-    
     /**
      * Notify player about offline transactions
      */
-    private void notifyOfflineTransactions(org.bukkit.entity.Player player, List<Transaction> transactions) {
-        if (transactions.isEmpty()) {
+    private void notifyOfflineTransactions(Player player, List<InboxEntry> inbox) {
+        if (inbox.isEmpty()) {
             return;
         }
         
-        // Filter only received transactions (where player is receiver)
-        List<Transaction> receivedTransactions = transactions.stream()
-                .filter(t -> t.getReceiver().equals(player.getUniqueId()))
-                .toList();
-        
-        if (receivedTransactions.isEmpty()) {
-            return;
-        }
-        
-        // Group transactions by currency
-        Map<String, Double> currencyTotals = new HashMap<>();
-        int transactionCount = 0;
-        
-        for (Transaction transaction : receivedTransactions) {
-            String currency = transaction.getCurrency();
-            double amount = transaction.getAmount();
-            
-            currencyTotals.merge(currency, amount, Double::sum);
-            transactionCount++;
-        }
+        long transactionCount = 0;
         
         // Send notification
         player.sendMessage("§8§m----------&r §6Offline Transactions &8§m----------");
         player.sendMessage("§eYou received money while offline:");
         
-        for (Map.Entry<String, Double> entry : currencyTotals.entrySet()) {
-            String currency = entry.getKey();
-            double total = entry.getValue();
-            player.sendMessage("§a+ " + amountParser.format(total) + " " + currency);
+        for (InboxEntry entry : inbox) {
+            player.sendMessage("§a+ " + amountParser.format(entry.getTotal()) + " " + entry.getCurrency());
+            transactionCount += entry.getCount();
         }
         
         player.sendMessage("§7Total: " + transactionCount + " transactions");
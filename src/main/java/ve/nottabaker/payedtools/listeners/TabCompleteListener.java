@@ -0,0 +1,96 @@
+package ve.nottabaker.payedtools.listeners;
+
+import com.destroystokyo.paper.event.server.AsyncTabCompleteEvent;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.PluginCommand;
+import org.bukkit.command.TabCompleter;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.CurrencyManager;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Answers tab completion for the player-facing commands on Paper's async completion thread,
+ * so currency probes and balance lookups made while typing never run on the server thread.
+ * The commands' own completers produce the suggestions; anything not handled here, or that
+ * fails, falls back to the normal completion on the server thread.
+ */
+public class TabCompleteListener implements Listener {
+    
+    // Commands whose completers are safe to call off the server thread
+    private static final String[] ASYNC_COMMANDS = {"pay", "payall", "payhistory", "paystats"};
+    
+    private final Map<String, PluginCommand> commands = new HashMap<>();
+    
+    public TabCompleteListener(PayEdtools plugin) {
+        for (String name : ASYNC_COMMANDS) {
+            PluginCommand command = plugin.getCommand(name);
+            if (command == null) {
+                continue;
+            }
+            commands.put(name, command);
+            commands.put(plugin.getName().toLowerCase(Locale.ROOT) + ":" + name, command);
+            for (String alias : command.getAliases()) {
+                commands.put(alias.toLowerCase(Locale.ROOT), command);
+            }
+        }
+    }
+    
+    @EventHandler(priority = EventPriority.NORMAL, ignoreCancelled = true)
+    public void onAsyncTabComplete(AsyncTabCompleteEvent event) {
+        if (!event.isCommand() || event.isHandled()) {
+            return;
+        }
+        
+        String buffer = event.getBuffer();
+        if (buffer.startsWith("/")) {
+            buffer = buffer.substring(1);
+        }
+        
+        // Still typing the command name itself
+        int space = buffer.indexOf(' ');
+        if (space < 0) {
+            return;
+        }
+        
+        String label = buffer.substring(0, space);
+        PluginCommand command = commands.get(label.toLowerCase(Locale.ROOT));
+        if (command == null || !command.testPermissionSilent(event.getSender())) {
+            return;
+        }
+        
+        TabCompleter completer = command.getTabCompleter();
+        if (completer == null) {
+            CommandExecutor executor = command.getExecutor();
+            if (!(executor instanceof TabCompleter)) {
+                return;
+            }
+            completer = (TabCompleter) executor;
+        }
+        
+        // Split like the server does, keeping the empty argument after a trailing space
+        String[] args = buffer.substring(space + 1).split(" ", -1);
+        
+        try {
+            List<String> completions = completer.onTabComplete(event.getSender(), command, label, args);
+            if (completions != null) {
+                event.setCompletions(new ArrayList<>(completions));
+                event.setHandled(true);
+            }
+        } catch (CurrencyManager.EconomyBusyException e) {
+            // Left unhandled, so the server completes it on its own thread instead
+            Logger.debug("EdTools busy; completing /" + label + " on the server thread");
+        } catch (Exception e) {
+            Logger.error("Error completing /" + label + " " + Arrays.toString(args) + " asynchronously", e);
+        }
+    }
+}
@@ -2,6 +2,9 @@ package ve.nottabaker.payedtools.managers;
 
 import org.bukkit.configuration.file.FileConfiguration;
 import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.database.StorageType;
+import ve.nottabaker.payedtools.utils.Logger;
+import ve.nottabaker.payedtools.utils.SlidingWindowLimiter;
 
 import java.util.*;
 
@@ -17,6 +20,8 @@ public class ConfigManager {
     private boolean debug;
     private boolean saveTransactionHistory;
     private int maxHistorySize;
+    private int historyPageSize;
+    private int maxHistoryJump;
     private int cleanupAfterDays;
     private boolean asyncOperations;
     
@@ -40,6 +45,11 @@ public class ConfigManager {
     private int timeWindow;
     private String rateLimitAction;
     
+    // Volume caps
+    private boolean volumeCapsEnabled;
+    private int volumeCapWindowHours;
+    private Map<String, Double> volumeCaps;
+    
     // Confirmation
     private boolean confirmationEnabled;
     private double confirmationThreshold;
@@ -71,8 +81,25 @@ public class ConfigManager {
     private boolean balanceCacheEnabled;
     private int balanceCacheDuration;
     private int balanceCacheCleanupInterval;
+    private boolean edToolsLimiterEnabled;
+    private int edToolsLimiterInitialLimit;
+    private int edToolsLimiterMinLimit;
+    private int edToolsLimiterMaxLimit;
+    private long edToolsLimiterTargetLatency;
+    private long edToolsLimiterQueueTimeout;
+    private int edToolsLimiterMaxQueue;
+    private boolean historyCacheEnabled;
+    private int historyCacheEntries;
+    private int historyCacheMaxPlayers;
+    private int historyCacheDuration;
+    private long notificationTickBudget;
+    private long notificationMergeWindow;
+    private int tabCompleteRecentOffline;
     private boolean batchDatabaseOperations;
     private int batchSize;
+    private long batchMaxDelay;
+    private long batchTargetLatency;
+    private int batchQueueCapacity;
     private int threadPoolSize;
     
     // PayAll settings
@@ -94,8 +121,9 @@ public class ConfigManager {
     private double discordLogThreshold;
     
     // Database
-    private String databaseType;
+    private StorageType databaseType;
     private String sqliteFilename;
+    private String h2Filename;
     private String mysqlHost;
     private int mysqlPort;
     private String mysqlDatabase;
@@ -104,6 +132,33 @@ public class ConfigManager {
     private int mysqlMaxPoolSize;
     private int mysqlMinIdle;
     private int mysqlConnectionTimeout;
+    private int mysqlReadMaxPoolSize;
+    private int mysqlReadMinIdle;
+    private String mysqlReadHost;
+    private int mysqlReadPort;
+    private int mysqlReadMaxLag;
+    private int migrationChunkSize;
+    private long migrationChunkDelay;
+    private int retentionInterval;
+    private int retentionBatchSize;
+    private long retentionTargetBatchMillis;
+    private double retentionDutyCycle;
+    private boolean mysqlPartitioning;
+    private boolean archiveEnabled;
+    private int archiveSegmentRows;
+    private int backupKeep;
+    private int backupPagesPerStep;
+    private int backupRowsPerStep;
+    private long backupStepDelay;
+    private long joinBatchWindow;
+    private int joinBatchSize;
+    private int readThreads;
+    private int readQueueSize;
+    private boolean spilloverEnabled;
+    private int spilloverFailureThreshold;
+    private int spilloverMaxProbeInterval;
+    private int spilloverReplayBatchSize;
+    private long spilloverReplayInterval;
     
     public ConfigManager(PayEdtools plugin) {
         this.plugin = plugin;
@@ -128,7 +183,9 @@ public class ConfigManager {
         debug = config.getBoolean("settings.debug", false);
         saveTransactionHistory = config.getBoolean("settings.save-transaction-history", true);
         maxHistorySize = config.getInt("settings.max-history-size", 100);
-        cleanupAfterDays = config.getInt("settings.cleanup-after-days", 30);
+        historyPageSize = config.getInt("settings.history-page-size", 10);
+        maxHistoryJump = config.getInt("settings.max-history-jump", 1000);
+        cleanupAfterDays = config.getInt("settings.cleanup-after-days", 0);
         asyncOperations = config.getBoolean("settings.async-operations", true);
         
         // Currency formats
@@ -163,6 +220,19 @@ public class ConfigManager {
         timeWindow = config.getInt("rate-limit.time-window", 60);
         rateLimitAction = config.getString("rate-limit.action", "DENY");
         
+        // Volume caps
+        volumeCapsEnabled = config.getBoolean("volume-caps.enabled", false);
+        volumeCapWindowHours = config.getInt("volume-caps.window-hours", 24);
+        volumeCaps = new HashMap<>();
+        if (config.isConfigurationSection("volume-caps.caps")) {
+            for (String currency : config.getConfigurationSection("volume-caps.caps").getKeys(false)) {
+                double cap = config.getDouble("volume-caps.caps." + currency);
+                if (cap > 0) {
+                    volumeCaps.put(currency, cap);
+                }
+            }
+        }
+        
         // Confirmation
         confirmationEnabled = config.getBoolean("confirmation.enabled", true);
         confirmationThreshold = config.getDouble("confirmation.threshold", 1000000);
@@ -196,9 +266,26 @@ public class ConfigManager {
         balanceCacheEnabled = config.getBoolean("performance.balance-cache.enabled", true);
         balanceCacheDuration = config.getInt("performance.balance-cache.duration", 30);
         balanceCacheCleanupInterval = config.getInt("performance.balance-cache.cleanup-interval", 300);
+        edToolsLimiterEnabled = config.getBoolean("performance.edtools-limiter.enabled", true);
+        edToolsLimiterInitialLimit = config.getInt("performance.edtools-limiter.initial-limit", 16);
+        edToolsLimiterMinLimit = config.getInt("performance.edtools-limiter.min-limit", 2);
+        edToolsLimiterMaxLimit = config.getInt("performance.edtools-limiter.max-limit", 64);
+        edToolsLimiterTargetLatency = config.getLong("performance.edtools-limiter.target-latency", 50);
+        edToolsLimiterQueueTimeout = config.getLong("performance.edtools-limiter.queue-timeout", 2000);
+        edToolsLimiterMaxQueue = config.getInt("performance.edtools-limiter.max-queue", 200);
+        historyCacheEnabled = config.getBoolean("performance.history-cache.enabled", true);
+        historyCacheEntries = config.getInt("performance.history-cache.entries", 50);
+        historyCacheMaxPlayers = config.getInt("performance.history-cache.max-players", 1000);
+        historyCacheDuration = config.getInt("performance.history-cache.duration", 300);
+        notificationTickBudget = config.getLong("performance.notifications.tick-budget", 2);
+        notificationMergeWindow = config.getLong("performance.notifications.merge-window", 250);
+        tabCompleteRecentOffline = config.getInt("performance.tab-complete.recent-offline-minutes", 10);
         
         batchDatabaseOperations = config.getBoolean("performance.batch-database-operations", true);
         batchSize = config.getInt("performance.batch-size", 200);
+        batchMaxDelay = config.getLong("performance.batch-max-delay", 250);
+        batchTargetLatency = config.getLong("performance.batch-target-latency", 50);
+        batchQueueCapacity = config.getInt("performance.batch-queue-capacity", 10000);
         threadPoolSize = config.getInt("performance.thread-pool-size", 12);
         
         // PayAll settings
@@ -220,8 +307,14 @@ public class ConfigManager {
         discordLogThreshold = config.getDouble("integrations.discord.log-threshold", 1000000);
         
         // Database
-        databaseType = config.getString("database.type", "SQLITE");
+        String typeName = config.getString("database.type", "SQLITE");
+        databaseType = StorageType.fromName(typeName);
+        if (databaseType == null) {
+            Logger.warning("Unknown database type '" + typeName + "', falling back to SQLITE");
+            databaseType = StorageType.SQLITE;
+        }
         sqliteFilename = config.getString("database.sqlite.filename", "transactions.db");
+        h2Filename = config.getString("database.h2.filename", "transactions");
         mysqlHost = config.getString("database.mysql.host", "localhost");
         mysqlPort = config.getInt("database.mysql.port", 3306);
         mysqlDatabase = config.getString("database.mysql.database", "payedtools");
@@ -230,6 +323,33 @@ public class ConfigManager {
         mysqlMaxPoolSize = config.getInt("database.mysql.pool.maximum-pool-size", 10);
         mysqlMinIdle = config.getInt("database.mysql.pool.minimum-idle", 2);
         mysqlConnectionTimeout = config.getInt("database.mysql.pool.connection-timeout", 30000);
+        mysqlReadMaxPoolSize = config.getInt("database.mysql.read.maximum-pool-size", 4);
+        mysqlReadMinIdle = config.getInt("database.mysql.read.minimum-idle", 1);
+        mysqlReadHost = config.getString("database.mysql.read.host", "");
+        mysqlReadPort = config.getInt("database.mysql.read.port", 3306);
+        mysqlReadMaxLag = config.getInt("database.mysql.read.max-lag", 5);
+        migrationChunkSize = config.getInt("database.migration.chunk-size", 1000);
+        migrationChunkDelay = config.getLong("database.migration.chunk-delay", 50);
+        retentionInterval = config.getInt("database.retention.interval", 60);
+        retentionBatchSize = config.getInt("database.retention.batch-size", 5000);
+        retentionTargetBatchMillis = config.getLong("database.retention.target-batch-millis", 50);
+        retentionDutyCycle = config.getDouble("database.retention.duty-cycle", 0.25);
+        mysqlPartitioning = config.getBoolean("database.retention.mysql-partitioning", false);
+        archiveEnabled = config.getBoolean("database.archive.enabled", true);
+        archiveSegmentRows = config.getInt("database.archive.segment-rows", 50000);
+        backupKeep = config.getInt("database.backup.keep", 5);
+        backupPagesPerStep = config.getInt("database.backup.pages-per-step", 256);
+        backupRowsPerStep = config.getInt("database.backup.rows-per-step", 2000);
+        backupStepDelay = config.getLong("database.backup.step-delay", 10);
+        joinBatchWindow = config.getLong("database.join-batch.window", 50);
+        joinBatchSize = config.getInt("database.join-batch.max-size", 100);
+        readThreads = config.getInt("database.read-executor.threads", 0);
+        readQueueSize = config.getInt("database.read-executor.queue-size", 500);
+        spilloverEnabled = config.getBoolean("database.spillover.enabled", true);
+        spilloverFailureThreshold = config.getInt("database.spillover.failure-threshold", 2);
+        spilloverMaxProbeInterval = config.getInt("database.spillover.max-probe-interval", 60);
+        spilloverReplayBatchSize = config.getInt("database.spillover.replay-batch-size", 500);
+        spilloverReplayInterval = config.getLong("database.spillover.replay-interval", 200);
         
         validateConfiguration();
     }
@@ -241,11 +361,59 @@ public class ConfigManager {
         if (cooldownTime < 0) cooldownTime = 0;
         if (minimumAmount < 0) minimumAmount = 0;
         if (maxTransactions < 1) maxTransactions = 1;
+        if (maxTransactions > SlidingWindowLimiter.MAX_LIMIT) maxTransactions = SlidingWindowLimiter.MAX_LIMIT;
         if (timeWindow < 1) timeWindow = 1;
+        if (volumeCapWindowHours < 1) volumeCapWindowHours = 1;
+        if (volumeCapWindowHours > 168) volumeCapWindowHours = 168;
         if (confirmationTimeout < 1) confirmationTimeout = 30;
         if (cacheDuration < 0) cacheDuration = 300;
         if (threadPoolSize < 1) threadPoolSize = 1;
+        if (batchQueueCapacity < batchSize) batchQueueCapacity = Math.max(batchSize, 1);
+        if (payallBatchSize < 1) payallBatchSize = 1;
+        if (payallMaxPlayers < 0) payallMaxPlayers = 0;
         if (decimalPlaces < 0) decimalPlaces = 2;
+        if (maxHistorySize < 0) maxHistorySize = 0;
+        if (historyPageSize < 1) historyPageSize = 10;
+        if (maxHistoryJump < 0) maxHistoryJump = 0;
+        if (migrationChunkSize < 1) migrationChunkSize = 1000;
+        if (migrationChunkDelay < 1) migrationChunkDelay = 50;
+        if (retentionInterval < 1) retentionInterval = 60;
+        if (retentionBatchSize < 100) retentionBatchSize = 100;
+        if (retentionTargetBatchMillis < 1) retentionTargetBatchMillis = 50;
+        if (retentionDutyCycle <= 0 || retentionDutyCycle > 1) retentionDutyCycle = 0.25;
+        if (archiveSegmentRows < 1000) archiveSegmentRows = 1000;
+        if (backupKeep < 1) backupKeep = 1;
+        if (backupPagesPerStep < 1) backupPagesPerStep = 256;
+        if (backupRowsPerStep < 1) backupRowsPerStep = 2000;
+        if (backupStepDelay < 0) backupStepDelay = 0;
+        if (joinBatchWindow < 0) joinBatchWindow = 0;
+        if (joinBatchSize < 1) joinBatchSize = 100;
+        if (readThreads < 0) readThreads = 0;
+        if (mysqlReadMaxPoolSize < 1) mysqlReadMaxPoolSize = 4;
+        if (mysqlReadMinIdle < 0) mysqlReadMinIdle = 0;
+        if (mysqlReadMaxLag < -1) mysqlReadMaxLag = -1;
+        if (mysqlReadHost == null) mysqlReadHost = "";
+        if (readQueueSize < 1) readQueueSize = 500;
+        if (spilloverFailureThreshold < 1) spilloverFailureThreshold = 2;
+        if (spilloverMaxProbeInterval < 1) spilloverMaxProbeInterval = 60;
+        if (spilloverReplayBatchSize < 1) spilloverReplayBatchSize = 500;
+        if (spilloverReplayInterval < 10) spilloverReplayInterval = 200;
+        if (historyCacheEntries < 1) historyCacheEntries = 50;
+        if (batchSize < 1) batchSize = 200;
+        if (batchMaxDelay < 0) batchMaxDelay = 0;
+        if (batchTargetLatency < 1) batchTargetLatency = 50;
+        if (historyCacheMaxPlayers < 1) historyCacheMaxPlayers = 1000;
+        if (historyCacheDuration < 1) historyCacheDuration = 300;
+        if (notificationTickBudget < 1) notificationTickBudget = 1;
+        if (notificationMergeWindow < 0) notificationMergeWindow = 0;
+        if (tabCompleteRecentOffline < 0) tabCompleteRecentOffline = 0;
+        if (edToolsLimiterMinLimit < 1) edToolsLimiterMinLimit = 1;
+        if (edToolsLimiterMaxLimit < edToolsLimiterMinLimit) edToolsLimiterMaxLimit = edToolsLimiterMinLimit;
+        if (edToolsLimiterInitialLimit < edToolsLimiterMinLimit) edToolsLimiterInitialLimit = edToolsLimiterMinLimit;
+        if (edToolsLimiterInitialLimit > edToolsLimiterMaxLimit) edToolsLimiterInitialLimit = edToolsLimiterMaxLimit;
+        if (edToolsLimiterTargetLatency < 1) edToolsLimiterTargetLatency = 50;
+        if (edToolsLimiterQueueTimeout < 0) edToolsLimiterQueueTimeout = 0;
+        if (edToolsLimiterMaxQueue < 0) edToolsLimiterMaxQueue = 0;
     }
     
     /**
@@ -270,6 +438,14 @@ public class ConfigManager {
         return maxHistorySize;
     }
     
+    public int getHistoryPageSize() {
+        return historyPageSize;
+    }
+    
+    public int getMaxHistoryJump() {
+        return maxHistoryJump;
+    }
+    
     public int getCleanupAfterDays() {
         return cleanupAfterDays;
     }
@@ -326,6 +502,25 @@ public class ConfigManager {
         return rateLimitAction;
     }
     
+    public boolean isVolumeCapsEnabled() {
+        return volumeCapsEnabled;
+    }
+    
+    public int getVolumeCapWindowHours() {
+        return volumeCapWindowHours;
+    }
+    
+    public Map<String, Double> getVolumeCaps() {
+        return volumeCaps;
+    }
+    
+    /**
+     * Most a player can send of the currency per window, or 0 if it has no cap
+     */
+    public double getVolumeCap(String currency) {
+        return volumeCaps.getOrDefault(currency, 0.0);
+    }
+    
     public boolean isConfirmationEnabled() {
         return confirmationEnabled;
     }
@@ -402,6 +597,18 @@ public class ConfigManager {
         return batchSize;
     }
     
+    public long getBatchMaxDelay() {
+        return batchMaxDelay;
+    }
+    
+    public long getBatchTargetLatency() {
+        return batchTargetLatency;
+    }
+    
+    public int getBatchQueueCapacity() {
+        return batchQueueCapacity;
+    }
+    
     public int getThreadPoolSize() {
         return threadPoolSize;
     }
@@ -442,7 +649,7 @@ public class ConfigManager {
         return discordLogThreshold;
     }
     
-    public String getDatabaseType() {
+    public StorageType getDatabaseType() {
         return databaseType;
     }
     
@@ -450,6 +657,10 @@ public class ConfigManager {
         return sqliteFilename;
     }
     
+    public String getH2Filename() {
+        return h2Filename;
+    }
+    
     public String getMysqlHost() {
         return mysqlHost;
     }
@@ -482,6 +693,151 @@ public class ConfigManager {
         return mysqlConnectionTimeout;
     }
     
+    public int getMysqlReadMaxPoolSize() {
+        return mysqlReadMaxPoolSize;
+    }
+    
+    public int getMysqlReadMinIdle() {
+        return mysqlReadMinIdle;
+    }
+    
+    /**
+     * Host of the read replica, or empty to read from the main server
+     */
+    public String getMysqlReadHost() {
+        return mysqlReadHost;
+    }
+    
+    public int getMysqlReadPort() {
+        return mysqlReadPort;
+    }
+    
+    /**
+     * Replication lag in seconds that reads tolerate, or -1 to skip the check
+     */
+    public int getMysqlReadMaxLag() {
+        return mysqlReadMaxLag;
+    }
+    
+    public int getMigrationChunkSize() {
+        return migrationChunkSize;
+    }
+    
+    public long getMigrationChunkDelay() {
+        return migrationChunkDelay;
+    }
+    
+    public int getRetentionInterval() {
+        return retentionInterval;
+    }
+    
+    public int getRetentionBatchSize() {
+        return retentionBatchSize;
+    }
+    
+    public long getRetentionTargetBatchMillis() {
+        return retentionTargetBatchMillis;
+    }
+    
+    public double getRetentionDutyCycle() {
+        return retentionDutyCycle;
+    }
+    
+    public boolean isMysqlPartitioning() {
+        return mysqlPartitioning;
+    }
+    
+    public boolean isArchiveEnabled() {
+        return archiveEnabled;
+    }
+    
+    public int getArchiveSegmentRows() {
+        return archiveSegmentRows;
+    }
+    
+    public int getBackupKeep() {
+        return backupKeep;
+    }
+    
+    public int getBackupPagesPerStep() {
+        return backupPagesPerStep;
+    }
+    
+    public int getBackupRowsPerStep() {
+        return backupRowsPerStep;
+    }
+    
+    public long getBackupStepDelay() {
+        return backupStepDelay;
+    }
+    
+    public long getJoinBatchWindow() {
+        return joinBatchWindow;
+    }
+    
+    public int getJoinBatchSize() {
+        return joinBatchSize;
+    }
+    
+    /**
+     * Concurrent database reads; 0 means one per pooled connection
+     */
+    public int getReadThreads() {
+        return readThreads;
+    }
+    
+    public int getReadQueueSize() {
+        return readQueueSize;
+    }
+    
+    public boolean isSpilloverEnabled() {
+        return spilloverEnabled;
+    }
+    
+    public int getSpilloverFailureThreshold() {
+        return spilloverFailureThreshold;
+    }
+    
+    public int getSpilloverMaxProbeInterval() {
+        return spilloverMaxProbeInterval;
+    }
+    
+    public int getSpilloverReplayBatchSize() {
+        return spilloverReplayBatchSize;
+    }
+    
+    public long getSpilloverReplayInterval() {
+        return spilloverReplayInterval;
+    }
+    
+    public boolean isEdToolsLimiterEnabled() {
+        return edToolsLimiterEnabled;
+    }
+    
+    public int getEdToolsLimiterInitialLimit() {
+        return edToolsLimiterInitialLimit;
+    }
+    
+    public int getEdToolsLimiterMinLimit() {
+        return edToolsLimiterMinLimit;
+    }
+    
+    public int getEdToolsLimiterMaxLimit() {
+        return edToolsLimiterMaxLimit;
+    }
+    
+    public long getEdToolsLimiterTargetLatency() {
+        return edToolsLimiterTargetLatency;
+    }
+    
+    public long getEdToolsLimiterQueueTimeout() {
+        return edToolsLimiterQueueTimeout;
+    }
+    
+    public int getEdToolsLimiterMaxQueue() {
+        return edToolsLimiterMaxQueue;
+    }
+    
     public boolean isBalanceCacheEnabled() {
         return balanceCacheEnabled;
     }
@@ -494,6 +850,34 @@ public class ConfigManager {
         return balanceCacheCleanupInterval;
     }
     
+    public boolean isHistoryCacheEnabled() {
+        return historyCacheEnabled;
+    }
+    
+    public int getHistoryCacheEntries() {
+        return historyCacheEntries;
+    }
+    
+    public int getHistoryCacheMaxPlayers() {
+        return historyCacheMaxPlayers;
+    }
+    
+    public int getHistoryCacheDuration() {
+        return historyCacheDuration;
+    }
+    
+    public long getNotificationTickBudget() {
+        return notificationTickBudget;
+    }
+    
+    public long getNotificationMergeWindow() {
+        return notificationMergeWindow;
+    }
+    
+    public int getTabCompleteRecentOffline() {
+        return tabCompleteRecentOffline;
+    }
+    
     public int getPayallBatchSize() {
         return payallBatchSize;
     }
@@ -4,6 +4,7 @@ import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
 import ve.nottabaker.payedtools.PayEdtools;
 import ve.nottabaker.payedtools.models.PendingTransaction;
+import ve.nottabaker.payedtools.utils.TimingWheel;
 
 import java.util.Map;
 import java.util.UUID;
@@ -16,10 +17,12 @@ public class ConfirmationManager {
     
     private final PayEdtools plugin;
     private final Map<UUID, PendingTransaction> pendingConfirmations;
+    private final Map<UUID, TimingWheel.Timeout> timeouts;
     
     public ConfirmationManager(PayEdtools plugin) {
         this.plugin = plugin;
         this.pendingConfirmations = new ConcurrentHashMap<>();
+        this.timeouts = new ConcurrentHashMap<>();
     }
     
     /**
@@ -49,18 +52,34 @@ public class ConfirmationManager {
         
         pendingConfirmations.put(senderId, pending);
         
-        // Schedule timeout
-        int timeout = plugin.getConfigManager().getConfirmationTimeout();
-        Bukkit.getScheduler().runTaskLater(plugin, () -> {
-            if (pendingConfirmations.containsKey(senderId)) {
-                pendingConfirmations.remove(senderId);
-                
-                Player player = Bukkit.getPlayer(senderId);
-                if (player != null && player.isOnline()) {
-                    plugin.getMessageManager().send(player, "confirmation-expired");
-                }
+        // Schedule timeout; a newer confirmation replaces the older one and its timeout
+        long timeout = plugin.getConfigManager().getConfirmationTimeout() * 1000L;
+        TimingWheel.Timeout previous = timeouts.put(senderId,
+            plugin.getTimingWheel().schedule(timeout, () -> expire(senderId, pending)));
+        if (previous != null) {
+            previous.cancel();
+        }
+    }
+    
+    private void expire(UUID senderId, PendingTransaction pending) {
+        if (!pendingConfirmations.remove(senderId, pending)) {
+            return;
+        }
+        timeouts.remove(senderId);
+        
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            Player player = Bukkit.getPlayer(senderId);
+            if (player != null && player.isOnline()) {
+                plugin.getMessageManager().send(player, "confirmation-expired");
             }
-        }, timeout * 20L);
+        });
+    }
+    
+    private void cancelTimeout(UUID uuid) {
+        TimingWheel.Timeout timeout = timeouts.remove(uuid);
+        if (timeout != null) {
+            timeout.cancel();
+        }
     }
     
     /**
@@ -74,6 +93,7 @@ public class ConfirmationManager {
      * Confirm a transaction
      */
     public PendingTransaction confirm(UUID uuid) {
+        cancelTimeout(uuid);
         return pendingConfirmations.remove(uuid);
     }
     
@@ -81,6 +101,7 @@ public class ConfirmationManager {
      * Cancel a transaction
      */
     public boolean cancel(UUID uuid) {
+        cancelTimeout(uuid);
         return pendingConfirmations.remove(uuid) != null;
     }
     
@@ -95,6 +116,8 @@ public class ConfirmationManager {
      * Cleanup all pending confirmations
      */
     public void cleanup() {
+        timeouts.values().forEach(TimingWheel.Timeout::cancel);
+        timeouts.clear();
         pendingConfirmations.clear();
     }
 }
@@ -2,6 +2,7 @@ package ve.nottabaker.payedtools.managers;
 
 import org.bukkit.entity.Player;
 import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.models.PermissionSnapshot;
 
 import java.util.Map;
 import java.util.UUID;
@@ -28,7 +29,7 @@ public class CooldownManager {
             return false;
         }
         
-        if (player.hasPermission("payedtools.bypass.cooldown")) {
+        if (plugin.getPermissionManager().has(player, PermissionSnapshot.BYPASS_COOLDOWN)) {
             return false;
         }
         
@@ -73,11 +74,17 @@ public class CooldownManager {
             return;
         }
         
-        if (player.hasPermission("payedtools.bypass.cooldown")) {
+        if (plugin.getPermissionManager().has(player, PermissionSnapshot.BYPASS_COOLDOWN)) {
             return;
         }
         
-        cooldowns.put(player.getUniqueId(), System.currentTimeMillis());
+        UUID uuid = player.getUniqueId();
+        Long now = System.currentTimeMillis();
+        cooldowns.put(uuid, now);
+        
+        // Free the entry once it has run out, unless a newer cooldown replaced it
+        long cooldownTime = plugin.getConfigManager().getCooldownTime() * 1000L;
+        plugin.getTimingWheel().schedule(cooldownTime, () -> cooldowns.remove(uuid, now));
     }
     
     /**
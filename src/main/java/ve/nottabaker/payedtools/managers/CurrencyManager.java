@@ -3,11 +3,13 @@ package ve.nottabaker.payedtools.managers;
 import es.edwardbelt.edgens.iapi.EdToolsCurrencyAPI;
 import org.bukkit.Bukkit;
 import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.utils.AdaptiveLimiter;
 import ve.nottabaker.payedtools.utils.BalanceCache;
 import ve.nottabaker.payedtools.utils.Logger;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 /**
  * Manages currency operations and validation with caching
@@ -18,6 +20,10 @@ public class CurrencyManager {
     private final EdToolsCurrencyAPI currencyAPI;
     private final BalanceCache balanceCache;
     
+    // Caps concurrent EdTools calls; null when disabled
+    private final AdaptiveLimiter apiLimiter;
+    private final ThreadLocal<Boolean> holdingPermit = ThreadLocal.withInitial(() -> false);
+    
     // Cache for currency validation
     private final Map<String, Boolean> currencyValidationCache;
     private final Map<String, Long> cacheTimestamps;
@@ -28,10 +34,66 @@ public class CurrencyManager {
         this.balanceCache = new BalanceCache(plugin);
         this.currencyValidationCache = new ConcurrentHashMap<>();
         this.cacheTimestamps = new ConcurrentHashMap<>();
+        
+        ConfigManager config = plugin.getConfigManager();
+        this.apiLimiter = config.isEdToolsLimiterEnabled()
+            ? new AdaptiveLimiter(config.getEdToolsLimiterInitialLimit(), config.getEdToolsLimiterMinLimit(),
+                                  config.getEdToolsLimiterMaxLimit(), config.getEdToolsLimiterTargetLatency(),
+                                  config.getEdToolsLimiterQueueTimeout(), config.getEdToolsLimiterMaxQueue())
+            : null;
+    }
+    
+    /**
+     * Run EdTools calls under one slot of the concurrency limiter. Calls made inside share the
+     * slot, so a transfer and its rollback are admitted or turned away together.
+     *
+     * @throws EconomyBusyException if no slot frees up before the queue timeout
+     */
+    public <T> T withPermit(Supplier<T> calls) {
+        // Blocking the server thread would stall the tick; it is counted but never waits
+        return withPermit(calls, Bukkit.isPrimaryThread());
+    }
+    
+    /**
+     * Run EdTools calls under a slot taken without admission control, even above the limit.
+     * For compensating calls such as refunds, which must not be turned away when the economy is busy.
+     */
+    public <T> T withPriorityPermit(Supplier<T> calls) {
+        return withPermit(calls, true);
+    }
+    
+    private <T> T withPermit(Supplier<T> calls, boolean admitNow) {
+        if (apiLimiter == null || holdingPermit.get()) {
+            return calls.get();
+        }
+        
+        if (admitNow) {
+            apiLimiter.acquireNow();
+        } else if (!apiLimiter.tryAcquire()) {
+            throw new EconomyBusyException();
+        }
+        
+        holdingPermit.set(true);
+        long start = System.nanoTime();
+        try {
+            return calls.get();
+        } finally {
+            holdingPermit.set(false);
+            apiLimiter.release(System.nanoTime() - start);
+        }
+    }
+    
+    /**
+     * EdTools concurrency limiter, or null when disabled
+     */
+    public AdaptiveLimiter getApiLimiter() {
+        return apiLimiter;
     }
     
     /**
      * Check if a currency exists in EdTools
+     *
+     * @throws EconomyBusyException off the server thread if EdTools is saturated; nothing is cached then
      */
     public boolean isCurrency(String currency) {
         if (currency == null || currency.isEmpty()) {
@@ -53,24 +115,37 @@ public class CurrencyManager {
         }
         
         // Validate with EdTools API
-        try {
-            currencyAPI.isCurrency(currency);
-            
-            // Cache the result
-            if (plugin.getConfigManager().isCacheCurrencyValidation()) {
-                currencyValidationCache.put(currency, true);
-                cacheTimestamps.put(currency, System.currentTimeMillis());
-            }
-            
-            return true;
-        } catch (Exception e) {
-            // Currency doesn't exist
-            if (plugin.getConfigManager().isCacheCurrencyValidation()) {
-                currencyValidationCache.put(currency, false);
-                cacheTimestamps.put(currency, System.currentTimeMillis());
+        boolean valid = withPermit(() -> {
+            try {
+                currencyAPI.isCurrency(currency);
+                return true;
+            } catch (Exception e) {
+                // Currency doesn't exist
+                return false;
             }
-            return false;
+        });
+        
+        // Cache the result
+        if (plugin.getConfigManager().isCacheCurrencyValidation()) {
+            cacheValidation(currency, valid);
         }
+        return valid;
+    }
+    
+    /**
+     * Remember a validation result; names players typed that are not currencies are freed again on expiry
+     */
+    private void cacheValidation(String currency, boolean valid) {
+        Long now = System.currentTimeMillis();
+        currencyValidationCache.put(currency, valid);
+        cacheTimestamps.put(currency, now);
+        
+        long cacheDuration = plugin.getConfigManager().getCacheDuration() * 1000L;
+        plugin.getTimingWheel().schedule(cacheDuration, () -> {
+            if (cacheTimestamps.remove(currency, now)) {
+                currencyValidationCache.remove(currency);
+            }
+        });
     }
     
     /**
@@ -122,70 +197,81 @@ public class CurrencyManager {
      * Get player's currency balance directly from API (bypass cache)
      */
     public double getBalanceDirect(UUID uuid, String currency) {
-        try {
-            return currencyAPI.getCurrency(uuid, currency);
-        } catch (Exception e) {
-            Logger.error("Error getting balance for " + uuid + " currency " + currency, e);
-            return 0;
-        }
+        return withPermit(() -> {
+            try {
+                return currencyAPI.getCurrency(uuid, currency);
+            } catch (Exception e) {
+                Logger.error("Error getting balance for " + uuid + " currency " + currency, e);
+                return 0.0;
+            }
+        });
     }
     
     /**
      * Add currency to player (for transactions - boosters should NOT affect this)
      */
     public void addCurrency(UUID uuid, String currency, double amount) {
-        try {
-            // For transactions, we want to avoid boosters affecting the amount
-            // So we'll get the current balance and set the new balance directly
-            double currentBalance = getBalanceDirect(uuid, currency);
-            double newBalance = currentBalance + amount;
-            
-            currencyAPI.setCurrency(uuid, currency, newBalance);
-            
-            // Invalidate cache for this player and currency
-            balanceCache.invalidateBalance(uuid, currency);
-            
-            Logger.debug("Added " + amount + " " + currency + " to " + uuid + " (total: " + newBalance + ")");
-        } catch (Exception e) {
-            Logger.error("Error adding currency to " + uuid, e);
-            throw new RuntimeException("Failed to add currency", e);
-        }
+        withPermit(() -> {
+            try {
+                // For transactions, we want to avoid boosters affecting the amount
+                // So we'll get the current balance and set the new balance directly
+                double currentBalance = getBalanceDirect(uuid, currency);
+                double newBalance = currentBalance + amount;
+                
+                currencyAPI.setCurrency(uuid, currency, newBalance);
+                
+                // Invalidate cache for this player and currency
+                balanceCache.invalidateBalance(uuid, currency);
+                
+                Logger.debug("Added " + amount + " " + currency + " to " + uuid + " (total: " + newBalance + ")");
+                return null;
+            } catch (Exception e) {
+                Logger.error("Error adding currency to " + uuid, e);
+                throw new RuntimeException("Failed to add currency", e);
+            }
+        });
     }
     
     /**
      * Add currency to player with booster support (for other uses)
      */
     public void addCurrencyWithBoosters(UUID uuid, String currency, double amount) {
-        try {
-            // Try the 4-parameter version first (with affectBoosters)
+        withPermit(() -> {
             try {
-                currencyAPI.addCurrency(uuid, currency, amount, true);
-            } catch (NoSuchMethodError e) {
-                // Fallback to 3-parameter version if the method doesn't exist
-                currencyAPI.addCurrency(uuid, currency, amount);
+                // Try the 4-parameter version first (with affectBoosters)
+                try {
+                    currencyAPI.addCurrency(uuid, currency, amount, true);
+                } catch (NoSuchMethodError e) {
+                    // Fallback to 3-parameter version if the method doesn't exist
+                    currencyAPI.addCurrency(uuid, currency, amount);
+                }
+                Logger.debug("Added " + amount + " " + currency + " to " + uuid + " (with boosters)");
+                return null;
+            } catch (Exception e) {
+                Logger.error("Error adding currency to " + uuid, e);
+                throw new RuntimeException("Failed to add currency", e);
             }
-            Logger.debug("Added " + amount + " " + currency + " to " + uuid + " (with boosters)");
-        } catch (Exception e) {
-            Logger.error("Error adding currency to " + uuid, e);
-            throw new RuntimeException("Failed to add currency", e);
-        }
+        });
     }
     
     /**
      * Remove currency from player
      */
     public void removeCurrency(UUID uuid, String currency, double amount) {
-        try {
-            currencyAPI.removeCurrency(uuid, currency, amount);
-            
-            // Invalidate cache for this player and currency
-            balanceCache.invalidateBalance(uuid, currency);
-            
-            Logger.debug("Removed " + amount + " " + currency + " from " + uuid);
-        } catch (Exception e) {
-            Logger.error("Error removing currency from " + uuid, e);
-            throw new RuntimeException("Failed to remove currency", e);
-        }
+        withPermit(() -> {
+            try {
+                currencyAPI.removeCurrency(uuid, currency, amount);
+                
+                // Invalidate cache for this player and currency
+                balanceCache.invalidateBalance(uuid, currency);
+                
+                Logger.debug("Removed " + amount + " " + currency + " from " + uuid);
+                return null;
+            } catch (Exception e) {
+                Logger.error("Error removing currency from " + uuid, e);
+                throw new RuntimeException("Failed to remove currency", e);
+            }
+        });
     }
     
     /**
@@ -200,8 +286,9 @@ public class CurrencyManager {
      */
     public String getCurrencyName(String currency) {
         try {
-            return currencyAPI.getCurrencyName(currency);
+            return withPermit(() -> currencyAPI.getCurrencyName(currency));
         } catch (Exception e) {
+            // Unknown, or EdTools is busy
             return currency;
         }
     }
@@ -301,4 +388,13 @@ public class CurrencyManager {
             getAvailableCurrencies();
         });
     }
+    
+    /**
+     * Thrown when EdTools is saturated and a call could not get a slot in time
+     */
+    public static class EconomyBusyException extends RuntimeException {
+        public EconomyBusyException() {
+            super("EdTools is busy", null, false, false);
+        }
+    }
 }
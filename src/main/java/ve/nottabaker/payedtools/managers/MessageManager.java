@@ -90,8 +90,13 @@ public class MessageManager {
      * Send a message to a player without prefix
      */
     public void sendRaw(Player player, String key, Map<String, String> placeholders) {
-        String message = getMessage(key, placeholders);
-        
+        sendFormatted(player, getMessage(key, placeholders));
+    }
+    
+    /**
+     * Send an already formatted message to a player without prefix
+     */
+    public void sendFormatted(Player player, String message) {
         // Apply PlaceholderAPI if available
         if (plugin.getConfigManager().isPlaceholderAPIEnabled()) {
             message = PlaceholderAPI.setPlaceholders(player, message);
@@ -0,0 +1,161 @@
+package ve.nottabaker.payedtools.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.utils.AmountParser;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Sends "you received" notifications from any thread without touching the server thread directly.
+ * Payments are queued per receiver and delivered by a task that runs every tick and stops once its
+ * time budget is spent; payments to one player that arrive within the merge window become one message.
+ */
+public class NotificationDispatcher {
+    
+    private final PayEdtools plugin;
+    private final AmountParser amountParser;
+    
+    // Receivers with undelivered payments, in the order their first payment arrived
+    private final Map<UUID, Receipts> pending = new ConcurrentHashMap<>();
+    private final Queue<UUID> order = new ConcurrentLinkedQueue<>();
+    
+    public NotificationDispatcher(PayEdtools plugin) {
+        this.plugin = plugin;
+        this.amountParser = new AmountParser(plugin);
+    }
+    
+    /**
+     * Start delivering on the server thread
+     */
+    public void start() {
+        Bukkit.getScheduler().runTaskTimer(plugin, this::drain, 1L, 1L);
+    }
+    
+    /**
+     * Queue a notification for a payment the player received; safe to call from any thread
+     */
+    public void queueReceived(UUID receiver, String senderName, String currency, double amount) {
+        long now = System.currentTimeMillis();
+        pending.compute(receiver, (uuid, receipts) -> {
+            if (receipts == null) {
+                receipts = new Receipts(now);
+                order.add(uuid);
+            }
+            receipts.add(senderName, currency, amount);
+            return receipts;
+        });
+    }
+    
+    /**
+     * Deliver queued notifications until the tick budget is spent
+     */
+    private void drain() {
+        if (order.isEmpty()) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        long budget = plugin.getConfigManager().getNotificationTickBudget() * 1_000_000L;
+        long mergeBefore = System.currentTimeMillis() - plugin.getConfigManager().getNotificationMergeWindow();
+        
+        UUID receiver;
+        while ((receiver = order.peek()) != null) {
+            Receipts receipts = pending.get(receiver);
+            // Receivers are queued by first payment, so everyone behind is still merging too
+            if (receipts != null && receipts.queuedAt > mergeBefore) {
+                return;
+            }
+            
+            order.poll();
+            receipts = pending.remove(receiver);
+            if (receipts != null) {
+                deliver(receiver, receipts);
+            }
+            
+            if (System.nanoTime() - start >= budget) {
+                return;
+            }
+        }
+    }
+    
+    private void deliver(UUID receiver, Receipts receipts) {
+        Player player = Bukkit.getPlayer(receiver);
+        if (player == null) {
+            // Logged off since the payment
+            return;
+        }
+        
+        try {
+            for (Map.Entry<String, Receipt> entry : receipts.byCurrency.entrySet()) {
+                Receipt receipt = entry.getValue();
+                Map<String, String> placeholders = new HashMap<>();
+                placeholders.put("amount", amountParser.format(receipt.amount));
+                placeholders.put("currency", entry.getKey());
+                
+                if (receipt.senders.size() == 1) {
+                    placeholders.put("sender", receipt.senders.iterator().next());
+                    plugin.getMessageManager().send(player, "payment-received", placeholders);
+                } else {
+                    placeholders.put("count", String.valueOf(receipt.senders.size()));
+                    plugin.getMessageManager().send(player, "payment-received-merged", placeholders);
+                }
+            }
+        } catch (Exception e) {
+            Logger.error("Error notifying " + player.getName() + " about a payment", e);
+        }
+    }
+    
+    /**
+     * Deliver everything still queued, ignoring the budget; called on shutdown
+     */
+    public void flush() {
+        UUID receiver;
+        while ((receiver = order.poll()) != null) {
+            Receipts receipts = pending.remove(receiver);
+            if (receipts != null) {
+                deliver(receiver, receipts);
+            }
+        }
+    }
+    
+    /**
+     * Receivers with notifications waiting
+     */
+    public int getQueuedReceivers() {
+        return pending.size();
+    }
+    
+    /**
+     * Undelivered payments of one receiver; only changed inside the pending map's compute
+     */
+    private static class Receipts {
+        private final long queuedAt;
+        private final Map<String, Receipt> byCurrency = new LinkedHashMap<>();
+        
+        private Receipts(long queuedAt) {
+            this.queuedAt = queuedAt;
+        }
+        
+        private void add(String senderName, String currency, double amount) {
+            Receipt receipt = byCurrency.computeIfAbsent(currency, k -> new Receipt());
+            receipt.amount += amount;
+            receipt.senders.add(senderName);
+        }
+    }
+    
+    private static class Receipt {
+        private double amount;
+        private final Set<String> senders = new LinkedHashSet<>();
+    }
+}
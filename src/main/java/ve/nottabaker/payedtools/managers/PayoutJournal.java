@@ -0,0 +1,200 @@
+package ve.nottabaker.payedtools.managers;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Append-only checkpoint of one payout job, one record per line:
+ *
+ * <pre>
+ * job &lt;id&gt; &lt;sender|console&gt; &lt;amount&gt; &lt;tax&gt; &lt;createdAt&gt; &lt;currency&gt;
+ * target &lt;uuid&gt;          one per receiver, in payout order
+ * debited                  the sender was charged for every receiver
+ * claim &lt;index&gt;           written and forced before a receiver is credited
+ * done|failed &lt;index&gt;     outcome of a claimed credit
+ * refund &lt;shares&gt;          written and forced before unpaid shares go back to the sender
+ * refunded                 the refund went through
+ * </pre>
+ *
+ * Steps are recorded before they happen and their outcome after, so a step found started but not
+ * finished is reported for manual review instead of being repeated. A last line without its newline
+ * was torn by a crash and is ignored.
+ */
+class PayoutJournal {
+    
+    private final Path file;
+    private final FileChannel channel;
+    
+    private PayoutJournal(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+    }
+    
+    /**
+     * Write the header and receivers of a new job and force them to disk
+     */
+    static PayoutJournal create(Path directory, UUID id, UUID sender, String currency, double amount, double tax,
+                                long createdAt, List<UUID> targets) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(id + ".journal");
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        
+        StringBuilder header = new StringBuilder();
+        header.append("job ").append(id).append(' ').append(sender != null ? sender : "console").append(' ')
+              .append(amount).append(' ').append(tax).append(' ').append(createdAt).append(' ').append(currency).append('\n');
+        for (UUID target : targets) {
+            header.append("target ").append(target).append('\n');
+        }
+        
+        PayoutJournal journal = new PayoutJournal(file, channel);
+        journal.write(header.toString(), true);
+        return journal;
+    }
+    
+    /**
+     * Read a journal left behind by a previous run and open it for appending
+     */
+    static PayoutJournal reopen(Path file, State state) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE);
+        // Drop a torn last line so new records start on a line of their own
+        channel.truncate(state.validLength);
+        channel.position(state.validLength);
+        return new PayoutJournal(file, channel);
+    }
+    
+    /**
+     * Parse a journal file
+     *
+     * @throws IOException if it cannot be read or has no complete header
+     */
+    static State read(Path file) throws IOException {
+        byte[] bytes = Files.readAllBytes(file);
+        int end = bytes.length;
+        while (end > 0 && bytes[end - 1] != '\n') {
+            end--;
+        }
+        
+        State state = new State();
+        state.validLength = end;
+        for (String line : new String(bytes, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            String[] parts = line.split(" ", 7);
+            switch (parts[0]) {
+                case "job" -> {
+                    state.id = UUID.fromString(parts[1]);
+                    state.sender = parts[2].equals("console") ? null : UUID.fromString(parts[2]);
+                    state.amount = Double.parseDouble(parts[3]);
+                    state.tax = Double.parseDouble(parts[4]);
+                    state.createdAt = Long.parseLong(parts[5]);
+                    state.currency = parts[6];
+                }
+                case "target" -> state.targets.add(UUID.fromString(parts[1]));
+                case "debited" -> state.debited = true;
+                case "claim" -> state.claimed.set(Integer.parseInt(parts[1]));
+                case "done" -> state.done.set(Integer.parseInt(parts[1]));
+                case "failed" -> state.failed.set(Integer.parseInt(parts[1]));
+                case "refund" -> state.refundStarted = true;
+                case "refunded" -> state.refunded = true;
+                default -> {
+                    // Blank line from an empty file
+                }
+            }
+        }
+        
+        if (state.id == null) {
+            throw new IOException("Payout journal " + file.getFileName() + " has no header");
+        }
+        return state;
+    }
+    
+    void debited() throws IOException {
+        write("debited\n", true);
+    }
+    
+    /**
+     * Record that a receiver is about to be credited; forced, as a crash after the credit must not repeat it
+     */
+    void claim(int index) throws IOException {
+        write("claim " + index + "\n", true);
+    }
+    
+    /**
+     * Record the outcome of a claimed credit. Not forced: the next claim or the refund forces it,
+     * and a lost outcome only turns the credit into one reported for review.
+     */
+    void outcome(int index, boolean success) throws IOException {
+        write((success ? "done " : "failed ") + index + "\n", false);
+    }
+    
+    void refund(int shares) throws IOException {
+        write("refund " + shares + "\n", true);
+    }
+    
+    void refunded() throws IOException {
+        write("refunded\n", true);
+    }
+    
+    private synchronized void write(String record, boolean force) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        if (force) {
+            channel.force(false);
+        }
+    }
+    
+    /**
+     * Close without deleting; the job is resumed on the next start
+     */
+    void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+    }
+    
+    /**
+     * Close and remove the journal of a finished job
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(file);
+    }
+    
+    /**
+     * Keep the journal for an administrator, out of the way of the next resume
+     */
+    void setAside() throws IOException {
+        close();
+        Files.move(file, file.resolveSibling(file.getFileName() + ".review"));
+    }
+    
+    /**
+     * Contents of a journal as read back from disk
+     */
+    static class State {
+        UUID id;
+        UUID sender;
+        String currency;
+        double amount;
+        double tax;
+        long createdAt;
+        final List<UUID> targets = new ArrayList<>();
+        boolean debited;
+        boolean refundStarted;
+        boolean refunded;
+        final BitSet claimed = new BitSet();
+        final BitSet done = new BitSet();
+        final BitSet failed = new BitSet();
+        long validLength;
+    }
+}
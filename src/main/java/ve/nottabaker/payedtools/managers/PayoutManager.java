@@ -0,0 +1,563 @@
+package ve.nottabaker.payedtools.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.OfflinePlayer;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import org.bukkit.scheduler.BukkitTask;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.managers.TransactionManager.TransactionResult;
+import ve.nottabaker.payedtools.models.Transaction;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Runs /payall payouts as tracked jobs. A job charges the sender once for every receiver, credits
+ * the receivers from a bounded number of workers (performance.payall.batch-size) and refunds the
+ * shares that could not be paid. Each step is checkpointed in a {@link PayoutJournal}, so a job cut
+ * short by a crash or shutdown resumes on the next start without paying anyone twice.
+ */
+public class PayoutManager {
+    
+    private static final long PROGRESS_INTERVAL_TICKS = 20L;
+    private static final int CREDIT_ATTEMPTS = 4;
+    private static final long CREDIT_RETRY_MILLIS = 100L;
+    
+    private final PayEdtools plugin;
+    private final Path journalDirectory;
+    private final ExecutorService executor;
+    private final Map<UUID, PayoutJob> jobs = new ConcurrentHashMap<>();
+    private volatile boolean shuttingDown;
+    
+    public PayoutManager(PayEdtools plugin) {
+        this.plugin = plugin;
+        this.journalDirectory = plugin.getDataFolder().toPath().resolve("payouts");
+        
+        // Threads are bounded per job by the batch size; this pool only keeps them named and reusable
+        AtomicInteger threadIds = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "PayEdtools-Payout-" + threadIds.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Start paying every target the amount, charged to the sender or to nobody for the console
+     *
+     * @param notify receives progress while the job runs; may be null
+     * @param onFinish runs on the server thread once the job has ended
+     */
+    public PayoutJob start(UUID sender, String currency, double amount, List<UUID> targets,
+                           CommandSender notify, Consumer<PayoutJob> onFinish) {
+        double tax = plugin.getTransactionManager().calculateTax(amount);
+        int[] pending = new int[targets.size()];
+        for (int i = 0; i < pending.length; i++) {
+            pending[i] = i;
+        }
+        
+        PayoutJob job = new PayoutJob(UUID.randomUUID(), sender, currency, amount, tax, List.copyOf(targets),
+                                      pending, notify, onFinish);
+        jobs.put(job.id, job);
+        executor.execute(() -> begin(job));
+        return job;
+    }
+    
+    private void begin(PayoutJob job) {
+        PayoutJournal journal;
+        try {
+            journal = PayoutJournal.create(journalDirectory, job.id, job.sender, job.currency, job.amount, job.tax,
+                                           job.startedAt, job.targets);
+        } catch (IOException e) {
+            Logger.error("Failed to create payout journal; payout not started", e);
+            finish(job, "journal_failed");
+            return;
+        }
+        
+        if (job.sender != null) {
+            String error = charge(job);
+            if (error != null) {
+                try {
+                    journal.delete();
+                } catch (IOException e) {
+                    Logger.error("Failed to remove journal of payout " + job.id, e);
+                }
+                finish(job, error);
+                return;
+            }
+        }
+        
+        try {
+            journal.debited();
+        } catch (IOException e) {
+            // Nothing was credited yet; give everything back rather than pay without a checkpoint
+            Logger.error("Failed to checkpoint payout " + job.id + "; refunding it", e);
+            job.halted = true;
+        }
+        run(job, journal);
+    }
+    
+    /**
+     * Take the whole payout from the sender in one call
+     *
+     * @return error code, or null if the sender was charged
+     */
+    private String charge(PayoutJob job) {
+        CurrencyManager currencyManager = plugin.getCurrencyManager();
+        double total = (job.amount + job.tax) * job.targets.size();
+        try {
+            return currencyManager.withPermit(() -> {
+                if (!currencyManager.hasEnough(job.sender, job.currency, total)) {
+                    return "insufficient_funds";
+                }
+                currencyManager.removeCurrency(job.sender, job.currency, total);
+                return null;
+            });
+        } catch (CurrencyManager.EconomyBusyException e) {
+            return "economy_busy";
+        } catch (Exception e) {
+            Logger.error("Failed to charge payout " + job.id, e);
+            return "transaction_failed";
+        }
+    }
+    
+    private void run(PayoutJob job, PayoutJournal journal) {
+        job.journal = journal;
+        int workers = Math.max(1, Math.min(plugin.getConfigManager().getPayallBatchSize(), job.pending.length));
+        job.activeWorkers.set(workers);
+        startProgress(job);
+        
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(() -> work(job));
+            } catch (RejectedExecutionException e) {
+                // Shutting down; the job resumes on the next start
+                workerDone(job);
+            }
+        }
+    }
+    
+    private void work(PayoutJob job) {
+        int index;
+        while (!job.halted && !shuttingDown && (index = job.nextPending()) >= 0) {
+            try {
+                job.journal.claim(index);
+            } catch (IOException e) {
+                Logger.error("Failed to checkpoint payout " + job.id + "; refunding the rest", e);
+                job.failed.incrementAndGet();
+                job.halted = true;
+                break;
+            }
+            
+            UUID target = job.targets.get(index);
+            Transaction transaction = new Transaction(UUID.randomUUID(), job.sender, target, job.currency,
+                                                      job.amount, System.currentTimeMillis());
+            TransactionResult result = creditWithRetry(transaction, job.tax);
+            if (result.isSuccess()) {
+                job.paid.incrementAndGet();
+                notifyReceiver(job, target);
+            } else {
+                job.failed.incrementAndGet();
+                Logger.warning("Failed to pay " + target + ": " + result.getErrorCode());
+            }
+            
+            try {
+                job.journal.outcome(index, result.isSuccess());
+            } catch (IOException e) {
+                Logger.error("Failed to checkpoint payout " + job.id + "; refunding the rest", e);
+                job.halted = true;
+            }
+        }
+        workerDone(job);
+    }
+    
+    /**
+     * Credit one share, retrying with backoff while the economy is busy; a busy credit moved no money,
+     * so it is safe to repeat, and a share refunded for a momentary overload is a payout lost
+     */
+    private TransactionResult creditWithRetry(Transaction transaction, double tax) {
+        TransactionResult result = plugin.getTransactionManager().credit(transaction, tax);
+        long delay = CREDIT_RETRY_MILLIS;
+        for (int attempt = 1; attempt < CREDIT_ATTEMPTS && !result.isSuccess()
+                && "economy_busy".equals(result.getErrorCode()) && !shuttingDown; attempt++) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            delay *= 2;
+            result = plugin.getTransactionManager().credit(transaction, tax);
+        }
+        return result;
+    }
+    
+    private void workerDone(PayoutJob job) {
+        if (job.activeWorkers.decrementAndGet() == 0) {
+            complete(job);
+        }
+    }
+    
+    /**
+     * Refund what was not paid and retire the journal, or keep it if the job was interrupted
+     */
+    private void complete(PayoutJob job) {
+        PayoutJournal journal = job.journal;
+        if (shuttingDown && !job.halted && job.remaining() > 0) {
+            journal.close();
+            jobs.remove(job.id);
+            Logger.info("Payout " + job.id + " paused at " + job.getSettled() + "/" + job.getTotal()
+                + " players; it resumes on the next start");
+            return;
+        }
+        
+        int shares = job.failed.get() + job.remaining();
+        boolean review = job.halted || job.uncertain > 0;
+        if (job.sender != null && shares > 0) {
+            try {
+                journal.refund(shares);
+            } catch (IOException e) {
+                // Refund anyway; the sender is owed it either way
+                Logger.error("Failed to checkpoint refund of payout " + job.id, e);
+                review = true;
+            }
+            if (refund(job, shares)) {
+                job.refundedShares = shares;
+                try {
+                    journal.refunded();
+                } catch (IOException e) {
+                    review = true;
+                }
+            } else {
+                review = true;
+            }
+        }
+        
+        try {
+            if (review) {
+                journal.setAside();
+                Logger.warning("Journal of payout " + job.id + " was kept for review in " + journalDirectory);
+            } else {
+                journal.delete();
+            }
+        } catch (IOException e) {
+            Logger.error("Failed to retire journal of payout " + job.id, e);
+            journal.close();
+        }
+        finish(job, null);
+    }
+    
+    private boolean refund(PayoutJob job, int shares) {
+        double total = (job.amount + job.tax) * shares;
+        try {
+            // Taken without a deadline; shares likely failed because the economy was busy
+            plugin.getCurrencyManager().withPriorityPermit(() -> {
+                plugin.getCurrencyManager().addCurrency(job.sender, job.currency, total);
+                return null;
+            });
+            return true;
+        } catch (Exception e) {
+            Logger.error("CRITICAL: Failed to refund " + total + " " + job.currency + " to " + job.sender
+                + " for payout " + job.id, e);
+            return false;
+        }
+    }
+    
+    private void finish(PayoutJob job, String errorCode) {
+        job.errorCode = errorCode;
+        job.finishedAt = System.currentTimeMillis();
+        jobs.remove(job.id);
+        
+        // The server thread is gone once the plugin is disabling
+        if (!plugin.isEnabled()) {
+            return;
+        }
+        Bukkit.getScheduler().runTask(plugin, () -> {
+            if (job.progressTask != null) {
+                job.progressTask.cancel();
+            }
+            if (job.onFinish != null) {
+                job.onFinish.accept(job);
+            }
+        });
+    }
+    
+    private void startProgress(PayoutJob job) {
+        if (job.notify == null || !plugin.isEnabled()) {
+            return;
+        }
+        // Scheduled before the job's finish task, so finish always finds it to cancel
+        Bukkit.getScheduler().runTask(plugin, () -> job.progressTask = Bukkit.getScheduler().runTaskTimer(
+            plugin, () -> reportProgress(job), PROGRESS_INTERVAL_TICKS, PROGRESS_INTERVAL_TICKS));
+    }
+    
+    private void reportProgress(PayoutJob job) {
+        int settled = job.getSettled();
+        if (settled == job.lastReported) {
+            return;
+        }
+        job.lastReported = settled;
+        
+        if (job.notify instanceof Player && !((Player) job.notify).isOnline()) {
+            return;
+        }
+        job.notify.sendMessage("§7Paying players... §e" + settled + "/" + job.getTotal());
+    }
+    
+    private void notifyReceiver(PayoutJob job, UUID target) {
+        plugin.getNotificationDispatcher().queueReceived(target, job.senderName, job.currency, job.amount);
+    }
+    
+    /**
+     * Resume payouts left unfinished by the previous run
+     */
+    public void resumePending() {
+        if (!Files.isDirectory(journalDirectory)) {
+            return;
+        }
+        
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(journalDirectory, "*.journal")) {
+            for (Path file : files) {
+                resume(file);
+            }
+        } catch (IOException e) {
+            Logger.error("Failed to look for unfinished payouts", e);
+        }
+    }
+    
+    private void resume(Path file) {
+        PayoutJournal.State state;
+        PayoutJournal journal;
+        try {
+            state = PayoutJournal.read(file);
+            journal = PayoutJournal.reopen(file, state);
+        } catch (IOException | RuntimeException e) {
+            Logger.error("Failed to read payout journal " + file.getFileName() + "; it was left in place", e);
+            return;
+        }
+        
+        String sender = state.sender != null ? state.sender.toString() : "the console";
+        double share = state.amount + state.tax;
+        
+        if (state.sender != null && !state.debited) {
+            Logger.warning("Payout " + state.id + " stopped while charging " + sender + " "
+                + (share * state.targets.size()) + " " + state.currency + "; nobody was paid. Check whether "
+                + sender + " was charged.");
+            setAside(journal);
+            return;
+        }
+        if (state.refundStarted) {
+            if (!state.refunded) {
+                Logger.warning("Payout " + state.id + " stopped while refunding unpaid shares to " + sender
+                    + "; check whether the refund arrived.");
+                setAside(journal);
+            } else {
+                try {
+                    journal.delete();
+                } catch (IOException e) {
+                    Logger.error("Failed to remove journal of payout " + state.id, e);
+                }
+            }
+            return;
+        }
+        
+        // Credited or not, these were started; paying them again could pay twice
+        BitSet uncertain = (BitSet) state.claimed.clone();
+        uncertain.andNot(state.done);
+        uncertain.andNot(state.failed);
+        if (!uncertain.isEmpty()) {
+            List<UUID> players = new ArrayList<>();
+            uncertain.stream().forEach(index -> players.add(state.targets.get(index)));
+            Logger.warning("Payout " + state.id + " was crediting " + players.size()
+                + " players when it stopped; they are not paid again. Check: " + players);
+        }
+        
+        int[] pending = new int[state.targets.size() - state.claimed.cardinality()];
+        for (int index = state.claimed.nextClearBit(0), i = 0; i < pending.length; index = state.claimed.nextClearBit(index + 1)) {
+            pending[i++] = index;
+        }
+        
+        PayoutJob job = new PayoutJob(state.id, state.sender, state.currency, state.amount, state.tax, state.targets,
+                                      pending, null, finished -> Logger.info("Resumed payout " + finished.getId()
+                                          + " finished: " + finished.getPaid() + " paid, " + finished.getFailed() + " failed"));
+        job.paid.set(state.done.cardinality());
+        job.failed.set(state.failed.cardinality());
+        job.uncertain = uncertain.cardinality();
+        jobs.put(job.id, job);
+        
+        Logger.info("Resuming payout " + state.id + " from " + sender + ": " + pending.length + " of "
+            + state.targets.size() + " players left to pay");
+        try {
+            executor.execute(() -> run(job, journal));
+        } catch (RejectedExecutionException e) {
+            journal.close();
+        }
+    }
+    
+    private void setAside(PayoutJournal journal) {
+        try {
+            journal.setAside();
+        } catch (IOException e) {
+            Logger.error("Failed to set aside payout journal", e);
+        }
+    }
+    
+    /**
+     * Jobs that have not finished yet
+     */
+    public int getActiveJobs() {
+        return jobs.size();
+    }
+    
+    /**
+     * Let running credits finish and stop; unfinished jobs resume on the next start
+     */
+    public void shutdown() {
+        shuttingDown = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+        }
+    }
+    
+    /**
+     * One payout and its progress
+     */
+    public static class PayoutJob {
+        private final UUID id;
+        private final UUID sender;
+        private final String senderName;
+        private final String currency;
+        private final double amount;
+        private final double tax;
+        private final List<UUID> targets;
+        // Target indices still to pay, handed out in order through the cursor
+        private final int[] pending;
+        private final AtomicInteger cursor = new AtomicInteger();
+        private final CommandSender notify;
+        private final Consumer<PayoutJob> onFinish;
+        private final long startedAt = System.currentTimeMillis();
+        
+        private final AtomicInteger paid = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicInteger activeWorkers = new AtomicInteger();
+        private int uncertain;
+        private volatile boolean halted;
+        private volatile int refundedShares;
+        private volatile String errorCode;
+        private volatile long finishedAt;
+        private PayoutJournal journal;
+        
+        // Server thread only
+        private BukkitTask progressTask;
+        private int lastReported = -1;
+        
+        private PayoutJob(UUID id, UUID sender, String currency, double amount, double tax, List<UUID> targets,
+                          int[] pending, CommandSender notify, Consumer<PayoutJob> onFinish) {
+            this.id = id;
+            this.sender = sender;
+            this.currency = currency;
+            this.amount = amount;
+            this.tax = tax;
+            this.targets = targets;
+            this.pending = pending;
+            this.notify = notify;
+            this.onFinish = onFinish;
+            
+            if (sender == null) {
+                this.senderName = "§6§lCONSOLE§r";
+            } else {
+                OfflinePlayer player = Bukkit.getOfflinePlayer(sender);
+                this.senderName = player.getName() != null ? player.getName() : sender.toString();
+            }
+        }
+        
+        private int nextPending() {
+            int next = cursor.getAndIncrement();
+            return next < pending.length ? pending[next] : -1;
+        }
+        
+        /**
+         * Targets never handed to a worker
+         */
+        private int remaining() {
+            return Math.max(0, pending.length - cursor.get());
+        }
+        
+        public UUID getId() {
+            return id;
+        }
+        
+        public String getCurrency() {
+            return currency;
+        }
+        
+        public double getAmount() {
+            return amount;
+        }
+        
+        /**
+         * Tax charged per player paid
+         */
+        public double getTax() {
+            return tax;
+        }
+        
+        public int getTotal() {
+            return targets.size();
+        }
+        
+        public int getPaid() {
+            return paid.get();
+        }
+        
+        public int getFailed() {
+            return failed.get();
+        }
+        
+        /**
+         * Players paid or failed so far
+         */
+        public int getSettled() {
+            return paid.get() + failed.get();
+        }
+        
+        /**
+         * Shares given back to the sender because they were not paid
+         */
+        public int getRefundedShares() {
+            return refundedShares;
+        }
+        
+        /**
+         * Why the job did not start, or null if it ran
+         */
+        public String getErrorCode() {
+            return errorCode;
+        }
+        
+        public long getElapsedMillis() {
+            return (finishedAt > 0 ? finishedAt : System.currentTimeMillis()) - startedAt;
+        }
+    }
+}
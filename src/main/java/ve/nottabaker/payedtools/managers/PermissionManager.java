@@ -0,0 +1,134 @@
+package ve.nottabaker.payedtools.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.command.CommandSender;
+import org.bukkit.entity.Player;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.models.PermissionSnapshot;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Caches each online player's permissions that are checked on every command or keystroke.
+ * Snapshots are taken on join and retaken whenever the server resends a player's commands,
+ * which it does after every permission change, so checks become bit tests.
+ */
+public class PermissionManager {
+    
+    private static final String CURRENCY_PERMISSION = "payedtools.currency.";
+    private static final String ALL_CURRENCIES_PERMISSION = "payedtools.currency.*";
+    
+    private final PayEdtools plugin;
+    private final Map<UUID, PermissionSnapshot> snapshots = new ConcurrentHashMap<>();
+    
+    // Currency name to bit index; ids are never reused so old snapshots stay valid
+    private final Map<String, Integer> currencyIds = new ConcurrentHashMap<>();
+    private final List<String> currencyNames = new ArrayList<>();
+    
+    public PermissionManager(PayEdtools plugin) {
+        this.plugin = plugin;
+        for (String currency : plugin.getConfigManager().getAllowedCurrencies()) {
+            currencyId(currency);
+        }
+    }
+    
+    /**
+     * Whether the sender may transfer the currency
+     */
+    public boolean canUseCurrency(CommandSender sender, String currency) {
+        if (!(sender instanceof Player)) {
+            return sender.hasPermission(CURRENCY_PERMISSION + currency) || sender.hasPermission(ALL_CURRENCIES_PERMISSION);
+        }
+        Player player = (Player) sender;
+        
+        int id = currencyId(currency);
+        PermissionSnapshot snapshot = getSnapshot(player);
+        if (snapshot.covers(id)) {
+            return snapshot.canUseCurrency(id);
+        }
+        // New since the snapshot was taken; the next refresh includes it
+        return player.hasPermission(CURRENCY_PERMISSION + currency) || player.hasPermission(ALL_CURRENCIES_PERMISSION);
+    }
+    
+    /**
+     * Whether the player has one of the {@link PermissionSnapshot} flags
+     */
+    public boolean has(Player player, int flag) {
+        return getSnapshot(player).has(flag);
+    }
+    
+    private PermissionSnapshot getSnapshot(Player player) {
+        PermissionSnapshot snapshot = snapshots.get(player.getUniqueId());
+        if (snapshot == null) {
+            // Players online before the plugin enabled have no snapshot yet
+            snapshot = refresh(player);
+        }
+        return snapshot;
+    }
+    
+    private int currencyId(String currency) {
+        Integer id = currencyIds.get(currency);
+        if (id != null) {
+            return id;
+        }
+        synchronized (currencyNames) {
+            return currencyIds.computeIfAbsent(currency, name -> {
+                currencyNames.add(name);
+                return currencyNames.size() - 1;
+            });
+        }
+    }
+    
+    /**
+     * Take a new snapshot of the player's permissions
+     */
+    public PermissionSnapshot refresh(Player player) {
+        int flags = 0;
+        if (player.hasPermission("payedtools.bypass.cooldown")) {
+            flags |= PermissionSnapshot.BYPASS_COOLDOWN;
+        }
+        if (player.hasPermission("payedtools.bypass.limits")) {
+            flags |= PermissionSnapshot.BYPASS_LIMITS;
+        }
+        
+        List<String> currencies;
+        synchronized (currencyNames) {
+            currencies = new ArrayList<>(currencyNames);
+        }
+        boolean allCurrencies = player.hasPermission(ALL_CURRENCIES_PERMISSION);
+        BitSet bits = new BitSet(currencies.size());
+        for (int id = 0; id < currencies.size(); id++) {
+            if (allCurrencies || player.hasPermission(CURRENCY_PERMISSION + currencies.get(id))) {
+                bits.set(id);
+            }
+        }
+        
+        PermissionSnapshot snapshot = new PermissionSnapshot(flags, bits, currencies.size());
+        if (player.isOnline()) {
+            snapshots.put(player.getUniqueId(), snapshot);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Retake every online player's snapshot, picking up newly allowed currencies
+     */
+    public void refreshAll() {
+        for (String currency : plugin.getConfigManager().getAllowedCurrencies()) {
+            currencyId(currency);
+        }
+        snapshots.clear();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            refresh(player);
+        }
+    }
+    
+    public void invalidate(UUID playerUUID) {
+        snapshots.remove(playerUUID);
+    }
+}
@@ -0,0 +1,90 @@
+package ve.nottabaker.payedtools.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.utils.NameTrie;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Player names offered by tab completion, kept in a prefix tree updated on join and quit.
+ * Players who left recently stay suggestible for a while so they can still be paid offline.
+ */
+public class PlayerNameManager {
+    
+    private static final int MAX_SUGGESTIONS = 10;
+    
+    private final PayEdtools plugin;
+    private final NameTrie names = new NameTrie();
+    
+    // Players who left and whose names are still in the tree until their timer runs
+    private final Map<UUID, RecentName> recent = new ConcurrentHashMap<>();
+    
+    public PlayerNameManager(PayEdtools plugin) {
+        this.plugin = plugin;
+    }
+    
+    /**
+     * Index every online player; for players online before the plugin enabled
+     */
+    public void indexOnlinePlayers() {
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            names.add(player.getName());
+        }
+    }
+    
+    public void onJoin(Player player) {
+        RecentName previous = recent.remove(player.getUniqueId());
+        if (previous != null && !previous.name.equals(player.getName())) {
+            // Renamed since the last visit
+            names.remove(previous.name);
+        }
+        names.add(player.getName());
+    }
+    
+    public void onQuit(Player player) {
+        long keepMillis = plugin.getConfigManager().getTabCompleteRecentOffline() * 60_000L;
+        if (keepMillis <= 0) {
+            names.remove(player.getName());
+            return;
+        }
+        
+        UUID uuid = player.getUniqueId();
+        RecentName entry = new RecentName(player.getName());
+        recent.put(uuid, entry);
+        plugin.getTimingWheel().schedule(keepMillis, () -> {
+            // Skipped if the player came back or left again since
+            if (recent.remove(uuid, entry)) {
+                names.remove(entry.name);
+            }
+        });
+    }
+    
+    /**
+     * Names starting with the prefix, alphabetically, at most ten
+     *
+     * @param exclude name to leave out, usually the player completing; may be null
+     */
+    public List<String> complete(String prefix, String exclude) {
+        return names.complete(prefix, MAX_SUGGESTIONS, exclude);
+    }
+    
+    /**
+     * Names currently offered, online and recently online
+     */
+    public int size() {
+        return names.size();
+    }
+    
+    private static class RecentName {
+        private final String name;
+        
+        private RecentName(String name) {
+            this.name = name;
+        }
+    }
+}
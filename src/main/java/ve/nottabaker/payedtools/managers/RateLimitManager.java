@@ -2,9 +2,9 @@ package ve.nottabaker.payedtools.managers;
 
 import org.bukkit.entity.Player;
 import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.utils.SlidingWindowLimiter;
 
-import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.UUID;
 
 /**
  * Manages rate limiting to prevent spam and abuse
@@ -12,46 +12,37 @@ import java.util.concurrent.ConcurrentHashMap;
 public class RateLimitManager {
     
     private final PayEdtools plugin;
-    private final Map<UUID, Queue<Long>> transactionTimes;
+    private final SlidingWindowLimiter limiter;
     
     public RateLimitManager(PayEdtools plugin) {
         this.plugin = plugin;
-        this.transactionTimes = new ConcurrentHashMap<>();
+        this.limiter = new SlidingWindowLimiter(this::scheduleExpiry);
     }
     
     /**
-     * Check if player has exceeded rate limit
+     * Count a payment against the player's limit if it is not reached yet
+     *
+     * @return false if the player has exceeded the rate limit
      */
-    public boolean isRateLimited(Player player) {
+    public boolean tryAcquire(Player player) {
         if (!plugin.getConfigManager().isRateLimitEnabled()) {
-            return false;
+            return true;
         }
         
-        UUID uuid = player.getUniqueId();
-        Queue<Long> times = transactionTimes.computeIfAbsent(uuid, k -> new LinkedList<>());
-        
-        // Remove old entries outside the time window
-        long timeWindow = plugin.getConfigManager().getTimeWindow() * 1000L;
-        long currentTime = System.currentTimeMillis();
-        
-        times.removeIf(time -> currentTime - time > timeWindow);
-        
-        // Check if exceeded max transactions
-        int maxTransactions = plugin.getConfigManager().getMaxTransactions();
-        return times.size() >= maxTransactions;
+        ConfigManager config = plugin.getConfigManager();
+        return limiter.tryAcquire(player.getUniqueId(), config.getMaxTransactions(), getWindowMillis(),
+                                  System.currentTimeMillis());
     }
     
     /**
-     * Record a transaction for rate limiting
+     * Return a payment counted by {@link #tryAcquire} that did not go through
      */
-    public void recordTransaction(Player player) {
+    public void release(Player player) {
         if (!plugin.getConfigManager().isRateLimitEnabled()) {
             return;
         }
         
-        UUID uuid = player.getUniqueId();
-        Queue<Long> times = transactionTimes.computeIfAbsent(uuid, k -> new LinkedList<>());
-        times.offer(System.currentTimeMillis());
+        limiter.release(player.getUniqueId(), getWindowMillis(), System.currentTimeMillis());
     }
     
     /**
@@ -62,32 +53,37 @@ public class RateLimitManager {
             return Integer.MAX_VALUE;
         }
         
-        UUID uuid = player.getUniqueId();
-        Queue<Long> times = transactionTimes.get(uuid);
-        
-        if (times == null) {
-            return plugin.getConfigManager().getMaxTransactions();
-        }
-        
-        // Clean old entries
-        long timeWindow = plugin.getConfigManager().getTimeWindow() * 1000L;
-        long currentTime = System.currentTimeMillis();
-        times.removeIf(time -> currentTime - time > timeWindow);
-        
-        return plugin.getConfigManager().getMaxTransactions() - times.size();
+        return limiter.getRemaining(player.getUniqueId(), plugin.getConfigManager().getMaxTransactions(),
+                                    getWindowMillis(), System.currentTimeMillis());
+    }
+    
+    /**
+     * Drop the player's counter once it has seen no payments for two windows
+     */
+    private void scheduleExpiry(UUID uuid) {
+        long windowMillis = getWindowMillis();
+        plugin.getTimingWheel().schedule(windowMillis * 2, () -> {
+            if (!limiter.expire(uuid, getWindowMillis(), System.currentTimeMillis())) {
+                scheduleExpiry(uuid);
+            }
+        });
+    }
+    
+    private long getWindowMillis() {
+        return plugin.getConfigManager().getTimeWindow() * 1000L;
     }
     
     /**
-     * Clear rate limit data for a player
+     * Players currently tracked
      */
-    public void clearPlayer(Player player) {
-        transactionTimes.remove(player.getUniqueId());
+    public int getTrackedPlayers() {
+        return limiter.size();
     }
     
     /**
      * Clear all rate limit data
      */
     public void clear() {
-        transactionTimes.clear();
+        limiter.clear();
     }
 }
@@ -0,0 +1,347 @@
+package ve.nottabaker.payedtools.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.bukkit.entity.Player;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.models.ScheduledPayout;
+import ve.nottabaker.payedtools.utils.Logger;
+import ve.nottabaker.payedtools.utils.TimingWheel;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One-off and recurring payouts defined with /payschedule and kept in schedules.yml.
+ * Each schedule waits on the plugin's timing wheel; due schedules are started one per tick
+ * and paid by the console through the payout engine, like /payall.
+ */
+public class ScheduleManager {
+    
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+)([smhd])");
+    // How often a due one-off payout is retried while it cannot start, e.g. while nobody is online
+    private static final long RETRY_MILLIS = 60_000L;
+    
+    private final PayEdtools plugin;
+    private final File file;
+    
+    // Only touched on the server thread
+    private final Map<String, ScheduledPayout> schedules = new LinkedHashMap<>();
+    private final Map<String, TimingWheel.Timeout> timers = new HashMap<>();
+    private final Set<String> running = new HashSet<>();
+    // Due one-off payouts waiting for someone to be online
+    private final Set<String> waiting = new HashSet<>();
+    
+    // Filled by the timing wheel thread, drained on the server thread
+    private final Queue<ScheduledPayout> due = new ConcurrentLinkedQueue<>();
+    
+    public ScheduleManager(PayEdtools plugin) {
+        this.plugin = plugin;
+        this.file = new File(plugin.getDataFolder(), "schedules.yml");
+    }
+    
+    /**
+     * Load the saved schedules and start running them
+     */
+    public void start() {
+        load();
+        Bukkit.getScheduler().runTaskTimer(plugin, this::startDue, 1L, 1L);
+    }
+    
+    /**
+     * Read schedules.yml again, replacing every schedule in memory
+     */
+    public void load() {
+        for (TimingWheel.Timeout timeout : timers.values()) {
+            timeout.cancel();
+        }
+        timers.clear();
+        schedules.clear();
+        waiting.clear();
+        due.clear();
+        
+        if (!file.exists()) {
+            return;
+        }
+        
+        ConfigurationSection section = YamlConfiguration.loadConfiguration(file).getConfigurationSection("schedules");
+        if (section == null) {
+            return;
+        }
+        
+        long now = System.currentTimeMillis();
+        boolean moved = false;
+        for (String name : section.getKeys(false)) {
+            try {
+                String target = section.getString(name + ".target", "*");
+                ScheduledPayout schedule = new ScheduledPayout(
+                    name,
+                    target.equals("*") ? null : UUID.fromString(target),
+                    section.getString(name + ".currency"),
+                    section.getDouble(name + ".amount"),
+                    section.getLong(name + ".interval") * 1000L,
+                    section.getLong(name + ".next-run")
+                );
+                if (schedule.getCurrency() == null || schedule.getAmount() <= 0) {
+                    throw new IllegalArgumentException("missing currency or amount");
+                }
+                if (schedule.isRecurring() && schedule.getNextRun() <= now) {
+                    // Runs missed while the server was down are skipped, not replayed on startup
+                    long missed = (now - schedule.getNextRun()) / schedule.getInterval() + 1;
+                    schedule.setNextRun(schedule.getNextRun() + missed * schedule.getInterval());
+                    Logger.warning("Scheduled payout '" + name + "' missed " + missed + " run(s) while the server was down; next run in "
+                        + formatDuration(schedule.getNextRun() - now));
+                    moved = true;
+                }
+                schedules.put(name, schedule);
+                arm(schedule);
+            } catch (IllegalArgumentException e) {
+                Logger.warning("Skipping scheduled payout '" + name + "' in schedules.yml: " + e.getMessage());
+            }
+        }
+        
+        if (moved) {
+            save();
+        }
+        Logger.debug("Loaded " + schedules.size() + " scheduled payouts");
+    }
+    
+    /**
+     * Add a schedule and save it
+     *
+     * @return false if a schedule with that name already exists
+     */
+    public boolean add(ScheduledPayout schedule) {
+        if (schedules.containsKey(schedule.getName())) {
+            return false;
+        }
+        schedules.put(schedule.getName(), schedule);
+        arm(schedule);
+        save();
+        return true;
+    }
+    
+    /**
+     * Remove a schedule; a run already started is not stopped
+     */
+    public boolean remove(String name) {
+        ScheduledPayout schedule = schedules.remove(name);
+        if (schedule == null) {
+            return false;
+        }
+        TimingWheel.Timeout timeout = timers.remove(name);
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        waiting.remove(name);
+        save();
+        return true;
+    }
+    
+    /**
+     * Pay a schedule now. A recurring schedule keeps its next run; a one-off is used up,
+     * so it does not pay again when it comes due.
+     *
+     * @return false if it is unknown or did not start
+     */
+    public boolean runNow(String name) {
+        ScheduledPayout schedule = schedules.get(name);
+        if (schedule == null || !execute(schedule)) {
+            return false;
+        }
+        if (!schedule.isRecurring()) {
+            remove(name);
+        }
+        return true;
+    }
+    
+    public ScheduledPayout get(String name) {
+        return schedules.get(name);
+    }
+    
+    public Collection<ScheduledPayout> getSchedules() {
+        return Collections.unmodifiableCollection(schedules.values());
+    }
+    
+    public boolean isRunning(String name) {
+        return running.contains(name);
+    }
+    
+    private void arm(ScheduledPayout schedule) {
+        arm(schedule, schedule.getNextRun() - System.currentTimeMillis());
+    }
+    
+    private void arm(ScheduledPayout schedule, long delay) {
+        timers.put(schedule.getName(), plugin.getTimingWheel().schedule(delay, () -> due.add(schedule)));
+    }
+    
+    /**
+     * Start at most one due schedule, so schedules that come due together spread over several ticks
+     */
+    private void startDue() {
+        ScheduledPayout schedule = due.poll();
+        if (schedule == null || schedules.get(schedule.getName()) != schedule) {
+            // Removed or reloaded after its timer fired
+            return;
+        }
+        String name = schedule.getName();
+        timers.remove(name);
+        
+        if (!schedule.isRecurring() && schedule.isPayAll() && Bukkit.getOnlinePlayers().isEmpty()) {
+            // Kept until it can pay someone instead of being used up on an empty server
+            if (waiting.add(name)) {
+                Logger.warning("Scheduled payout '" + name + "' is due but nobody is online; retrying every minute until someone is");
+            }
+            arm(schedule, RETRY_MILLIS);
+            return;
+        }
+        waiting.remove(name);
+        
+        boolean started = execute(schedule);
+        
+        if (schedule.isRecurring()) {
+            // Keep the original cadence; runs missed while the server was down are skipped
+            long now = System.currentTimeMillis();
+            long next = schedule.getNextRun() + schedule.getInterval();
+            if (next <= now) {
+                next += ((now - next) / schedule.getInterval() + 1) * schedule.getInterval();
+            }
+            schedule.setNextRun(next);
+            arm(schedule);
+        } else if (started) {
+            schedules.remove(schedule.getName());
+        } else {
+            // Kept and retried instead of lost; execute logged why it did not start
+            arm(schedule, RETRY_MILLIS);
+            return;
+        }
+        save();
+    }
+    
+    /**
+     * Hand a schedule to the payout engine
+     */
+    private boolean execute(ScheduledPayout schedule) {
+        String name = schedule.getName();
+        if (running.contains(name)) {
+            Logger.warning("Scheduled payout '" + name + "' is still running from its last run; skipping this one");
+            return false;
+        }
+        if (!plugin.getCurrencyManager().validateCurrency(schedule.getCurrency())) {
+            Logger.warning("Scheduled payout '" + name + "' skipped: currency " + schedule.getCurrency() + " cannot be transferred");
+            return false;
+        }
+        
+        List<UUID> targets = new ArrayList<>();
+        if (schedule.isPayAll()) {
+            for (Player player : Bukkit.getOnlinePlayers()) {
+                targets.add(player.getUniqueId());
+            }
+            int maxPlayers = plugin.getConfigManager().getPayallMaxPlayers();
+            if (maxPlayers > 0 && targets.size() > maxPlayers) {
+                Logger.warning("Scheduled payout '" + name + "' skipped: " + targets.size()
+                    + " players online, more than performance.payall.max-players (" + maxPlayers + ")");
+                return false;
+            }
+        } else {
+            targets.add(schedule.getTarget());
+        }
+        
+        if (targets.isEmpty()) {
+            Logger.warning("Scheduled payout '" + name + "' skipped: no players online");
+            return false;
+        }
+        
+        running.add(name);
+        plugin.getPayoutManager().start(null, schedule.getCurrency(), schedule.getAmount(), targets, null, job -> {
+            running.remove(name);
+            if (job.getErrorCode() != null) {
+                Logger.warning("Scheduled payout '" + name + "' failed: " + job.getErrorCode());
+            } else {
+                Logger.info("Scheduled payout '" + name + "' paid " + job.getPaid() + " players "
+                    + job.getAmount() + " " + job.getCurrency() + " (" + job.getFailed() + " failed)");
+            }
+        });
+        return true;
+    }
+    
+    private void save() {
+        YamlConfiguration yaml = new YamlConfiguration();
+        for (ScheduledPayout schedule : schedules.values()) {
+            String path = "schedules." + schedule.getName();
+            yaml.set(path + ".target", schedule.isPayAll() ? "*" : schedule.getTarget().toString());
+            yaml.set(path + ".currency", schedule.getCurrency());
+            yaml.set(path + ".amount", schedule.getAmount());
+            yaml.set(path + ".interval", schedule.getInterval() / 1000L);
+            yaml.set(path + ".next-run", schedule.getNextRun());
+        }
+        
+        try {
+            yaml.save(file);
+        } catch (IOException e) {
+            Logger.error("Failed to save schedules.yml", e);
+        }
+    }
+    
+    /**
+     * Parse a duration such as 30m, 12h or 1d6h
+     *
+     * @return milliseconds, or -1 if the text is not a duration
+     */
+    public static long parseDuration(String text) {
+        Matcher matcher = DURATION_PART.matcher(text.toLowerCase());
+        long millis = 0;
+        int end = 0;
+        while (matcher.find()) {
+            if (matcher.start() != end) {
+                return -1;
+            }
+            long value;
+            try {
+                value = Long.parseLong(matcher.group(1));
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+            switch (matcher.group(2)) {
+                case "s" -> millis += value * 1000L;
+                case "m" -> millis += value * 60_000L;
+                case "h" -> millis += value * 3_600_000L;
+                default -> millis += value * 86_400_000L;
+            }
+            end = matcher.end();
+        }
+        return end == text.length() && end > 0 ? millis : -1;
+    }
+    
+    /**
+     * Format milliseconds as the largest units that fit, e.g. 1d6h
+     */
+    public static String formatDuration(long millis) {
+        long seconds = Math.max(0, millis / 1000L);
+        StringBuilder builder = new StringBuilder();
+        long[] units = {86_400, 3_600, 60, 1};
+        String[] suffixes = {"d", "h", "m", "s"};
+        for (int i = 0; i < units.length; i++) {
+            if (seconds >= units[i]) {
+                builder.append(seconds / units[i]).append(suffixes[i]);
+                seconds %= units[i];
+            }
+        }
+        return builder.length() > 0 ? builder.toString() : "0s";
+    }
+}
@@ -4,6 +4,8 @@ import org.bukkit.Bukkit;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.Player;
 import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.database.LedgerVisitor;
+import ve.nottabaker.payedtools.models.HistoryCursor;
 import ve.nottabaker.payedtools.models.Transaction;
 import ve.nottabaker.payedtools.utils.Logger;
 
@@ -19,8 +21,6 @@ public class TransactionManager {
     private final CurrencyManager currencyManager;
     private final ExecutorService executorService;
     
-    // Transaction queue for batch processing
-    private final BlockingQueue<Transaction> transactionQueue;
     private final List<Transaction> pendingTransactions;
     
     // Pending offline transactions
@@ -33,14 +33,8 @@ public class TransactionManager {
         int threadPoolSize = plugin.getConfigManager().getThreadPoolSize();
         this.executorService = Executors.newFixedThreadPool(threadPoolSize);
         
-        this.transactionQueue = new LinkedBlockingQueue<>();
         this.pendingTransactions = Collections.synchronizedList(new ArrayList<>());
         this.pendingOfflineTransactions = new ConcurrentHashMap<>();
-        
-        // Start batch processor if enabled
-        if (plugin.getConfigManager().isBatchDatabaseOperations()) {
-            startBatchProcessor();
-        }
     }
     
     /**
@@ -52,7 +46,7 @@ public class TransactionManager {
             String currency,
             double amount,
             boolean async) {
-        
+                
         Transaction transaction = new Transaction(
             UUID.randomUUID(),
             sender,
@@ -73,9 +67,25 @@ public class TransactionManager {
      * Execute the actual transaction
      */
     private TransactionResult executeTransaction(Transaction transaction) {
+        TransactionResult result;
+        try {
+            // One EdTools slot covers the money movement, so its rollback is never turned away
+            result = currencyManager.withPermit(() -> transfer(transaction));
+        } catch (CurrencyManager.EconomyBusyException e) {
+            Logger.debug("EdTools busy, transaction not started: " + transaction.getId());
+            return new TransactionResult(false, "economy_busy", null);
+        }
+        if (!result.isSuccess()) {
+            return result;
+        }
+        
+        // Recorded after the slot is released, so database latency is not measured as EdTools latency
+        return new TransactionResult(true, "success", transaction, record(transaction));
+    }
+    
+    private TransactionResult transfer(Transaction transaction) {
         try {
             UUID sender = transaction.getSender();
-            UUID receiver = transaction.getReceiver();
             String currency = transaction.getCurrency();
             double amount = transaction.getAmount();
             
@@ -97,26 +107,7 @@ public class TransactionManager {
                     currencyManager.removeCurrency(sender, currency, totalDeducted);
                 }
                 
-                // Check if receiver is online
-                org.bukkit.OfflinePlayer receiverPlayer = org.bukkit.Bukkit.getOfflinePlayer(receiver);
-                if (receiverPlayer.isOnline()) {
-                    // Player is online - process immediately
-                    currencyManager.addCurrency(receiver, currency, amount);
-                } else {
-                    // Player is offline - store as pending transaction
-                    storePendingTransaction(receiver, currency, amount);
-                }
-                
-                // Update transaction with tax
-                transaction.setTax(tax);
-                
-                // Log transaction
-                logTransaction(transaction);
-                
-                // Save to database if enabled
-                if (plugin.getConfigManager().isSaveTransactionHistory()) {
-                    saveTransaction(transaction);
-                }
+                deliver(transaction, tax);
                 
                 Logger.debug("Transaction completed successfully: " + transaction.getId());
                 return new TransactionResult(true, "success", transaction);
@@ -134,10 +125,72 @@ public class TransactionManager {
         }
     }
     
+    /**
+     * Credit the receiver, or hold the payment for them while they are offline
+     */
+    private void deliver(Transaction transaction, double tax) {
+        UUID receiver = transaction.getReceiver();
+        String currency = transaction.getCurrency();
+        double amount = transaction.getAmount();
+        
+        // Check if receiver is online
+        org.bukkit.OfflinePlayer receiverPlayer = org.bukkit.Bukkit.getOfflinePlayer(receiver);
+        if (receiverPlayer.isOnline()) {
+            // Player is online - process immediately
+            currencyManager.addCurrency(receiver, currency, amount);
+        } else {
+            // Player is offline - store as pending transaction
+            storePendingTransaction(receiver, currency, amount);
+            transaction.setReceiverOffline(true);
+        }
+        
+        // Update transaction with tax
+        transaction.setTax(tax);
+    }
+    
+    /**
+     * Log a completed transaction and save it to the history
+     *
+     * @return completes once the transaction's history is committed to the database
+     */
+    private CompletableFuture<Void> record(Transaction transaction) {
+        try {
+            logTransaction(transaction);
+            
+            // Save to database if enabled
+            CompletableFuture<Void> durable = CompletableFuture.completedFuture(null);
+            if (plugin.getConfigManager().isSaveTransactionHistory()) {
+                durable = plugin.getDatabaseManager().queueTransaction(transaction);
+                plugin.getDatabaseManager().cacheTransaction(transaction);
+            }
+            return durable;
+            
+        } catch (Exception e) {
+            // The money already moved; only the history entry is missing
+            Logger.error("Failed to record transaction " + transaction.getId(), e);
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+    
+    /**
+     * Credit one receiver of a payout whose sender was already charged
+     */
+    TransactionResult credit(Transaction transaction, double tax) {
+        try {
+            deliver(transaction, tax);
+            return new TransactionResult(true, "success", transaction, record(transaction));
+        } catch (CurrencyManager.EconomyBusyException e) {
+            return new TransactionResult(false, "economy_busy", null);
+        } catch (Exception e) {
+            Logger.error("Failed to credit payout transaction " + transaction.getId(), e);
+            return new TransactionResult(false, "transaction_failed", null);
+        }
+    }
+    
     /**
      * Calculate transaction tax
      */
-    private double calculateTax(double amount) {
+    double calculateTax(double amount) {
         if (!plugin.getConfigManager().isTaxEnabled()) {
             return 0;
         }
@@ -221,46 +274,6 @@ public class TransactionManager {
             .replace("%currency%", transaction.getCurrency());
     }
     
-    /**
-     * Save transaction to database
-     */
-    private void saveTransaction(Transaction transaction) {
-        if (plugin.getConfigManager().isBatchDatabaseOperations()) {
-            // Add to queue for batch processing
-            transactionQueue.offer(transaction);
-        } else {
-            // Save immediately
-            plugin.getDatabaseManager().saveTransaction(transaction);
-        }
-    }
-    
-    /**
-     * Start batch processor for database operations
-     */
-    private void startBatchProcessor() {
-        int batchSize = plugin.getConfigManager().getBatchSize();
-        
-        Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
-            if (transactionQueue.isEmpty()) {
-                return;
-            }
-            
-            List<Transaction> batch = new ArrayList<>();
-            transactionQueue.drainTo(batch, batchSize);
-            
-            if (!batch.isEmpty()) {
-                try {
-                    plugin.getDatabaseManager().saveTransactionBatch(batch);
-                    Logger.debug("Saved batch of " + batch.size() + " transactions");
-                } catch (Exception e) {
-                    Logger.error("Failed to save transaction batch", e);
-                    // Re-queue failed transactions
-                    transactionQueue.addAll(batch);
-                }
-            }
-        }, 100L, 100L); // Run every 5 seconds
-    }
-    
     /**
      * Notify admins of critical errors
      */
@@ -290,6 +303,20 @@ public class TransactionManager {
         return plugin.getDatabaseManager().getTransactionHistorySince(uuid, sinceTime, limit);
     }
     
+    /**
+     * Stream one page of a player's history into a visitor, starting after the given cursor
+     */
+    public HistoryPage streamHistoryPage(UUID uuid, HistoryCursor after, int pageSize, LedgerVisitor visitor) {
+        return plugin.getDatabaseManager().streamHistoryPage(uuid, after, pageSize, visitor);
+    }
+    
+    /**
+     * Find the history cursor a number of rows past the given cursor
+     */
+    public HistoryCursor findHistoryCursor(UUID uuid, HistoryCursor after, int rows) {
+        return plugin.getDatabaseManager().findHistoryCursor(uuid, after, rows);
+    }
+    
     /**
      * Get transaction statistics for a player
      */
@@ -323,17 +350,27 @@ public class TransactionManager {
             currencyTotals.merge(transaction.getCurrency(), transaction.getAmount(), Double::sum);
         }
         
-        // Process each currency
-        for (Map.Entry<String, Double> entry : currencyTotals.entrySet()) {
-            String currency = entry.getKey();
-            double totalAmount = entry.getValue();
-            
-            try {
-                currencyManager.addCurrency(playerUUID, currency, totalAmount);
-                Logger.debug("Processed pending transaction: " + totalAmount + " " + currency + " to " + playerUUID);
-            } catch (Exception e) {
-                Logger.error("Failed to process pending transaction for " + playerUUID, e);
-            }
+        try {
+            currencyManager.withPermit(() -> {
+                // Process each currency
+                for (Map.Entry<String, Double> entry : currencyTotals.entrySet()) {
+                    String currency = entry.getKey();
+                    double totalAmount = entry.getValue();
+                    
+                    try {
+                        currencyManager.addCurrency(playerUUID, currency, totalAmount);
+                        Logger.debug("Processed pending transaction: " + totalAmount + " " + currency + " to " + playerUUID);
+                    } catch (Exception e) {
+                        Logger.error("Failed to process pending transaction for " + playerUUID, e);
+                    }
+                }
+                return null;
+            });
+        } catch (CurrencyManager.EconomyBusyException e) {
+            // Nothing was paid out; keep the payments and try again shortly
+            pendingOfflineTransactions.computeIfAbsent(playerUUID, k -> Collections.synchronizedList(new ArrayList<>())).addAll(pending);
+            Logger.warning("EdTools is busy; retrying " + pending.size() + " pending payments for " + playerUUID);
+            Bukkit.getScheduler().runTaskLaterAsynchronously(plugin, () -> processPendingTransactions(playerUUID), 100L);
         }
     }
     
@@ -351,18 +388,6 @@ public class TransactionManager {
     public void shutdown() {
         Logger.debug("Shutting down transaction manager...");
         
-        // Save any pending transactions
-        if (!transactionQueue.isEmpty()) {
-            List<Transaction> remaining = new ArrayList<>();
-            transactionQueue.drainTo(remaining);
-            try {
-                plugin.getDatabaseManager().saveTransactionBatch(remaining);
-                Logger.info("Saved " + remaining.size() + " pending transactions");
-            } catch (Exception e) {
-                Logger.error("Failed to save pending transactions on shutdown", e);
-            }
-        }
-        
         executorService.shutdown();
         try {
             if (!executorService.awaitTermination(10, TimeUnit.SECONDS)) {
@@ -380,11 +405,17 @@ public class TransactionManager {
         private final boolean success;
         private final String errorCode;
         private final Transaction transaction;
+        private final CompletableFuture<Void> durable;
         
         public TransactionResult(boolean success, String errorCode, Transaction transaction) {
+            this(success, errorCode, transaction, CompletableFuture.completedFuture(null));
+        }
+        
+        public TransactionResult(boolean success, String errorCode, Transaction transaction, CompletableFuture<Void> durable) {
             this.success = success;
             this.errorCode = errorCode;
             this.transaction = transaction;
+            this.durable = durable;
         }
         
         public boolean isSuccess() {
@@ -398,6 +429,13 @@ public class TransactionManager {
         public Transaction getTransaction() {
             return transaction;
         }
+        
+        /**
+         * Completes once the transaction's history is committed to the database
+         */
+        public CompletableFuture<Void> getDurable() {
+            return durable;
+        }
     }
     
     /**
@@ -408,6 +446,7 @@ public class TransactionManager {
         private int receivedCount;
         private double sentTotal;
         private double receivedTotal;
+        private final Map<String, TransactionStats> currencies = new LinkedHashMap<>();
         
         public TransactionStats(int sentCount, int receivedCount, double sentTotal, double receivedTotal) {
             this.sentCount = sentCount;
@@ -431,6 +470,54 @@ public class TransactionManager {
         public double getReceivedTotal() {
             return receivedTotal;
         }
+        
+        /**
+         * Add one currency's statistics, counting them towards the totals
+         */
+        public void addCurrency(String currency, TransactionStats stats) {
+            currencies.put(currency, stats);
+            sentCount += stats.sentCount;
+            receivedCount += stats.receivedCount;
+            sentTotal += stats.sentTotal;
+            receivedTotal += stats.receivedTotal;
+        }
+        
+        /**
+         * Statistics broken down per currency
+         */
+        public Map<String, TransactionStats> getCurrencies() {
+            return currencies;
+        }
+    }
+    
+    /**
+     * Result of reading one history page
+     */
+    public static class HistoryPage {
+        private final int count;
+        private final boolean hasMore;
+        private final HistoryCursor endCursor;
+        
+        public HistoryPage(int count, boolean hasMore, HistoryCursor endCursor) {
+            this.count = count;
+            this.hasMore = hasMore;
+            this.endCursor = endCursor;
+        }
+        
+        public int getCount() {
+            return count;
+        }
+        
+        public boolean hasMore() {
+            return hasMore;
+        }
+        
+        /**
+         * Cursor of the last row on this page, used to fetch the next one
+         */
+        public HistoryCursor getEndCursor() {
+            return endCursor;
+        }
     }
     
     /**
@@ -0,0 +1,249 @@
+package ve.nottabaker.payedtools.managers;
+
+import org.bukkit.Bukkit;
+import org.bukkit.entity.Player;
+import ve.nottabaker.payedtools.PayEdtools;
+import ve.nottabaker.payedtools.models.PermissionSnapshot;
+import ve.nottabaker.payedtools.utils.HourlyVolumeRing;
+import ve.nottabaker.payedtools.utils.Logger;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps how much each player can send per currency over a rolling window of hours.
+ * Sent amounts are kept in memory in hourly buckets and rebuilt from the ledger on startup,
+ * so a payment is checked without touching the database.
+ */
+public class VolumeCapManager {
+    
+    // Longest a rebuild waits for queued history to reach the database
+    private static final long FLUSH_TIMEOUT_MILLIS = 10_000;
+    
+    private final PayEdtools plugin;
+    private final Map<UUID, PlayerVolume> volumes = new ConcurrentHashMap<>();
+    
+    // Window the current rings were built for; changes only through rebuild
+    private volatile int windowHours;
+    
+    public VolumeCapManager(PayEdtools plugin) {
+        this.plugin = plugin;
+        this.windowHours = plugin.getConfigManager().getVolumeCapWindowHours();
+    }
+    
+    /**
+     * Count a payment against the player's cap for the currency if it stays within it
+     *
+     * @return false if the cap would be exceeded
+     */
+    public boolean tryReserve(Player player, String currency, double amount) {
+        double cap = getCap(player, currency);
+        if (cap <= 0) {
+            return true;
+        }
+        
+        long now = System.currentTimeMillis();
+        while (true) {
+            PlayerVolume volume = volumes.computeIfAbsent(player.getUniqueId(), this::newVolume);
+            synchronized (volume) {
+                if (volume.removed) {
+                    continue;
+                }
+                return volume.ring(currency, windowHours).tryAdd(amount, cap, now);
+            }
+        }
+    }
+    
+    /**
+     * Return an amount counted by {@link #tryReserve} for a payment that did not go through
+     */
+    public void release(Player player, String currency, double amount) {
+        if (getCap(player, currency) <= 0) {
+            return;
+        }
+        
+        PlayerVolume volume = volumes.get(player.getUniqueId());
+        if (volume == null) {
+            return;
+        }
+        synchronized (volume) {
+            HourlyVolumeRing ring = volume.rings.get(currency);
+            if (ring != null) {
+                ring.subtract(amount, System.currentTimeMillis());
+            }
+        }
+    }
+    
+    /**
+     * Amount the player can still send in the currency right now
+     */
+    public double getRemaining(Player player, String currency) {
+        double cap = plugin.getConfigManager().getVolumeCap(currency);
+        PlayerVolume volume = volumes.get(player.getUniqueId());
+        if (volume == null) {
+            return cap;
+        }
+        synchronized (volume) {
+            HourlyVolumeRing ring = volume.rings.get(currency);
+            return ring != null ? Math.max(0, cap - ring.getTotal(System.currentTimeMillis())) : cap;
+        }
+    }
+    
+    /**
+     * Cap that applies to the player, or 0 if none does
+     */
+    private double getCap(Player player, String currency) {
+        ConfigManager config = plugin.getConfigManager();
+        if (!config.isVolumeCapsEnabled() || plugin.getPermissionManager().has(player, PermissionSnapshot.BYPASS_LIMITS)) {
+            return 0;
+        }
+        return config.getVolumeCap(currency);
+    }
+    
+    /**
+     * Drop all counters and reload the current window from the ledger in the background.
+     * Payments made meanwhile are counted live; the ledger read stops where they start.
+     * History still queued for the database is flushed first and spilled history is read too,
+     * so every payment before the rebuild is counted. If the ledger cannot be read, or the writer
+     * does not catch up, the counters from before the rebuild are kept instead.
+     */
+    public void rebuild() {
+        Map<UUID, PlayerVolume> previous = new HashMap<>(volumes);
+        for (PlayerVolume volume : previous.values()) {
+            synchronized (volume) {
+                volume.removed = true;
+            }
+        }
+        volumes.clear();
+        
+        ConfigManager config = plugin.getConfigManager();
+        windowHours = config.getVolumeCapWindowHours();
+        if (!config.isVolumeCapsEnabled() || config.getVolumeCaps().isEmpty() || !config.isSaveTransactionHistory()) {
+            return;
+        }
+        
+        long untilTime = System.currentTimeMillis();
+        // One bucket more than the window, as kept by the rings
+        long sinceTime = (untilTime / HourlyVolumeRing.HOUR_MILLIS - windowHours) * HourlyVolumeRing.HOUR_MILLIS;
+        
+        Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+            long start = System.currentTimeMillis();
+            if (!plugin.getDatabaseManager().flushHistory(FLUSH_TIMEOUT_MILLIS)) {
+                Logger.warning("History writer did not catch up in time; volume caps keep their counters from before the reload");
+                restore(previous);
+                return;
+            }
+            
+            // Loaded aside and merged at the end, so a failed read leaves nothing half counted
+            Map<UUID, Map<String, HourlyVolumeRing>> loaded = new HashMap<>();
+            LongAdder rows = new LongAdder();
+            boolean ok = plugin.getDatabaseManager().streamSentVolume(sinceTime, untilTime,
+                (player, currency, hourStart, amount) -> {
+                    if (config.getVolumeCap(currency) > 0) {
+                        loaded.computeIfAbsent(player, k -> new HashMap<>())
+                            .computeIfAbsent(currency, k -> new HourlyVolumeRing(windowHours))
+                            .add(amount, hourStart, untilTime);
+                        rows.increment();
+                    }
+                });
+                
+            if (!ok) {
+                Logger.warning("Could not load sent volume from the ledger; volume caps keep their counters from before the reload");
+                restore(previous);
+                return;
+            }
+            loaded.forEach((player, rings) -> rings.forEach((currency, ring) -> add(player, currency, ring)));
+            Logger.debug("Loaded " + rows.sum() + " hourly volume buckets from the ledger in "
+                + (System.currentTimeMillis() - start) + "ms");
+        });
+    }
+    
+    /**
+     * Merge the counters dropped by a rebuild back in
+     */
+    private void restore(Map<UUID, PlayerVolume> previous) {
+        previous.forEach((player, volume) -> {
+            Map<String, HourlyVolumeRing> rings;
+            synchronized (volume) {
+                rings = new HashMap<>(volume.rings);
+            }
+            rings.forEach((currency, ring) -> {
+                if (plugin.getConfigManager().getVolumeCap(currency) > 0) {
+                    add(player, currency, ring);
+                }
+            });
+        });
+    }
+    
+    private void add(UUID player, String currency, HourlyVolumeRing ring) {
+        long now = System.currentTimeMillis();
+        while (true) {
+            PlayerVolume volume = volumes.computeIfAbsent(player, this::newVolume);
+            synchronized (volume) {
+                if (volume.removed) {
+                    continue;
+                }
+                volume.ring(currency, windowHours).addAll(ring, now);
+                return;
+            }
+        }
+    }
+    
+    private PlayerVolume newVolume(UUID uuid) {
+        PlayerVolume volume = new PlayerVolume();
+        scheduleExpiry(uuid, volume);
+        return volume;
+    }
+    
+    /**
+     * Drop the player's counters once everything in them has left the window
+     */
+    private void scheduleExpiry(UUID uuid, PlayerVolume volume) {
+        long delay = (windowHours + 1) * HourlyVolumeRing.HOUR_MILLIS;
+        plugin.getTimingWheel().schedule(delay, () -> {
+            synchronized (volume) {
+                if (volume.removed) {
+                    return;
+                }
+                if (!volume.isEmpty(System.currentTimeMillis())) {
+                    scheduleExpiry(uuid, volume);
+                    return;
+                }
+                volume.removed = true;
+            }
+            volumes.remove(uuid, volume);
+        });
+    }
+    
+    /**
+     * Players with counters in memory
+     */
+    public int getTrackedPlayers() {
+        return volumes.size();
+    }
+    
+    /**
+     * One player's rings per currency; guarded by its own monitor
+     */
+    private static class PlayerVolume {
+        private final Map<String, HourlyVolumeRing> rings = new HashMap<>();
+        // Set once the player is dropped from the map; holders retry with a fresh instance
+        private boolean removed;
+        
+        private HourlyVolumeRing ring(String currency, int windowHours) {
+            return rings.computeIfAbsent(currency, k -> new HourlyVolumeRing(windowHours));
+        }
+        
+        private boolean isEmpty(long now) {
+            for (HourlyVolumeRing ring : rings.values()) {
+                if (ring.getTotal(now) > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
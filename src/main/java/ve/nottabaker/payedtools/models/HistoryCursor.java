@@ -0,0 +1,33 @@
+package ve.nottabaker.payedtools.models;
+
+import java.util.UUID;
+
+/**
+ * Position of a ledger row in history order (newest first), used as a keyset pagination cursor
+ */
+public class HistoryCursor {
+    
+    private final long timestamp;
+    private final UUID transactionId;
+    private final boolean sent;
+    
+    public HistoryCursor(long timestamp, UUID transactionId, boolean sent) {
+        this.timestamp = timestamp;
+        this.transactionId = transactionId;
+        this.sent = sent;
+    }
+    
+    // Getters
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public UUID getTransactionId() {
+        return transactionId;
+    }
+    
+    public boolean isSent() {
+        return sent;
+    }
+}
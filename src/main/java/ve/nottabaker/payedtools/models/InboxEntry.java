@@ -0,0 +1,36 @@
+package ve.nottabaker.payedtools.models;
+
+/**
+ * Payments of one currency a player received while offline and has not been told about yet
+ */
+public class InboxEntry {
+    
+    private final String currency;
+    private final long count;
+    private final double total;
+    
+    public InboxEntry(String currency, long count, double total) {
+        this.currency = currency;
+        this.count = count;
+        this.total = total;
+    }
+    
+    /**
+     * Combine with another entry of the same currency
+     */
+    public InboxEntry plus(InboxEntry other) {
+        return new InboxEntry(currency, count + other.count, total + other.total);
+    }
+    
+    public String getCurrency() {
+        return currency;
+    }
+    
+    public long getCount() {
+        return count;
+    }
+    
+    public double getTotal() {
+        return total;
+    }
+}
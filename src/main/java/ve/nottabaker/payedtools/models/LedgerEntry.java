@@ -0,0 +1,115 @@
+package ve.nottabaker.payedtools.models;
+
+import java.util.UUID;
+
+/**
+ * One participant's side of a transaction, as stored in the ledger
+ */
+public class LedgerEntry {
+    
+    private final UUID player;
+    private final UUID transactionId;
+    private final long timestamp;
+    private final boolean sent;
+    private final UUID counterparty;
+    private final String currency;
+    private final double amount;
+    private final double tax;
+    
+    public LedgerEntry(UUID player, UUID transactionId, long timestamp, boolean sent,
+                       UUID counterparty, String currency, double amount, double tax) {
+        this.player = player;
+        this.transactionId = transactionId;
+        this.timestamp = timestamp;
+        this.sent = sent;
+        this.counterparty = counterparty;
+        this.currency = currency;
+        this.amount = amount;
+        this.tax = tax;
+    }
+    
+    /**
+     * Entry for the sending side of a transaction
+     */
+    public static LedgerEntry sent(Transaction transaction) {
+        return new LedgerEntry(
+            transaction.getSender(),
+            transaction.getId(),
+            transaction.getTimestamp(),
+            true,
+            transaction.getReceiver(),
+            transaction.getCurrency(),
+            transaction.getAmount(),
+            transaction.getTax()
+        );
+    }
+    
+    /**
+     * Entry for the receiving side of a transaction
+     */
+    public static LedgerEntry received(Transaction transaction) {
+        return new LedgerEntry(
+            transaction.getReceiver(),
+            transaction.getId(),
+            transaction.getTimestamp(),
+            false,
+            transaction.getSender(),
+            transaction.getCurrency(),
+            transaction.getAmount(),
+            transaction.getTax()
+        );
+    }
+    
+    /**
+     * Rebuild the full transaction this entry belongs to
+     */
+    public Transaction toTransaction() {
+        Transaction transaction = new Transaction(
+            transactionId,
+            sent ? player : counterparty,
+            sent ? counterparty : player,
+            currency,
+            amount,
+            timestamp
+        );
+        transaction.setTax(tax);
+        return transaction;
+    }
+    
+    // Getters
+    
+    public UUID getPlayer() {
+        return player;
+    }
+    
+    public UUID getTransactionId() {
+        return transactionId;
+    }
+    
+    public long getTimestamp() {
+        return timestamp;
+    }
+    
+    public boolean isSent() {
+        return sent;
+    }
+    
+    /**
+     * Other side of the transaction; null when the sender was the console
+     */
+    public UUID getCounterparty() {
+        return counterparty;
+    }
+    
+    public String getCurrency() {
+        return currency;
+    }
+    
+    public double getAmount() {
+        return amount;
+    }
+    
+    public double getTax() {
+        return tax;
+    }
+}
@@ -0,0 +1,40 @@
+package ve.nottabaker.payedtools.models;
+
+import java.util.BitSet;
+
+/**
+ * A player's permissions as of the last refresh: bypass flags plus one bit per interned currency
+ */
+public class PermissionSnapshot {
+    
+    public static final int BYPASS_COOLDOWN = 1;
+    public static final int BYPASS_LIMITS = 1 << 1;
+    
+    private final int flags;
+    private final BitSet currencies;
+    private final int currencyCount;
+    
+    /**
+     * @param currencies bits for currency ids below currencyCount; not copied, must not change afterwards
+     */
+    public PermissionSnapshot(int flags, BitSet currencies, int currencyCount) {
+        this.flags = flags;
+        this.currencies = currencies;
+        this.currencyCount = currencyCount;
+    }
+    
+    public boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+    
+    /**
+     * Whether the snapshot was taken after the currency id was assigned
+     */
+    public boolean covers(int currencyId) {
+        return currencyId < currencyCount;
+    }
+    
+    public boolean canUseCurrency(int currencyId) {
+        return currencies.get(currencyId);
+    }
+}
@@ -0,0 +1,65 @@
+package ve.nottabaker.payedtools.models;
+
+import java.util.UUID;
+
+/**
+ * A payout defined with /payschedule, paid by the console to one player or to everyone online
+ */
+public class ScheduledPayout {
+    
+    private final String name;
+    private final UUID target;
+    private final String currency;
+    private final double amount;
+    private final long interval;
+    private long nextRun;
+    
+    /**
+     * @param target receiver, or null to pay every online player
+     * @param interval milliseconds between runs, or 0 to run once
+     */
+    public ScheduledPayout(String name, UUID target, String currency, double amount, long interval, long nextRun) {
+        this.name = name;
+        this.target = target;
+        this.currency = currency;
+        this.amount = amount;
+        this.interval = interval;
+        this.nextRun = nextRun;
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public UUID getTarget() {
+        return target;
+    }
+    
+    public boolean isPayAll() {
+        return target == null;
+    }
+    
+    public String getCurrency() {
+        return currency;
+    }
+    
+    public double getAmount() {
+        return amount;
+    }
+    
+    public long getInterval() {
+        return interval;
+    }
+    
+    public boolean isRecurring() {
+        return interval > 0;
+    }
+    
+    public long getNextRun() {
+        return nextRun;
+    }
+    
+    public void setNextRun(long nextRun) {
+        this.nextRun = nextRun;
+    }
+}
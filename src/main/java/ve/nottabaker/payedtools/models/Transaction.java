@@ -14,6 +14,7 @@ public class Transaction {
     private final double amount;
     private final long timestamp;
     private double tax;
+    private boolean receiverOffline;
     
     public Transaction(UUID id, UUID sender, UUID receiver, String currency, double amount, long timestamp) {
         this.id = id;
@@ -59,6 +60,17 @@ public class Transaction {
         this.tax = tax;
     }
     
+    /**
+     * Whether the receiver was offline when paid; such payments are added to their inbox
+     */
+    public boolean isReceiverOffline() {
+        return receiverOffline;
+    }
+    
+    public void setReceiverOffline(boolean receiverOffline) {
+        this.receiverOffline = receiverOffline;
+    }
+    
     @Override
     public String toString() {
         return "Transaction{" +
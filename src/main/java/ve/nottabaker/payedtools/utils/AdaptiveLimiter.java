@@ -0,0 +1,183 @@
+package ve.nottabaker.payedtools.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrency limiter that tunes its limit from observed latency (additive increase,
+ * multiplicative decrease). While calls finish within the target latency and the limit is in use,
+ * it grows by about one per round of calls; when a call runs long it shrinks by a fixed ratio, at
+ * most once per round. Callers over the limit wait in a bounded queue and are turned away at
+ * their deadline instead of piling up on a slow backend.
+ */
+public class AdaptiveLimiter {
+    
+    private static final double BACKOFF_RATIO = 0.9;
+    private static final double LATENCY_SMOOTHING = 0.1;
+    
+    private final int minLimit;
+    private final int maxLimit;
+    private final long targetLatencyNanos;
+    private final long queueTimeoutNanos;
+    private final int maxQueued;
+    
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    
+    // Guarded by lock
+    private double limit;
+    private int inFlight;
+    private int queued;
+    private long lastDecreaseAt;
+    
+    private volatile double averageLatencyNanos;
+    private final LongAdder admitted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    
+    public AdaptiveLimiter(int initialLimit, int minLimit, int maxLimit, long targetLatencyMillis,
+                           long queueTimeoutMillis, int maxQueued) {
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+        this.queueTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis);
+        this.maxQueued = maxQueued;
+        this.lastDecreaseAt = System.nanoTime();
+    }
+    
+    /**
+     * Take a permit, waiting up to the queue timeout for one to free up
+     *
+     * @return false if the queue is full or the deadline passed; no permit is held then
+     */
+    public boolean tryAcquire() {
+        lock.lock();
+        try {
+            if (inFlight < (int) limit) {
+                inFlight++;
+                admitted.increment();
+                return true;
+            }
+            if (queued >= maxQueued) {
+                rejected.increment();
+                return false;
+            }
+            
+            queued++;
+            try {
+                long remaining = queueTimeoutNanos;
+                while (inFlight >= (int) limit) {
+                    if (remaining <= 0) {
+                        rejected.increment();
+                        return false;
+                    }
+                    remaining = available.awaitNanos(remaining);
+                }
+                inFlight++;
+                admitted.increment();
+                return true;
+                
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.increment();
+                return false;
+            } finally {
+                queued--;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Take a permit without waiting, even above the limit. For callers that must not block,
+     * such as the server thread; the call still counts towards the limit of everyone else.
+     */
+    public void acquireNow() {
+        lock.lock();
+        try {
+            inFlight++;
+            admitted.increment();
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Return a permit and adjust the limit from how long it was held
+     */
+    public void release(long latencyNanos) {
+        lock.lock();
+        try {
+            averageLatencyNanos += (latencyNanos - averageLatencyNanos) * LATENCY_SMOOTHING;
+            
+            long now = System.nanoTime();
+            if (latencyNanos > targetLatencyNanos) {
+                // Calls started before the last decrease saw the old load; don't punish twice for them
+                if (now - lastDecreaseAt > latencyNanos) {
+                    limit = Math.max(minLimit, limit * BACKOFF_RATIO);
+                    lastDecreaseAt = now;
+                }
+            } else if (inFlight * 2 >= (int) limit) {
+                limit = Math.min(maxLimit, limit + 1.0 / limit);
+            }
+            
+            inFlight--;
+            if (inFlight < (int) limit) {
+                available.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Current concurrency limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    /**
+     * Callers waiting for a permit
+     */
+    public int getQueued() {
+        lock.lock();
+        try {
+            return queued;
+        } finally {
+            lock.unlock();
+        }
+    }
+    
+    public long getAdmitted() {
+        return admitted.sum();
+    }
+    
+    public long getRejected() {
+        return rejected.sum();
+    }
+    
+    /**
+     * Smoothed time a permit is held
+     */
+    public double getAverageLatencyMillis() {
+        return averageLatencyNanos / 1_000_000.0;
+    }
+}
@@ -52,8 +52,19 @@ public class BalanceCache {
      * Cache a balance value
      */
     public void cacheBalance(UUID uuid, String currency, double balance) {
+        CachedBalance cached = new CachedBalance(balance, System.currentTimeMillis());
         balanceCache.computeIfAbsent(uuid, k -> new ConcurrentHashMap<>())
-                   .put(currency, new CachedBalance(balance, System.currentTimeMillis()));
+                   .put(currency, cached);
+                   
+        // Free the entry when it expires, unless a fresher balance replaced it
+        plugin.getTimingWheel().schedule(cacheDuration, () -> evict(uuid, currency, cached));
+    }
+    
+    private void evict(UUID uuid, String currency, CachedBalance cached) {
+        Map<String, CachedBalance> playerCache = balanceCache.get(uuid);
+        if (playerCache != null && playerCache.remove(currency, cached)) {
+            balanceCache.computeIfPresent(uuid, (k, balances) -> balances.isEmpty() ? null : balances);
+        }
     }
     
     /**
@@ -73,19 +84,6 @@ public class BalanceCache {
         balanceCache.remove(uuid);
     }
     
-    /**
-     * Clear all expired cache entries
-     */
-    public void cleanupExpired() {
-        long currentTime = System.currentTimeMillis();
-        
-        balanceCache.entrySet().removeIf(entry -> {
-            Map<String, CachedBalance> playerCache = entry.getValue();
-            playerCache.entrySet().removeIf(cacheEntry -> cacheEntry.getValue().isExpired(currentTime));
-            return playerCache.isEmpty();
-        });
-    }
-    
     /**
      * Clear cache for a specific player
      */
@@ -125,11 +123,7 @@ public class BalanceCache {
         }
         
         public boolean isExpired() {
-            return isExpired(System.currentTimeMillis());
-        }
-        
-        public boolean isExpired(long currentTime) {
-            return currentTime - timestamp > cacheDuration;
+            return System.currentTimeMillis() - timestamp > cacheDuration;
         }
     }
 }
@@ -0,0 +1,121 @@
+package ve.nottabaker.payedtools.utils;
+
+import java.util.Arrays;
+
+/**
+ * Rolling sum of amounts over a window of whole hours, kept in a fixed ring of hourly buckets
+ * with a running total, so checks are O(1) and memory per ring is fixed.
+ *
+ * The ring holds one more bucket than the window has hours: an amount counts for at least the full
+ * window and drops out within the hour after, so the sum never undercounts the last window.
+ */
+public class HourlyVolumeRing {
+    
+    public static final long HOUR_MILLIS = 3_600_000L;
+    
+    private final double[] buckets;
+    private long currentHour = Long.MIN_VALUE;
+    private double total;
+    
+    public HourlyVolumeRing(int windowHours) {
+        this.buckets = new double[windowHours + 1];
+    }
+    
+    /**
+     * Add the amount if it keeps the sum within the cap
+     *
+     * @return false if the cap would be exceeded; nothing is added then
+     */
+    public synchronized boolean tryAdd(double amount, double cap, long now) {
+        advance(now / HOUR_MILLIS);
+        if (total + amount > cap) {
+            return false;
+        }
+        buckets[index(currentHour)] += amount;
+        total += amount;
+        return true;
+    }
+    
+    /**
+     * Add an amount recorded at the given time, ignoring it if it is outside the window
+     */
+    public synchronized void add(double amount, long timestamp, long now) {
+        advance(now / HOUR_MILLIS);
+        long hour = timestamp / HOUR_MILLIS;
+        if (hour > currentHour || currentHour - hour >= buckets.length) {
+            return;
+        }
+        buckets[index(hour)] += amount;
+        total += amount;
+    }
+    
+    /**
+     * Add every bucket of another ring that falls inside this ring's window
+     */
+    public void addAll(HourlyVolumeRing other, long now) {
+        double[] amounts;
+        long hour;
+        synchronized (other) {
+            other.advance(now / HOUR_MILLIS);
+            amounts = other.buckets.clone();
+            hour = other.currentHour;
+        }
+        for (int i = 0; i < amounts.length; i++) {
+            double amount = amounts[other.index(hour - i)];
+            if (amount > 0) {
+                add(amount, (hour - i) * HOUR_MILLIS, now);
+            }
+        }
+    }
+    
+    /**
+     * Take back an amount added by {@link #tryAdd}, newest buckets first.
+     * Whatever already left the window is not taken back.
+     */
+    public synchronized void subtract(double amount, long now) {
+        advance(now / HOUR_MILLIS);
+        for (int i = 0; i < buckets.length && amount > 0; i++) {
+            int index = index(currentHour - i);
+            double taken = Math.min(amount, buckets[index]);
+            buckets[index] -= taken;
+            total -= taken;
+            amount -= taken;
+        }
+    }
+    
+    /**
+     * Sum of the amounts in the window
+     */
+    public synchronized double getTotal(long now) {
+        advance(now / HOUR_MILLIS);
+        return total;
+    }
+    
+    /**
+     * Clear the buckets that left the window since the last call
+     */
+    private void advance(long hour) {
+        if (hour <= currentHour) {
+            return;
+        }
+        
+        if (currentHour == Long.MIN_VALUE || hour - currentHour >= buckets.length) {
+            Arrays.fill(buckets, 0);
+        } else {
+            for (long h = currentHour + 1; h <= hour; h++) {
+                buckets[index(h)] = 0;
+            }
+        }
+        currentHour = hour;
+        
+        // Resum once an hour so rounding from subtractions cannot build up
+        total = 0;
+        for (double bucket : buckets) {
+            total += bucket;
+        }
+    }
+    
+    private int index(long hour) {
+        return (int) Math.floorMod(hour, (long) buckets.length);
+    }
+}
@@ -0,0 +1,112 @@
+package ve.nottabaker.payedtools.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Case-insensitive prefix tree of player names. Children are kept in character order,
+ * so the first matches found walking under a prefix are already the alphabetically first ones.
+ */
+public class NameTrie {
+    
+    private final Node root = new Node();
+    private int size;
+    
+    /**
+     * Add a name, replacing the stored spelling of one that differs only in case
+     *
+     * @return false if it was already present with the same spelling
+     */
+    public synchronized boolean add(String name) {
+        Node node = root;
+        for (char c : name.toLowerCase().toCharArray()) {
+            node = node.children.computeIfAbsent(c, k -> new Node());
+        }
+        if (name.equals(node.name)) {
+            return false;
+        }
+        if (node.name == null) {
+            size++;
+        }
+        node.name = name;
+        return true;
+    }
+    
+    /**
+     * Remove a name in any case, pruning nodes left without names below them
+     */
+    public synchronized boolean remove(String name) {
+        String key = name.toLowerCase();
+        List<Node> path = new ArrayList<>(key.length() + 1);
+        Node node = root;
+        path.add(node);
+        for (char c : key.toCharArray()) {
+            node = node.children.get(c);
+            if (node == null) {
+                return false;
+            }
+            path.add(node);
+        }
+        if (node.name == null) {
+            return false;
+        }
+        
+        node.name = null;
+        size--;
+        for (int i = key.length(); i > 0 && path.get(i).isEmpty(); i--) {
+            path.get(i - 1).children.remove(key.charAt(i - 1));
+        }
+        return true;
+    }
+    
+    /**
+     * Up to limit names starting with the prefix in any case, alphabetically
+     *
+     * @param exclude name left out of the results, e.g. the player completing; may be null
+     */
+    public synchronized List<String> complete(String prefix, int limit, String exclude) {
+        List<String> matches = new ArrayList<>(Math.min(limit, 16));
+        Node node = root;
+        for (char c : prefix.toLowerCase().toCharArray()) {
+            node = node.children.get(c);
+            if (node == null) {
+                return matches;
+            }
+        }
+        collect(node, limit, exclude, matches);
+        return matches;
+    }
+    
+    private void collect(Node node, int limit, String exclude, List<String> matches) {
+        if (node.name != null && matches.size() < limit && !node.name.equalsIgnoreCase(exclude)) {
+            matches.add(node.name);
+        }
+        for (Node child : node.children.values()) {
+            if (matches.size() >= limit) {
+                return;
+            }
+            collect(child, limit, exclude, matches);
+        }
+    }
+    
+    public synchronized int size() {
+        return size;
+    }
+    
+    public synchronized void clear() {
+        root.children.clear();
+        root.name = null;
+        size = 0;
+    }
+    
+    private static class Node {
+        private final Map<Character, Node> children = new TreeMap<>();
+        private String name;
+        
+        private boolean isEmpty() {
+            return name == null && children.isEmpty();
+        }
+    }
+}
@@ -337,6 +337,83 @@ public class PerformanceTester {
         }
     }
     
+    /**
+     * Benchmark the rate limiter's check-and-record path on its own limiter, so real players are unaffected.
+     * Every thread measures the bytes it allocates inside the timed loop; the hot path should allocate none.
+     *
+     * @return summary lines for the command sender
+     */
+    public CompletableFuture<List<String>> startRateLimitBenchmark(int players, int threads, int operationsPerThread,
+                                                                   int limit, long windowMillis) {
+        return CompletableFuture.supplyAsync(() -> {
+            SlidingWindowLimiter limiter = new SlidingWindowLimiter();
+            UUID[] keys = new UUID[players];
+            for (int i = 0; i < players; i++) {
+                keys[i] = UUID.randomUUID();
+                // Create every counter up front so the timed loop measures steady state
+                limiter.tryAcquire(keys[i], limit, windowMillis, System.currentTimeMillis());
+            }
+            
+            long[] allowed = new long[threads];
+            long[] allocatedBytes = new long[threads];
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(threads);
+            
+            for (int t = 0; t < threads; t++) {
+                int index = t;
+                Thread worker = new Thread(() -> {
+                    com.sun.management.ThreadMXBean threadBean =
+                        (com.sun.management.ThreadMXBean) java.lang.management.ManagementFactory.getThreadMXBean();
+                    try {
+                        start.await();
+                        long allocatedBefore = threadBean.getCurrentThreadAllocatedBytes();
+                        long granted = 0;
+                        int key = index;
+                        for (int i = 0; i < operationsPerThread; i++) {
+                            if (limiter.tryAcquire(keys[key], limit, windowMillis, System.currentTimeMillis())) {
+                                granted++;
+                            }
+                            key = (key + 1) % keys.length;
+                        }
+                        allocatedBytes[index] = threadBean.getCurrentThreadAllocatedBytes() - allocatedBefore;
+                        allowed[index] = granted;
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }, "PayEdtools-RateLimit-Bench-" + t);
+                worker.start();
+            }
+            
+            long startTime = System.nanoTime();
+            start.countDown();
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+            long elapsed = System.nanoTime() - startTime;
+            
+            long operations = (long) threads * operationsPerThread;
+            long granted = 0;
+            long allocated = 0;
+            for (int t = 0; t < threads; t++) {
+                granted += allowed[t];
+                allocated += allocatedBytes[t];
+            }
+            
+            List<String> summary = new ArrayList<>();
+            summary.add("Operations: " + operations + " on " + players + " players, " + threads + " threads");
+            summary.add(String.format("Throughput: %.1f M ops/s, %.1f ns/op", operations * 1000.0 / elapsed,
+                                      (double) elapsed * threads / operations));
+            summary.add("Allowed: " + granted + ", denied: " + (operations - granted));
+            summary.add(String.format("Allocated in loop: %d bytes (%.3f bytes/op)", allocated, (double) allocated / operations));
+            return summary;
+        }, testExecutor);
+    }
+    
     /**
      * Stop all running tests
      */
@@ -0,0 +1,192 @@
+package ve.nottabaker.payedtools.utils;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Sliding-window rate limiter with one {@link AtomicLong} per key.
+ *
+ * Each long packs the index of the current window and the counts of the current and previous
+ * windows. The number of events in the last window length is estimated as the current count plus
+ * the previous count weighted by how much of the previous window still overlaps, so memory per key
+ * is fixed and checks are O(1). Checking and recording happen in a single CAS, so concurrent
+ * callers can never exceed the limit together. Checks do not allocate once a key has its counter.
+ */
+public class SlidingWindowLimiter {
+    
+    // Layout: [1 unused][23 window index][20 previous count][20 current count]
+    private static final int COUNT_BITS = 20;
+    private static final long COUNT_MASK = (1L << COUNT_BITS) - 1;
+    private static final int WINDOW_SHIFT = COUNT_BITS * 2;
+    private static final long WINDOW_MASK = (1L << 23) - 1;
+    
+    /**
+     * Highest limit that fits in a packed count
+     */
+    public static final int MAX_LIMIT = (int) COUNT_MASK;
+    
+    // Set by the sweeper on idle counters it removes; callers holding one retry with a fresh counter
+    private static final long REMOVED = -1L;
+    
+    private final Map<UUID, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final Consumer<UUID> newKeyListener;
+    
+    public SlidingWindowLimiter() {
+        this(null);
+    }
+    
+    /**
+     * @param newKeyListener told when a key gets a counter, so it can schedule {@link #expire}; may be null
+     */
+    public SlidingWindowLimiter(Consumer<UUID> newKeyListener) {
+        this.newKeyListener = newKeyListener;
+    }
+    
+    /**
+     * Record an event if it keeps the key within the limit
+     *
+     * @param limit events allowed per window, at most {@link #MAX_LIMIT}
+     * @return false if the key is over the limit; nothing is recorded then
+     */
+    public boolean tryAcquire(UUID key, int limit, long windowMillis, long now) {
+        long window = now / windowMillis;
+        long elapsed = now - window * windowMillis;
+        
+        while (true) {
+            AtomicLong counter = counterFor(key);
+            long state = counter.get();
+            if (state == REMOVED) {
+                counters.remove(key, counter);
+                continue;
+            }
+            
+            long rolled = roll(state, window);
+            long current = rolled & COUNT_MASK;
+            long previous = (rolled >>> COUNT_BITS) & COUNT_MASK;
+            
+            // previous * overlap / window + current < limit, kept in integers
+            if (previous * (windowMillis - elapsed) + current * windowMillis >= (long) limit * windowMillis) {
+                if (rolled != state) {
+                    counter.compareAndSet(state, rolled);
+                }
+                return false;
+            }
+            
+            if (counter.compareAndSet(state, rolled + 1)) {
+                return true;
+            }
+        }
+    }
+    
+    private AtomicLong counterFor(UUID key) {
+        AtomicLong counter = counters.get(key);
+        if (counter != null) {
+            return counter;
+        }
+        
+        AtomicLong created = new AtomicLong();
+        counter = counters.putIfAbsent(key, created);
+        if (counter != null) {
+            return counter;
+        }
+        if (newKeyListener != null) {
+            newKeyListener.accept(key);
+        }
+        return created;
+    }
+    
+    /**
+     * Give back an event recorded by {@link #tryAcquire} that did not go through.
+     * Does nothing once the window it was recorded in has ended.
+     */
+    public void release(UUID key, long windowMillis, long now) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            return;
+        }
+        
+        long window = (now / windowMillis) & WINDOW_MASK;
+        while (true) {
+            long state = counter.get();
+            if (state == REMOVED || state >>> WINDOW_SHIFT != window || (state & COUNT_MASK) == 0) {
+                return;
+            }
+            if (counter.compareAndSet(state, state - 1)) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Events still allowed for the key right now
+     */
+    public int getRemaining(UUID key, int limit, long windowMillis, long now) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null || counter.get() == REMOVED) {
+            return limit;
+        }
+        
+        long window = now / windowMillis;
+        long elapsed = now - window * windowMillis;
+        long rolled = roll(counter.get(), window);
+        long current = rolled & COUNT_MASK;
+        long previous = (rolled >>> COUNT_BITS) & COUNT_MASK;
+        
+        long used = (previous * (windowMillis - elapsed) + current * windowMillis + windowMillis - 1) / windowMillis;
+        return (int) Math.max(0, limit - used);
+    }
+    
+    /**
+     * Remove the key if it had no events in the current or previous window
+     *
+     * @return false if the key is still active and should be checked again later
+     */
+    public boolean expire(UUID key, long windowMillis, long now) {
+        AtomicLong counter = counters.get(key);
+        if (counter == null) {
+            return true;
+        }
+        
+        long state = counter.get();
+        // Fails if an event was recorded since the read, so active keys are never lost
+        if (state == REMOVED || (roll(state, now / windowMillis) == packWindow(now / windowMillis)
+                                 && counter.compareAndSet(state, REMOVED))) {
+            counters.remove(key, counter);
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Move a state into the given window, shifting or clearing its counts as needed
+     */
+    private static long roll(long state, long window) {
+        long stored = state >>> WINDOW_SHIFT;
+        long target = window & WINDOW_MASK;
+        if (stored == target) {
+            return state;
+        }
+        if (((stored + 1) & WINDOW_MASK) == target) {
+            return packWindow(window) | ((state & COUNT_MASK) << COUNT_BITS);
+        }
+        return packWindow(window);
+    }
+    
+    private static long packWindow(long window) {
+        return (window & WINDOW_MASK) << WINDOW_SHIFT;
+    }
+    
+    /**
+     * Number of keys with a counter
+     */
+    public int size() {
+        return counters.size();
+    }
+    
+    public void clear() {
+        counters.clear();
+    }
+}
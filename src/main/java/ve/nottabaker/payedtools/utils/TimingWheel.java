@@ -0,0 +1,186 @@
+package ve.nottabaker.payedtools.utils;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * Hashed timing wheel shared by everything in the plugin that expires: cooldowns, confirmations,
+ * rate-limit windows and cache entries. Scheduling and cancelling are O(1) from any thread; a single
+ * driver calls {@link #tick} once per server tick and runs the tasks that came due on that thread.
+ * Delays longer than one turn of the wheel wait out the extra turns in their slot.
+ */
+public class TimingWheel {
+    
+    private final long tickNanos;
+    private final Slot[] slots;
+    private final int mask;
+    private final long startNanos = System.nanoTime();
+    
+    // Scheduled from any thread, moved into slots by the driver
+    private final Queue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger scheduled = new AtomicInteger();
+    
+    // Driver thread only
+    private long currentTick;
+    
+    /**
+     * @param slotCount rounded up to a power of two
+     */
+    public TimingWheel(long tickMillis, int slotCount) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+    }
+    
+    /**
+     * Run a task once the delay has passed, on the thread driving the wheel
+     */
+    public Timeout schedule(long delayMillis, Runnable task) {
+        long deadline = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        Timeout timeout = new Timeout(this, task, deadline);
+        scheduled.incrementAndGet();
+        incoming.add(timeout);
+        return timeout;
+    }
+    
+    /**
+     * Advance the wheel to the current time and run every task that came due.
+     * Catches up on all missed ticks if the driver ran late.
+     */
+    public synchronized void tick() {
+        long target = (System.nanoTime() - startNanos) / tickNanos;
+        while (currentTick <= target) {
+            transferIncoming();
+            slots[(int) (currentTick & mask)].expire();
+            currentTick++;
+        }
+    }
+    
+    private void transferIncoming() {
+        Timeout timeout;
+        while ((timeout = incoming.poll()) != null) {
+            if (timeout.state == Timeout.CANCELLED) {
+                continue;
+            }
+            long dueTick = timeout.deadline / tickNanos;
+            timeout.remainingRounds = Math.max(0, (dueTick - currentTick) / slots.length);
+            // Anything already overdue runs on the current tick
+            slots[(int) (Math.max(dueTick, currentTick) & mask)].add(timeout);
+        }
+    }
+    
+    /**
+     * Tasks scheduled and not yet run or cancelled
+     */
+    public int size() {
+        return scheduled.get();
+    }
+    
+    /**
+     * Doubly linked list of the timeouts hashed to one slot
+     */
+    private static final class Slot {
+        private Timeout head;
+        private Timeout tail;
+        
+        void add(Timeout timeout) {
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+        
+        void expire() {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.state == Timeout.CANCELLED) {
+                    remove(timeout);
+                } else if (timeout.remainingRounds <= 0) {
+                    remove(timeout);
+                    timeout.run();
+                } else {
+                    timeout.remainingRounds--;
+                }
+                timeout = next;
+            }
+        }
+        
+        private void remove(Timeout timeout) {
+            if (timeout.prev != null) {
+                timeout.prev.next = timeout.next;
+            } else {
+                head = timeout.next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            } else {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+    
+    /**
+     * Handle to a scheduled task
+     */
+    public static final class Timeout {
+        private static final int WAITING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+        private static final AtomicIntegerFieldUpdater<Timeout> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(Timeout.class, "state");
+            
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadline;
+        private volatile int state;
+        
+        // Driver thread only
+        private long remainingRounds;
+        private Timeout prev;
+        private Timeout next;
+        
+        private Timeout(TimingWheel wheel, Runnable task, long deadline) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadline = deadline;
+        }
+        
+        /**
+         * Stop the task from running; its slot entry is dropped when the wheel next passes it
+         *
+         * @return false if the task already ran or was cancelled
+         */
+        public boolean cancel() {
+            if (!STATE.compareAndSet(this, WAITING, CANCELLED)) {
+                return false;
+            }
+            wheel.scheduled.decrementAndGet();
+            return true;
+        }
+        
+        private void run() {
+            if (!STATE.compareAndSet(this, WAITING, EXPIRED)) {
+                return;
+            }
+            wheel.scheduled.decrementAndGet();
+            try {
+                task.run();
+            } catch (Throwable t) {
+                Logger.error("Scheduled expiry task failed", t);
+            }
+        }
+    }
+}